@@ -0,0 +1,138 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * B E N C H T R E E S
+ *
+ * Generates the synthetic directory trees used by the benchmarks. The trees
+ * are generated in the directory given by the system property
+ * 'manifest.bench.dir' (default 'manifest-bench' in the temporary directory),
+ * and are reused by later runs. The content is pseudo-random, but the same
+ * for every run, so the hashes (and manifests) are reproducible.
+ * <p>
+ * Three shapes of tree are available:
+ * <ul>
+ * <li><b>tiny</b> many small files (manifest.bench.tinyFiles, default 20000)
+ * of between 0 and 4KB, 1000 to a directory.</li>
+ * <li><b>huge</b> a few (manifest.bench.hugeFiles, default 4) very large
+ * files (manifest.bench.hugeMB, default 512MB each).</li>
+ * <li><b>deep</b> a chain of nested directories (manifest.bench.deepLevels,
+ * default 64 levels), each containing 32 files of 16KB.</li>
+ * </ul>
+ * Deleting the directory forces the trees to be regenerated (e.g. after
+ * changing the sizes).
+ */
+final class BenchTrees {
+
+    private BenchTrees() {
+    }
+
+    /**
+     * The directory in which the trees are generated
+     *
+     * @return the directory
+     */
+    static Path root() {
+        return Paths.get(System.getProperty("manifest.bench.dir", Paths.get(System.getProperty("java.io.tmpdir"), "manifest-bench").toString()));
+    }
+
+    /**
+     * Get a tree, generating it if necessary
+     *
+     * @param shape the shape of tree ('tiny', 'huge', or 'deep')
+     * @return the root of the tree
+     * @throws IOException if the tree could not be generated
+     */
+    static synchronized Path get(String shape) throws IOException {
+        Path dir, marker;
+        Random r;
+
+        dir = root().resolve(shape);
+        marker = root().resolve(shape + ".complete");
+        if (Files.exists(marker)) {
+            return dir;
+        }
+        r = new Random(shape.hashCode());
+        switch (shape) {
+            case "tiny":
+                tiny(dir, r, Integer.getInteger("manifest.bench.tinyFiles", 20000));
+                break;
+            case "huge":
+                huge(dir, r, Integer.getInteger("manifest.bench.hugeFiles", 4), Long.getLong("manifest.bench.hugeMB", 512) * 1024 * 1024);
+                break;
+            case "deep":
+                deep(dir, r, Integer.getInteger("manifest.bench.deepLevels", 64));
+                break;
+            default:
+                throw new IOException("Unknown benchmark tree '" + shape + "'");
+        }
+        Files.createFile(marker);
+        return dir;
+    }
+
+    private static void tiny(Path dir, Random r, int files) throws IOException {
+        Path d;
+        int i;
+
+        d = null;
+        for (i = 0; i < files; i++) {
+            if (i % 1000 == 0) {
+                d = dir.resolve("d" + (i / 1000));
+                Files.createDirectories(d);
+            }
+            write(d.resolve("f" + i + ".bin"), r, r.nextInt(4097));
+        }
+    }
+
+    private static void huge(Path dir, Random r, int files, long size) throws IOException {
+        int i;
+
+        Files.createDirectories(dir);
+        for (i = 0; i < files; i++) {
+            write(dir.resolve("huge" + i + ".bin"), r, size);
+        }
+    }
+
+    private static void deep(Path dir, Random r, int levels) throws IOException {
+        Path d;
+        int i, j;
+
+        d = dir;
+        for (i = 0; i < levels; i++) {
+            Files.createDirectories(d);
+            for (j = 0; j < 32; j++) {
+                write(d.resolve("f" + j + ".bin"), r, 16 * 1024);
+            }
+            d = d.resolve("level" + (i + 1));
+        }
+    }
+
+    private static void write(Path file, Random r, long size) throws IOException {
+        byte[] b;
+        long written;
+        int len;
+
+        b = new byte[(int) Math.max(1, Math.min(size, 1024 * 1024))];
+        try (OutputStream os = Files.newOutputStream(file)) {
+            written = 0;
+            while (written < size) {
+                r.nextBytes(b);
+                len = (int) Math.min(b.length, size - written);
+                os.write(b, 0, len);
+                written += len;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * H A S H F I L E B E N C H
+ *
+ * Measures Manifest.hashFile() on its own (single threaded, no traversal or
+ * XML), comparing the I/O backends (see Hasher) and the hash algorithms
+ * (including the pure Java BLAKE3 and XXH3) on many small files and on a
+ * few very large files. This replaces the original stand alone
+ * HashIOBench.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HashFileBench {
+
+    @Param({"tiny", "huge"})
+    public String tree;
+
+    @Param({"STREAM", "CHANNEL"})
+    public String io;
+
+    @Param({"SHA-1", "SHA-256", "SHA-384", "SHA-512", "BLAKE3", "XXH3"})
+    public String hashAlg;
+
+    Manifest m;                 // manifest doing the hashing
+    ArrayList<Path> files;      // files to hash
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Job job;
+
+        job = new Job();
+        job.hashAlg = hashAlg;
+        job.hashIO = Job.HashIO.valueOf(io);
+        job.checkHashAlg();
+        m = new Manifest(job, null, null);
+        try (Stream<Path> s = Files.walk(BenchTrees.get(tree))) {
+            files = s.filter(Files::isRegularFile).sorted().collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    @Benchmark
+    public void hashFiles(Blackhole bh) throws AppError {
+        for (Path p : files) {
+            bh.consume(m.hashFile(p));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import VERSCommon.AppFatal;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * L A Y O U T B E N C H
+ *
+ * Measures the time to create a manifest of a large tree when the files are
+ * hashed in the order they are found (batch=1) and in the order they are
+ * laid out on the disk (see HashPool). The gain only appears when the files
+ * are actually read from the disk, so before each run the operating system's
+ * page cache is dropped (this needs Linux and root; otherwise a warning is
+ * printed and the results are for files already in memory, where no gain is
+ * expected). The gain also depends on the storage: it is large on spinning
+ * disks and HSM volumes, and negligible on SSDs.
+ * <p>
+ * A cheap hash (XXH3) and one thread are used by default so that the time is
+ * dominated by reading the files; e.g. '-p threads=1,8' to compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class LayoutBench {
+
+    @Param({"tiny", "deep"})
+    public String tree;
+
+    @Param({"1", "256", "4096"})
+    public int batch;
+
+    @Param({"XXH3"})
+    public String hashAlg;
+
+    @Param({"1"})
+    public int threads;
+
+    Path directory;             // tree being manifested
+    Path output;                // manifest written
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = BenchTrees.get(tree);
+        output = Files.createTempFile(BenchTrees.root(), tree + "-layout-", ".xml");
+    }
+
+    /**
+     * Drop the page cache so the files are read from the disk
+     */
+    @Setup(Level.Iteration)
+    public void dropCaches() throws Exception {
+        Process p;
+
+        p = new ProcessBuilder("sync").inheritIO().start();
+        p.waitFor();
+        try {
+            Files.write(Paths.get("/proc/sys/vm/drop_caches"), "3\n".getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException | SecurityException e) {
+            System.err.println("LayoutBench: could not drop the page cache (" + e.toString() + "); files will be read from memory");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public void create() throws AppFatal, AppError {
+        Job job;
+        Manifest m;
+
+        job = new Job();
+        job.task = Job.Task.CREATE;
+        job.directory = directory;
+        job.manifest = output;
+        job.actor = "LayoutBench";
+        job.hashAlg = hashAlg;
+        job.threads = threads;
+        job.batch = batch;
+        job.rehash = true;
+        job.verbose = false;
+        job.debug = false;
+        m = new Manifest(job, null, null);
+        m.createManifest();
+        m.close();
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import VERSCommon.AppFatal;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * M A N I F E S T B E N C H
+ *
+ * Measures the throughput (complete runs per minute) of creating a manifest,
+ * checking a manifest, and checking a manifest without recalculating the
+ * hashes ('-nohash'), for each shape of tree generated by BenchTrees and each
+ * of the supported hash algorithms. The hash cache is bypassed, as
+ * otherwise every run after the first would not read the files.
+ * <p>
+ * The number of threads defaults to the number of processors; use, e.g.,
+ * '-p threads=1,4,16' to compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ManifestBench {
+
+    @Param({"tiny", "huge", "deep"})
+    public String tree;
+
+    @Param({"SHA-1", "SHA-256", "SHA-384", "SHA-512"})
+    public String hashAlg;
+
+    @Param({"0"})
+    public int threads;         // 0 = the number of processors
+
+    Path directory;             // tree being manifested
+    Path manifest;              // manifest of the tree (used by verify)
+    Path output;                // manifest written by create
+
+    /**
+     * Generate the tree (if necessary) and a manifest of it to check
+     *
+     * @throws Exception if the tree or manifest could not be generated
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = BenchTrees.get(tree);
+        manifest = Files.createTempFile(BenchTrees.root(), tree + "-" + hashAlg + "-", ".xml");
+        output = Files.createTempFile(BenchTrees.root(), tree + "-" + hashAlg + "-out-", ".xml");
+        run(Job.Task.CREATE, manifest, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(manifest);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public void create() throws AppFatal, AppError {
+        run(Job.Task.CREATE, output, true);
+    }
+
+    @Benchmark
+    public void verify() throws AppFatal, AppError {
+        run(Job.Task.VERIFY, manifest, true);
+    }
+
+    @Benchmark
+    public void verifyNoHash() throws AppFatal, AppError {
+        run(Job.Task.VERIFY, manifest, false);
+    }
+
+    /**
+     * Create or check a manifest in the same way as the GUI does
+     */
+    private void run(Job.Task task, Path file, boolean verifyHash) throws AppFatal, AppError {
+        Job job;
+        Manifest m;
+
+        job = new Job();
+        job.task = task;
+        job.directory = directory;
+        job.manifest = file;
+        job.actor = "ManifestBench";
+        job.hashAlg = hashAlg;
+        job.verifyHash = verifyHash;
+        job.rehash = true; // measure the hashing, not the hash cache
+        job.verbose = false;
+        job.debug = false;
+        if (threads > 0) {
+            job.threads = threads;
+        }
+        m = new Manifest(job, null, null);
+        if (task == Job.Task.CREATE) {
+            m.createManifest();
+        } else {
+            m.checkManifest(-1);
+        }
+        m.close();
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * W A L K B E N C H
+ *
+ * Measures the cost of finding the files in a tree, without hashing them.
+ * 'probe' walks the tree the way Manifest did before version 1.7: each path
+ * is tested with Files.exists(), Files.isDirectory(), and
+ * Files.isRegularFile(), and then the attributes of each file are read, i.e.
+ * four metadata requests per file. 'walk' walks it the way Manifest.Finder
+ * does: Files.walkFileTree() reads the BasicFileAttributes of each entry
+ * once, and these are all that is needed.
+ * <p>
+ * Besides the time, the number of metadata requests made per walk is
+ * reported as the secondary result 'lookups' (on Unix each is a stat() or
+ * access() system call; on a network share each is a round trip). To confirm
+ * the count at the system call level, run the benchmark under e.g.
+ * 'strace -f -c -e trace=%stat,access'. The trees are in the page cache, so
+ * the times show the cost of the system calls themselves; on a network share
+ * the difference is proportional to the lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WalkBench {
+
+    @Param({"tiny", "deep"})
+    public String tree;
+
+    Path directory;             // tree being walked
+
+    /**
+     * The metadata requests made, reported by JMH per walk
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Lookups {
+
+        public long lookups;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lookups = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = BenchTrees.get(tree);
+    }
+
+    @Benchmark
+    public void probe(Lookups l, Blackhole bh) throws IOException {
+        probe(directory, l, bh);
+    }
+
+    private void probe(Path p, Lookups l, Blackhole bh) throws IOException {
+        BasicFileAttributes attrs;
+
+        l.lookups++;
+        if (!Files.exists(p)) {
+            return;
+        }
+        l.lookups++;
+        if (Files.isDirectory(p)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(p)) {
+                for (Path p1 : ds) {
+                    probe(p1, l, bh);
+                }
+            }
+            return;
+        }
+        l.lookups++;
+        if (Files.isRegularFile(p)) {
+            l.lookups++;
+            attrs = Files.readAttributes(p, BasicFileAttributes.class);
+            bh.consume(attrs.size());
+            bh.consume(attrs.lastModifiedTime());
+            bh.consume(attrs.fileKey());
+        }
+    }
+
+    @Benchmark
+    public void walk(final Lookups l, final Blackhole bh) throws IOException {
+        Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                l.lookups++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                l.lookups++;
+                if (attrs.isRegularFile()) {
+                    bh.consume(attrs.size());
+                    bh.consume(attrs.lastModifiedTime());
+                    bh.consume(attrs.fileKey());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -240,4 +240,12 @@ public class AppConfig {
     public static Path getToolTipsPath() {
         return toolTipsPath;
     }
+    
+    /**
+     * @return the base directory of the application (null if the application
+     * has not been configured, i.e. it is run from the command line)
+     */
+    public static Path getBaseDirectory() {
+        return appConfig != null ? appConfig.baseDirectory : null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,612 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import VERSCommon.AppFatal;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * B I N A R Y M A N I F E S T
+ *
+ * A compact binary manifest, for very large directories where the XML
+ * manifest would be several GB. It holds exactly the same information as the
+ * XML manifest, so the two can be converted without loss. Binary manifests
+ * are conventionally given the extension '.mfb'.
+ * <p>
+ * The file is a sequence of big endian values. A 'varint' is an unsigned
+ * integer stored 7 bits per byte, low order first, with the top bit set on
+ * all but the last byte; a 'string' is a varint (length in bytes + 1, or 0 for
+ * null) followed by the string in UTF-8.
+ * <pre>
+ * magic           'M' 'F' 'B' 1
+ * creator         string
+ * hashAlgorithm   string (a comma separated list if more than one is used)
+ * sourceDirectory string
+ * history         varint count, then for each: type, dateTime, actor, comment (strings)
+ * records         a sequence of
+ *   DIR  (1)      string directory (including trailing separator); the
+ *                 directories are numbered from 0 in the order defined
+ *   FILE (2)      varint directory number, string name, byte flags,
+ *                 for each hash algorithm (in the order listed in
+ *                 hashAlgorithm): varint hash length, hash bytes (raw
+ *                 digest, or the Base64 text if flags &amp; TEXT_HASH),
+ *                 varint size (if flags &amp; HAS_SIZE),
+ *                 zig-zag varint seconds, varint nanoseconds (if flags &amp; HAS_MODIFIED)
+ *   END  (0)      number of FILE records (8 bytes, so that it can be read
+ *                 from the end of the file without reading the records)
+ * </pre> The directory dictionary means that the directory part of each path
+ * is only stored once, however many files it contains.
+ */
+final class BinaryManifest {
+
+    static final byte[] MAGIC = {'M', 'F', 'B', 1};
+
+    static final int END = 0;
+    static final int DIR = 1;
+    static final int FILE = 2;
+
+    static final int HAS_SIZE = 1;
+    static final int HAS_MODIFIED = 2;
+    static final int TEXT_HASH = 4;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int MAX_HASH = 1024;   // longest hash accepted when reading
+
+    private BinaryManifest() {
+    }
+
+    /**
+     * Is this a binary manifest? This is decided by the content, not the
+     * name of the file.
+     *
+     * @param manifest the manifest
+     * @return true if it starts with the binary manifest magic number
+     */
+    static boolean isBinary(Path manifest) {
+        byte[] b;
+        int n, i;
+
+        b = new byte[MAGIC.length];
+        try (InputStream is = Files.newInputStream(manifest)) {
+            n = 0;
+            while (n < b.length && (i = is.read(b, n, b.length - n)) != -1) {
+                n += i;
+            }
+        } catch (IOException ioe) {
+            return false;
+        }
+        return n == b.length && Arrays.equals(b, MAGIC);
+    }
+
+    /**
+     * Get the number of files listed in a binary manifest from the count at
+     * the end of the file
+     *
+     * @param manifest the binary manifest
+     * @return the number of files (-1 if it could not be read)
+     */
+    static long count(Path manifest) {
+        ByteBuffer bb;
+
+        bb = ByteBuffer.allocate(Long.BYTES);
+        try (FileChannel fc = FileChannel.open(manifest, StandardOpenOption.READ)) {
+            if (fc.size() < MAGIC.length + Long.BYTES) {
+                return -1;
+            }
+            while (bb.hasRemaining()) {
+                if (fc.read(bb, fc.size() - Long.BYTES + bb.position()) == -1) {
+                    return -1;
+                }
+            }
+        } catch (IOException ioe) {
+            return -1;
+        }
+        bb.flip();
+        return bb.getLong();
+    }
+
+    /**
+     * Write a binary manifest
+     */
+    static final class Writer implements ManifestWriter {
+
+        private final Path manifest;    // file being written
+        private DataOutputStream dos;   // output
+        private final HashMap<String, Integer> dirs; // directories defined so far
+        private long files;             // FILE records written
+        private byte[][] raw;           // hashes of the entry being written
+
+        /**
+         * Start writing a binary manifest
+         *
+         * @param manifest the file to write
+         * @throws AppFatal if the file could not be created
+         */
+        Writer(Path manifest) throws AppFatal {
+            this.manifest = manifest;
+            dirs = new HashMap<>();
+            files = 0;
+            raw = null;
+            try {
+                dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(manifest), BUFFER_SIZE));
+                dos.write(MAGIC);
+            } catch (IOException ioe) {
+                throw new AppFatal("Failed to create manifest '" + manifest.toString() + "': " + ioe.toString());
+            }
+        }
+
+        @Override
+        public void writeHeader(String creator, String hashAlg, String sourceDirectory, List<Manifest.HistoryEvent> history) throws AppFatal {
+            try {
+                writeString(dos, creator);
+                writeString(dos, hashAlg);
+                writeString(dos, sourceDirectory);
+                writeVarLong(dos, history.size());
+                for (Manifest.HistoryEvent he : history) {
+                    writeString(dos, he.type);
+                    writeString(dos, he.dateTime);
+                    writeString(dos, he.actor);
+                    writeString(dos, he.comment);
+                }
+            } catch (IOException ioe) {
+                throw failed(ioe);
+            }
+        }
+
+        @Override
+        public void writeEntry(String path, String[] hashes, long size, FileTime modified) throws AppFatal {
+            Integer dir;
+            String dirName;
+            int flags, i, j;
+            Instant t;
+
+            // split the path into its directory (which goes in the dictionary)
+            // and name
+            i = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+            dirName = path.substring(0, i);
+
+            // store the raw digests, unless the Base64 of any of them wouldn't
+            // be reproduced exactly when read back
+            if (raw == null || raw.length != hashes.length) {
+                raw = new byte[hashes.length][];
+            }
+            flags = 0;
+            for (j = 0; j < hashes.length; j++) {
+                try {
+                    raw[j] = Base64.getMimeDecoder().decode(hashes[j]);
+                    if (!Manifest.b64enc.encodeToString(raw[j]).equals(hashes[j])) {
+                        flags |= TEXT_HASH;
+                    }
+                } catch (IllegalArgumentException iae) {
+                    flags |= TEXT_HASH;
+                }
+            }
+            if ((flags & TEXT_HASH) != 0) {
+                for (j = 0; j < hashes.length; j++) {
+                    raw[j] = hashes[j].getBytes(StandardCharsets.UTF_8);
+                }
+            }
+            if (size != -1) {
+                flags |= HAS_SIZE;
+            }
+            if (modified != null) {
+                flags |= HAS_MODIFIED;
+            }
+
+            try {
+                dir = dirs.get(dirName);
+                if (dir == null) {
+                    dir = dirs.size();
+                    dirs.put(dirName, dir);
+                    dos.write(DIR);
+                    writeString(dos, dirName);
+                }
+                dos.write(FILE);
+                writeVarLong(dos, dir);
+                writeString(dos, path.substring(i));
+                dos.write(flags);
+                for (j = 0; j < hashes.length; j++) {
+                    writeVarLong(dos, raw[j].length);
+                    dos.write(raw[j]);
+                }
+                if (size != -1) {
+                    writeVarLong(dos, size);
+                }
+                if (modified != null) {
+                    t = modified.toInstant();
+                    writeVarLong(dos, (t.getEpochSecond() << 1) ^ (t.getEpochSecond() >> 63));
+                    writeVarLong(dos, t.getNano());
+                }
+            } catch (IOException ioe) {
+                throw failed(ioe);
+            }
+            files++;
+        }
+
+        @Override
+        public void close() throws AppFatal {
+            if (dos == null) {
+                return;
+            }
+            try {
+                dos.write(END);
+                dos.writeLong(files);
+                dos.close();
+            } catch (IOException ioe) {
+                throw failed(ioe);
+            }
+            dos = null;
+        }
+
+        @Override
+        public void abandon() {
+            if (dos == null) {
+                return;
+            }
+            try {
+                dos.close();
+            } catch (IOException ioe) {
+                /* ignore */
+            }
+            dos = null;
+            try {
+                Files.deleteIfExists(manifest);
+            } catch (IOException ioe) {
+                /* ignore */
+            }
+        }
+
+        private AppFatal failed(IOException ioe) {
+            return new AppFatal("Failed writing manifest '" + manifest.toString() + "': " + ioe.toString());
+        }
+    }
+
+    /**
+     * Read a binary manifest, passing the contents to the Manifest in the
+     * same way as the XML parser does (the header is stored in
+     * m.oldDetails and m.history, then startFiles(), readEntry() for each
+     * file, and endOfManifest() are called).
+     *
+     * @param manifest the binary manifest
+     * @param m the Manifest processing it
+     * @throws AppFatal if the Manifest failed
+     * @throws AppError if the binary manifest could not be read or is invalid
+     */
+    static void read(Path manifest, Manifest m) throws AppFatal, AppError {
+        String method = "read";
+        ArrayList<String> dirs;
+        FileEntry fe;
+        long n, files;
+        int record, nHashes;
+
+        dirs = new ArrayList<>();
+        files = 0;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest), BUFFER_SIZE))) {
+            readHeader(dis, manifest, m.oldDetails, m.history);
+            m.startFiles();
+            nHashes = m.manifestAlgs.length;
+
+            // records
+            while ((record = dis.read()) != END) {
+                switch (record) {
+                    case DIR:
+                        dirs.add(readString(dis));
+                        break;
+                    case FILE:
+                        n = readVarLong(dis);
+                        if (n >= dirs.size()) {
+                            throw new AppError(Manifest.classname, method, 2, "Undefined directory (" + n + ") in binary manifest '" + manifest.toString() + "'");
+                        }
+                        fe = readFile(dis, dirs.get((int) n), nHashes, manifest);
+                        m.readEntry(fe.file, fe.hashes, fe.size, fe.modified);
+                        files++;
+                        break;
+                    case -1:
+                        throw new EOFException();
+                    default:
+                        throw new AppError(Manifest.classname, method, 3, "Unknown record type (" + record + ") in binary manifest '" + manifest.toString() + "'");
+                }
+            }
+            n = dis.readLong();
+            if (n != files) {
+                throw new AppError(Manifest.classname, method, 4, "Binary manifest '" + manifest.toString() + "' is corrupt: it says it contains " + n + " files, but " + files + " were read");
+            }
+        } catch (EOFException eofe) {
+            throw new AppError(Manifest.classname, method, 5, "Binary manifest '" + manifest.toString() + "' is truncated");
+        } catch (IOException ioe) {
+            throw new AppError(Manifest.classname, method, 6, "Failed reading binary manifest '" + manifest.toString() + "': " + ioe.toString());
+        }
+        m.endOfManifest();
+    }
+
+    /**
+     * Scan a binary manifest to build its index (see ManifestIndex). The path
+     * of each file is added to the sorter, with the offset of its FILE record.
+     *
+     * @param manifest the binary manifest
+     * @param header where to put the creator, hash algorithm, and source
+     * directory from the header
+     * @param sorter the sorter to add the paths to
+     * @throws AppError if the binary manifest could not be read or is invalid
+     * @throws IOException if the sorter failed
+     */
+    static void scan(Path manifest, String[] header, ExternalSort sorter) throws AppError, IOException {
+        String method = "scan";
+        ArrayList<String> dirs;
+        Job details;
+        Counter counter;
+        FileEntry fe;
+        long n, offset;
+        int record, nHashes;
+
+        dirs = new ArrayList<>();
+        details = new Job();
+        counter = new Counter(new BufferedInputStream(Files.newInputStream(manifest), BUFFER_SIZE));
+        try (DataInputStream dis = new DataInputStream(counter)) {
+            readHeader(dis, manifest, details, new ArrayList<Manifest.HistoryEvent>());
+            header[0] = details.actor;
+            header[1] = details.hashAlg;
+            header[2] = details.directory != null ? details.directory.toString() : null;
+            nHashes = Math.max(Job.splitHashAlg(details.hashAlg).length, 1);
+            while (true) {
+                offset = counter.count;
+                record = dis.read();
+                if (record == END) {
+                    break;
+                }
+                switch (record) {
+                    case DIR:
+                        dirs.add(readString(dis));
+                        break;
+                    case FILE:
+                        n = readVarLong(dis);
+                        if (n >= dirs.size()) {
+                            throw new AppError(Manifest.classname, method, 1, "Undefined directory (" + n + ") in binary manifest '" + manifest.toString() + "'");
+                        }
+                        fe = readFile(dis, dirs.get((int) n), nHashes, manifest);
+                        sorter.add(fe.file.toString().getBytes(StandardCharsets.UTF_8), offset);
+                        break;
+                    case -1:
+                        throw new EOFException();
+                    default:
+                        throw new AppError(Manifest.classname, method, 2, "Unknown record type (" + record + ") in binary manifest '" + manifest.toString() + "'");
+                }
+            }
+        } catch (EOFException eofe) {
+            throw new AppError(Manifest.classname, method, 3, "Binary manifest '" + manifest.toString() + "' is truncated");
+        }
+    }
+
+    /**
+     * Read the FILE record at the current position of a binary manifest (when
+     * reading it using its index). The path of the entry is not set, as the
+     * directory is not known.
+     *
+     * @param dis the manifest, positioned at the record
+     * @param nHashes the number of hashes in each entry
+     * @param manifest the manifest (for reporting)
+     * @return the entry (null if the position is not a FILE record)
+     * @throws AppError if the record is invalid
+     * @throws IOException if the manifest could not be read
+     */
+    static FileEntry readEntryAt(DataInputStream dis, int nHashes, Path manifest) throws AppError, IOException {
+        FileEntry fe;
+
+        if (dis.read() != FILE) {
+            return null;
+        }
+        readVarLong(dis);
+        fe = readFile(dis, "", nHashes, manifest);
+        fe.file = null;
+        return fe;
+    }
+
+    /**
+     * Read just the header of a binary manifest (the creator, hash
+     * algorithm, source directory, and history), without the entries
+     *
+     * @param manifest the binary manifest
+     * @param details where the creator, hash algorithm, and source directory
+     * are stored
+     * @param history where the history is stored
+     * @throws AppError if the binary manifest could not be read or is invalid
+     */
+    static void readHeader(Path manifest, Job details, List<Manifest.HistoryEvent> history) throws AppError {
+        String method = "readHeader";
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest), BUFFER_SIZE))) {
+            readHeader(dis, manifest, details, history);
+        } catch (EOFException eofe) {
+            throw new AppError(Manifest.classname, method, 1, "Binary manifest '" + manifest.toString() + "' is truncated");
+        } catch (IOException ioe) {
+            throw new AppError(Manifest.classname, method, 2, "Failed reading binary manifest '" + manifest.toString() + "': " + ioe.toString());
+        }
+    }
+
+    /**
+     * Read the header of a binary manifest
+     */
+    private static void readHeader(DataInputStream dis, Path manifest, Job details, List<Manifest.HistoryEvent> history) throws AppError, IOException {
+        String s;
+        Manifest.HistoryEvent he;
+        byte[] b;
+        long n, i;
+
+        b = new byte[MAGIC.length];
+        dis.readFully(b);
+        if (!Arrays.equals(b, MAGIC)) {
+            throw new AppError(Manifest.classname, "read", 1, "'" + manifest.toString() + "' is not a binary manifest");
+        }
+        details.actor = readString(dis);
+        details.hashAlg = readString(dis);
+        s = readString(dis);
+        details.directory = s != null ? Paths.get(s) : null;
+        n = readVarLong(dis);
+        for (i = 0; i < n; i++) {
+            he = new Manifest.HistoryEvent(readString(dis), readString(dis), readString(dis), readString(dis));
+            if ("DateTimeCreated".equals(he.type)) {
+                details.dateTimeCreated = he.dateTime;
+            }
+            history.add(he);
+        }
+    }
+
+    /**
+     * Read the rest of a FILE record (after the directory number)
+     */
+    private static FileEntry readFile(DataInputStream dis, String dirName, int nHashes, Path manifest) throws AppError, IOException {
+        FileEntry fe;
+        String name;
+        byte[] b;
+        long n, secs;
+        int flags, j;
+
+        name = readString(dis);
+        flags = dis.readUnsignedByte();
+        fe = new FileEntry(Paths.get(dirName + name), -1, null);
+        fe.hashes = new String[nHashes];
+        for (j = 0; j < nHashes; j++) {
+            n = readVarLong(dis);
+            if (n > MAX_HASH) {
+                throw new AppError(Manifest.classname, "read", 7, "Invalid hash length (" + n + ") in binary manifest '" + manifest.toString() + "'");
+            }
+            b = new byte[(int) n];
+            dis.readFully(b);
+            if ((flags & TEXT_HASH) != 0) {
+                fe.hashes[j] = new String(b, StandardCharsets.UTF_8);
+            } else {
+                fe.hashes[j] = Manifest.b64enc.encodeToString(b);
+            }
+        }
+        if ((flags & HAS_SIZE) != 0) {
+            fe.size = readVarLong(dis);
+        }
+        if ((flags & HAS_MODIFIED) != 0) {
+            secs = readVarLong(dis);
+            secs = (secs >>> 1) ^ -(secs & 1);
+            fe.modified = FileTime.from(Instant.ofEpochSecond(secs, readVarLong(dis)));
+        }
+        return fe;
+    }
+
+    /**
+     * Counts the bytes read, so that the offset of each record is known
+     */
+    private static final class Counter extends FilterInputStream {
+
+        long count;     // bytes read so far
+
+        Counter(InputStream is) {
+            super(is);
+            count = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c;
+
+            c = super.read();
+            if (c != -1) {
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+
+            n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            n = super.skip(n);
+            count += n;
+            return n;
+        }
+    }
+
+    static void writeVarLong(DataOutputStream dos, long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            dos.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        dos.write((int) v);
+    }
+
+    static long readVarLong(DataInputStream dis) throws IOException {
+        long v;
+        int b, shift;
+
+        v = 0;
+        shift = 0;
+        do {
+            if (shift > 63) {
+                throw new IOException("invalid varint");
+            }
+            b = dis.readUnsignedByte();
+            v |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
+    }
+
+    static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] b;
+
+        if (s == null) {
+            writeVarLong(dos, 0);
+            return;
+        }
+        b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(dos, b.length + 1);
+        dos.write(b);
+    }
+
+    static String readString(DataInputStream dis) throws IOException {
+        byte[] b;
+        long n;
+
+        n = readVarLong(dis);
+        if (n == 0) {
+            return null;
+        }
+        if (n - 1 > Integer.MAX_VALUE) {
+            throw new IOException("string too long");
+        }
+        b = new byte[(int) (n - 1)];
+        dis.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
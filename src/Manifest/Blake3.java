@@ -0,0 +1,390 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * B L A K E 3
+ *
+ * A pure Java implementation of the BLAKE3 cryptographic hash (256 bit
+ * output, no key), following the reference implementation in the BLAKE3
+ * specification.
+ * <p>
+ * The input is divided into 1KB chunks, each of which is compressed 64
+ * bytes at a time. The chaining values of the completed chunks are merged
+ * into a binary tree as they are completed, using a stack (a chunk is only
+ * completed when more input arrives, as the last chunk is compressed
+ * differently). Whole blocks are compressed directly from the caller's
+ * array or buffer (including direct buffers); only partial blocks are
+ * copied. The compression function keeps its state in local variables so
+ * that the JIT can keep it in registers.
+ */
+final class Blake3 extends MessageDigest {
+
+    static final String NAME = "BLAKE3";
+
+    private static final int[] IV = {
+        0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+
+    private static final int OUT_LEN = 32;
+    private static final int BLOCK_LEN = 64;
+    private static final int CHUNK_LEN = 1024;
+    private static final int BLOCKS_PER_CHUNK = CHUNK_LEN / BLOCK_LEN;
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 2;
+    private static final int PARENT = 4;
+    private static final int ROOT = 8;
+
+    private final int[] cv;         // chaining value of the current chunk
+    private final int[][] stack;    // chaining values of completed subtrees
+    private int stackLen;           // entries in stack
+    private long chunkCounter;      // number of the current chunk
+    private int blocksCompressed;   // blocks of the current chunk compressed
+    private final ByteBuffer block; // partial block (little endian)
+    private int blockLen;           // bytes in block
+    private final int[] m;          // message words being compressed
+    private final int[] out;        // chaining value when finishing
+
+    /**
+     * Create a BLAKE3 digest
+     */
+    Blake3() {
+        super(NAME);
+        cv = new int[8];
+        stack = new int[54][8]; // enough for 2^64 bytes
+        block = ByteBuffer.allocate(BLOCK_LEN).order(ByteOrder.LITTLE_ENDIAN);
+        m = new int[16];
+        out = new int[8];
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return OUT_LEN;
+    }
+
+    @Override
+    protected void engineReset() {
+        System.arraycopy(IV, 0, cv, 0, 8);
+        stackLen = 0;
+        chunkCounter = 0;
+        blocksCompressed = 0;
+        blockLen = 0;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        engineUpdate(new byte[]{input}, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        update(ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN), offset, len);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        update(input.duplicate().order(ByteOrder.LITTLE_ENDIAN), input.position(), input.remaining());
+        input.position(input.limit());
+    }
+
+    /**
+     * Add input
+     *
+     * @param src the input (little endian; its position may be changed)
+     * @param offset the index of the first byte of input in src
+     * @param len the number of bytes of input
+     */
+    private void update(ByteBuffer src, int offset, int len) {
+        int take;
+
+        while (len > 0) {
+
+            // the current chunk is full, and there is more input, so finish it
+            if (blocksCompressed == BLOCKS_PER_CHUNK - 1 && blockLen == BLOCK_LEN) {
+                words(block, 0);
+                compress(cv, chunkCounter, BLOCK_LEN, CHUNK_END | startFlag());
+                addChunk(chunkCounter + 1);
+                chunkCounter++;
+                System.arraycopy(IV, 0, cv, 0, 8);
+                blocksCompressed = 0;
+                blockLen = 0;
+            }
+
+            // the partial block is full, and there is more input, so compress it
+            if (blockLen == BLOCK_LEN) {
+                compressBlock(block, 0);
+                blockLen = 0;
+            }
+
+            // compress whole blocks (that are not the last of the chunk, or of
+            // the input) directly from the input
+            while (blockLen == 0 && len > BLOCK_LEN && blocksCompressed < BLOCKS_PER_CHUNK - 1) {
+                compressBlock(src, offset);
+                offset += BLOCK_LEN;
+                len -= BLOCK_LEN;
+            }
+
+            // and keep the rest
+            take = Math.min(BLOCK_LEN - blockLen, len);
+            src.limit(offset + take);
+            src.position(offset);
+            block.position(blockLen);
+            block.put(src);
+            src.limit(src.capacity());
+            blockLen += take;
+            offset += take;
+            len -= take;
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        byte[] b;
+        long counter;
+        int len, flags, i;
+
+        // the output of the last chunk...
+        for (i = blockLen; i < BLOCK_LEN; i++) {
+            block.put(i, (byte) 0);
+        }
+        words(block, 0);
+        System.arraycopy(cv, 0, out, 0, 8);
+        counter = chunkCounter;
+        len = blockLen;
+        flags = CHUNK_END | startFlag();
+
+        // ... merged with the subtrees on the stack
+        while (stackLen > 0) {
+            compress(out, counter, len, flags);
+            stackLen--;
+            System.arraycopy(stack[stackLen], 0, m, 0, 8);
+            System.arraycopy(out, 0, m, 8, 8);
+            System.arraycopy(IV, 0, out, 0, 8);
+            counter = 0;
+            len = BLOCK_LEN;
+            flags = PARENT;
+        }
+        compress(out, 0, len, flags | ROOT);
+
+        b = new byte[OUT_LEN];
+        for (i = 0; i < 8; i++) {
+            b[i * 4] = (byte) out[i];
+            b[i * 4 + 1] = (byte) (out[i] >>> 8);
+            b[i * 4 + 2] = (byte) (out[i] >>> 16);
+            b[i * 4 + 3] = (byte) (out[i] >>> 24);
+        }
+        engineReset();
+        return b;
+    }
+
+    /**
+     * @return the CHUNK_START flag if this is the first block of the chunk
+     */
+    private int startFlag() {
+        return blocksCompressed == 0 ? CHUNK_START : 0;
+    }
+
+    /**
+     * Compress a block of the current chunk (not the last block)
+     */
+    private void compressBlock(ByteBuffer src, int offset) {
+        words(src, offset);
+        compress(cv, chunkCounter, BLOCK_LEN, startFlag());
+        blocksCompressed++;
+    }
+
+    /**
+     * Add the chaining value of a completed chunk (in cv) to the tree,
+     * merging it with completed subtrees of the same size. The number of
+     * trailing zero bits in the chunk count is the number of merges.
+     */
+    private void addChunk(long totalChunks) {
+        while ((totalChunks & 1) == 0) {
+            stackLen--;
+            System.arraycopy(stack[stackLen], 0, m, 0, 8);
+            System.arraycopy(cv, 0, m, 8, 8);
+            System.arraycopy(IV, 0, cv, 0, 8);
+            compress(cv, 0, BLOCK_LEN, PARENT);
+            totalChunks >>= 1;
+        }
+        System.arraycopy(cv, 0, stack[stackLen], 0, 8);
+        stackLen++;
+    }
+
+    /**
+     * Load a block into the message words
+     */
+    private void words(ByteBuffer src, int offset) {
+        int i;
+
+        for (i = 0; i < 16; i++) {
+            m[i] = src.getInt(offset + i * 4);
+        }
+    }
+
+    /**
+     * The compression function. The message words are in m, and the
+     * chaining value in h. The chaining value produced (the first eight
+     * words of the output; the rest are only needed for longer outputs)
+     * replaces h.
+     */
+    private void compress(int[] h, long counter, int len, int flags) {
+        int v0, v1, v2, v3, v4, v5, v6, v7, v8, v9, v10, v11, v12, v13, v14, v15;
+        int m0, m1, m2, m3, m4, m5, m6, m7, m8, m9, m10, m11, m12, m13, m14, m15;
+        int t0, t1, t2, t3, t4, t5, t6, t7, t8, t9, t10, t11, t12, t13, t14, t15;
+        int r;
+
+        v0 = h[0];
+        v1 = h[1];
+        v2 = h[2];
+        v3 = h[3];
+        v4 = h[4];
+        v5 = h[5];
+        v6 = h[6];
+        v7 = h[7];
+        v8 = IV[0];
+        v9 = IV[1];
+        v10 = IV[2];
+        v11 = IV[3];
+        v12 = (int) counter;
+        v13 = (int) (counter >>> 32);
+        v14 = len;
+        v15 = flags;
+        m0 = m[0];
+        m1 = m[1];
+        m2 = m[2];
+        m3 = m[3];
+        m4 = m[4];
+        m5 = m[5];
+        m6 = m[6];
+        m7 = m[7];
+        m8 = m[8];
+        m9 = m[9];
+        m10 = m[10];
+        m11 = m[11];
+        m12 = m[12];
+        m13 = m[13];
+        m14 = m[14];
+        m15 = m[15];
+        for (r = 0; r < 7; r++) {
+            // mix the columns, then the diagonals
+            v0 += v4 + m0;
+            v12 = Integer.rotateRight(v12 ^ v0, 16);
+            v8 += v12;
+            v4 = Integer.rotateRight(v4 ^ v8, 12);
+            v0 += v4 + m1;
+            v12 = Integer.rotateRight(v12 ^ v0, 8);
+            v8 += v12;
+            v4 = Integer.rotateRight(v4 ^ v8, 7);
+            v1 += v5 + m2;
+            v13 = Integer.rotateRight(v13 ^ v1, 16);
+            v9 += v13;
+            v5 = Integer.rotateRight(v5 ^ v9, 12);
+            v1 += v5 + m3;
+            v13 = Integer.rotateRight(v13 ^ v1, 8);
+            v9 += v13;
+            v5 = Integer.rotateRight(v5 ^ v9, 7);
+            v2 += v6 + m4;
+            v14 = Integer.rotateRight(v14 ^ v2, 16);
+            v10 += v14;
+            v6 = Integer.rotateRight(v6 ^ v10, 12);
+            v2 += v6 + m5;
+            v14 = Integer.rotateRight(v14 ^ v2, 8);
+            v10 += v14;
+            v6 = Integer.rotateRight(v6 ^ v10, 7);
+            v3 += v7 + m6;
+            v15 = Integer.rotateRight(v15 ^ v3, 16);
+            v11 += v15;
+            v7 = Integer.rotateRight(v7 ^ v11, 12);
+            v3 += v7 + m7;
+            v15 = Integer.rotateRight(v15 ^ v3, 8);
+            v11 += v15;
+            v7 = Integer.rotateRight(v7 ^ v11, 7);
+            v0 += v5 + m8;
+            v15 = Integer.rotateRight(v15 ^ v0, 16);
+            v10 += v15;
+            v5 = Integer.rotateRight(v5 ^ v10, 12);
+            v0 += v5 + m9;
+            v15 = Integer.rotateRight(v15 ^ v0, 8);
+            v10 += v15;
+            v5 = Integer.rotateRight(v5 ^ v10, 7);
+            v1 += v6 + m10;
+            v12 = Integer.rotateRight(v12 ^ v1, 16);
+            v11 += v12;
+            v6 = Integer.rotateRight(v6 ^ v11, 12);
+            v1 += v6 + m11;
+            v12 = Integer.rotateRight(v12 ^ v1, 8);
+            v11 += v12;
+            v6 = Integer.rotateRight(v6 ^ v11, 7);
+            v2 += v7 + m12;
+            v13 = Integer.rotateRight(v13 ^ v2, 16);
+            v8 += v13;
+            v7 = Integer.rotateRight(v7 ^ v8, 12);
+            v2 += v7 + m13;
+            v13 = Integer.rotateRight(v13 ^ v2, 8);
+            v8 += v13;
+            v7 = Integer.rotateRight(v7 ^ v8, 7);
+            v3 += v4 + m14;
+            v14 = Integer.rotateRight(v14 ^ v3, 16);
+            v9 += v14;
+            v4 = Integer.rotateRight(v4 ^ v9, 12);
+            v3 += v4 + m15;
+            v14 = Integer.rotateRight(v14 ^ v3, 8);
+            v9 += v14;
+            v4 = Integer.rotateRight(v4 ^ v9, 7);
+
+            // permute the message words for the next round
+            if (r < 6) {
+                t0 = m2;
+                t1 = m6;
+                t2 = m3;
+                t3 = m10;
+                t4 = m7;
+                t5 = m0;
+                t6 = m4;
+                t7 = m13;
+                t8 = m1;
+                t9 = m11;
+                t10 = m12;
+                t11 = m5;
+                t12 = m9;
+                t13 = m14;
+                t14 = m15;
+                t15 = m8;
+                m0 = t0;
+                m1 = t1;
+                m2 = t2;
+                m3 = t3;
+                m4 = t4;
+                m5 = t5;
+                m6 = t6;
+                m7 = t7;
+                m8 = t8;
+                m9 = t9;
+                m10 = t10;
+                m11 = t11;
+                m12 = t12;
+                m13 = t13;
+                m14 = t14;
+                m15 = t15;
+            }
+        }
+        h[0] = v0 ^ v8;
+        h[1] = v1 ^ v9;
+        h[2] = v2 ^ v10;
+        h[3] = v3 ^ v11;
+        h[4] = v4 ^ v12;
+        h[5] = v5 ^ v13;
+        h[6] = v6 ^ v14;
+        h[7] = v7 ^ v15;
+    }
+}
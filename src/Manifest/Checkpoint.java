@@ -0,0 +1,431 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import VERSCommon.AppFatal;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * C H E C K P O I N T
+ *
+ * Records the progress of a long running job, so that a job that is
+ * cancelled, or dies, can be resumed ('-resume') without repeating the work
+ * already done. The checkpoint of a create or update is kept beside the
+ * manifest being written ('&lt;manifest&gt;.ckpt'). The checkpoint of a check
+ * is kept in the system's temporary directory, named from the absolute path
+ * of the manifest, as the manifest being checked may be on read only media
+ * (and a check should not leave files beside it).
+ * <p>
+ * When creating or updating a manifest, the checkpoint is a journal of the
+ * files completed (path, size, modification time and hashes), in the order
+ * they were written to the manifest. When resumed, the directory is walked
+ * again, and files whose size and modification time match the journal reuse
+ * the hashes recorded rather than being rehashed. (The walk is repeated,
+ * rather than continued from where it stopped, because the order in which a
+ * directory is listed is not guaranteed to be the same from run to run.) The
+ * files completed by the earlier run are copied into a new journal, which
+ * replaces the old one before the walk starts, and the resumed job appends
+ * to it; so a resumed job that is itself cancelled, or dies, loses nothing.
+ * <p>
+ * When checking a manifest, the checkpoint is the number of files (in the
+ * order listed in the manifest) that have been checked and reported. When
+ * resumed, those files are skipped.
+ * <p>
+ * The checkpoint is written every CHECKPOINT_FILES files or CHECKPOINT_MS
+ * milliseconds (whichever comes first), and when the job is cancelled. It
+ * is deleted when the job completes. A file that was part way through being
+ * hashed is hashed again from the start (the state of a MessageDigest cannot
+ * be saved).
+ */
+final class Checkpoint {
+
+    static final String MAGIC = "Manifest checkpoint 1";
+    static final int CHECKPOINT_FILES = 1000;   // files between checkpoints
+    static final long CHECKPOINT_MS = 30000;    // max time between checkpoints
+
+    private final Path file;        // the checkpoint file
+    private BufferedWriter journal; // journal being written (create/update)
+    private int sinceLast;          // files since the last checkpoint
+    private long lastTime;          // time of the last checkpoint
+
+    /**
+     * Checkpoint for a manifest
+     *
+     * @param manifest the manifest being created, updated, or checked
+     * @param check true if the manifest is being checked
+     */
+    Checkpoint(Path manifest, boolean check) {
+        if (check) {
+            file = Paths.get(System.getProperty("java.io.tmpdir"), "Manifest-"
+                    + UUID.nameUUIDFromBytes(manifest.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8)) + ".ckpt");
+        } else {
+            file = manifest.resolveSibling(manifest.getFileName().toString() + ".ckpt");
+        }
+        journal = null;
+        sinceLast = 0;
+        lastTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the checkpoint file
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Load the files completed by an earlier create or update. Each is passed
+     * to the Manifest (see Manifest.oldEntry()), and copied to a new journal
+     * ('&lt;checkpoint&gt;.tmp'). A truncated last line (if the job died while
+     * writing it) is ignored. The new journal then replaces the checkpoint,
+     * and is left open so that the resumed job appends to it (see
+     * startJournal()).
+     *
+     * @param task the task being resumed ('create' or 'update')
+     * @param hashAlg the hash algorithm(s) being used
+     * @param m the Manifest remembering the completed files
+     * @return the number of completed files (0 if there is no checkpoint)
+     * @throws AppError if the checkpoint could not be read, or was for a
+     * different task or hash algorithm
+     * @throws AppFatal if the Manifest could not remember a file, or the
+     * journal could not be copied
+     */
+    long loadEntries(String task, String hashAlg, Manifest m) throws AppError, AppFatal {
+        long entries;
+        String line;
+        String[] f;
+        FileEntry fe;
+        int i;
+        Path tmp;
+
+        entries = 0;
+        tmp = file.resolveSibling(file.getFileName().toString() + ".tmp");
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            line = br.readLine();
+            if (!(MAGIC + "\t" + task + "\t" + hashAlg).equals(line)) {
+                throw new AppError("Checkpoint '" + file.toString() + "' is not for this task or hash algorithm");
+            }
+            try {
+                journal = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+                journal.write(line);
+                journal.write('\n');
+            } catch (IOException ioe) {
+                throw new AppFatal("Failed to create checkpoint '" + tmp.toString() + "': " + ioe.toString());
+            }
+            while ((line = br.readLine()) != null) {
+                f = line.split("\t", -1);
+                if (f.length != 5 || !f[4].equals(".")) {
+                    break; // truncated
+                }
+                try {
+                    fe = new FileEntry(Paths.get(unescape(f[3])), Long.parseLong(f[0]), FileTime.from(Instant.parse(f[1])));
+                } catch (NumberFormatException | DateTimeParseException e) {
+                    break;
+                }
+                fe.hashes = f[2].split(",", -1);
+                for (i = 0; i < fe.hashes.length; i++) {
+                    fe.hashes[i] = unescape(fe.hashes[i]);
+                }
+                m.oldEntry(fe.file.toString(), fe.hashes, fe.size, fe.modified, true);
+                try {
+                    journal.write(line);
+                    journal.write('\n');
+                } catch (IOException ioe) {
+                    throw new AppFatal("Failed writing checkpoint '" + tmp.toString() + "': " + ioe.toString());
+                }
+                entries++;
+            }
+        } catch (NoSuchFileException nsfe) {
+            /* no checkpoint, so nothing to resume */
+        } catch (IOException ioe) {
+            abandonCopy(tmp);
+            throw new AppError("Failed reading checkpoint '" + file.toString() + "': " + ioe.toString());
+        } catch (AppError | AppFatal e) {
+            abandonCopy(tmp);
+            throw e;
+        }
+        if (journal == null) {
+            return entries;
+        }
+
+        // the copy is complete, so it can replace the old journal
+        try {
+            journal.close();
+            journal = null;
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        } catch (IOException ioe) {
+            abandonCopy(tmp);
+            throw new AppFatal("Failed writing checkpoint '" + file.toString() + "': " + ioe.toString());
+        }
+        return entries;
+    }
+
+    /**
+     * Throw away a partial copy of the journal (the old checkpoint is left
+     * as it was)
+     *
+     * @param tmp the copy
+     */
+    private void abandonCopy(Path tmp) {
+        close();
+        try {
+            Files.deleteIfExists(tmp);
+        } catch (IOException ioe) {
+            /* ignore */
+        }
+    }
+
+    /**
+     * Start a new journal (replacing any existing checkpoint). If the files
+     * completed by an earlier run have been loaded (see loadEntries()), the
+     * journal they were copied to is continued instead.
+     *
+     * @param task the task ('create' or 'update')
+     * @param hashAlg the hash algorithm(s) being used
+     * @throws AppFatal if the journal could not be created
+     */
+    void startJournal(String task, String hashAlg) throws AppFatal {
+        if (journal != null) {
+            return;
+        }
+        try {
+            journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            journal.write(MAGIC + "\t" + task + "\t" + hashAlg + "\n");
+            journal.flush();
+        } catch (IOException ioe) {
+            throw new AppFatal("Failed to create checkpoint '" + file.toString() + "': " + ioe.toString());
+        }
+    }
+
+    /**
+     * Record a file that has been written to the manifest. A file whose
+     * hashes were reused from the checkpoint is already in the journal. The
+     * journal is flushed if a checkpoint is due.
+     *
+     * @param path the path of the file relative to the directory
+     * @param entry the file
+     * @throws AppFatal if the journal could not be written
+     */
+    void recordEntry(String path, FileEntry entry) throws AppFatal {
+        int i;
+
+        if (journal == null || entry.checkpointed || entry.size == -1 || entry.modified == null) {
+            return;
+        }
+        try {
+            journal.write(Long.toString(entry.size));
+            journal.write('\t');
+            journal.write(entry.modified.toString());
+            journal.write('\t');
+            for (i = 0; i < entry.hashes.length; i++) {
+                if (i > 0) {
+                    journal.write(','); // never appears in Base64
+                }
+                journal.write(escape(entry.hashes[i]));
+            }
+            journal.write('\t');
+            journal.write(escape(path));
+            journal.write("\t.\n");
+            if (due()) {
+                journal.flush();
+            }
+        } catch (IOException ioe) {
+            throw new AppFatal("Failed writing checkpoint '" + file.toString() + "': " + ioe.toString());
+        }
+    }
+
+    /**
+     * Load the number of files checked by an earlier check of the manifest.
+     *
+     * @param manifest the manifest being checked
+     * @param selection the files of the manifest being checked (null if all)
+     * @return the number of files already checked (0 if there is no
+     * checkpoint)
+     * @throws AppError if the checkpoint could not be read, or was not for
+     * checking this manifest (or the manifest has changed since, or a
+     * different selection of files was being checked)
+     */
+    long loadChecked(Path manifest, String selection) throws AppError {
+        List<String> lines;
+
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.size() != 2 || !lines.get(0).equals(verifyId(manifest, selection))) {
+                throw new AppError("Checkpoint '" + file.toString() + "' is not for checking this manifest (or the manifest has changed)");
+            }
+            return Long.parseLong(lines.get(1));
+        } catch (NoSuchFileException nsfe) {
+            return 0;
+        } catch (IOException | NumberFormatException e) {
+            throw new AppError("Failed reading checkpoint '" + file.toString() + "': " + e.toString());
+        }
+    }
+
+    /**
+     * Record the number of files in the manifest that have been checked. The
+     * checkpoint is only written if one is due (or forced).
+     *
+     * @param manifest the manifest being checked
+     * @param selection the files of the manifest being checked (null if all)
+     * @param checked the number of files checked
+     * @param force true if the checkpoint must be written now
+     * @throws AppFatal if the checkpoint could not be written
+     */
+    void recordChecked(Path manifest, String selection, long checked, boolean force) throws AppFatal {
+        Path tmp;
+
+        if (!due() && !force) {
+            return;
+        }
+        tmp = file.resolveSibling(file.getFileName().toString() + ".tmp");
+        try {
+            Files.write(tmp, (verifyId(manifest, selection) + "\n" + checked + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            throw new AppFatal("Failed writing checkpoint '" + file.toString() + "': " + ioe.toString());
+        }
+    }
+
+    /**
+     * The first line of a checkpoint of a check of a manifest. A check of
+     * some of the files (-only) can only be resumed by a check of the same
+     * files.
+     */
+    private static String verifyId(Path manifest, String selection) throws IOException {
+        return MAGIC + "\tverify\t" + escape(manifest.toAbsolutePath().normalize().toString()) + "\t" + manifestId(manifest) + (selection != null ? "\t" + selection.replace('\n', ' ') : "");
+    }
+
+    /**
+     * Flush and close the journal, leaving the checkpoint so that the job can
+     * be resumed
+     */
+    void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ioe) {
+                /* ignore */
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * The job has completed, so the checkpoint is no longer needed
+     */
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ioe) {
+            /* ignore - a stale checkpoint is rejected or only reused if the files match */
+        }
+    }
+
+    /**
+     * Is a checkpoint due?
+     *
+     * @return true if it is
+     */
+    private boolean due() {
+        long now;
+
+        sinceLast++;
+        now = System.currentTimeMillis();
+        if (sinceLast < CHECKPOINT_FILES && now - lastTime < CHECKPOINT_MS) {
+            return false;
+        }
+        sinceLast = 0;
+        lastTime = now;
+        return true;
+    }
+
+    /**
+     * Identify a version of a manifest (by its size and modification time)
+     */
+    private static String manifestId(Path manifest) throws IOException {
+        return Files.size(manifest) + "\t" + Files.getLastModifiedTime(manifest).toString();
+    }
+
+    /**
+     * Escape the characters used to separate the fields of the journal
+     */
+    private static String escape(String s) {
+        StringBuilder sb;
+        char c;
+        int i;
+
+        sb = new StringBuilder(s.length() + 8);
+        for (i = 0; i < s.length(); i++) {
+            c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb;
+        char c;
+        int i;
+
+        sb = new StringBuilder(s.length());
+        for (i = 0; i < s.length(); i++) {
+            c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                i++;
+                switch (s.charAt(i)) {
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    default:
+                        c = s.charAt(i);
+                        break;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * E X T E R N A L S O R T
+ *
+ * Sorts a large number of records, each a key (a sequence of bytes, e.g. a
+ * path in UTF-8) and a value (a long, e.g. an offset in a manifest), in a
+ * bounded amount of memory. This is used for things that must handle
+ * manifests of tens of millions of files, which could not be held in memory.
+ * <p>
+ * Records are added (add()) and held in memory until they reach the memory
+ * limit. They are then sorted and written to a temporary file (a 'run').
+ * When all the records have been added, next() returns them in order,
+ * merging the runs (and any records still in memory). Keys are compared as
+ * unsigned bytes, so UTF-8 strings sort in code point order. Records with
+ * equal keys are returned in no particular order.
+ * <p>
+ * The runs are deleted by close().
+ */
+final class ExternalSort implements AutoCloseable {
+
+    static final int BUFFER_SIZE = 64 * 1024; // buffer for reading and writing runs
+    static final int RECORD_OVERHEAD = 48;  // approximate memory used by a record in addition to its key
+
+    private final Path tempDir;         // directory in which runs are written
+    private final long memoryLimit;     // memory used by records before they are written to a run
+    private final ArrayList<Record> records; // records in memory
+    private long memoryUsed;            // memory used by the records in memory
+    private final ArrayList<Path> runs; // runs written
+    private PriorityQueue<Source> merge; // sources being merged (null if still adding)
+    private Record current;             // record returned by next()
+    private long count;                 // number of records added
+
+    /**
+     * A record being sorted
+     */
+    private static final class Record {
+
+        final byte[] key;
+        final long value;
+
+        Record(byte[] key, long value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A sorted source of records being merged (a run, or the records in
+     * memory)
+     */
+    private static final class Source {
+
+        final DataInputStream dis;  // run being read (null if from memory)
+        final ArrayList<Record> mem; // records in memory (null if from a run)
+        int next;                   // next record in memory
+        Record head;                // next record from this source
+
+        Source(DataInputStream dis, ArrayList<Record> mem) {
+            this.dis = dis;
+            this.mem = mem;
+            next = 0;
+            head = null;
+        }
+
+        /**
+         * Advance to the next record from this source
+         *
+         * @return false if the source is exhausted
+         */
+        boolean advance() throws IOException {
+            int n;
+            byte[] key;
+
+            if (mem != null) {
+                head = next < mem.size() ? mem.get(next++) : null;
+                return head != null;
+            }
+            try {
+                n = dis.readInt();
+            } catch (EOFException eofe) {
+                head = null;
+                return false;
+            }
+            key = new byte[n];
+            dis.readFully(key);
+            head = new Record(key, dis.readLong());
+            return true;
+        }
+
+        void close() {
+            if (dis != null) {
+                try {
+                    dis.close();
+                } catch (IOException ioe) {
+                    /* ignore */
+                }
+            }
+        }
+    }
+
+    private static final Comparator<Record> BY_KEY = new Comparator<Record>() {
+        @Override
+        public int compare(Record r1, Record r2) {
+            return ExternalSort.compare(r1.key, r2.key);
+        }
+    };
+
+    /**
+     * Create a sorter
+     *
+     * @param tempDir directory in which to write the runs
+     * @param memoryLimit approximate memory (in bytes) used to hold records
+     * before they are written to a run
+     */
+    ExternalSort(Path tempDir, long memoryLimit) {
+        this.tempDir = tempDir;
+        this.memoryLimit = memoryLimit;
+        records = new ArrayList<>();
+        memoryUsed = 0;
+        runs = new ArrayList<>();
+        merge = null;
+        current = null;
+        count = 0;
+    }
+
+    /**
+     * Add a record
+     *
+     * @param key the key (not copied, so must not be changed afterwards)
+     * @param value the value
+     * @throws IOException if a run could not be written
+     */
+    void add(byte[] key, long value) throws IOException {
+        if (merge != null) {
+            throw new IllegalStateException("Record added after sorting started");
+        }
+        records.add(new Record(key, value));
+        memoryUsed += key.length + RECORD_OVERHEAD;
+        count++;
+        if (memoryUsed >= memoryLimit) {
+            spill();
+        }
+    }
+
+    /**
+     * @return the number of records added
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * Sort the records in memory, and write them to a new run
+     */
+    private void spill() throws IOException {
+        Path run;
+
+        records.sort(BY_KEY);
+        run = Files.createTempFile(tempDir, "manifest-sort-", ".run");
+        runs.add(run);
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+            for (Record r : records) {
+                dos.writeInt(r.key.length);
+                dos.write(r.key);
+                dos.writeLong(r.value);
+            }
+        }
+        records.clear();
+        memoryUsed = 0;
+    }
+
+    /**
+     * Move to the next record in order. The first call ends the adding of
+     * records.
+     *
+     * @return false if there are no more records
+     * @throws IOException if a run could not be read
+     */
+    boolean next() throws IOException {
+        Source s;
+
+        if (merge == null) {
+            startMerge();
+        }
+        s = merge.poll();
+        if (s == null) {
+            current = null;
+            return false;
+        }
+        current = s.head;
+        if (s.advance()) {
+            merge.add(s);
+        } else {
+            s.close();
+        }
+        return true;
+    }
+
+    /**
+     * @return the key of the current record
+     */
+    byte[] key() {
+        return current.key;
+    }
+
+    /**
+     * @return the value of the current record
+     */
+    long value() {
+        return current.value;
+    }
+
+    /**
+     * Open the runs, and start merging them with the records in memory
+     */
+    private void startMerge() throws IOException {
+        Source s;
+
+        records.sort(BY_KEY);
+        merge = new PriorityQueue<>(runs.size() + 1, new Comparator<Source>() {
+            @Override
+            public int compare(Source s1, Source s2) {
+                return ExternalSort.compare(s1.head.key, s2.head.key);
+            }
+        });
+        for (Path run : runs) {
+            s = new Source(new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE)), null);
+            if (s.advance()) {
+                merge.add(s);
+            } else {
+                s.close();
+            }
+        }
+        s = new Source(null, records);
+        if (s.advance()) {
+            merge.add(s);
+        }
+    }
+
+    /**
+     * Compare two keys as unsigned bytes
+     *
+     * @param k1 first key
+     * @param k2 second key
+     * @return negative, zero, or positive as k1 is less than, equal to, or
+     * greater than k2
+     */
+    static int compare(byte[] k1, byte[] k2) {
+        return compare(k1, k1.length, k2, k2.length);
+    }
+
+    /**
+     * Compare the start of two keys as unsigned bytes
+     *
+     * @param k1 first key
+     * @param n1 number of bytes of k1 compared
+     * @param k2 second key
+     * @param n2 number of bytes of k2 compared
+     * @return negative, zero, or positive as the start of k1 is less than,
+     * equal to, or greater than the start of k2
+     */
+    static int compare(byte[] k1, int n1, byte[] k2, int n2) {
+        int i, n, c;
+
+        n = Math.min(n1, n2);
+        for (i = 0; i < n; i++) {
+            c = (k1[i] & 0xff) - (k2[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return n1 - n2;
+    }
+
+    /**
+     * Does a key start with a prefix?
+     *
+     * @param key the key
+     * @param prefix the prefix
+     * @return true if the first bytes of key are prefix
+     */
+    static boolean startsWith(byte[] key, byte[] prefix) {
+        int i;
+
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop sorting, and delete the runs
+     */
+    @Override
+    public void close() {
+        Source s;
+
+        if (merge != null) {
+            while ((s = merge.poll()) != null) {
+                s.close();
+            }
+        }
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException ioe) {
+                /* ignore */
+            }
+        }
+        runs.clear();
+        records.clear();
+    }
+}
@@ -7,20 +7,17 @@ package Manifest;
 
 import VERSCommon.AppError;
 import VERSCommon.AppFatal;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.TimeZone;
+import java.util.logging.Level;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.HostServices;
 import javafx.application.Platform;
-import javafx.collections.ObservableList;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
@@ -33,6 +30,7 @@ import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
 import javafx.scene.layout.AnchorPane;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import org.json.simple.JSONObject;
 
 /**
@@ -69,6 +67,9 @@ public class FXMLProgressController extends BaseManifestController {
     HostServices hostServices;
     ManifestService cms;        // The service to handle processing
     boolean finished;           // true if the run has completed, but the window is not closed
+    LogSink sink;               // log messages generated by the run
+
+    static final int RECENT_MESSAGES = 1000; // log messages shown in warningTA
 
     static String defaultText = "Stage 2 processing - no errors or warnings generated yet\n";
 
@@ -163,99 +164,96 @@ public class FXMLProgressController extends BaseManifestController {
      */
     public void shutdown() {
         cms.cancel();
+        if (sink != null) {
+            sink.close();
+        }
         final Stage stage = (Stage) rootAP.getScene().getWindow();
         stage.close();
     }
 
+    /**
+     * Finish the log file (if one is specified) when the run has completed.
+     * If the log file was specified before the run started, the messages
+     * have already been written to it as they were generated; otherwise they
+     * are streamed into it from the sink's spool file (see LogSink).
+     */
     public void logResults() {
-        ObservableList<CharSequence> ol;
-        FileWriter fw;
-        BufferedWriter bw;
-        TimeZone tz;
-        SimpleDateFormat sdf;
-
-        int i;
 
         // if not logging, just return
-        if (job.logFile == null) {
+        if (job.logFile == null || sink == null) {
             return;
         }
-
-        // if logging, get all the text from the warning text area and save it
-        // to the specified file
         try {
-            ol = warningTA.getParagraphs();
-            fw = new FileWriter(job.logFile.toFile());
-            bw = new BufferedWriter(fw);
-
-            bw.write("********************************************************************************\n");
-            bw.write("*                                                                              *\n");
-            if (job.task == Job.Task.CREATE) {
-                bw.write("*                   M A N I F E S T   C R E A T I O N                      *\n");
-            } else {
-                bw.write("*               M A N I F E S T   V E R I F I C A T I O N                  *\n");
-            }
-            bw.write("*                                                                              *\n");
-            bw.write("*                              Version 0.2 (2021)                              *\n");
-            bw.write("*                                                                              *\n");
-            bw.write("********************************************************************************\n");
-            bw.write("\n");
-            bw.write("Run: ");
-            tz = TimeZone.getTimeZone("GMT+10:00");
-            sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss+10:00");
-            sdf.setTimeZone(tz);
-            bw.write(sdf.format(new Date()));
-            bw.write("\n");
-            bw.write(job.toString());
-            bw.write("\n");
-            bw.write("********************************************************************************\n");
-            bw.write("Output:\n");
-            bw.write("********************************************************************************\n");
-            for (i = 0; i < ol.size(); i++) {
-                bw.write(ol.get(i).toString());
-                bw.write("\n");
-            }
-            bw.write("********************************************************************************\n");
-
-            bw.close();
-            fw.close();
+            sink.writeLog(job.logFile, logHeader(),
+                    "********************************************************************************\n"
+                    + sink.errors() + " errors, " + sink.warnings() + " warnings\n");
         } catch (IOException ioe) {
             System.out.println(ioe.toString());
         }
         logB.setText("Logged to: " + job.logFile.toString());
     }
 
+    /**
+     * Header written at the start of the log file
+     *
+     * @return the header
+     */
+    private String logHeader() {
+        StringBuilder sb;
+        TimeZone tz;
+        SimpleDateFormat sdf;
+
+        sb = new StringBuilder();
+        sb.append("********************************************************************************\n");
+        sb.append("*                                                                              *\n");
+        if (job.task == Job.Task.CREATE) {
+            sb.append("*                   M A N I F E S T   C R E A T I O N                      *\n");
+        } else if (job.task == Job.Task.UPDATE) {
+            sb.append("*                     M A N I F E S T   U P D A T E                        *\n");
+        } else {
+            sb.append("*               M A N I F E S T   V E R I F I C A T I O N                  *\n");
+        }
+        sb.append("*                                                                              *\n");
+        sb.append("*                              Version 0.2 (2021)                              *\n");
+        sb.append("*                                                                              *\n");
+        sb.append("********************************************************************************\n");
+        sb.append("\n");
+        sb.append("Run: ");
+        tz = TimeZone.getTimeZone("GMT+10:00");
+        sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss+10:00");
+        sdf.setTimeZone(tz);
+        sb.append(sdf.format(new Date()));
+        sb.append("\n");
+        sb.append(job.toString());
+        sb.append("\n");
+        sb.append("********************************************************************************\n");
+        sb.append("Output:\n");
+        sb.append("********************************************************************************\n");
+        return sb.toString();
+    }
+
     /**
      * Create a service that processes the manifest
      */
-    private class ManifestService extends Service<ArrayList<String>> {
+    private class ManifestService extends Service<Void> {
 
         // create the task (i.e. thread) that actually processes the manifest
         @Override
-        protected Task<ArrayList<String>> createTask() {
+        protected Task<Void> createTask() {
             DoManifestTask manifestTask;
 
-            manifestTask = new DoManifestTask(job, warningTA, processedPB, countL, finishB);
+            if (sink != null) {
+                sink.close();
+            }
+            sink = new LogSink(RECENT_MESSAGES, job.logFile, job.logFile != null ? logHeader() : null);
+            manifestTask = new DoManifestTask(job, warningTA, processedPB, countL, finishB, sink);
 
-            // this event handler is called when the thread completes, and it
-            // puts the response into the report list view and scrolls to the
-            // end
+            // this event handler is called when the thread completes (the
+            // messages have already been displayed by the task), and it logs
+            // the results if requested
             manifestTask.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, new EventHandler<WorkerStateEvent>() {
                 @Override
                 public void handle(WorkerStateEvent event) {
-                    ArrayList<String> results;
-
-                    results = getValue();
-                    if (results.size() > 0) {
-                        if (warningTA.getText().equals(defaultText)) {
-                            warningTA.clear();
-                        }
-                        for (int j = 0; j < results.size(); j++) {
-                            warningTA.appendText(results.get(j));
-                            warningTA.appendText("\n");
-                        }
-                        results.clear();
-                    }
                     logResults();
                     finished = true;
                 }
@@ -275,27 +273,51 @@ public class FXMLProgressController extends BaseManifestController {
     /**
      * Create a task (i.e. a thread) that actually creates the Manifest in order
      * to ensure that the GUI remains responsive
+     *
+     * The worker thread never waits for the GUI. Progress (the counts and the
+     * file being processed) is recorded in volatile fields, and log messages
+     * go to a LogSink, which streams them to a spool file and keeps only the
+     * most recent. The GUI is brought up to date by flush(), which a Timeline
+     * runs on the GUI thread every FLUSH_INTERVAL milliseconds while the task
+     * is running. So the GUI keeps up with files as they are found, and with
+     * the log messages, even while one large file is being hashed (when no
+     * file is being reported as processed). A flush appends all the new log
+     * messages in one operation, and the text area is kept to at most twice
+     * RECENT_MESSAGES lines (counting each line of a message that spans
+     * several).
      */
-    public class DoManifestTask extends Task<ArrayList<String>> {
+    public class DoManifestTask extends Task<Void> {
 
         final Job job;
         final TextArea ta;      // the list view that will display the logging results
         final ProgressBar pb;   // the progress bar
         final Label count;
         final Button fb;        // the finish button
-        int objectsProcessed;     // files processed
+        volatile int objectsProcessed; // files processed
         Manifest manifest;      // Encapsulation of the file harvest itself
-        int totalObjects;
-        ArrayList<String> results; // list of results generated
+        volatile int totalObjects; // files found so far (create/update) or listed in manifest (verify)
+        volatile boolean totalKnown; // true if totalObjects is final
+        volatile String currentId; // file currently being processed
+        final LogSink sink;     // where log messages go
+        long shown;             // log messages displayed so far (GUI thread only)
+        int linesInTA;          // lines of log messages in the text area (GUI thread only)
+        final Timeline ticker;  // runs flush() on the GUI thread while the task is running
+
+        static final long FLUSH_INTERVAL = 100; // time between GUI updates (ms)
 
-        public DoManifestTask(Job job, TextArea ta, ProgressBar pb, Label count, Button fb) {
+        public DoManifestTask(Job job, TextArea ta, ProgressBar pb, Label count, Button fb, LogSink sink) {
             this.job = job;
             this.ta = ta;
             this.pb = pb;
             this.count = count;
             this.fb = fb;
-            results = new ArrayList<>();
+            this.sink = sink;
+            shown = 0;
+            linesInTA = 0;
+            ticker = new Timeline(new KeyFrame(Duration.millis(FLUSH_INTERVAL), event -> flush()));
+            ticker.setCycleCount(Animation.INDEFINITE);
             objectsProcessed = 0;
+            currentId = null;
         }
 
         /**
@@ -303,73 +325,67 @@ public class FXMLProgressController extends BaseManifestController {
          * were provided when the task was created; the GUI fields to be updated
          * during the processing were also passed when the job was created.
          *
-         * Updates to the calling GUI are scheduled via 'runLater()' as these
-         * are executed in a different thread. Note that the 'runLater()' code
-         * copies all of the current results and then clears the results.
+         * Updates to the calling GUI are made on the GUI thread by the ticker
+         * (see flush()), as this is a different thread. Log messages produced
+         * while processing are sent to the LogSink.
          *
-         * @return a list of strings containing the results of the processing
+         * @return null
          */
         @Override
-        protected ArrayList<String> call() {
-
-            // create a list in which to put the results of processing 
-            updateValue(results);
+        protected Void call() {
 
             try {
-                manifest = new Manifest(job, results, this);
+                manifest = new Manifest(job, sink, this);
             } catch (AppFatal af) {
-                results.add("FAILED: " + af.toString());
-                return results;
+                sink.add(Level.SEVERE, "FAILED: " + af.toString());
+                Platform.runLater(() -> flush());
+                return null;
             }
 
-            // set up defaults
-            Platform.runLater(() -> {
-                ta.insertText(0, "Stage 1: counting objects");
-                count.setText("0/unknown");
-                pb.setProgress(0.0);
-                fb.setText("Cancel processing");
-            });
-
-            // go through list of directories, counting number of files to hash
-            totalObjects = count(job.directory);
-            if (isCancelled()) {
-                return results;
+            // the directory is only walked once. When creating or updating a
+            // manifest the total grows as files are found (see foundObject());
+            // when checking, the total is the number of files in the manifest
+            if (job.task == Job.Task.VERIFY) {
+                totalObjects = Manifest.countEntries(job.manifest);
+                totalKnown = totalObjects != -1;
+            } else {
+                totalObjects = 0;
+                totalKnown = false;
             }
+            final String total = totalKnown ? Integer.toString(totalObjects) : "unknown";
             Platform.runLater(() -> {
                 ta.clear();
                 ta.insertText(0, defaultText);
-                count.setText("0/" + totalObjects);
-                pb.setProgress(0.0);
+                count.setText("0/" + total);
+                pb.setProgress(totalKnown ? 0.0 : ProgressBar.INDETERMINATE_PROGRESS);
+                fb.setText("Cancel processing");
+                ticker.play();
             });
 
             // process the directory
             try {
                 if (job.task == Job.Task.CREATE) {
                     manifest.createManifest();
+                } else if (job.task == Job.Task.UPDATE) {
+                    manifest.updateManifest();
                 } else if (job.task == Job.Task.VERIFY) {
-                    manifest.checkManifest(totalObjects);
+                    manifest.checkManifest(-1);
                 }
             } catch (AppFatal | AppError af) {
                 System.out.println("Processing manifest error: " + af.toString());
-            }
+            } finally {
 
-            Platform.runLater(() -> {
-                if (results.size() > 0) {
-                    if (ta.getText().equals(defaultText)) {
-                        ta.clear();
-                    }
-                    for (int j = 0; j < results.size(); j++) {
-                        ta.appendText(results.get(j));
-                        ta.appendText("\n");
-                    }
-                    results.clear();
-                }
-                countL.setText(objectsProcessed + "/" + totalObjects);
-                pb.setProgress(1.0);
-                ta.appendText("Finished\n");
-                fb.setText("Close");
-            });
-            return results;
+                // final update (always done, even if the processing failed)
+                totalKnown = true;
+                Platform.runLater(() -> {
+                    ticker.stop();
+                    flush();
+                    pb.setProgress(1.0);
+                    ta.appendText("Finished: " + sink.errors() + " errors, " + sink.warnings() + " warnings\n");
+                    fb.setText("Close");
+                });
+            }
+            return null;
         }
 
         /**
@@ -382,80 +398,83 @@ public class FXMLProgressController extends BaseManifestController {
          * @return true if processing should continue
          */
         public boolean updateStatus(String id, String[] messages) {
-            double k;
 
-            // increment the number of files processed
+            // increment the number of files processed (only this thread
+            // writes objectsProcessed); the GUI picks this up at the next
+            // tick
             objectsProcessed++;
-            k = ((double) objectsProcessed + 1) / totalObjects;
-
-            // schedule an update on the GUI
-            Platform.runLater(() -> {
-                currentlyProcessingL.setText(id);
-                if (results.size() > 0) {
-                    if (ta.getText().equals(defaultText)) {
-                        ta.clear();
-                    }
-                    for (int j = 0; j < results.size(); j++) {
-                        ta.appendText(results.get(j));
-                        ta.appendText("\n");
-                    }
-                    results.clear();
-                }
-                countL.setText(objectsProcessed + "/" + totalObjects);
-                pb.setProgress(k);
-            });
+            currentId = id;
             return isCancelled();
         }
 
         /**
-         * Recursively count the number of normal files that would be hashed
-         * contained within a given file. This is used to display the progress
-         * when the hashes are calculated...
-         *
-         * @param f file (which could be a directory)
-         * @return the number of normal files
+         * Bring the GUI up to date with the progress of the worker thread.
+         * Must be called on the GUI thread.
          */
-        private int count(Path f) {
-            DirectoryStream<Path> ds;
-            int c;
-
-            c = 0;
-
-            // check if cancelled
-            if (isCancelled()) {
-                return c;
-            }
-
-            // check that file or directory exists
-            if (!Files.exists(f)) {
-                return 0;
-            }
-
-            // if file is a directory, go through directory and test all the files
-            if (Files.isDirectory(f)) {
-                try {
-                    ds = Files.newDirectoryStream(f);
-                    for (Path p : ds) {
-                        c += count(p);
-                        if (isCancelled()) {
-                            break;
-                        }
+        private void flush() {
+            StringBuilder sb;
+            String text;
+            long before;
+            int done, total, i, end;
+
+            // append the new messages; if the text area has grown too large,
+            // remove the oldest lines (a message may be several lines, e.g.
+            // a group of duplicates), leaving the most recent ones
+            sb = new StringBuilder();
+            before = shown;
+            shown = sink.recentSince(shown, sb);
+            if (shown > before) {
+                if (linesInTA == 0) {
+                    ta.clear(); // remove the default text
+                }
+                for (i = 0; i < sb.length(); i++) {
+                    if (sb.charAt(i) == '\n') {
+                        linesInTA++;
                     }
-                    ds.close();
-                } catch (IOException e) {
-                    // ignore - it's only a status
                 }
-            } else if (Files.isRegularFile(f)) {
-                Platform.runLater(() -> {
-                    currentlyProcessingL.setText(f.getFileName().toString());
-                });
-                
-                // ignore files that start with "~$" (i.e. Windows special) as these won't be in the manifest
-                if (!f.getFileName().toString().startsWith("~$")) {
-                    c++;
+                ta.appendText(sb.toString());
+                if (linesInTA > 2 * RECENT_MESSAGES) {
+                    text = ta.getText();
+                    end = 0;
+                    for (i = RECENT_MESSAGES; i < linesInTA; i++) {
+                        end = text.indexOf('\n', end) + 1;
+                    }
+                    ta.replaceText(0, end, "... earlier messages not shown (see log file) ...\n");
+                    ta.positionCaret(ta.getLength());
+                    linesInTA = RECENT_MESSAGES + 1;
                 }
             }
-            return c;
+            if (currentId != null) {
+                currentlyProcessingL.setText(currentId);
+            }
+            done = objectsProcessed;
+            total = totalObjects;
+            if (totalKnown && total > 0) {
+                countL.setText(done + "/" + total);
+                pb.setProgress(Math.min(1.0, (double) done / total));
+            } else {
+                countL.setText(done + "/" + total + "+");
+                pb.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+            }
+        }
+
+        /**
+         * Called when creating or updating a manifest each time the walk of
+         * the directory finds a file to be hashed. The file will be reported
+         * by updateStatus() once it has been hashed. The GUI shows the new
+         * total at the next tick, so it keeps counting while a walk runs ahead
+         * of the hashing.
+         */
+        public void foundObject() {
+            totalObjects++;
+        }
+
+        /**
+         * Called when creating or updating a manifest when the walk of the
+         * directory has finished; totalObjects is now the final count.
+         */
+        public void allObjectsFound() {
+            totalKnown = true;
         }
     }
 }
@@ -115,6 +115,8 @@ public class FXMLSetupRunController extends BaseManifestController implements In
     private Button verifyLogFileBrowseB;
     @FXML
     private CheckBox verifyHashCB;
+    @FXML
+    private CheckBox hashCacheCB;   // use the hash cache
 
     //private FXMLCreateSummaryController summaryController;
     /**
@@ -201,14 +203,30 @@ public class FXMLSetupRunController extends BaseManifestController implements In
             traverseToNext(event, KeyCode.ENTER);
         });
 
-        hashAlgorithmCB.getItems().addAll("SHA-1", "SHA-256", "SHA-384", "SHA-512");
+        hashAlgorithmCB.getItems().addAll("SHA-1", "SHA-256", "SHA-384", "SHA-512", "BLAKE3", "XXH3");
         hashAlgorithmCB.valueProperty().addListener((ObservableValue<? extends String> observable, String oldValue, String newValue) -> {
             job.hashAlg = newValue;
+            if (oldValue != null) {
+                job.hashAlgSet = true; // chosen by the user, not shown from the job
+            }
         });
         verifyHashCB.setIndeterminate(false);
         verifyHashCB.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) -> {
             job.verifyHash = newValue;
         });
+        hashCacheCB.setIndeterminate(false);
+        // the size of the cache is kept when it is turned off (with rehash),
+        // as opening a cache with a different size empties it
+        hashCacheCB.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) -> {
+            if (newValue) {
+                if (job.cacheSize == 0) {
+                    job.cacheSize = HashCache.DEFAULT_SIZE;
+                }
+                job.rehash = false;
+            } else if (job.cacheSize > 0) {
+                job.rehash = true;
+            }
+        });
         verboseCB.setIndeterminate(false);
         verboseCB.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) -> {
             job.verbose = newValue;
@@ -288,6 +306,7 @@ public void shutdown() {
         createTooltip(verifyLogFileBrowseB, (String) json.get("browse"));
         createTooltip(verifyHashCB, (String) json.get("verifyHash"));
         createTooltip(hashAlgorithmCB, (String) json.get("hashAlgorithm"));
+        createTooltip(hashCacheCB, (String) json.get("hashCache"));
         createTooltip(verboseCB, (String) json.get("verboseOutput"));
         createTooltip(debugCB, (String) json.get("debugOutput"));
         createTooltip(goB, (String) json.get("createManifests"));
@@ -403,6 +422,7 @@ public void shutdown() {
         verboseCB.setSelected(job.verbose);
         debugCB.setSelected(job.debug);
         verifyHashCB.setSelected(job.verifyHash);
+        hashCacheCB.setSelected(job.cacheSize > 0 && !job.rehash);
     }
 
     /**
@@ -0,0 +1,62 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * This class represents one file in a manifest: its path, the metadata used
+ * to detect whether it has changed (size and last modified time), and its
+ * hashes (one for each hash algorithm used by the manifest). In a manifest it
+ * is represented as
+ * <pre>
+ * &lt;f&gt;&lt;p&gt;path&lt;/p&gt;&lt;h&gt;hash&lt;/h&gt;&lt;s&gt;size&lt;/s&gt;&lt;m&gt;modified&lt;/m&gt;&lt;/f&gt;
+ * </pre> The size and modified time are optional (manifests created before
+ * version 1.2 do not contain them). If the manifest uses more than one hash
+ * algorithm, there is one &lt;h alg="..."&gt; element for each.
+ */
+class FileEntry {
+
+    Path file;          // the file (on disk or, if read from a manifest, relative)
+    long size;          // size of file in bytes (-1 if not known)
+    FileTime modified;  // time file was last modified (null if not known)
+    String[] hashes;    // hashes of file, in the order of the algorithms (null if not yet calculated)
+    Object fileKey;     // identifies the file on disk (e.g. its inode; null if not known)
+    boolean checkpointed; // true if the hashes were reused from the checkpoint journal
+
+    /**
+     * Construct a FileEntry
+     *
+     * @param file the file
+     * @param size size of file in bytes (-1 if not known)
+     * @param modified time file was last modified (null if not known)
+     */
+    FileEntry(Path file, long size, FileTime modified) {
+        this.file = file;
+        this.size = size;
+        this.modified = modified;
+        hashes = null;
+        fileKey = null;
+        checkpointed = false;
+    }
+
+    /**
+     * Has the file changed since this entry was recorded? An entry without
+     * a size or modified time is always considered to have changed.
+     *
+     * @param size current size of the file
+     * @param modified current last modified time of the file
+     * @return true if the file may have changed
+     */
+    boolean changed(long size, FileTime modified) {
+        if (this.size == -1 || this.modified == null || hashes == null) {
+            return true;
+        }
+        return this.size != size || !this.modified.equals(modified);
+    }
+}
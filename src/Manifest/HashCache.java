@@ -0,0 +1,574 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * H A S H C A C H E
+ *
+ * A persistent cache of the hashes of files, so that files that have not
+ * changed since an earlier run (of any job) are not read and hashed again.
+ * The cache is a hash table in a memory mapped file (by default
+ * 'hashcache.bin' in the application's base directory, or '.manifest' in the
+ * user's home directory when run from the command line).
+ * <p>
+ * Each slot in the table holds one hash of one file. It is keyed by a
+ * fingerprint of the absolute path of the file, its file key (the inode on
+ * Unix; not available on Windows), and the hash algorithm. The size and last
+ * modification time of the file when it was hashed are recorded in the slot,
+ * and the cached hash is only used if they are unchanged. Hashes are not
+ * cached if the file was modified in the RACY_MS before it was hashed (it may
+ * be modified again without the modification time changing), or if the file
+ * changed while it was being hashed.
+ * <p>
+ * The size of the file (and hence the number of slots) is capped. A key can
+ * only be stored in the PROBES slots following its home slot; if these are
+ * all in use, the least recently used is evicted. The table is replaced
+ * (i.e. emptied) if the cap is changed.
+ * <p>
+ * The cache is only used if the job asks for it (Job.cacheSize, '-cache'), as
+ * a file whose hash is taken from the cache is not read, so corruption of its
+ * contents is not detected. Job.rehash bypasses the cache even then (every
+ * file is read and hashed), for when the contents of the files must actually
+ * be checked (e.g. for an audit). The cache is locked while open, so only one
+ * job can use it at a time; a second job simply runs without it.
+ * <p>
+ * A slot is written with its fingerprint zeroed, and the fingerprint is set
+ * last, so a run that dies part way through writing a slot leaves it empty
+ * rather than holding another file's hash. The slots are aligned so that none
+ * crosses a page of the mapped file.
+ * <p>
+ * The slots are:
+ * <pre>
+ *   0 long   fingerprint (first half) (fingerprint of 0 = empty slot)
+ *   8 long   fingerprint (second half)
+ *  16 long   size of file
+ *  24 long   last modification time of file (ns since the epoch)
+ *  32 long   when the slot was last used (value of the clock)
+ *  40 byte   length of the hash
+ *  41 byte[] the hash (MAX_HASH bytes)
+ * </pre>
+ */
+final class HashCache {
+
+    static String classname = "HashCache"; // for reporting
+    static final String FILE_NAME = "hashcache.bin";
+    static final long MAGIC = 0x4d4648434143484cL; // 'MFHCACHL'
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 128; // magic, version, slot size, slots, clock (padded so no slot crosses a page)
+    static final int SLOT_SIZE = 128;   // bytes in each slot
+    static final int MAX_HASH = 64;     // longest hash cached (SHA-512)
+    static final int PROBES = 16;       // slots searched for a key
+    static final long RACY_MS = 2000;   // files modified this recently are not cached
+    static final int MAX_SIZE = 1024;   // maximum size of cache (MB)
+    static final int DEFAULT_SIZE = 64; // size of cache when turned on in the GUI (MB)
+
+    private static final ThreadLocal<MessageDigest> FINGERPRINTERS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 is required by the Java specification", e);
+            }
+        }
+    };
+
+    private final Path file;        // the cache file
+    private final FileChannel fc;   // channel to the cache file (holds the lock)
+    private final FileLock lock;    // exclusive lock on the cache file
+    private final MappedByteBuffer mbb; // the mapped table
+    private final long slots;       // number of slots in the table
+    private long clock;             // incremented every time a slot is used
+    private long hits;              // files whose hashes were found in the cache
+    private long misses;            // files that had to be hashed
+
+    /**
+     * Open the cache (use open())
+     */
+    private HashCache(Path file, FileChannel fc, FileLock lock, MappedByteBuffer mbb, long slots, long clock) {
+        this.file = file;
+        this.fc = fc;
+        this.lock = lock;
+        this.mbb = mbb;
+        this.slots = slots;
+        this.clock = clock;
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Get the default location of the cache: the application's base
+     * directory if it has been configured (i.e. the GUI is running),
+     * otherwise the directory '.manifest' in the user's home directory
+     *
+     * @return the cache file
+     */
+    static Path defaultFile() {
+        Path base;
+
+        base = AppConfig.getBaseDirectory();
+        if (base == null) {
+            base = Paths.get(System.getProperty("user.home"), ".manifest");
+        }
+        return base.resolve(FILE_NAME);
+    }
+
+    /**
+     * Open the cache, creating it if it does not exist, or replacing it if it
+     * is not a cache of the requested size
+     *
+     * @param file the cache file
+     * @param sizeMB the maximum size of the cache in MB
+     * @return the cache
+     * @throws AppError if the cache could not be opened, or is in use by
+     * another job
+     */
+    static HashCache open(Path file, int sizeMB) throws AppError {
+        String method = "open";
+        FileChannel fc;
+        FileLock lock;
+        MappedByteBuffer mbb;
+        long slots, clock;
+
+        if (sizeMB < 1 || sizeMB > MAX_SIZE) {
+            throw new AppError(classname, method, 1, "Size of hash cache (" + sizeMB + "MB) must be between 1 and " + MAX_SIZE + "MB");
+        }
+        slots = ((long) sizeMB * 1024 * 1024 - HEADER_SIZE) / SLOT_SIZE;
+        fc = null;
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            fc = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            lock = fc.tryLock();
+            if (lock == null) {
+                throw new AppError(classname, method, 2, "Hash cache '" + file.toString() + "' is in use by another job");
+            }
+
+            // start again if the existing cache is not usable
+            if (fc.size() != HEADER_SIZE + slots * SLOT_SIZE) {
+                fc.truncate(0);
+            }
+            mbb = fc.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + slots * SLOT_SIZE);
+            if (mbb.getLong(0) != MAGIC || mbb.getInt(8) != VERSION || mbb.getInt(12) != SLOT_SIZE || mbb.getLong(16) != slots) {
+                clear(mbb);
+                mbb.putLong(0, MAGIC);
+                mbb.putInt(8, VERSION);
+                mbb.putInt(12, SLOT_SIZE);
+                mbb.putLong(16, slots);
+                mbb.putLong(24, 0);
+            }
+            clock = mbb.getLong(24);
+        } catch (IOException ioe) {
+            if (fc != null) {
+                try {
+                    fc.close();
+                } catch (IOException e) {
+                    /* ignore */
+                }
+            }
+            throw new AppError(classname, method, 3, "Failed opening hash cache '" + file.toString() + "': " + ioe.toString());
+        } catch (AppError ae) {
+            try {
+                fc.close();
+            } catch (IOException e) {
+                /* ignore */
+            }
+            throw ae;
+        }
+        return new HashCache(file, fc, lock, mbb, slots, clock);
+    }
+
+    /**
+     * Zero the whole of a newly created (or unusable) cache
+     */
+    private static void clear(ByteBuffer bb) {
+        byte[] zero;
+        int i;
+
+        zero = new byte[64 * 1024];
+        bb.clear();
+        while (bb.hasRemaining()) {
+            i = Math.min(zero.length, bb.remaining());
+            bb.put(zero, 0, i);
+        }
+        bb.clear();
+    }
+
+    /**
+     * @return the cache file
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of files whose hashes were found in the cache
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of files that had to be hashed
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * A file looked up in the cache (see lookup())
+     */
+    static final class Probe {
+
+        final long size;        // size of the file when looked up
+        final FileTime modTime; // modification time of the file when looked up
+        final long[][] fps;     // fingerprints of the file (one for each algorithm)
+        byte[][] hashes;        // the cached hashes (null if not all are cached)
+
+        private Probe(long size, FileTime modTime, long[][] fps) {
+            this.size = size;
+            this.modTime = modTime;
+            this.fps = fps;
+            hashes = null;
+        }
+    }
+
+    /**
+     * Look up the hashes of a file. If all of them are in the cache (and the
+     * file has not changed) they are returned in the Probe, and the file need
+     * not be read. Otherwise the file should be hashed using hash().
+     *
+     * @param f the file
+     * @param found the file as it was found when walking the directory (its
+     * size, modification time, and file key are used rather than looking the
+     * file up again; null if the file must be looked up)
+     * @param algs the hash algorithms (already checked by Job.checkHashAlg())
+     * @return the result of the lookup (null if the file could not be looked
+     * up; the Hasher will report why it cannot be read)
+     */
+    Probe lookup(Path f, FileEntry found, String[] algs) {
+        Probe p;
+
+        p = probe(f, found, algs);
+        if (p == null) {
+            return null;
+        }
+        p.hashes = new byte[algs.length][];
+        if (!lookup(p.fps, p.size, p.modTime.to(TimeUnit.NANOSECONDS), p.hashes)) {
+            p.hashes = null;
+        }
+        return p;
+    }
+
+    /**
+     * Are all the hashes of a file in the cache? Unlike lookup(), this does
+     * not count as a use of the cache.
+     *
+     * @param f the file
+     * @param found the file as it was found when walking the directory (null
+     * if the file must be looked up)
+     * @param algs the hash algorithms
+     * @return true if the file need not be read
+     */
+    boolean contains(Path f, FileEntry found, String[] algs) {
+        Probe p;
+        long slot;
+        int i;
+
+        if ((p = probe(f, found, algs)) == null) {
+            return false;
+        }
+        synchronized (this) {
+            for (i = 0; i < p.fps.length; i++) {
+                slot = find(p.fps[i]);
+                if (slot == -1
+                        || mbb.getLong(at(slot, 16)) != p.size
+                        || mbb.getLong(at(slot, 24)) != p.modTime.to(TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the size, modification time, and fingerprints of a file
+     *
+     * @return the probe (null if the file could not be looked up)
+     */
+    private static Probe probe(Path f, FileEntry found, String[] algs) {
+        BasicFileAttributes attrs;
+        long[][] fps;
+        long size;
+        FileTime modTime;
+        Object fileKey;
+        int i;
+
+        // look up the file, unless it was looked up when it was found
+        f = f.toAbsolutePath().normalize();
+        if (found != null && found.size != -1 && found.modified != null) {
+            size = found.size;
+            modTime = found.modified;
+            fileKey = found.fileKey;
+        } else {
+            try {
+                attrs = Files.readAttributes(f, BasicFileAttributes.class);
+            } catch (IOException ioe) {
+                return null;
+            }
+            size = attrs.size();
+            modTime = attrs.lastModifiedTime();
+            fileKey = attrs.fileKey();
+        }
+        fps = new long[algs.length][];
+        for (i = 0; i < algs.length; i++) {
+            fps[i] = fingerprint(f, fileKey, algs[i]);
+        }
+        return new Probe(size, modTime, fps);
+    }
+
+    /**
+     * Hash a file whose hashes were not found in the cache, using the calling
+     * thread's Hasher, and add the hashes to the cache. The hashes are not
+     * cached if the file changed while it was being hashed, or was modified
+     * too recently.
+     *
+     * @param f the file to hash
+     * @param p the result of looking up the file (null if it could not be)
+     * @param algs the hash algorithms (already checked by Job.checkHashAlg())
+     * @param io the I/O backend to use
+     * @param threads the number of threads used to calculate a tree hash
+     * @param pre the start of the file, if it has been read ahead (null if
+     * not)
+     * @return the hashes, in the same order as the algorithms
+     * @throws AppError if the file could not be read
+     */
+    byte[][] hash(Path f, Probe p, String[] algs, Job.HashIO io, int threads, ReadAhead.Block pre) throws AppError {
+        BasicFileAttributes after;
+        byte[][] hashes;
+        long start;
+
+        start = System.currentTimeMillis();
+        hashes = Hasher.get().hash(f, algs, io, threads, pre);
+        if (p == null) {
+            return hashes;
+        }
+        try {
+            after = Files.readAttributes(f, BasicFileAttributes.class);
+        } catch (IOException ioe) {
+            return hashes;
+        }
+        if (after.size() == p.size && after.lastModifiedTime().equals(p.modTime)
+                && p.modTime.toMillis() < start - RACY_MS) {
+            store(p.fps, p.size, p.modTime.to(TimeUnit.NANOSECONDS), hashes);
+        }
+        return hashes;
+    }
+
+    /**
+     * Look up all the hashes of a file. The hashes are only returned if all
+     * of them are present.
+     *
+     * @param fps the fingerprints of the file (one for each algorithm)
+     * @param size the current size of the file
+     * @param modified the current modification time of the file
+     * @param hashes where to put the hashes found
+     * @return true if all the hashes were found
+     */
+    private synchronized boolean lookup(long[][] fps, long size, long modified, byte[][] hashes) {
+        long[] slotsFound;
+        int i, j;
+
+        slotsFound = new long[fps.length];
+        for (i = 0; i < fps.length; i++) {
+            slotsFound[i] = find(fps[i]);
+            if (slotsFound[i] == -1
+                    || mbb.getLong(at(slotsFound[i], 16)) != size
+                    || mbb.getLong(at(slotsFound[i], 24)) != modified) {
+                misses++;
+                return false;
+            }
+        }
+        clock++;
+        mbb.putLong(24, clock);
+        for (i = 0; i < fps.length; i++) {
+            mbb.putLong(at(slotsFound[i], 32), clock);
+            hashes[i] = new byte[mbb.get(at(slotsFound[i], 40))];
+            for (j = 0; j < hashes[i].length; j++) {
+                hashes[i][j] = mbb.get(at(slotsFound[i], 41 + j));
+            }
+        }
+        hits++;
+        return true;
+    }
+
+    /**
+     * Store the hashes of a file, replacing any earlier hashes of the file or,
+     * if there is no room, the least recently used hashes
+     *
+     * @param fps the fingerprints of the file (one for each algorithm)
+     * @param size the size of the file when hashed
+     * @param modified the modification time of the file when hashed
+     * @param hashes the hashes
+     */
+    private synchronized void store(long[][] fps, long size, long modified, byte[][] hashes) {
+        long slot;
+        int i, j;
+
+        clock++;
+        mbb.putLong(24, clock);
+        for (i = 0; i < fps.length; i++) {
+            if (hashes[i].length > MAX_HASH) {
+                continue;
+            }
+            if ((slot = find(fps[i])) == -1) {
+                slot = victim(fps[i]);
+            }
+
+            // empty the slot while it is rewritten, and set the fingerprint
+            // last, so that a slot left half written is empty, not wrong
+            mbb.putLong(at(slot, 0), 0);
+            mbb.putLong(at(slot, 8), 0);
+            mbb.putLong(at(slot, 16), size);
+            mbb.putLong(at(slot, 24), modified);
+            mbb.putLong(at(slot, 32), clock);
+            mbb.put(at(slot, 40), (byte) hashes[i].length);
+            for (j = 0; j < hashes[i].length; j++) {
+                mbb.put(at(slot, 41 + j), hashes[i][j]);
+            }
+            mbb.putLong(at(slot, 8), fps[i][1]);
+            mbb.putLong(at(slot, 0), fps[i][0]);
+        }
+    }
+
+    /**
+     * Find the slot holding a key
+     *
+     * @param fp the fingerprint of the key
+     * @return the slot (-1 if not present)
+     */
+    private long find(long[] fp) {
+        long slot;
+        int i;
+
+        slot = home(fp);
+        for (i = 0; i < PROBES; i++) {
+            if (mbb.getLong(at(slot, 0)) == fp[0] && mbb.getLong(at(slot, 8)) == fp[1]) {
+                return slot;
+            }
+            slot = (slot + 1) % slots;
+        }
+        return -1;
+    }
+
+    /**
+     * Choose the slot in which to store a new key: the first empty slot or,
+     * if there is none, the least recently used
+     *
+     * @param fp the fingerprint of the key
+     * @return the slot
+     */
+    private long victim(long[] fp) {
+        long slot, oldest, used;
+        int i;
+
+        slot = home(fp);
+        oldest = slot;
+        for (i = 0; i < PROBES; i++) {
+            if (mbb.getLong(at(slot, 0)) == 0 && mbb.getLong(at(slot, 8)) == 0) {
+                return slot;
+            }
+            used = mbb.getLong(at(slot, 32));
+            if (used < mbb.getLong(at(oldest, 32))) {
+                oldest = slot;
+            }
+            slot = (slot + 1) % slots;
+        }
+        return oldest;
+    }
+
+    /**
+     * @return the first slot searched for a key
+     */
+    private long home(long[] fp) {
+        return (fp[0] & Long.MAX_VALUE) % slots;
+    }
+
+    /**
+     * @return the position in the table of a field of a slot
+     */
+    private static int at(long slot, int offset) {
+        return (int) (HEADER_SIZE + slot * SLOT_SIZE + offset);
+    }
+
+    /**
+     * Calculate the fingerprint of a key (a file, its file key, and a hash
+     * algorithm). The fingerprint is the 128 bit MD5 hash of the key; this is
+     * only used to find the slot, so MD5's weaknesses are irrelevant.
+     *
+     * @param f the absolute path of the file
+     * @param fileKey the file key of the file (may be null)
+     * @param alg the hash algorithm
+     * @return the fingerprint (never 0, which marks an empty slot)
+     */
+    static long[] fingerprint(Path f, Object fileKey, String alg) {
+        MessageDigest md;
+        ByteBuffer bb;
+        long[] fp;
+
+        md = FINGERPRINTERS.get();
+        md.update(f.toString().getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        if (fileKey != null) {
+            md.update(fileKey.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        md.update((byte) 0);
+        md.update(alg.toUpperCase().getBytes(StandardCharsets.UTF_8));
+        bb = ByteBuffer.wrap(md.digest());
+        fp = new long[]{bb.getLong(), bb.getLong()};
+        if (fp[0] == 0 && fp[1] == 0) {
+            fp[1] = 1;
+        }
+        return fp;
+    }
+
+    /**
+     * Close the cache, writing it to disk and releasing the lock
+     */
+    synchronized void close() {
+        mbb.putLong(24, clock);
+        mbb.force();
+        try {
+            lock.release();
+        } catch (IOException ioe) {
+            /* ignore */
+        }
+        try {
+            fc.close();
+        } catch (IOException ioe) {
+            /* ignore */
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import VERSCommon.AppFatal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * H A S H P O O L
+ *
+ * This class separates the enumeration of the files to be included in a
+ * manifest from the hashing of those files. The thread walking the directory
+ * tree submits each file to the pool; a fixed set of worker threads calculate
+ * the hashes. Completed hashes are handed back to the Manifest (and hence to
+ * the XMLCreator) strictly in the order in which the files were submitted, so
+ * the manifest produced is identical to that produced by a single thread.
+ * <p>
+ * The number of files outstanding at any one time is limited (the 'window').
+ * When the window is full, submit() blocks until the oldest file has been
+ * hashed and written. This stops the traversal running arbitrarily far ahead
+ * of the hashing on very large directory trees.
+ * <p>
+ * Between the traversal and the hashing, the files are collected into
+ * batches (of Job.batch files), and each batch is handed to the workers in
+ * the order in which the files are laid out on the disk rather than the order
+ * in which they were found. The order in which a directory is listed bears
+ * no relation to where the files are stored, so on spinning disks (and on
+ * HSM volumes, where a file may have to be recalled from tape) hashing in
+ * directory order causes a seek (or a recall) for almost every file. The
+ * layout is approximated by the inode number (on Unix, from the file key),
+ * and otherwise by the size of the file (so that small files are read
+ * together). Only the order of hashing changes; the entries are still written
+ * in the order the files were found.
+ * <p>
+ * The workers take the files from a queue ordered by size: files of more than
+ * LARGE_FILE bytes are handed to the workers as soon as they are found (not
+ * at the end of the batch), and are taken from the queue before any other
+ * file, the largest first. The other files are taken in the order they were
+ * handed over, so they fill in around the large files. Hashing a large file
+ * last would leave one worker busy long after the others had finished. The
+ * oldest file must be written before any other, so while a large file is
+ * being hashed the window is widened (to MAX_WINDOW) to let the other workers
+ * carry on. Hashing a single file cannot be split across the workers, except
+ * for a tree hash (see TreeHash), whose chunks are hashed in parallel.
+ * <p>
+ * The time each worker spends hashing is recorded so that the utilisation of
+ * the workers can be reported at the end (see getWorkers()).
+ * <p>
+ * If the pool has only one thread, each batch is hashed on the calling thread
+ * when it is complete. Files whose hash is already known (e.g. when updating
+ * a manifest) are not hashed again, but still pass through the pool so that
+ * they are written in order.
+ */
+class HashPool {
+
+    static String classname = "HashPool"; // for reporting
+    static final long LARGE_FILE = 64 * 1024 * 1024; // files hashed before any others
+    static final int MAX_WINDOW = 65536; // window while a large file is being hashed
+    Manifest manifest;          // manifest being created
+    int threads;                // number of worker threads
+    int window;                 // maximum number of files outstanding
+    int batchSize;              // files in a batch reordered before hashing
+    ThreadPoolExecutor es;      // worker threads (null if hashing inline)
+    ArrayDeque<Pending> pending; // files submitted, but not yet written
+    ArrayList<Pending> batch;   // files submitted, but not yet handed to be hashed
+    long dispatched;            // number of files handed to be hashed
+    long started;               // when the pool was created (ns)
+    long finished;              // when the last file was written (ns; 0 if not finished)
+    final ArrayList<Worker> workers; // the workers that have hashed files
+    final ThreadLocal<Worker> worker; // the worker running on this thread
+
+    // orders a batch by (approximate) position on disk
+    private static final Comparator<Pending> LAYOUT_ORDER = new Comparator<Pending>() {
+        @Override
+        public int compare(Pending p1, Pending p2) {
+            if (p1.device != p2.device) {
+                return Long.compare(p1.device, p2.device);
+            }
+            return Long.compare(p1.position, p2.position);
+        }
+    };
+
+    /**
+     * A file that has been submitted for hashing, but whose entry has not yet
+     * been written to the manifest
+     */
+    private class Pending {
+
+        FileEntry entry;        // file being hashed
+        Task hashes;            // the hashes when they have been calculated (null if already known)
+        long device;            // device holding the file (-1 if not known)
+        long position;          // inode of the file, or its size class if device is -1
+
+        Pending(FileEntry entry, Task hashes) {
+            long[] key;
+
+            this.entry = entry;
+            this.hashes = hashes;
+            key = layout(entry);
+            device = key[0];
+            position = key[1];
+        }
+    }
+
+    /**
+     * Hashing a file. Tasks are ordered in the workers' queue: large files
+     * first (largest first), then the other files in the order they were
+     * handed over.
+     */
+    private class Task extends FutureTask<String[]> implements Comparable<Task> {
+
+        final long size;        // size of file (0 if not a large file)
+        long seq;               // order in which the file was handed over
+
+        Task(final FileEntry entry) {
+            super(new Callable<String[]>() {
+                @Override
+                public String[] call() throws AppError {
+                    Worker w;
+                    long start;
+
+                    w = worker.get();
+                    start = System.nanoTime();
+                    try {
+                        return manifest.hashFile(entry);
+                    } finally {
+                        w.busy += System.nanoTime() - start;
+                        w.files++;
+                        w.bytes += Math.max(0, entry.size);
+                    }
+                }
+            });
+            size = entry.size >= LARGE_FILE ? entry.size : 0;
+            seq = 0;
+        }
+
+        @Override
+        public int compareTo(Task t) {
+            if (size != t.size) {
+                return Long.compare(t.size, size);
+            }
+            return Long.compare(seq, t.seq);
+        }
+    }
+
+    /**
+     * The work done by one worker thread
+     */
+    static class Worker {
+
+        final String name;      // name of the thread
+        long files;             // files hashed
+        long bytes;             // bytes hashed
+        long busy;              // time spent hashing (ns)
+
+        Worker(String name) {
+            this.name = name;
+            files = 0;
+            bytes = 0;
+            busy = 0;
+        }
+    }
+
+    /**
+     * Create a pool to hash files.
+     *
+     * @param manifest the manifest being created
+     * @param threads the number of worker threads (1 or less = no threads)
+     * @param batchSize the number of files reordered before hashing (1 or
+     * less = hash in the order found)
+     * @param readAhead the number of files read ahead of being hashed (see
+     * ReadAhead)
+     */
+    public HashPool(Manifest manifest, int threads, int batchSize, int readAhead) {
+        this.manifest = manifest;
+        this.threads = threads;
+        this.batchSize = Math.max(1, batchSize);
+        pending = new ArrayDeque<>();
+        batch = new ArrayList<>(this.batchSize);
+        dispatched = 0;
+        started = System.nanoTime();
+        finished = 0;
+        workers = new ArrayList<>();
+        worker = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                Worker w;
+
+                w = new Worker(Thread.currentThread().getName());
+                synchronized (workers) {
+                    workers.add(w);
+                }
+                return w;
+            }
+        };
+        if (threads > 1) {
+            window = this.batchSize + threads * 4 + readAhead;
+            es = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new WorkerFactory("Manifest-hash"));
+        } else {
+            window = this.batchSize + readAhead;
+            es = null;
+        }
+    }
+
+    /**
+     * Submit a file to be hashed. If the window of outstanding files is full,
+     * wait until the oldest file has been hashed and written to the manifest.
+     *
+     * @param entry the file to be hashed (if entry.hashes is not null, the
+     * hashes are already known)
+     * @return true if the user cancelled the processing
+     * @throws AppFatal if the manifest could not be written
+     */
+    public boolean submit(final FileEntry entry) throws AppFatal {
+        Pending p;
+        boolean cancelled;
+
+        // add the file to the batch (if it needs hashing), and hand the batch
+        // to be hashed when it is full (large files are handed over at once)
+        if (entry.hashes != null) {
+            pending.add(new Pending(entry, null));
+        } else {
+            p = new Pending(entry, new Task(entry));
+            pending.add(p);
+            if (p.hashes.size > 0 && es != null) {
+                manifest.scheduleRead(entry.file, entry);
+                hand(p.hashes);
+            } else {
+                batch.add(p);
+            }
+            if (batch.size() >= batchSize) {
+                dispatch();
+            }
+        }
+
+        // and write out the oldest files that have been hashed, and then
+        // until there is room in the window (otherwise files already hashed
+        // take up the window, and the next batch is handed over before it is
+        // full)
+        cancelled = false;
+        while (!cancelled && (ready() || pending.size() >= window())) {
+            cancelled = writeOldest();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Can the oldest outstanding file be written without waiting for it to be
+     * hashed?
+     *
+     * @return true if the oldest file's hashes are known
+     */
+    private boolean ready() {
+        Pending p;
+
+        p = pending.peek();
+        return p != null && (p.hashes == null || p.hashes.isDone());
+    }
+
+    /**
+     * Wait until all the outstanding files have been hashed and written.
+     *
+     * @return true if the user cancelled the processing
+     * @throws AppFatal if the manifest could not be written
+     */
+    public boolean finish() throws AppFatal {
+        boolean cancelled;
+
+        dispatch();
+        cancelled = false;
+        while (!cancelled && !pending.isEmpty()) {
+            cancelled = writeOldest();
+        }
+        finished = System.nanoTime();
+        return cancelled;
+    }
+
+    /**
+     * Get the current size of the window. This is widened while the oldest
+     * file is a large file still being hashed, so that the other workers are
+     * not left idle waiting for it.
+     *
+     * @return the maximum number of files outstanding
+     */
+    private int window() {
+        Pending p;
+
+        p = pending.peek();
+        if (es != null && p != null && p.hashes != null && p.hashes.size > 0 && !p.hashes.isDone()) {
+            return Math.max(window, MAX_WINDOW);
+        }
+        return window;
+    }
+
+    /**
+     * Wait for the oldest outstanding file to be hashed, and then write it to
+     * the manifest
+     *
+     * @return true if the user cancelled the processing
+     * @throws AppFatal if the manifest could not be written
+     */
+    private boolean writeOldest() throws AppFatal {
+        Pending p;
+
+        p = pending.remove();
+        if (p.hashes != null) {
+            if (!batch.isEmpty()) {
+                dispatch(); // may still be waiting in the batch
+            }
+            try {
+                p.entry.hashes = p.hashes.get();
+            } catch (ExecutionException ee) {
+                if (ee.getCause() instanceof AppError) {
+                    manifest.failedFile(p.entry.file, (AppError) ee.getCause());
+                } else {
+                    manifest.failedFile(p.entry.file, new AppError(classname, "writeOldest", 1, ee.getCause().toString()));
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new AppFatal(classname, 2, "Interrupted waiting for hash of '" + p.entry.file.toString() + "'");
+            }
+        }
+        return manifest.writeEntry(p.entry);
+    }
+
+    /**
+     * Hand the files in the batch to be hashed, in the order of their
+     * position on the disk. If there are no threads, the files are hashed
+     * now.
+     */
+    private void dispatch() {
+        int i;
+
+        Collections.sort(batch, LAYOUT_ORDER);
+        for (i = 0; i < batch.size(); i++) {
+            manifest.scheduleRead(batch.get(i).entry.file, batch.get(i).entry);
+        }
+        for (i = 0; i < batch.size(); i++) {
+            hand(batch.get(i).hashes);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Hand a file to the workers to be hashed (or, if there are no threads,
+     * hash it now)
+     *
+     * @param t the hashing of the file
+     */
+    private void hand(Task t) {
+        t.seq = dispatched++;
+        if (es != null) {
+            es.execute(t);
+        } else {
+            t.run();
+        }
+    }
+
+    /**
+     * Get the work done by each of the workers. This should be called after
+     * finish().
+     *
+     * @return the workers (in the order they started)
+     */
+    ArrayList<Worker> getWorkers() {
+        synchronized (workers) {
+            return new ArrayList<>(workers);
+        }
+    }
+
+    /**
+     * @return the time from the creation of the pool until finish() (or now,
+     * if not finished) in ns
+     */
+    long getElapsed() {
+        return (finished != 0 ? finished : System.nanoTime()) - started;
+    }
+
+    /**
+     * Approximate the position of a file on the disk. On Unix, the file key
+     * is the device (in hex) and inode number (e.g. '(dev=803,ino=1234)'), and files
+     * are generally allocated space in the order of their inodes. Otherwise,
+     * the files are grouped by their size (rounded up to a power of two).
+     *
+     * @param entry the file
+     * @return the device (-1 if not known) and the position on it
+     */
+    static long[] layout(FileEntry entry) {
+        String s;
+        long dev, ino;
+
+        if (entry.fileKey != null) {
+            s = entry.fileKey.toString();
+            dev = number(s, "dev=", 16);
+            ino = number(s, "ino=", 10);
+            if (dev != -1 && ino != -1) {
+                return new long[]{dev, ino};
+            }
+        }
+        return new long[]{-1, 64 - Long.numberOfLeadingZeros(Math.max(0, entry.size))};
+    }
+
+    /**
+     * Get a number following a label in a file key
+     *
+     * @param s the file key
+     * @param label the label (e.g. 'ino=')
+     * @param radix the base the number is written in
+     * @return the number (-1 if not found)
+     */
+    private static long number(String s, String label, int radix) {
+        int i, j;
+
+        if ((i = s.indexOf(label)) == -1) {
+            return -1;
+        }
+        i += label.length();
+        j = i;
+        while (j < s.length() && Character.digit(s.charAt(j), radix) != -1) {
+            j++;
+        }
+        try {
+            return Long.parseLong(s.substring(i, j), radix);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * Shut down the worker threads, abandoning any files still outstanding
+     * (e.g. because the user cancelled the processing)
+     */
+    public void shutdown() {
+        Pending p;
+
+        while ((p = pending.poll()) != null) {
+            if (p.hashes != null) {
+                p.hashes.cancel(true);
+            }
+        }
+        if (es != null) {
+            es.shutdownNow();
+            es = null;
+        }
+        manifest = null;
+    }
+}
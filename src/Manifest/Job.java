@@ -13,6 +13,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -28,7 +30,22 @@ public class Job {
         NOTSET, // not set yet
         CREATE, // create a new manifest
         VERIFY, // verify an existing manifest
-        UPDATE  // update some items in a manifest     
+        UPDATE, // update some items in a manifest     
+        CONVERT, // convert a manifest between XML and binary
+        DUPLICATES, // report files with the same content in one or more manifests
+        DIFF, // report the differences between two manifests
+        MERGE, // merge manifests into one
+        SPLIT // split a manifest into parts by path
+    }
+
+    public enum HashIO {
+        STREAM, // read files through a BufferedInputStream
+        CHANNEL // read files through a FileChannel (into a direct buffer)
+    }
+
+    public enum ManifestFormat {
+        XML, // the original XML manifest
+        BINARY // compact binary manifest (see BinaryManifest)
     }
     Task task;          // what we want done
     Path manifest;      // manifest file to manipulate
@@ -36,10 +53,27 @@ public class Job {
     Path directory;     // list of directories to process
     String comment;     // comment about creation or update
     String identifier;  // identifier of this uplift (series/consignment/set)
-    String hashAlg;     // hash algorithm to use
+    String hashAlg;     // hash algorithm(s) to use (a comma separated list)
+    boolean hashAlgSet; // true if hashAlg was set (-h or a job file), rather than being the default
     String dateTimeCreated; // date and time the manifest was created
     Path logFile;       // user requested a log file to be produced
     boolean verifyHash; // if false do *NOT* verify the hash, only check that the file exists
+    int threads;        // number of threads used to hash files (1 = hash on the calling thread)
+    int batch;          // files reordered by their position on disk before hashing (1 = hash in the order found)
+    int readAhead;      // files whose start is read ahead of them being hashed (0 = none)
+    int concurrency;    // files checked at once when only checking that they exist (0 = use threads)
+    boolean index;      // true if a sidecar index of the manifest is to be written (or used when checking)
+    ArrayList<String> select; // when checking, only check the files matching these paths or globs (empty = all)
+    boolean unlisted;   // when checking, also report files in the directory that are not in the manifest
+    HashIO hashIO;      // how files are read when hashing them
+    ManifestFormat format; // format of manifests created (null = from the file extension)
+    Path convertTo;     // manifest created when converting or merging
+    ArrayList<Path> moreManifests; // manifests read after 'manifest' when finding duplicates, comparing, or merging
+    ArrayList<String> partPrefixes; // path prefix of each part when splitting ('' = the rest)
+    ArrayList<Path> partManifests; // manifest created for each part when splitting
+    boolean resume;     // true if continuing from the checkpoint of an earlier run
+    boolean rehash;     // if true, ignore the hash cache and read and hash every file
+    int cacheSize;      // maximum size of the hash cache in MB (0 = no cache, the default)
 
     boolean verbose;    // true if verbose output
     boolean debug;      // true if debugging output
@@ -65,8 +99,25 @@ public class Job {
         identifier = null;
         dateTimeCreated = null;
         hashAlg = "SHA-1";
+        hashAlgSet = false;
         logFile = null;
         verifyHash = true;
+        threads = Runtime.getRuntime().availableProcessors();
+        batch = 256;
+        readAhead = 0;
+        concurrency = 0;
+        index = false;
+        select = new ArrayList<>();
+        unlisted = false;
+        hashIO = HashIO.CHANNEL;
+        format = null;
+        convertTo = null;
+        moreManifests = new ArrayList<>();
+        partPrefixes = new ArrayList<>();
+        partManifests = new ArrayList<>();
+        resume = false;
+        rehash = false;
+        cacheSize = 0;
     }
 
     /**
@@ -80,6 +131,20 @@ public class Job {
         identifier = null;
         dateTimeCreated = null;
         logFile = null;
+        convertTo = null;
+        moreManifests = null;
+        partPrefixes = null;
+        partManifests = null;
+    }
+
+    /**
+     * Does the task work on a directory? Tasks that only read and write
+     * manifests do not (when merging, a directory is optional).
+     *
+     * @return true if a directory must be given
+     */
+    public boolean needsDirectory() {
+        return task == Task.CREATE || task == Task.VERIFY || task == Task.UPDATE || task == Task.NOTSET;
     }
 
     /**
@@ -92,29 +157,165 @@ public class Job {
         if (task == Task.NOTSET) {
             return false;
         }
-        if (directory == null) {
+        if (directory == null && needsDirectory()) {
+            return false;
+        }
+        if (task == Task.DIFF && moreManifests.size() != 1) {
+            return false;
+        }
+        if ((task == Task.CONVERT || task == Task.MERGE) && convertTo == null) {
+            return false;
+        }
+        if (task == Task.SPLIT && partManifests.isEmpty()) {
             return false;
         }
         if (manifest == null) {
             return false;
         }
-        if (task == Task.CREATE && actor == null) {
+        if ((task == Task.CREATE || task == Task.UPDATE) && actor == null) {
             return false;
         }
         if (task == Task.CREATE && identifier == null) {
             return false;
         }
+        if (threads < 1) {
+            return false;
+        }
+        if (batch < 1) {
+            return false;
+        }
+        if (readAhead < 0) {
+            return false;
+        }
+        if (concurrency < 0) {
+            return false;
+        }
+        if (cacheSize < 0 || cacheSize > HashCache.MAX_SIZE) {
+            return false;
+        }
         return true;
     }
 
+    /**
+     * Get the format of a manifest to be created. This is the format
+     * explicitly set in the job or, if none, binary if the name of the
+     * manifest ends in '.mfb', and XML otherwise.
+     *
+     * @param p the manifest to be created
+     * @return the format
+     */
+    public ManifestFormat formatFor(Path p) {
+        if (format != null) {
+            return format;
+        }
+        if (p != null && p.getFileName() != null && p.getFileName().toString().toLowerCase().endsWith(".mfb")) {
+            return ManifestFormat.BINARY;
+        }
+        return ManifestFormat.XML;
+    }
+
+    /**
+     * Split a list of hash algorithms (e.g. 'SHA-1,SHA-256'). The first
+     * algorithm in the list is the primary algorithm.
+     *
+     * @param hashAlg a comma separated list of hash algorithms
+     * @return the algorithms (empty if hashAlg is null)
+     */
+    public static String[] splitHashAlg(String hashAlg) {
+        String[] algs;
+        int i;
+
+        if (hashAlg == null) {
+            return new String[0];
+        }
+        algs = hashAlg.split(",");
+        for (i = 0; i < algs.length; i++) {
+            algs[i] = algs[i].trim();
+        }
+        return algs;
+    }
+
+    /**
+     * Do two lists of hash algorithms name the same algorithms? The case of
+     * the names, and the order they are listed in, are ignored.
+     *
+     * @param hashAlg1 a comma separated list of hash algorithms
+     * @param hashAlg2 another comma separated list of hash algorithms
+     * @return true if they name the same algorithms
+     */
+    public static boolean sameHashAlgs(String hashAlg1, String hashAlg2) {
+        String[] algs1, algs2;
+        boolean found;
+        int i, j;
+
+        algs1 = splitHashAlg(hashAlg1);
+        algs2 = splitHashAlg(hashAlg2);
+        if (algs1.length != algs2.length) {
+            return false;
+        }
+        for (i = 0; i < algs1.length; i++) {
+            found = false;
+            for (j = 0; j < algs2.length; j++) {
+                if (algs1[i].equalsIgnoreCase(algs2[j])) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the hash algorithms to use (the first is the primary algorithm)
+     */
+    public String[] hashAlgs() {
+        return splitHashAlg(hashAlg);
+    }
+
+    /**
+     * Check that the hash algorithms are supported by this Java installation.
+     * This is done once when a job is started, rather than for every file
+     * hashed.
+     *
+     * @throws AppError if a hash algorithm is not supported, or is listed
+     * twice
+     */
+    public void checkHashAlg() throws AppError {
+        String[] algs;
+        int i, j;
+
+        if (hashAlg == null) {
+            throw new AppError("Job.checkHashAlg(): No hash algorithm specified");
+        }
+        algs = hashAlgs();
+        for (i = 0; i < algs.length; i++) {
+            if (algs[i].equals("")) {
+                throw new AppError("Job.checkHashAlg(): Empty hash algorithm in '" + hashAlg + "'");
+            }
+            for (j = 0; j < i; j++) {
+                if (algs[j].equalsIgnoreCase(algs[i])) {
+                    throw new AppError("Job.checkHashAlg(): Hash algorithm '" + algs[i] + "' is listed twice in '" + hashAlg + "'");
+                }
+            }
+            if (!Hasher.supported(algs[i])) {
+                throw new AppError("Job.checkHashAlg(): Hash algorithm '" + algs[i] + "' not supported");
+            }
+        }
+    }
+
     /**
      * Create a JSON file capturing the Job
      *
      * @param file
      * @throws AppError
      */
+    @SuppressWarnings("unchecked") // JSONObject and JSONArray are raw collections
     public void saveJob(Path file) throws AppError {
         JSONObject j1;
+        JSONArray ja;
 
         FileWriter fw;
         BufferedWriter bw;
@@ -140,6 +341,21 @@ public class Job {
             case UPDATE:
                 j1.put("task", "update");
                 break;
+            case CONVERT:
+                j1.put("task", "convert");
+                break;
+            case DUPLICATES:
+                j1.put("task", "duplicates");
+                break;
+            case DIFF:
+                j1.put("task", "diff");
+                break;
+            case MERGE:
+                j1.put("task", "merge");
+                break;
+            case SPLIT:
+                j1.put("task", "split");
+                break;
         }
         if (actor != null) {
             j1.put("actor", actor);
@@ -159,10 +375,55 @@ public class Job {
         if (logFile != null) {
             j1.put("logfile", logFile.toString());
         }
-        if (hashAlg != null) {
+        if (convertTo != null) {
+            j1.put("convertTo", convertTo.toString());
+        }
+        if (!moreManifests.isEmpty()) {
+            ja = new JSONArray();
+            for (Path p : moreManifests) {
+                ja.add(p.toString());
+            }
+            j1.put("moreManifests", ja);
+        }
+        if (!partManifests.isEmpty()) {
+            ja = new JSONArray();
+            ja.addAll(partPrefixes);
+            j1.put("partPrefixes", ja);
+            ja = new JSONArray();
+            for (Path p : partManifests) {
+                ja.add(p.toString());
+            }
+            j1.put("partManifests", ja);
+        }
+        if (format != null) {
+            j1.put("format", format == ManifestFormat.BINARY ? "binary" : "xml");
+        }
+        if (hashAlg != null && hashAlgSet) {
             j1.put("hashAlgorithm", hashAlg);
         }
         j1.put("verifyHash", verifyHash);
+        // resume is not saved, as it only applies to the run that died
+        j1.put("rehash", rehash);
+        j1.put("hashCacheSize", cacheSize);
+        j1.put("threads", threads);
+        j1.put("batch", batch);
+        j1.put("readAhead", readAhead);
+        j1.put("concurrency", concurrency);
+        j1.put("index", index);
+        if (!select.isEmpty()) {
+            ja = new JSONArray();
+            ja.addAll(select);
+            j1.put("select", ja);
+        }
+        j1.put("unlisted", unlisted);
+        switch (hashIO) {
+            case STREAM:
+                j1.put("hashIO", "stream");
+                break;
+            case CHANNEL:
+                j1.put("hashIO", "channel");
+                break;
+        }
         j1.put("verboseReporting", verbose);
         j1.put("debugReporting", debug);
 
@@ -230,10 +491,12 @@ public class Job {
     public void loadJob(Path file) throws AppError {
         JSONParser parser = new JSONParser();
         JSONObject j1;
+        JSONArray ja;
         FileReader fr;
         BufferedReader br;
         String s;
         Boolean b;
+        Long l;
 
         // set up the default job
         setDefault();
@@ -249,6 +512,12 @@ public class Job {
             throw new AppError("Failed reading Job file: " + ioe.toString());
         }
 
+        try {
+            br.close();
+            fr.close();
+        } catch (IOException ioe) {
+            /* ignore */ }
+
         if ((s = (String) j1.get("task")) != null) {
             switch (s) {
                 case "create":
@@ -260,6 +529,21 @@ public class Job {
                 case "update":
                     task = Task.UPDATE;
                     break;
+                case "convert":
+                    task = Task.CONVERT;
+                    break;
+                case "duplicates":
+                    task = Task.DUPLICATES;
+                    break;
+                case "diff":
+                    task = Task.DIFF;
+                    break;
+                case "merge":
+                    task = Task.MERGE;
+                    break;
+                case "split":
+                    task = Task.SPLIT;
+                    break;
                 case "notset":
                 default:
                     task = Task.NOTSET;
@@ -284,6 +568,62 @@ public class Job {
         if ((b = (Boolean) j1.get("verifyHash")) != null) {
             verifyHash = b;
         }
+        if ((b = (Boolean) j1.get("rehash")) != null) {
+            rehash = b;
+        }
+        if ((l = (Long) j1.get("hashCacheSize")) != null) {
+            if (l < 0 || l > HashCache.MAX_SIZE) {
+                throw new AppError("Job file: '" + l + "' is not a valid size of hash cache (must be between 0 and " + HashCache.MAX_SIZE + "MB)");
+            }
+            cacheSize = l.intValue();
+        }
+        if ((l = (Long) j1.get("threads")) != null) {
+            if (l < 1 || l > Integer.MAX_VALUE) {
+                throw new AppError("Job file: '" + l + "' is not a valid number of threads (must be at least 1)");
+            }
+            threads = l.intValue();
+        }
+        if ((l = (Long) j1.get("batch")) != null) {
+            if (l < 1 || l > Integer.MAX_VALUE) {
+                throw new AppError("Job file: '" + l + "' is not a valid batch size (must be at least 1)");
+            }
+            batch = l.intValue();
+        }
+        if ((l = (Long) j1.get("readAhead")) != null) {
+            if (l < 0 || l > Integer.MAX_VALUE) {
+                throw new AppError("Job file: '" + l + "' is not a valid number of files to read ahead (must not be negative)");
+            }
+            readAhead = l.intValue();
+        }
+        if ((l = (Long) j1.get("concurrency")) != null) {
+            if (l < 0 || l > Integer.MAX_VALUE) {
+                throw new AppError("Job file: '" + l + "' is not a valid number of files to check at once (must not be negative)");
+            }
+            concurrency = l.intValue();
+        }
+        if ((b = (Boolean) j1.get("index")) != null) {
+            index = b;
+        }
+        select.clear();
+        if ((ja = (JSONArray) j1.get("select")) != null) {
+            for (Object o : ja) {
+                select.add((String) o);
+            }
+        }
+        if ((b = (Boolean) j1.get("unlisted")) != null) {
+            unlisted = b;
+        }
+        if ((s = (String) j1.get("hashIO")) != null) {
+            switch (s) {
+                case "stream":
+                    hashIO = HashIO.STREAM;
+                    break;
+                case "channel":
+                default:
+                    hashIO = HashIO.CHANNEL;
+                    break;
+            }
+        }
         if ((s = (String) j1.get("directory")) != null) {
             directory = Paths.get(s);
         }
@@ -292,21 +632,49 @@ public class Job {
         }
         if ((s = (String) j1.get("hashAlgorithm")) != null) {
             hashAlg = s;
+            hashAlgSet = true;
         }
         if ((s = (String) j1.get("logfile")) != null) {
             logFile = Paths.get(s);
         }
-
-        try {
-            br.close();
-            fr.close();
-        } catch (IOException ioe) {
-            /* ignore */ }
+        if ((s = (String) j1.get("convertTo")) != null) {
+            convertTo = Paths.get(s);
+        }
+        moreManifests.clear();
+        if ((ja = (JSONArray) j1.get("moreManifests")) != null) {
+            for (Object o : ja) {
+                moreManifests.add(Paths.get((String) o));
+            }
+        }
+        partPrefixes.clear();
+        if ((ja = (JSONArray) j1.get("partPrefixes")) != null) {
+            for (Object o : ja) {
+                partPrefixes.add((String) o);
+            }
+        }
+        partManifests.clear();
+        if ((ja = (JSONArray) j1.get("partManifests")) != null) {
+            for (Object o : ja) {
+                partManifests.add(Paths.get((String) o));
+            }
+        }
+        if ((s = (String) j1.get("format")) != null) {
+            switch (s) {
+                case "binary":
+                    format = ManifestFormat.BINARY;
+                    break;
+                case "xml":
+                default:
+                    format = ManifestFormat.XML;
+                    break;
+            }
+        }
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
+        int i;
 
         if (task == Task.CREATE) {
             sb.append("Create manifest '" + manifest.toString() + "' from directory '" + directory.toString() + "'\n");
@@ -318,6 +686,34 @@ public class Job {
             } else {
                 sb.append("(verify both existance and hash of file)\n");
             }
+        } else if (task == Task.UPDATE) {
+            sb.append("Update manifest '" + manifest.toString() + "' from directory '" + directory.toString() + "'\n");
+            sb.append("(only files whose size or modification time has changed are rehashed)\n");
+        } else if (task == Task.CONVERT) {
+            sb.append("Convert manifest '" + manifest.toString() + "' to " + (formatFor(convertTo) == ManifestFormat.BINARY ? "binary" : "XML") + " manifest '" + convertTo.toString() + "'\n");
+        } else if (task == Task.DUPLICATES) {
+            sb.append("Report files with the same content in manifest '" + manifest.toString() + "'");
+            for (Path p : moreManifests) {
+                sb.append(", '" + p.toString() + "'");
+            }
+            sb.append("\n");
+        } else if (task == Task.DIFF) {
+            sb.append("Report the differences between manifest '" + manifest.toString() + "' and manifest '" + moreManifests.get(0).toString() + "'\n");
+        } else if (task == Task.MERGE) {
+            sb.append("Merge manifest '" + manifest.toString() + "'");
+            for (Path p : moreManifests) {
+                sb.append(", '" + p.toString() + "'");
+            }
+            sb.append(" into " + (formatFor(convertTo) == ManifestFormat.BINARY ? "binary" : "XML") + " manifest '" + convertTo.toString() + "'");
+            if (directory != null) {
+                sb.append(" of directory '" + directory.toString() + "'");
+            }
+            sb.append("\n");
+        } else if (task == Task.SPLIT) {
+            sb.append("Split manifest '" + manifest.toString() + "' into:\n");
+            for (i = 0; i < partManifests.size(); i++) {
+                sb.append("  '" + partManifests.get(i).toString() + "': " + (partPrefixes.get(i).isEmpty() ? "the other files" : "the files in '" + partPrefixes.get(i) + "'") + "\n");
+            }
         }
         sb.append(" Person creating or checking manifest");
         if (actor != null) {
@@ -337,6 +733,34 @@ public class Job {
         } else {
             sb.append("not set\n");
         }
+        if (resume) {
+            sb.append(" Resuming from the checkpoint of an earlier run\n");
+        }
+        if (rehash || cacheSize == 0) {
+            sb.append(" Every file is read and hashed (the hash cache is not used)\n");
+        } else {
+            sb.append(" Hashes of unchanged files are reused from the hash cache (max " + cacheSize + "MB)\n");
+        }
+        sb.append(" Threads used to hash files: " + threads + "\n");
+        if (batch > 1) {
+            sb.append(" Files hashed in order of position on disk (in batches of " + batch + ")\n");
+        }
+        if (readAhead > 0) {
+            sb.append(" Files read ahead of hashing: " + readAhead + "\n");
+        }
+        if (index) {
+            sb.append(" A sidecar index of the manifest is written (or used when checking)\n");
+        }
+        if (task == Task.VERIFY && !select.isEmpty()) {
+            sb.append(" Only checking files matching: '" + String.join("', '", select) + "'\n");
+        }
+        if (task == Task.VERIFY && unlisted) {
+            sb.append(" Files in the directory that are not in the manifest are reported\n");
+        }
+        if (!verifyHash && concurrency > 0) {
+            sb.append(" Files checked at once (existence only): " + concurrency + "\n");
+        }
+        sb.append(" Files read using: " + (hashIO == HashIO.STREAM ? "input streams" : "file channels") + "\n");
         if (logFile != null) {
             sb.append(" Log File: '");
             sb.append(logFile.toString());
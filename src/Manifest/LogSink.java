@@ -0,0 +1,218 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+/**
+ * L O G S I N K
+ *
+ * This class receives the log messages generated when the GUI creates or
+ * checks a manifest. A run over millions of files can generate millions of
+ * messages, so they are not kept in memory. Instead:
+ * <ul>
+ * <li>every message is streamed, as it is generated, to a spool file. If
+ * the log file is known when the run starts, the spool file is the log file
+ * itself. Otherwise it is a temporary file, which is streamed into the log
+ * file if the user asks for the results to be logged, and deleted by
+ * close(),</li>
+ * <li>only the most recent messages are kept (in a ring) for display,
+ * and</li>
+ * <li>the number of errors and warnings is counted.</li>
+ * </ul>
+ * All methods are synchronized, as messages can be logged by any thread.
+ */
+final class LogSink {
+
+    private final String[] recent;  // ring of most recent messages
+    private long added;             // total messages added (next slot is added % recent.length)
+    private int errors;             // number of SEVERE messages
+    private int warnings;           // number of WARNING messages
+    private Path spool;             // file holding all messages (null if it couldn't be created)
+    private BufferedWriter spoolW;  // writer for spool file
+    private boolean spoolIsLog;     // true if the spool file is the log file (so it is kept)
+
+    /**
+     * Create a sink. If a log file is given, the header and then the messages
+     * are written straight to it; if it cannot be created, or none is given,
+     * the messages are spooled to a temporary file. If that cannot be created
+     * either, the sink only keeps the most recent messages.
+     *
+     * @param capacity number of recent messages to keep for display
+     * @param logFile the log file (null if not yet known)
+     * @param header text written at the start of the log file
+     */
+    LogSink(int capacity, Path logFile, String header) {
+        recent = new String[capacity];
+        added = 0;
+        errors = 0;
+        warnings = 0;
+        spool = null;
+        spoolW = null;
+        spoolIsLog = false;
+        if (logFile != null) {
+            try {
+                spoolW = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8);
+                spoolW.write(header);
+                spool = logFile;
+                spoolIsLog = true;
+                return;
+            } catch (IOException ioe) {
+                System.out.println("Could not create log file '" + logFile.toString() + "' (the messages will be logged at the end of the run): " + ioe.toString());
+                closeSpool();
+            }
+        }
+        try {
+            spool = Files.createTempFile("Manifest", ".log");
+            spool.toFile().deleteOnExit();
+            spoolW = Files.newBufferedWriter(spool, StandardCharsets.UTF_8);
+        } catch (IOException ioe) {
+            System.out.println("Could not create spool file for log (only the last " + capacity + " messages will be kept): " + ioe.toString());
+            spool = null;
+            spoolW = null;
+        }
+    }
+
+    /**
+     * Add a message
+     *
+     * @param level the level of the message
+     * @param message the message (any trailing line separator is removed)
+     */
+    synchronized void add(Level level, String message) {
+        int i;
+
+        i = message.length();
+        while (i > 0 && (message.charAt(i - 1) == '\n' || message.charAt(i - 1) == '\r')) {
+            i--;
+        }
+        message = message.substring(0, i);
+        if (level == Level.SEVERE) {
+            errors++;
+        } else if (level == Level.WARNING) {
+            warnings++;
+        }
+        recent[(int) (added % recent.length)] = message;
+        added++;
+        if (spoolW != null) {
+            try {
+                spoolW.write(message);
+                spoolW.write('\n');
+            } catch (IOException ioe) {
+                System.out.println("Failed writing to log spool file: " + ioe.toString());
+                closeSpool();
+            }
+        }
+    }
+
+    /**
+     * Get the messages added since an earlier call. If some of those messages
+     * are no longer in the ring, a note of how many were skipped is added
+     * instead.
+     *
+     * @param from the value returned by the previous call (0 for all messages)
+     * @param sb where to put the messages (one per line)
+     * @return the number of messages added so far (pass to the next call)
+     */
+    synchronized long recentSince(long from, StringBuilder sb) {
+        long i;
+
+        if (from < added - recent.length) {
+            sb.append("... ");
+            sb.append(added - recent.length - from);
+            sb.append(" earlier messages not shown (see log file) ...\n");
+            from = added - recent.length;
+        }
+        for (i = from; i < added; i++) {
+            sb.append(recent[(int) (i % recent.length)]);
+            sb.append('\n');
+        }
+        return added;
+    }
+
+    /**
+     * @return the number of errors (SEVERE messages) logged
+     */
+    synchronized int errors() {
+        return errors;
+    }
+
+    /**
+     * @return the number of warnings logged
+     */
+    synchronized int warnings() {
+        return warnings;
+    }
+
+    /**
+     * Finish the log file at the end of a run. If the messages were written
+     * straight to the log file, only the footer is added. Otherwise the log
+     * file is written with the header, then the spool file streamed into it,
+     * then the footer (if there is no spool file, only the recent messages
+     * can be logged).
+     *
+     * @param logFile the log file
+     * @param header text written at the start of the log file
+     * @param footer text written at the end of the log file
+     * @throws IOException if the log file could not be written
+     */
+    synchronized void writeLog(Path logFile, String header, String footer) throws IOException {
+        StringBuilder sb;
+
+        if (spoolIsLog) {
+            if (spoolW != null) {
+                spoolW.write(footer);
+                closeSpool();
+            }
+            return;
+        }
+        try (OutputStream os = Files.newOutputStream(logFile)) {
+            os.write(header.getBytes(StandardCharsets.UTF_8));
+            if (spoolW != null) {
+                spoolW.flush();
+                Files.copy(spool, os);
+            } else {
+                sb = new StringBuilder();
+                recentSince(0, sb);
+                os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            os.write(footer.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Close the sink, deleting the spool file (unless it is the log file)
+     */
+    synchronized void close() {
+        closeSpool();
+        if (spool != null && !spoolIsLog) {
+            try {
+                Files.deleteIfExists(spool);
+            } catch (IOException ioe) {
+                /* ignore */
+            }
+            spool = null;
+        }
+    }
+
+    private void closeSpool() {
+        if (spoolW != null) {
+            try {
+                spoolW.close();
+            } catch (IOException ioe) {
+                /* ignore */
+            }
+            spoolW = null;
+        }
+    }
+}
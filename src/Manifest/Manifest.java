@@ -11,25 +11,34 @@ import VERSCommon.AppError;
 import VERSCommon.HandleElement;
 import VERSCommon.VERSDate;
 import VERSCommon.XMLConsumer;
-import VERSCommon.XMLCreator;
 import VERSCommon.XMLParser;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.Writer;
-import java.nio.file.DirectoryStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.TimeZone;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -72,9 +81,40 @@ public class Manifest implements XMLConsumer {
     int fileCount;          // number of files processed
     FXMLProgressController.DoManifestTask reporter; // call back for reporting
     XMLParser xmlp;         // parser for XML manifest
+    ManifestWriter mw;      // manifest being created (or converted to)
+    Checkpoint ckpt;        // progress of a create, update, or check (null if none)
+    long skip;              // files in manifest already checked by an earlier run
+    long checked;           // files in manifest checked (including those skipped)
+    VerifyPool vp;          // pool checking the files in the manifest
+    HashCache cache;        // hashes of files from earlier runs (null if not used)
+    ManifestIndex.Selection selection; // files being checked (null if all)
+    ExternalSort listed;    // paths listed in the manifest (null unless looking for unlisted files)
+    ExternalSort digests;   // hash, manifest, and path of each file listed (null unless finding duplicates)
+    int manifestNo;         // which manifest is being read when finding duplicates
+    ExternalSort entries;   // path, hash, and size of each file listed (null unless comparing manifests)
+    String compareAlg;      // algorithm of the hashes compared when finding duplicates or comparing manifests
+    long diffMemory;        // memory used by each sort when comparing manifests (DIFF_MEMORY, less when testing spills)
+    long emptyFiles;        // empty files ignored when finding duplicates
+    boolean headerOnly;     // true if only the header of an XML manifest is being read (see readHeader())
+    ManifestWriter[] parts; // manifests written when merging (one) or splitting (one per part) (null if neither)
+    Path[] partPrefixes;    // directory of the files written to each part (null = all files)
+    long[] partCounts;      // entries written to each part
+    Path rebase;            // directory prepended to the paths read when merging (null if none)
+    long unsplit;           // files not written to any part when splitting
+    ReadAhead readAhead;    // reads the start of files ahead of hashing (null if not used)
+    String[] hashAlgs;      // hash algorithms calculated for each file
+    String[] manifestAlgs;  // hash algorithms recorded in the manifest being read
+    int verifyIdx;          // which of the manifest's hashes is checked
+    ExternalSort oldEntries; // entries in the manifest being updated, and files done by an earlier run, by path (null if neither)
+    ArrayList<HistoryEvent> history; // history of the manifest
+    int added, changed, unchanged, removed; // files added, changed, unchanged, and removed by an update
     int objectsExpected;    // total objects expected in manifest (-1 if not of interest)
     boolean help;           // true if printing a cheat list of command line options
     static Base64.Encoder b64enc = Base64.getMimeEncoder();
+    static Base64.Decoder b64dec = Base64.getMimeDecoder();
+
+    static final long SORT_MEMORY = 64L * 1024 * 1024; // memory used by each sort of paths or hashes before spilling to disk
+    static final long DIFF_MEMORY = SORT_MEMORY / 4; // memory used by each sort when comparing manifests (up to four are in use at once)
 
     private final static Logger LOG = Logger.getLogger("Manifest.Manifest");
 
@@ -84,10 +124,22 @@ public class Manifest implements XMLConsumer {
      * <pre>
      * 20210326 0.0.1 Provided version and cleaned up headers
      * 20211117 1.0 Fixed to work with JDK 16 etc
+     * 20261018 1.1 Hash files in parallel when creating or checking a manifest
+     * 20261018 1.2 Record size &amp; modification time of files; added update
+     * 20261018 1.3 Added binary manifests &amp; conversion to and from XML
+     * 20261018 1.4 Added checkpoints &amp; resume
+     * 20261018 1.5 Added multiple hash algorithms per manifest
+     * 20261018 1.6 Added the persistent hash cache
+     * 20261018 1.7 Directory walked reading the attributes of each file once
+     * 20261018 1.8 Added the sidecar index &amp; checking of selected files
+     * 20261018 1.9 Added reporting of files not listed in the manifest
+     * 20261018 1.10 Added the report of files with the same content
+     * 20261018 1.11 Added the comparison of two manifests
+     * 20261018 1.12 Added merging &amp; splitting of manifests
      * </pre>
      */
     static String version() {
-        return ("1.0");
+        return ("1.12");
     }
 
     /**
@@ -116,9 +168,11 @@ public class Manifest implements XMLConsumer {
         }
         reporter = null;
         help = false;
+        diffMemory = DIFF_MEMORY;
 
         // process command line arguments
         configure(args);
+        hashAlgs = job.hashAlgs();
 
         // remove any handlers associated with the LOG & log messages aren't to
         // go to the parent
@@ -156,20 +210,44 @@ public class Manifest implements XMLConsumer {
         LOG.log(Level.INFO, "Run at {0}", new Object[]{sdf.format(new Date())});
         LOG.log(Level.INFO, "");
         if (help) {
-            // "Manifest [-help] [-v] [-d] [-o <file>] [-i <file>] [-h <hashAlg>] [-nohash] directory"
+            // "Manifest [-help] [-v] [-d] [-o <file>] [-i <file>] [-h <hashAlg>] [-t <threads>] [-nohash] directory"
             LOG.log(Level.INFO, "Command line arguments:");
             LOG.log(Level.INFO, " Mandatory:");
-            LOG.log(Level.INFO, "  Three options are supported:");
+            LOG.log(Level.INFO, "  Five options are supported:");
             LOG.log(Level.INFO, "   To create (output) a manifest:");
             LOG.log(Level.INFO, "    -o <manifestFile> <directory>: create (output) the specified manifest file from the specified directory");
             LOG.log(Level.INFO, "   To check (input) a manifest:");
             LOG.log(Level.INFO, "    -i <manifestFile> <directory>: check (input) the specified manifest file against the specified directory");
+            LOG.log(Level.INFO, "   To update a manifest (only rehashing files whose size or modification time has changed):");
+            LOG.log(Level.INFO, "    -u <manifestFile> <directory>: update the specified manifest file from the specified directory");
+            LOG.log(Level.INFO, "   To convert a manifest between the XML and binary formats (no directory is needed):");
+            LOG.log(Level.INFO, "    -convert <manifestFile> <newManifestFile>: convert the manifest (the new format is given by -f or the extension of the new file)");
+            LOG.log(Level.INFO, "   To report the files with the same content in one or more manifests (no directory is needed):");
+            LOG.log(Level.INFO, "    -duplicates <manifestFile>: read the hashes in the manifest. Give -duplicates more than once to compare several manifests (e.g. consignments). The hash algorithm compared is given by -h (default the first recorded in the first manifest)");
+            LOG.log(Level.INFO, "   To report the differences between two manifests (no directory is needed):");
+            LOG.log(Level.INFO, "    -diff <oldManifestFile> <newManifestFile>: report the files added, removed, changed, or moved (same hash, new path). The hash algorithm compared is given by -h (default the first recorded in the old manifest)");
+            LOG.log(Level.INFO, "   To merge manifests into one (the files are not read; an optional directory is the source directory of the new manifest, by default the closest directory containing those of the manifests):");
+            LOG.log(Level.INFO, "    -merge <manifestFile> -merge <manifestFile> ... -into <newManifestFile> [directory]: give -merge for each manifest. The manifests must record the same hash algorithms. Paths are rebased to the new source directory, and the histories are combined");
+            LOG.log(Level.INFO, "   To split a manifest into parts by path (the files are not read):");
+            LOG.log(Level.INFO, "    -split <manifestFile> -part <path> <newManifestFile> ...: give -part for each part. The files in the directory <path> (relative to the source directory) go in the new manifest, with paths relative to <path>. Each file goes in the part with the longest matching path; a <path> of '.' takes the files in no other part");
             LOG.log(Level.INFO, "   To load a job (specifying creating or checking a manifest using a JSON file):");
             LOG.log(Level.INFO, "    -j <jobFile.json>: load the details of what to do from a job file");
             LOG.log(Level.INFO, "");
             LOG.log(Level.INFO, " Optional:");
             LOG.log(Level.INFO, "  -l <logFile>: save the details of what happened in a file");
-            LOG.log(Level.INFO, "  -h <hashAlgorithm>: specifies the hash algorithm (default SHA-1)");
+            LOG.log(Level.INFO, "  -h <hashAlgorithm>: specifies the hash algorithm (default SHA-1). Any algorithm supported by Java can be used, or BLAKE3, or XXH3 (fast, but only detects accidental change). A comma separated list (e.g. SHA-1,SHA-256) records a hash for each, reading each file once. 'TREE-' before an algorithm (e.g. TREE-SHA-256) selects a tree hash, which hashes a large file in parallel chunks. When updating, the manifest's hash algorithm is used (giving a different one is an error). When checking, selects which of the manifest's hashes is checked (default the cheapest, ignoring XXH3 unless it is the only one)");
+            LOG.log(Level.INFO, "  -t <threads>: number of threads used to hash files (default the number of processors)");
+            LOG.log(Level.INFO, "  -batch <files>: when creating or updating, files are hashed in batches of this many in the order they are stored on disk, rather than the order found, to reduce seeking (default 256; 1 = hash in the order found)");
+            LOG.log(Level.INFO, "  -readahead <files>: open and read the start of this many files ahead of them being hashed. This hides the latency of network shares (SMB, NFS) when hashing many small files (default 0 = none)");
+            LOG.log(Level.INFO, "  -concurrency <files>: when checking with -nohash, check that this many files exist at once. This hides the latency of network shares, where each check is a round trip (default 0 = the number of threads given by -t)");
+            LOG.log(Level.INFO, "  -unlisted: when checking, also report every file in the directory that is not listed in the manifest. The paths are sorted on disk, so any number of files can be reconciled in a bounded amount of memory");
+            LOG.log(Level.INFO, "  -io stream|channel: how files are read when hashing (default channel)");
+            LOG.log(Level.INFO, "  -resume: continue a create, update, or check from the checkpoint left by an earlier run that was cancelled or failed");
+            LOG.log(Level.INFO, "  -cache <MB>: use a hash cache of at most this size (up to 1024MB). The hashes of files whose path, size, and modification time have not changed since an earlier run that used the cache are taken from the cache without reading the file. By default the cache is not used, and every file is read (as a check must, to detect corruption)");
+            LOG.log(Level.INFO, "  -rehash: read and hash every file, even if a hash cache is given (e.g. by a job file)");
+            LOG.log(Level.INFO, "  -index: write a sidecar index (the manifest's name with '.idx' appended) when creating, updating, or converting a manifest. When checking with -only, the index is used to read only the entries selected (and is built if it is missing or out of date)");
+            LOG.log(Level.INFO, "  -only <path>: when checking, only check the files matching the path. This is a file or directory relative to the directory (e.g. 'reports/2024'), or a glob (e.g. 'reports/**.pdf'). Can be given more than once");
+            LOG.log(Level.INFO, "  -f xml|binary: format of manifest created (default binary if the file ends in '.mfb', otherwise xml). Manifests of either format can be read");
             LOG.log(Level.INFO, "");
             LOG.log(Level.INFO, "  -v: verbose mode: give more details about processing");
             LOG.log(Level.INFO, "  -d: debug mode: give a lot of details about processing");
@@ -178,12 +256,18 @@ public class Manifest implements XMLConsumer {
         }
 
         // check to see that user specified the mandatory arguments
-        if (job.directory == null) {
+        if (job.directory == null && job.needsDirectory()) {
             throw new AppFatal(classname, 1, "No directory specified. Usage: " + USAGE);
         }
         if (job.manifest == null) {
             throw new AppFatal(classname, 2, "No manifest specified. Usage: " + USAGE);
         }
+        if (job.task == Job.Task.MERGE && job.convertTo == null) {
+            throw new AppFatal(classname, 16, "No manifest to merge into specified (-into). Usage: " + USAGE);
+        }
+        if (job.task == Job.Task.SPLIT && job.partManifests.isEmpty()) {
+            throw new AppFatal(classname, 17, "No parts specified (-part). Usage: " + USAGE);
+        }
 
         LOG.log(Level.INFO, job.toString());
     }
@@ -195,11 +279,11 @@ public class Manifest implements XMLConsumer {
      * called so that the governing program can update any status.
      *
      * @param job parameters for the execution (replaces the command line)
-     * @param results place where log messages go
+     * @param results place where log messages go (may be null)
      * @param reporter callback to update status in the calling program
      * @throws AppFatal
      */
-    public Manifest(Job job, ArrayList<String> results, FXMLProgressController.DoManifestTask reporter) throws AppFatal {
+    public Manifest(Job job, LogSink results, FXMLProgressController.DoManifestTask reporter) throws AppFatal {
         Handler h[];
         int i;
 
@@ -224,6 +308,8 @@ public class Manifest implements XMLConsumer {
         // set up global variables from job
         this.job = job;
         fileCount = 0;
+        hashAlgs = job.hashAlgs();
+        diffMemory = DIFF_MEMORY;
 
         // set up callback
         this.reporter = reporter;
@@ -247,7 +333,7 @@ public class Manifest implements XMLConsumer {
 
         final SimpleFormatter sf;
         Writer w;
-        ArrayList<String> r;
+        LogSink r;
         PrintStream ps;
 
         /**
@@ -256,7 +342,7 @@ public class Manifest implements XMLConsumer {
          *
          * @param writer
          */
-        public LogHandler(PrintStream ps, Writer writer, ArrayList<String> results) {
+        public LogHandler(PrintStream ps, Writer writer, LogSink results) {
             sf = new SimpleFormatter();
             w = writer;
             r = results;
@@ -279,7 +365,7 @@ public class Manifest implements XMLConsumer {
                     w.write(s);
                 }
                 if (r != null) {
-                    r.add(s);
+                    r.add(record.getLevel(), s);
                 }
                 if (ps != null) {
                     ps.print(s);
@@ -320,7 +406,7 @@ public class Manifest implements XMLConsumer {
      * @param args[] the command line arguments
      * @param VEOFatal if a fatal error occurred
      */
-    final String USAGE = "Manifest [-help] [-j <file>] [-o <file>] [-i <file>] [-h <hashAlg>] [-l logfile] [-nohash] [-v] [-d] directory";
+    final String USAGE = "Manifest [-help] [-j <file>] [-o <file>] [-i <file>] [-u <file>] [-convert <file> <file>] [-duplicates <file>] [-diff <file> <file>] [-merge <file> -merge <file> ... -into <file>] [-split <file> -part <path> <file>] [-f xml|binary] [-index] [-only <path>] [-unlisted] [-resume] [-rehash] [-cache <MB>] [-h <hashAlg>] [-t <threads>] [-batch <files>] [-readahead <files>] [-concurrency <files>] [-io stream|channel] [-l logfile] [-nohash] [-v] [-d] directory";
 
     private void configure(String args[]) throws AppFatal {
         int i;
@@ -367,6 +453,98 @@ public class Manifest implements XMLConsumer {
                     case "-h":
                         i++;
                         job.hashAlg = args[i];
+                        job.hashAlgSet = true;
+                        i++;
+                        break;
+
+                    // number of threads used to hash files
+                    case "-t":
+                        i++;
+                        try {
+                            job.threads = Integer.parseInt(args[i]);
+                        } catch (NumberFormatException nfe) {
+                            throw new AppFatal("Number of threads '" + args[i] + "' is not an integer. Usage: " + USAGE);
+                        }
+                        if (job.threads < 1) {
+                            throw new AppFatal("Number of threads must be at least 1. Usage: " + USAGE);
+                        }
+                        i++;
+                        break;
+
+                    // number of files reordered by position on disk before hashing
+                    case "-batch":
+                        i++;
+                        try {
+                            job.batch = Integer.parseInt(args[i]);
+                        } catch (NumberFormatException nfe) {
+                            throw new AppFatal("Batch size '" + args[i] + "' is not an integer. Usage: " + USAGE);
+                        }
+                        if (job.batch < 1) {
+                            throw new AppFatal("Batch size must be at least 1. Usage: " + USAGE);
+                        }
+                        i++;
+                        break;
+
+                    // number of files read ahead of hashing
+                    case "-readahead":
+                        i++;
+                        try {
+                            job.readAhead = Integer.parseInt(args[i]);
+                        } catch (NumberFormatException nfe) {
+                            throw new AppFatal("Number of files to read ahead '" + args[i] + "' is not an integer. Usage: " + USAGE);
+                        }
+                        if (job.readAhead < 0) {
+                            throw new AppFatal("Number of files to read ahead must not be negative. Usage: " + USAGE);
+                        }
+                        i++;
+                        break;
+
+                    // write (or use) a sidecar index of the manifest
+                    case "-index":
+                        job.index = true;
+                        i++;
+                        break;
+
+                    // only check the files matching a path or glob
+                    case "-only":
+                        i++;
+                        job.select.add(args[i]);
+                        i++;
+                        break;
+
+                    // report files in the directory that are not in the manifest
+                    case "-unlisted":
+                        job.unlisted = true;
+                        i++;
+                        break;
+
+                    // number of files checked at once when only checking existence
+                    case "-concurrency":
+                        i++;
+                        try {
+                            job.concurrency = Integer.parseInt(args[i]);
+                        } catch (NumberFormatException nfe) {
+                            throw new AppFatal("Number of files to check at once '" + args[i] + "' is not an integer. Usage: " + USAGE);
+                        }
+                        if (job.concurrency < 0) {
+                            throw new AppFatal("Number of files to check at once must not be negative. Usage: " + USAGE);
+                        }
+                        i++;
+                        break;
+
+                    // how files are read when hashing
+                    case "-io":
+                        i++;
+                        switch (args[i].toLowerCase()) {
+                            case "stream":
+                                job.hashIO = Job.HashIO.STREAM;
+                                break;
+                            case "channel":
+                                job.hashIO = Job.HashIO.CHANNEL;
+                                break;
+                            default:
+                                throw new AppFatal("Unrecognised I/O backend '" + args[i] + "' (must be 'stream' or 'channel'). Usage: " + USAGE);
+                        }
                         i++;
                         break;
 
@@ -390,11 +568,129 @@ public class Manifest implements XMLConsumer {
 
                     // don't recalculate hash values when verifying
                     case "-nohash":
-                        i++;
                         job.verifyHash = false;
                         i++;
                         break;
 
+                    // format of manifest created
+                    case "-f":
+                        i++;
+                        switch (args[i].toLowerCase()) {
+                            case "xml":
+                                job.format = Job.ManifestFormat.XML;
+                                break;
+                            case "binary":
+                                job.format = Job.ManifestFormat.BINARY;
+                                break;
+                            default:
+                                throw new AppFatal("Unrecognised manifest format '" + args[i] + "' (must be 'xml' or 'binary'). Usage: " + USAGE);
+                        }
+                        i++;
+                        break;
+
+                    // continue from the last checkpoint
+                    case "-resume":
+                        job.resume = true;
+                        i++;
+                        break;
+
+                    // read and hash every file, ignoring the hash cache
+                    case "-rehash":
+                        job.rehash = true;
+                        i++;
+                        break;
+
+                    // use a hash cache of this maximum size
+                    case "-cache":
+                        i++;
+                        try {
+                            job.cacheSize = Integer.parseInt(args[i]);
+                        } catch (NumberFormatException nfe) {
+                            throw new AppFatal("Size of hash cache '" + args[i] + "' is not an integer. Usage: " + USAGE);
+                        }
+                        if (job.cacheSize < 0 || job.cacheSize > HashCache.MAX_SIZE) {
+                            throw new AppFatal("Size of hash cache must be between 0 and " + HashCache.MAX_SIZE + "MB. Usage: " + USAGE);
+                        }
+                        i++;
+                        break;
+
+                    // '-convert' specifies manifest file to convert, and the new manifest
+                    case "-convert":
+                        i++;
+                        job.manifest = Paths.get(args[i]);
+                        i++;
+                        job.convertTo = Paths.get(args[i]);
+                        job.task = Job.Task.CONVERT;
+                        i++;
+                        break;
+
+                    // '-duplicates' specifies a manifest to look for duplicates in
+                    case "-duplicates":
+                        i++;
+                        if (job.task == Job.Task.DUPLICATES) {
+                            job.moreManifests.add(Paths.get(args[i]));
+                        } else {
+                            job.manifest = Paths.get(args[i]);
+                        }
+                        job.task = Job.Task.DUPLICATES;
+                        i++;
+                        break;
+
+                    // '-diff' specifies the old and new manifests to compare
+                    case "-diff":
+                        i++;
+                        job.manifest = Paths.get(args[i]);
+                        i++;
+                        job.moreManifests.clear();
+                        job.moreManifests.add(Paths.get(args[i]));
+                        job.task = Job.Task.DIFF;
+                        i++;
+                        break;
+
+                    // '-merge' specifies a manifest to be merged
+                    case "-merge":
+                        i++;
+                        if (job.task == Job.Task.MERGE) {
+                            job.moreManifests.add(Paths.get(args[i]));
+                        } else {
+                            job.manifest = Paths.get(args[i]);
+                        }
+                        job.task = Job.Task.MERGE;
+                        i++;
+                        break;
+
+                    // '-into' specifies the manifest created by merging
+                    case "-into":
+                        i++;
+                        job.convertTo = Paths.get(args[i]);
+                        i++;
+                        break;
+
+                    // '-split' specifies the manifest to be split
+                    case "-split":
+                        i++;
+                        job.manifest = Paths.get(args[i]);
+                        job.task = Job.Task.SPLIT;
+                        i++;
+                        break;
+
+                    // '-part' specifies a part of a manifest being split
+                    case "-part":
+                        i++;
+                        job.partPrefixes.add(Paths.get(args[i]).normalize().toString());
+                        i++;
+                        job.partManifests.add(Paths.get(args[i]));
+                        i++;
+                        break;
+
+                    // '-u' specifies manifest file to be updated
+                    case "-u":
+                        i++;
+                        job.manifest = Paths.get(args[i]);
+                        job.task = Job.Task.UPDATE;
+                        i++;
+                        break;
+
                     // '-o' specifies output manifest file
                     case "-o":
                         i++;
@@ -460,207 +756,1874 @@ public class Manifest implements XMLConsumer {
     }
 
     /**
-     * Create a manifest - an XML file. If the user cancels the creation half
-     * way through, whatever has been produced is output.
+     * Create a manifest - an XML or binary file (see Job.formatFor()). The
+     * manifest is written to a temporary file alongside it, which is renamed
+     * only when the manifest is complete. If the user cancels the creation
+     * half way through, or it fails, no manifest is left behind (an existing
+     * manifest is untouched).
+     *
+     * Progress is recorded in a Checkpoint; if the creation is cancelled or
+     * fails it can be resumed (job.resume) without rehashing the files
+     * already done.
+     *
+     * The directory tree is walked on the calling thread, and the files found
+     * are hashed by a pool of job.threads threads (see HashPool). The entries
+     * are written to the manifest in the order the files were found (in path
+     * order when resuming, see updateHashes()).
      *
      * @throws VERSCommon.AppFatal
      * @throws VERSCommon.AppError
      */
     public void createManifest() throws AppFatal, AppError {
-        XMLCreator xmlc;
+        Path tmp;
         boolean cancelled;
 
-        // create manifest
-        xmlc = new XMLCreator(true);
-        xmlc.startXMLDoc(job.manifest, "Manifest", null);
-        xmlc.includeElement("Creator", null, job.actor, false);
-        xmlc.includeElement("HashAlgorithm", null, job.hashAlg, false);
-        xmlc.includeElement("SourceDirectory", null, job.directory.toString(), false);
-        xmlc.startElement("History", null, false);
-        xmlc.includeElement("DateTimeCreated", null, VERSDate.versDateTime(0), false);
-        xmlc.includeElement("Comment", null, job.comment, false);
-        xmlc.endElement("History", false);
-        xmlc.startElement("Files", null, false);
-        cancelled = createHashes(job.directory, xmlc);
-        if (cancelled) {
-            return;
+        // check the hash algorithm once, rather than for every file
+        job.checkHashAlg();
+        hashAlgs = job.hashAlgs();
+
+        // if resuming, the files done by the earlier run are reused as if
+        // this was an update
+        ckpt = new Checkpoint(job.manifest, false);
+        oldEntries = job.resume ? new ExternalSort(tempDir(), SORT_MEMORY) : null;
+        openCache();
+        try {
+            if (oldEntries != null) {
+                resumeEntries("create");
+            }
+            ckpt.startJournal("create", job.hashAlg);
+
+            // create manifest
+            history = new ArrayList<>();
+            history.add(new HistoryEvent("DateTimeCreated", VERSDate.versDateTime(0), null, job.comment));
+            tmp = job.manifest.resolveSibling(job.manifest.getFileName().toString() + ".tmp");
+            mw = openWriter(tmp, job.formatFor(job.manifest));
+            mw.writeHeader(job.actor, job.hashAlg, job.directory.toString(), history);
+            cancelled = writeFiles();
+            if (cancelled) {
+                mw.abandon();
+                mw = null;
+                LOG.log(Level.WARNING, "Creation of manifest ''{0}'' was cancelled. It can be resumed using -resume", new Object[]{job.manifest.toString()});
+            } else {
+                mw.close();
+                mw = null;
+                try {
+                    Files.move(tmp, job.manifest, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException ioe) {
+                    throw new AppFatal(classname, 18, "Failed to rename new manifest '" + tmp.toString() + "' to '" + job.manifest.toString() + "': " + ioe.toString());
+                }
+                ckpt.delete();
+                if (job.index) {
+                    writeIndex(job.manifest);
+                }
+            }
+        } finally {
+            if (mw != null) {
+                mw.abandon();
+                mw = null;
+            }
+            closeCache();
+            ckpt.close();
+            ckpt = null;
+            if (oldEntries != null) {
+                oldEntries.close();
+                oldEntries = null;
+            }
         }
-        xmlc.endElement("Files", false);
-        // xmlc.includeElement("FileCount", null, Integer.toString(fileCount), false);
-        xmlc.endXMLDoc();
     }
 
     /**
-     * Process an individual directory or file. If a directory, recursively
-     * process all of the files (or directories) in it.
+     * Update a manifest. The existing manifest is read into a sort by path,
+     * and the directory is then walked (see updateHashes()). Files whose size
+     * and modification time are the same as recorded in the manifest are not
+     * rehashed; files that have changed or are new are hashed; and files that
+     * are in the manifest, but no longer in the directory are dropped. A
+     * History element recording the update is added. The sorts spill to the
+     * system temp directory, so the memory used does not grow with the size
+     * of the manifest.
+     *
+     * The new manifest is written to a temporary file alongside the existing
+     * manifest, and replaces it only when complete. If the user cancels the
+     * update, the existing manifest is left untouched.
+     *
+     * Manifests created before version 1.2 do not record the size and
+     * modification time, so the first update rehashes every file.
      *
-     * @param p the file or directory to hashFiles
-     * @param first this is the first entry in the directory
+     * @throws VERSCommon.AppFatal
+     * @throws VERSCommon.AppError
      */
-    private boolean createHashes(Path p, XMLCreator xmlc) throws AppFatal {
-        DirectoryStream<Path> ds;
-        String hash;
+    public void updateManifest() throws AppFatal, AppError {
         boolean cancelled;
 
-        // check that file or directory exists
-        if (!Files.exists(p)) {
-            LOG.log(Level.WARNING, "***File ''{0}'' does not exist", new Object[]{p.normalize().toString()});
-            return false;
-        }
-
-        // check that it is not a Windows 10 back-up file
-        if (p.getFileName().toString().startsWith("~$")) {
-            LOG.log(Level.WARNING, "***File name ''{0}'' begins with a '~$' and will not be included", new Object[]{p.normalize().toString()});
-            return false;
+        // check parameters
+        if (job.manifest == null) {
+            throw new AppError("Passed null manifest to be updated");
         }
 
-        cancelled = false;
-
-        // if file is a directory, go through directory and test all the files
-        if (Files.isDirectory(p)) {
-            LOG.log(Level.INFO, "***Processing directory ''{0}''", new Object[]{p.normalize().toString()});
-            ds = null;
-            try {
-                ds = Files.newDirectoryStream(p);
-                for (Path p1 : ds) {
-                    cancelled = createHashes(p1, xmlc);
-                    if (cancelled) {
-                        break;
-                    }
+        // read the existing manifest (the updated manifest is in the same format)
+        oldDetails = new Job();
+        oldEntries = new ExternalSort(tempDir(), SORT_MEMORY);
+        history = new ArrayList<>();
+        fileCount = 0;
+        try {
+            readManifest(job.manifest);
+            LOG.log(Level.INFO, "Read {0} entries from manifest ''{1}''", new Object[]{fileCount, job.manifest.toString()});
+
+            // the hashes being reused must match the new ones, so the
+            // manifest's algorithm is used unless another was asked for
+            if (oldDetails.hashAlg != null) {
+                if (job.hashAlgSet && !Job.sameHashAlgs(oldDetails.hashAlg, job.hashAlg)) {
+                    throw new AppError("Manifest '" + job.manifest.toString() + "' was created using '" + oldDetails.hashAlg + "', not '" + job.hashAlg + "'. An update cannot change the hash algorithm; create a new manifest instead");
                 }
-            } catch (IOException e) {
-                LOG.log(Level.WARNING, "Failed to process directory ''{0}'': {1}", new Object[]{p.normalize().toString(), e.toString()});
+                job.hashAlg = oldDetails.hashAlg;
+            }
+            job.checkHashAlg();
+            hashAlgs = job.hashAlgs();
+            history.add(new HistoryEvent("DateTimeUpdated", VERSDate.versDateTime(0), job.actor, job.comment));
+
+            // if resuming, the files done by the earlier run override the manifest
+            ckpt = new Checkpoint(job.manifest, false);
+            if (job.resume) {
+                resumeEntries("update");
+            }
+            openCache();
+            try {
+                ckpt.startJournal("update", job.hashAlg);
+                cancelled = writeUpdate();
             } finally {
-                if (ds != null) {
-                    try {
-                        ds.close();
-                    } catch (IOException e) {
-                        // ignore
-                    }
+                closeCache();
+                ckpt.close();
+            }
+            if (!cancelled) {
+                ckpt.delete();
+                if (job.index) {
+                    writeIndex(job.manifest);
                 }
             }
-            return cancelled;
+        } finally {
+            oldEntries.close();
+            oldEntries = null;
+            ckpt = null;
         }
+    }
 
-        if (Files.isRegularFile(p)) {
-            try {
-                hash = hashFile(p);
-                xmlc.startElement("f", null, false);
-                xmlc.includeElement("p", null, job.directory.relativize(p).toString(), true);
-                xmlc.includeElement("h", null, hash, true);
-                xmlc.endElement("f", true);
-                LOG.log(Level.INFO, "Hashed ''{0}'': ''{1}''", new Object[]{p.normalize().toString(), hash});
-            } catch (AppError ae) {
-                LOG.log(Level.WARNING, "Failed to process file ''{0}'': {1}", new Object[]{p.normalize().toString(), ae.toString()});
+    /**
+     * Write the updated manifest
+     *
+     * @return true if the user cancelled the update
+     * @throws AppFatal if the manifest could not be written
+     */
+    private boolean writeUpdate() throws AppFatal {
+        Path tmp;
+        Job.ManifestFormat format;
+        boolean cancelled;
+
+        format = BinaryManifest.isBinary(job.manifest) ? Job.ManifestFormat.BINARY : Job.ManifestFormat.XML;
+
+        // write the new manifest
+        tmp = job.manifest.resolveSibling(job.manifest.getFileName().toString() + ".tmp");
+        added = 0;
+        changed = 0;
+        unchanged = 0;
+        removed = 0;
+        mw = openWriter(tmp, format);
+        try {
+            mw.writeHeader(oldDetails.actor != null ? oldDetails.actor : job.actor, job.hashAlg, job.directory.toString(), history);
+            cancelled = writeFiles();
+            if (!cancelled) {
+                mw.close();
             }
-        } else {
-            LOG.log(Level.INFO, "***Ignoring directory ''{0}''", new Object[]{p.normalize().toString()});
+        } finally {
+            // a cancelled or failed update leaves no partial manifest
+            mw.abandon();
+            mw = null;
         }
-        // System.out.println("Did file: " + p.toString());
-        if (reporter != null) {
-            if (p.getNameCount() > 3) {
-                p = p.subpath(p.getNameCount() - 3, p.getNameCount());
-            }
-            cancelled = reporter.updateStatus(".../" + p.toString(), null);
+        if (cancelled) {
+            LOG.log(Level.WARNING, "Update of manifest ''{0}'' was cancelled. It can be resumed using -resume", new Object[]{job.manifest.toString()});
+            return true;
         }
 
-        return cancelled;
+        LOG.log(Level.INFO, "Update complete: {0} files unchanged, {1} changed, {2} added, {3} removed", new Object[]{unchanged, changed, added, removed});
+
+        // replace the old manifest
+        try {
+            Files.move(tmp, job.manifest, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            throw new AppFatal(classname, 10, "Failed to replace manifest '" + job.manifest.toString() + "' with updated manifest '" + tmp.toString() + "': " + ioe.toString());
+        }
+        return false;
     }
 
     /**
-     * Check a manifest
+     * Add the files completed by an earlier create or update from the
+     * checkpoint to the sort of old entries. An unusable checkpoint is
+     * ignored (with a warning).
      *
-     * @param objectsExpected Total objects expected in manifest (-1 if not
-     * known)
-     * @throws VERSCommon.AppFatal
-     * @throws VERSCommon.AppError
+     * @param task the task being resumed ('create' or 'update')
+     * @throws AppFatal if the files could not be sorted
      */
-    public void checkManifest(int objectsExpected) throws AppFatal, AppError {
+    private void resumeEntries(String task) throws AppFatal {
+        long n;
 
-        // check parameters
-        if (job.manifest == null) {
-            throw new AppError("Passed null manifest to be processed");
+        try {
+            n = ckpt.loadEntries(task, job.hashAlg, this);
+        } catch (AppError ae) {
+            LOG.log(Level.WARNING, "Ignoring checkpoint: {0}", new Object[]{ae.getMessage()});
+            return;
         }
-        this.objectsExpected = objectsExpected;
-        fileCount = 0;
+        LOG.log(Level.INFO, "Resuming from checkpoint ''{0}'': {1} files already done", new Object[]{ckpt.getFile().toString(), n});
+    }
 
-        // parse it
-        oldDetails = new Job();
+    /**
+     * Open the hash cache, if the job asks for it (and does not say every
+     * file is to be hashed).
+     * If the cache cannot be used (e.g. another job is using it), the job
+     * continues without it.
+     */
+    private void openCache() {
+        cache = null;
+        if (job.rehash || job.cacheSize == 0) {
+            return;
+        }
         try {
-            xmlp = new XMLParser(this);
-            xmlp.parse(job.manifest);
-            xmlp = null;
-        } catch (AppFatal | AppError ae) {
-            System.out.println("Error! " + ae.toString());
-            throw ae;
+            cache = HashCache.open(HashCache.defaultFile(), job.cacheSize);
+        } catch (AppError ae) {
+            LOG.log(Level.WARNING, "Hashing every file, as the hash cache cannot be used: {0}", new Object[]{ae.getMessage()});
         }
     }
 
     /**
-     * SAX Events captured
+     * Close the hash cache (if open), reporting how much it was used
+     */
+    private void closeCache() {
+        if (cache == null) {
+            return;
+        }
+        if (job.task == Job.Task.VERIFY) {
+            LOG.log(Level.INFO, "{0} files were not read as their hashes were in the hash cache ''{1}'' ({2} files were hashed). Use -rehash to read every file", new Object[]{cache.getHits(), cache.getFile().toString(), cache.getMisses()});
+        } else {
+            LOG.log(Level.INFO, "Hashes of {0} files were reused from the hash cache ''{1}'' ({2} files were hashed)", new Object[]{cache.getHits(), cache.getFile().toString(), cache.getMisses()});
+        }
+        cache.close();
+        cache = null;
+    }
+
+    /**
+     * An event in the history of a manifest (its creation or an update)
      */
+    static class HistoryEvent {
+
+        String type;        // 'DateTimeCreated' or 'DateTimeUpdated'
+        String dateTime;    // when the event occurred
+        String actor;       // who caused the event (null if not recorded)
+        String comment;     // comment about the event (may be null)
+
+        HistoryEvent(String type, String dateTime, String actor, String comment) {
+            this.type = type;
+            this.dateTime = dateTime;
+            this.actor = actor;
+            this.comment = comment;
+        }
+    }
+
     /**
-     * Start of element
-     *
-     * This event is called when the parser finds a new element.
+     * Convert a manifest between the XML and binary formats. The manifest is
+     * read (in either format), and written to job.convertTo in the format
+     * given by job.formatFor(). Nothing is lost in the conversion, so a
+     * manifest can be converted back and forth.
      *
-     * @param eFound path of found element
-     * @param attributes any attributes associated with found element
-     * @throws SAXException
+     * @throws VERSCommon.AppFatal
+     * @throws VERSCommon.AppError
      */
-    Job oldDetails;         // the old details read from the XML file
-    Path file;              // the current file being processed
-    String hashValue;       // the hash value of the current file
+    public void convertManifest() throws AppFatal, AppError {
 
-    @Override
-    public HandleElement startElement(String eFound, Attributes attributes) throws SAXException {
-        HandleElement he;
+        // check parameters
+        if (job.manifest == null || job.convertTo == null) {
+            throw new AppError("Passed null manifest to be converted");
+        }
 
-        // match the path to see if do we do something special?
-        he = null;
-        switch (eFound) {
-            case "Manifest/Creator":         // creator of manifest
-            case "Manifest/HashAlgorithm":   // hash algorithm used
-            case "Manifest/SourceDirectory": // root of source directory
-            case "Manifest/History/DateTimeCreated": // date created
-            case "Manifest/Files/f/p": // path name of file in manifest
-            case "Manifest/Files/f/h": // hash algorithm
-                he = new HandleElement(HandleElement.VALUE_TO_STRING, false, null);
-                break;
-            case "Manifest/Files/f":      // detail of each file
-                file = null;
-                hashValue = null;
-                fileCount++;
-                break;
-            case "Manifest":                 // manifest
-            case "Manifest/History":
-            case "Manifest/History/Comment": // a comment that the creator added
-            case "Manifest/Files":           // list of files in manifest
-                break;
-            default:
-                break;
+        // read the manifest; the new manifest is written as it is read (see
+        // startFiles() and readEntry())
+        oldDetails = new Job();
+        oldEntries = null;
+        history = new ArrayList<>();
+        fileCount = 0;
+        vp = null;
+        mw = openWriter(job.convertTo, job.formatFor(job.convertTo));
+        try {
+            readManifest(job.manifest);
+            mw.close();
+        } finally {
+            mw.abandon();
+            mw = null;
+        }
+        LOG.log(Level.INFO, "Converted {0} entries from ''{1}'' to ''{2}''", new Object[]{fileCount, job.manifest.toString(), job.convertTo.toString()});
+        if (job.index) {
+            writeIndex(job.convertTo);
         }
-        return he;
     }
 
     /**
-     * End of an element
-     *
-     * Found the end of an element.
+     * Report the files with the same content in one or more manifests. No
+     * files are read: the hashes recorded in the manifests are compared. The
+     * entries of all the manifests are sorted by their hash (see sortHash()),
+     * which brings the files with the same content together. Each group is
+     * reported with the size of the files and the bytes that could be
+     * reclaimed by keeping only one copy, followed by the totals.
+     * <p>
+     * The sort spills to the system temp directory when it grows past
+     * SORT_MEMORY, so any number of entries can be compared with a modest
+     * heap. Only the files in the current group are held in memory.
      *
-     * @param eFound
-     * @param value
-     * @throws org.xml.sax.SAXException
+     * @throws VERSCommon.AppFatal
+     * @throws VERSCommon.AppError
      */
-    @Override
-    public void endElement(String eFound, String value, String element)
-            throws SAXException {
+    public void findDuplicates() throws AppFatal, AppError {
+        ArrayList<Path> manifests;
+        ArrayList<String> copies;
+        byte[] key, group;
+        long size, files, groups, duplicates, reclaimable;
 
-        // if recording store element value in appropriate global variable
-        switch (eFound) {
-            case "Manifest/Creator":    // Creator
-                oldDetails.actor = value;
-                break;
+        // check parameters
+        if (job.manifest == null) {
+            throw new AppError("Passed null manifest to find duplicates in");
+        }
+        manifests = new ArrayList<>();
+        manifests.add(job.manifest);
+        manifests.addAll(job.moreManifests);
+
+        // read the manifests; the hash of each entry is sorted as it is read
+        // (see startFiles() and readEntry())
+        oldEntries = null;
+        vp = null;
+        mw = null;
+        compareAlg = null;
+        emptyFiles = 0;
+        digests = new ExternalSort(tempDir(), SORT_MEMORY);
+        try {
+            for (manifestNo = 0; manifestNo < manifests.size(); manifestNo++) {
+                oldDetails = new Job();
+                history = new ArrayList<>();
+                fileCount = 0;
+                readManifest(manifests.get(manifestNo));
+                if (verifyIdx == -1) {
+                    LOG.log(Level.WARNING, "The {0} files in manifest ''{1}'' were ignored, as it does not record ''{2}'' hashes", new Object[]{fileCount, manifests.get(manifestNo).toString(), compareAlg});
+                } else {
+                    LOG.log(Level.INFO, "Read {0} entries from manifest ''{1}''", new Object[]{fileCount, manifests.get(manifestNo).toString()});
+                }
+            }
+
+            // go through the entries in hash order, reporting each group of
+            // two or more files with the same hash
+            copies = new ArrayList<>();
+            group = null;
+            size = -1;
+            files = 0;
+            groups = 0;
+            duplicates = 0;
+            reclaimable = 0;
+            while (digests.next()) {
+                key = digests.key();
+                files++;
+                if (group == null || !equalHashBytes(key, group)) {
+                    if (copies.size() > 1) {
+                        reclaimable += reportGroup(group, size, copies);
+                        groups++;
+                        duplicates += copies.size() - 1;
+                    }
+                    copies.clear();
+                    group = key;
+                    size = -1;
+                }
+                copies.add(describe(key, manifests));
+                if (size == -1) {
+                    size = digests.value();
+                }
+            }
+            if (copies.size() > 1) {
+                reclaimable += reportGroup(group, size, copies);
+                groups++;
+                duplicates += copies.size() - 1;
+            }
+        } catch (IOException ioe) {
+            throw new AppFatal(classname, 14, "Failed sorting the hashes in the manifests: " + ioe.toString());
+        } finally {
+            digests.close();
+            digests = null;
+        }
+        if (emptyFiles > 0) {
+            LOG.log(Level.INFO, "{0} empty files were ignored", new Object[]{emptyFiles});
+        }
+        if (groups == 0) {
+            LOG.log(Level.WARNING, "No files with the same content were found in the {0} (non empty) files compared", new Object[]{files});
+        } else {
+            LOG.log(Level.WARNING, "{0} groups of files with the same content were found in the {1} (non empty) files compared. {2} files are copies, and {3} bytes could be reclaimed by keeping one copy of each", new Object[]{groups, files, duplicates, reclaimable});
+        }
+    }
+
+    /**
+     * Do two keys in the sort used to find duplicates have the same hash?
+     *
+     * @param k1 first key
+     * @param k2 second key
+     * @return true if the hashes are the same
+     */
+    private static boolean equalHashBytes(byte[] k1, byte[] k2) {
+        int i;
+
+        if (k1[0] != k2[0]) {
+            return false;
+        }
+        for (i = 1; i <= (k1[0] & 0xff); i++) {
+            if (k1[i] != k2[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Describe the file in a key in the sort used to find duplicates
+     *
+     * @param key the key
+     * @param manifests the manifests being compared
+     * @return the path of the file, and the manifest it is listed in
+     */
+    private static String describe(byte[] key, ArrayList<Path> manifests) {
+        int off, n;
+
+        off = 1 + (key[0] & 0xff);
+        n = ByteBuffer.wrap(key).getInt(off);
+        off += Integer.BYTES;
+        return "'" + new String(key, off, key.length - off, StandardCharsets.UTF_8) + "' in '" + manifests.get(n).toString() + "'";
+    }
+
+    /**
+     * Report a group of files with the same content
+     *
+     * @param key the key of the first file in the group
+     * @param size the size of the files (-1 if not recorded)
+     * @param copies the files
+     * @return the bytes that could be reclaimed by keeping one copy
+     */
+    private long reportGroup(byte[] key, long size, ArrayList<String> copies) {
+        StringBuilder sb;
+        String hash;
+
+        hash = Base64.getEncoder().encodeToString(Arrays.copyOfRange(key, 1, 1 + (key[0] & 0xff)));
+        sb = new StringBuilder();
+        for (String s : copies) {
+            sb.append("\n  ");
+            sb.append(s);
+        }
+        if (size == -1) {
+            LOG.log(Level.WARNING, "{0} files have the same content ({1} hash ''{2}''; size not recorded):{3}", new Object[]{copies.size(), compareAlg, hash, sb.toString()});
+            return 0;
+        }
+        LOG.log(Level.WARNING, "{0} files have the same content ({1} hash ''{2}''), {3} bytes each, {4} bytes reclaimable:{5}", new Object[]{copies.size(), compareAlg, hash, size, size * (copies.size() - 1), sb.toString()});
+        return size * (copies.size() - 1);
+    }
+
+    /**
+     * Report the differences between two manifests (e.g. when a collection
+     * has been re-manifested). No files are read. Each file is reported as
+     * added (only in the new manifest), removed (only in the old), changed
+     * (in both, but with different hashes), or moved (removed from one path
+     * and added at another with the same hash).
+     * <p>
+     * Each manifest is read into a sort by path (see sortEntry()), and the
+     * two are merged, which finds the changed files. The files only in one
+     * manifest are sorted again by hash, and these two sorts are merged to
+     * pair up the moves (copies with the same hash are paired in path order;
+     * empty files, and files whose size was not recorded, are never paired,
+     * as empty files all have the same hash). The
+     * remaining files are sorted by path for reporting. The sorts spill to
+     * the system temp directory, so manifests larger than memory can be
+     * compared.
+     *
+     * @throws VERSCommon.AppFatal
+     * @throws VERSCommon.AppError
+     */
+    public void compareManifests() throws AppFatal, AppError {
+        boolean moreOld, moreNew;
+        int c;
+        long unchanged, changed, added, removed, moved;
+
+        // check parameters
+        if (job.manifest == null || job.moreManifests.size() != 1) {
+            throw new AppError("Passed null manifests to be compared");
+        }
+
+        oldEntries = null;
+        vp = null;
+        mw = null;
+        digests = null;
+        compareAlg = null;
+        unchanged = 0;
+        changed = 0;
+        try (ExternalSort removedByHash = new ExternalSort(tempDir(), diffMemory);
+                ExternalSort addedByHash = new ExternalSort(tempDir(), diffMemory)) {
+
+            // merge the manifests by path, reporting the changed files, and
+            // sorting the added and removed files by hash
+            try (ExternalSort oldSort = sortEntries(job.manifest);
+                    ExternalSort newSort = sortEntries(job.moreManifests.get(0))) {
+                moreOld = oldSort.next();
+                moreNew = newSort.next();
+                while (moreOld || moreNew) {
+                    if (!moreNew) {
+                        c = -1;
+                    } else if (!moreOld) {
+                        c = 1;
+                    } else {
+                        c = ExternalSort.compare(oldSort.key(), pathLength(oldSort.key()), newSort.key(), pathLength(newSort.key()));
+                    }
+                    if (c < 0) {
+                        removedByHash.add(byHash(oldSort.key()), oldSort.value());
+                        moreOld = oldSort.next();
+                    } else if (c > 0) {
+                        addedByHash.add(byHash(newSort.key()), newSort.value());
+                        moreNew = newSort.next();
+                    } else {
+                        if (ExternalSort.compare(oldSort.key(), newSort.key()) != 0) {
+                            LOG.log(Level.WARNING, "Changed: ''{0}'' ({1})", new Object[]{
+                                pathOf(oldSort.key()),
+                                oldSort.value() == newSort.value() ? "same size" : "size " + describeSize(oldSort.value()) + " -> " + describeSize(newSort.value())});
+                            changed++;
+                        } else {
+                            unchanged++;
+                        }
+                        moreOld = oldSort.next();
+                        moreNew = newSort.next();
+                    }
+                }
+            }
+
+            // merge the added and removed files by hash to find the moves
+            try (ExternalSort movedByPath = new ExternalSort(tempDir(), diffMemory);
+                    ExternalSort addedByPath = new ExternalSort(tempDir(), diffMemory);
+                    ExternalSort removedByPath = new ExternalSort(tempDir(), diffMemory)) {
+                moreOld = removedByHash.next();
+                moreNew = addedByHash.next();
+                while (moreOld || moreNew) {
+                    if (!moreNew) {
+                        c = -1;
+                    } else if (!moreOld) {
+                        c = 1;
+                    } else {
+                        c = ExternalSort.compare(removedByHash.key(), hashLength(removedByHash.key()), addedByHash.key(), hashLength(addedByHash.key()));
+                    }
+                    if (c == 0 && removedByHash.value() > 0) {
+                        movedByPath.add(joinPaths(removedByHash.key(), addedByHash.key()), removedByHash.value());
+                        moreOld = removedByHash.next();
+                        moreNew = addedByHash.next();
+                        continue;
+                    }
+                    if (c <= 0) {
+                        removedByPath.add(Arrays.copyOfRange(removedByHash.key(), hashLength(removedByHash.key()), removedByHash.key().length), removedByHash.value());
+                        moreOld = removedByHash.next();
+                    }
+                    if (c >= 0) {
+                        addedByPath.add(Arrays.copyOfRange(addedByHash.key(), hashLength(addedByHash.key()), addedByHash.key().length), addedByHash.value());
+                        moreNew = addedByHash.next();
+                    }
+                }
+
+                // report the rest in path order
+                moved = movedByPath.count();
+                while (movedByPath.next()) {
+                    c = pathLength(movedByPath.key());
+                    LOG.log(Level.WARNING, "Moved: ''{0}'' -> ''{1}''", new Object[]{
+                        new String(movedByPath.key(), 0, c, StandardCharsets.UTF_8),
+                        new String(movedByPath.key(), c + 1, movedByPath.key().length - c - 1, StandardCharsets.UTF_8)});
+                }
+                added = addedByPath.count();
+                while (addedByPath.next()) {
+                    LOG.log(Level.WARNING, "Added: ''{0}'' ({1})", new Object[]{new String(addedByPath.key(), StandardCharsets.UTF_8), describeSize(addedByPath.value())});
+                }
+                removed = removedByPath.count();
+                while (removedByPath.next()) {
+                    LOG.log(Level.WARNING, "Removed: ''{0}'' ({1})", new Object[]{new String(removedByPath.key(), StandardCharsets.UTF_8), describeSize(removedByPath.value())});
+                }
+            }
+        } catch (IOException ioe) {
+            throw new AppFatal(classname, 15, "Failed sorting the entries in the manifests: " + ioe.toString());
+        }
+        LOG.log(Level.WARNING, "Compared ''{0}'' with ''{1}'' (''{2}'' hashes): {3} files added, {4} removed, {5} changed, {6} moved, and {7} unchanged", new Object[]{
+            job.manifest.toString(), job.moreManifests.get(0).toString(), compareAlg, added, removed, changed, moved, unchanged});
+    }
+
+    /**
+     * Read the entries of a manifest into a sort by path (see sortEntry())
+     *
+     * @param manifest the manifest
+     * @return the sort (which the caller must close)
+     * @throws AppFatal
+     * @throws AppError
+     */
+    private ExternalSort sortEntries(Path manifest) throws AppFatal, AppError {
+        ExternalSort sort;
+
+        sort = new ExternalSort(tempDir(), diffMemory);
+        oldDetails = new Job();
+        history = new ArrayList<>();
+        fileCount = 0;
+        entries = sort;
+        try {
+            readManifest(manifest);
+        } catch (AppFatal | AppError e) {
+            sort.close();
+            throw e;
+        } finally {
+            entries = null;
+        }
+        LOG.log(Level.INFO, "Read {0} entries from manifest ''{1}''", new Object[]{fileCount, manifest.toString()});
+        return sort;
+    }
+
+    /**
+     * Find the length of the path at the start of a key used when comparing
+     * manifests (it is ended by a zero byte)
+     *
+     * @param key the key
+     * @return the number of bytes in the path
+     */
+    private static int pathLength(byte[] key) {
+        int i;
+
+        i = 0;
+        while (i < key.length && key[i] != 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Find the length of the hash (with its length) at the start of a key
+     * reordered by byHash()
+     *
+     * @param key the key
+     * @return the number of bytes in the length and hash
+     */
+    private static int hashLength(byte[] key) {
+        return 1 + (key[0] & 0xff);
+    }
+
+    /**
+     * Get the path from a key used when comparing manifests
+     *
+     * @param key the key (the path, a zero byte, then the hash)
+     * @return the path
+     */
+    private static String pathOf(byte[] key) {
+        return new String(key, 0, pathLength(key), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reorder a key used when comparing manifests so that it sorts by hash:
+     * the length of the hash and the hash, then the path
+     *
+     * @param key the key (the path, a zero byte, then the hash)
+     * @return the new key
+     */
+    private static byte[] byHash(byte[] key) {
+        byte[] k;
+        int n;
+
+        n = pathLength(key);
+        k = new byte[key.length - 1];
+        System.arraycopy(key, n + 1, k, 0, key.length - n - 1);
+        System.arraycopy(key, 0, k, key.length - n - 1, n);
+        return k;
+    }
+
+    /**
+     * Join the old and new paths of a file that has moved, so that the moves
+     * sort by old path
+     *
+     * @param removed key of the file removed (reordered by byHash())
+     * @param added key of the file added (reordered by byHash())
+     * @return the old path, a zero byte, and the new path
+     */
+    private static byte[] joinPaths(byte[] removed, byte[] added) {
+        byte[] k;
+        int n1, n2;
+
+        n1 = removed.length - hashLength(removed);
+        n2 = added.length - hashLength(added);
+        k = new byte[n1 + 1 + n2];
+        System.arraycopy(removed, hashLength(removed), k, 0, n1);
+        k[n1] = 0;
+        System.arraycopy(added, hashLength(added), k, n1 + 1, n2);
+        return k;
+    }
+
+    /**
+     * Describe the size of a file listed in a manifest
+     *
+     * @param size the size (-1 if not recorded)
+     * @return the description
+     */
+    private static String describeSize(long size) {
+        return size == -1 ? "size not recorded" : String.format("%,d bytes", size);
+    }
+
+    /**
+     * Merge manifests into one (e.g. the manifests of several transfers into
+     * a manifest for a series). No files are read: the entries are streamed
+     * from each manifest in turn into the new one, so this runs at the speed
+     * of the disk. The manifests must record the same hash algorithms.
+     * <p>
+     * The source directory of the new manifest is job.directory or, if not
+     * given, the closest directory containing the source directories of all
+     * the manifests. The path of each entry is rebased to this directory
+     * (e.g. 'a.txt' in a manifest of '/s/t1' becomes 't1/a.txt' in a
+     * manifest of '/s'). The histories of the manifests are combined, and an
+     * event recording the merge is added.
+     *
+     * @throws VERSCommon.AppFatal
+     * @throws VERSCommon.AppError
+     */
+    public void mergeManifests() throws AppFatal, AppError {
+        ArrayList<Path> manifests;
+        ArrayList<HistoryEvent> events;
+        Path[] sources;
+        Path root;
+        String creator, hashAlg;
+        StringBuilder sb;
+        int i, j;
+
+        // check parameters
+        if (job.manifest == null || job.convertTo == null) {
+            throw new AppError("Passed null manifest to be merged");
+        }
+        manifests = new ArrayList<>();
+        manifests.add(job.manifest);
+        manifests.addAll(job.moreManifests);
+        checkNotInput(job.convertTo, manifests);
+
+        // read the headers; the hash algorithms must match, and the source
+        // directories are needed to rebase the paths
+        sources = new Path[manifests.size()];
+        events = new ArrayList<>();
+        creator = null;
+        hashAlg = null;
+        sb = new StringBuilder("Merged from manifests ");
+        for (i = 0; i < manifests.size(); i++) {
+            readHeader(manifests.get(i));
+            if (oldDetails.directory == null) {
+                throw new AppError("Manifest '" + manifests.get(i).toString() + "' does not record its source directory, so its paths cannot be rebased");
+            }
+            if (i == 0) {
+                creator = oldDetails.actor;
+                hashAlg = oldDetails.hashAlg;
+            } else if (hashAlg == null ? oldDetails.hashAlg != null : !hashAlg.equals(oldDetails.hashAlg)) {
+                throw new AppError("Manifest '" + manifests.get(i).toString() + "' records '" + oldDetails.hashAlg + "' hashes, but '" + manifests.get(0).toString() + "' records '" + hashAlg + "'. Manifests can only be merged if they record the same hashes");
+            }
+            sources[i] = oldDetails.directory.normalize();
+            events.addAll(history);
+            sb.append(i > 0 ? ", '" : "'");
+            sb.append(manifests.get(i).toString());
+            sb.append("'");
+        }
+        if (job.comment != null) {
+            sb.append(". ");
+            sb.append(job.comment);
+        }
+        events.add(new HistoryEvent("DateTimeUpdated", VERSDate.versDateTime(0), job.actor, sb.toString()));
+        root = job.directory != null ? job.directory.normalize() : commonDirectory(sources);
+        for (i = 0; i < sources.length; i++) {
+            if (!sources[i].startsWith(root)) {
+                throw new AppError("Source directory '" + sources[i].toString() + "' of manifest '" + manifests.get(i).toString() + "' is not within '" + root.toString() + "'");
+            }
+            for (j = 0; j < i; j++) {
+                if (sources[i].startsWith(sources[j]) || sources[j].startsWith(sources[i])) {
+                    LOG.log(Level.WARNING, "Manifests ''{0}'' and ''{1}'' may list the same files, as their source directories (''{2}'' and ''{3}'') overlap", new Object[]{
+                        manifests.get(j).toString(), manifests.get(i).toString(), sources[j].toString(), sources[i].toString()});
+                }
+            }
+        }
+
+        // stream the entries of each manifest into the new one (see
+        // writePart())
+        oldEntries = null;
+        vp = null;
+        mw = null;
+        parts = new ManifestWriter[]{openWriter(job.convertTo, job.formatFor(job.convertTo))};
+        partPrefixes = new Path[]{null};
+        partCounts = new long[1];
+        try {
+            parts[0].writeHeader(creator != null ? creator : job.actor, hashAlg, root.toString(), events);
+            for (i = 0; i < manifests.size(); i++) {
+                rebase = root.relativize(sources[i]);
+                oldDetails = new Job();
+                history = new ArrayList<>();
+                fileCount = 0;
+                readManifest(manifests.get(i));
+                LOG.log(Level.INFO, "Merged {0} entries from manifest ''{1}'' (in ''{2}'')", new Object[]{fileCount, manifests.get(i).toString(), rebase.toString()});
+            }
+            parts[0].close();
+        } finally {
+            abandonParts();
+            parts = null;
+            partPrefixes = null;
+            rebase = null;
+        }
+        LOG.log(Level.INFO, "Merged {0} entries from {1} manifests into ''{2}'' (source directory ''{3}'')", new Object[]{partCounts[0], manifests.size(), job.convertTo.toString(), root.toString()});
+        if (job.index) {
+            writeIndex(job.convertTo);
+        }
+    }
+
+    /**
+     * Find the closest directory containing all the given directories
+     *
+     * @param dirs the directories
+     * @return the directory containing them
+     * @throws AppError if there is no such directory (e.g. the directories
+     * are on different drives)
+     */
+    private static Path commonDirectory(Path[] dirs) throws AppError {
+        Path root;
+        int i;
+
+        root = dirs[0];
+        for (i = 1; i < dirs.length && root != null; i++) {
+            while (root != null && !dirs[i].startsWith(root)) {
+                root = root.getParent();
+            }
+        }
+        if (root == null) {
+            throw new AppError("The source directories of the manifests are not within a common directory. Give the source directory of the merged manifest");
+        }
+        return root;
+    }
+
+    /**
+     * Split a manifest into parts by path (e.g. a manifest for a series into
+     * manifests for each transfer). No files are read: the entries are
+     * streamed from the manifest into the parts, so this runs at the speed
+     * of the disk.
+     * <p>
+     * Each part is given by a directory relative to the source directory of
+     * the manifest. A file goes in the part with the longest directory that
+     * contains it, and its path is made relative to that directory, which
+     * becomes the source directory of the part. A part with the directory
+     * '.' takes the files that are in no other part; files in no part are
+     * counted and reported. Each part has the history of the manifest, plus
+     * an event recording the split.
+     *
+     * @throws VERSCommon.AppFatal
+     * @throws VERSCommon.AppError
+     */
+    public void splitManifest() throws AppFatal, AppError {
+        ArrayList<Path> manifests;
+        ArrayList<HistoryEvent> events;
+        Path source;
+        String creator, hashAlg;
+        int i, j;
+
+        // check parameters
+        if (job.manifest == null || job.partManifests.isEmpty() || job.partPrefixes.size() != job.partManifests.size()) {
+            throw new AppError("Passed null manifest or parts to be split");
+        }
+        manifests = new ArrayList<>();
+        manifests.add(job.manifest);
+        for (i = 0; i < job.partManifests.size(); i++) {
+            checkNotInput(job.partManifests.get(i), manifests);
+            for (j = 0; j < i; j++) {
+                if (job.partPrefixes.get(i).equals(job.partPrefixes.get(j))) {
+                    throw new AppError("Two parts ('" + job.partManifests.get(j).toString() + "' and '" + job.partManifests.get(i).toString() + "') have the same path '" + job.partPrefixes.get(i) + "'");
+                }
+            }
+        }
+
+        // read the header, which is written to each part
+        readHeader(job.manifest);
+        if (oldDetails.directory == null) {
+            throw new AppError("Manifest '" + job.manifest.toString() + "' does not record its source directory, so it cannot be split");
+        }
+        source = oldDetails.directory;
+        creator = oldDetails.actor;
+        hashAlg = oldDetails.hashAlg;
+
+        // open the parts, and stream the entries into them (see writePart())
+        oldEntries = null;
+        vp = null;
+        mw = null;
+        rebase = null;
+        unsplit = 0;
+        parts = new ManifestWriter[job.partManifests.size()];
+        partPrefixes = new Path[parts.length];
+        partCounts = new long[parts.length];
+        try {
+            for (i = 0; i < parts.length; i++) {
+                partPrefixes[i] = job.partPrefixes.get(i).isEmpty() ? null : Paths.get(job.partPrefixes.get(i));
+                events = new ArrayList<>(history);
+                events.add(new HistoryEvent("DateTimeUpdated", VERSDate.versDateTime(0), job.actor,
+                        "Split from manifest '" + job.manifest.toString() + "' (" + (partPrefixes[i] != null ? "the files in '" + partPrefixes[i].toString() + "'" : "the files in no other part") + ")"
+                        + (job.comment != null ? ". " + job.comment : "")));
+                parts[i] = openWriter(job.partManifests.get(i), job.formatFor(job.partManifests.get(i)));
+                parts[i].writeHeader(creator != null ? creator : job.actor, hashAlg, partPrefixes[i] != null ? source.resolve(partPrefixes[i]).toString() : source.toString(), events);
+            }
+            oldDetails = new Job();
+            history = new ArrayList<>();
+            fileCount = 0;
+            readManifest(job.manifest);
+            for (i = 0; i < parts.length; i++) {
+                parts[i].close();
+            }
+        } finally {
+            abandonParts();
+            parts = null;
+            partPrefixes = null;
+        }
+        for (i = 0; i < partCounts.length; i++) {
+            LOG.log(Level.INFO, "Split {0} entries into ''{1}''", new Object[]{partCounts[i], job.partManifests.get(i).toString()});
+            if (job.index) {
+                writeIndex(job.partManifests.get(i));
+            }
+        }
+        if (unsplit > 0) {
+            LOG.log(Level.WARNING, "{0} of the {1} files in manifest ''{2}'' are not in any part. Use -part . <newManifestFile> to keep them", new Object[]{unsplit, fileCount, job.manifest.toString()});
+        }
+    }
+
+    /**
+     * Abandon (delete) any of the manifests being written by a merge or split
+     * that have not been closed, because the merge or split failed
+     */
+    private void abandonParts() {
+        int i;
+
+        for (i = 0; i < parts.length; i++) {
+            if (parts[i] != null) {
+                parts[i].abandon();
+            }
+        }
+    }
+
+    /**
+     * Check that a manifest being written is not one being read
+     *
+     * @param out the manifest being written
+     * @param in the manifests being read
+     * @throws AppError if it is
+     */
+    private static void checkNotInput(Path out, ArrayList<Path> in) throws AppError {
+        for (Path p : in) {
+            if (out.toAbsolutePath().normalize().equals(p.toAbsolutePath().normalize())) {
+                throw new AppError("Manifest '" + out.toString() + "' cannot be both read and written");
+            }
+        }
+    }
+
+    /**
+     * Read just the header of a manifest (the creator, hash algorithm,
+     * source directory, and history) into oldDetails and history. The parse
+     * of an XML manifest is stopped at the start of the files.
+     *
+     * @param manifest the manifest
+     * @throws AppFatal
+     * @throws AppError
+     */
+    private void readHeader(Path manifest) throws AppFatal, AppError {
+        oldDetails = new Job();
+        history = new ArrayList<>();
+        if (BinaryManifest.isBinary(manifest)) {
+            BinaryManifest.readHeader(manifest, oldDetails, history);
+            return;
+        }
+        headerOnly = true;
+        try {
+            xmlp = new XMLParser(this);
+            xmlp.parse(manifest);
+        } catch (AppFatal | AppError e) {
+            if (headerOnly) {
+                throw e; // failed before the end of the header
+            }
+        } finally {
+            xmlp = null;
+            headerOnly = false;
+        }
+    }
+
+    /**
+     * Work out the separator used in the paths recorded in a manifest. This
+     * is '\' if the source directory in the header is a Windows path (the
+     * manifest was created on Windows), otherwise '/'.
+     *
+     * @param manifest the manifest
+     * @return the separator
+     * @throws AppFatal
+     * @throws AppError
+     */
+    private char pathSeparator(Path manifest) throws AppFatal, AppError {
+        String s;
+
+        readHeader(manifest);
+        s = oldDetails.directory != null ? oldDetails.directory.toString() : "";
+        if (s.indexOf('\\') != -1 || (s.length() > 1 && s.charAt(1) == ':')) {
+            return '\\';
+        } else if (s.indexOf('/') != -1) {
+            return '/';
+        }
+        return File.separatorChar;
+    }
+
+    /**
+     * Write the sidecar index of a manifest (see ManifestIndex)
+     *
+     * @param manifest the manifest
+     * @throws AppError if the index could not be written
+     */
+    private void writeIndex(Path manifest) throws AppError {
+        long n;
+
+        n = ManifestIndex.build(manifest);
+        LOG.log(Level.INFO, "Indexed the {0} entries of manifest ''{1}'' in ''{2}''", new Object[]{n, manifest.toString(), ManifestIndex.indexFile(manifest).toString()});
+    }
+
+    /**
+     * Read the entries of a manifest selected to be checked (-only). If the
+     * manifest has an up to date index (see ManifestIndex), only the entries
+     * selected are read; otherwise the whole manifest is read, and the
+     * entries not selected are skipped (see readEntry()). Either way, the
+     * entries are checked in the order they are listed in the manifest.
+     *
+     * @param manifest the manifest to read
+     * @throws AppFatal
+     * @throws AppError
+     */
+    private void readSelected(Path manifest) throws AppFatal, AppError {
+        ManifestIndex idx;
+        long n;
+
+        idx = ManifestIndex.open(manifest);
+        if (idx == null && job.index) {
+            writeIndex(manifest);
+            idx = ManifestIndex.open(manifest);
+        }
+        if (idx == null) {
+            LOG.log(Level.WARNING, "Manifest ''{0}'' does not have an up to date index, so all of it will be read to find the files to check. Use -index to build an index", new Object[]{manifest.toString()});
+            readManifest(manifest);
+            return;
+        }
+        try {
+            n = idx.check(this, selection);
+            LOG.log(Level.INFO, "{0} of the {1} files listed in the manifest were selected using the index ''{2}''", new Object[]{n, idx.getEntries(), ManifestIndex.indexFile(manifest).toString()});
+        } finally {
+            idx.close();
+        }
+    }
+
+    /**
+     * Open a manifest for writing
+     *
+     * @param manifest the file to write
+     * @param format the format of the manifest
+     * @return the writer
+     * @throws AppFatal if the manifest could not be created
+     */
+    private ManifestWriter openWriter(Path manifest, Job.ManifestFormat format) throws AppFatal {
+        if (format == Job.ManifestFormat.BINARY) {
+            return new BinaryManifest.Writer(manifest);
+        }
+        return new XMLManifestWriter(manifest);
+    }
+
+    /**
+     * Read a manifest. Binary manifests are recognised by their content, and
+     * are read by BinaryManifest; otherwise the manifest is parsed as XML.
+     * Either way, startFiles(), readEntry(), and endOfManifest() are called.
+     *
+     * @param manifest the manifest to read
+     * @throws AppFatal
+     * @throws AppError
+     */
+    private void readManifest(Path manifest) throws AppFatal, AppError {
+        if (BinaryManifest.isBinary(manifest)) {
+            BinaryManifest.read(manifest, this);
+        } else {
+            xmlp = new XMLParser(this);
+            xmlp.parse(manifest);
+            xmlp = null;
+        }
+    }
+
+    /**
+     * Walk the directory, writing the entries of the manifest. The files
+     * are hashed by a pool of job.threads threads (see HashPool).
+     *
+     * @return true if the user cancelled the processing
+     * @throws AppFatal if the manifest could not be written
+     */
+    private boolean writeFiles() throws AppFatal {
+        HashPool hp;
+        boolean cancelled;
+
+        readAhead = job.readAhead > 0 ? new ReadAhead(this, job.readAhead) : null;
+        hp = new HashPool(this, job.threads, job.batch, job.readAhead);
+        try {
+            cancelled = oldEntries == null ? createHashes(job.directory, hp) : updateHashes(job.directory, hp);
+            if (!cancelled && reporter != null) {
+                reporter.allObjectsFound();
+            }
+            if (!cancelled) {
+                cancelled = hp.finish();
+            }
+            if (!cancelled) {
+                reportWorkers(hp);
+            }
+        } finally {
+            hp.shutdown();
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Report how busy each of the workers hashing the files was. Workers
+     * whose utilisation is much lower than the others indicate that the
+     * hashing was held up (e.g. waiting for the last large file).
+     *
+     * @param hp the pool that hashed the files
+     */
+    private void reportWorkers(HashPool hp) {
+        ArrayList<HashPool.Worker> workers;
+        double elapsed;
+
+        workers = hp.getWorkers();
+        elapsed = hp.getElapsed() / 1e9;
+        LOG.log(Level.INFO, "Files hashed by {0} worker(s) in {1} seconds:", new Object[]{workers.size(), String.format("%.1f", elapsed)});
+        for (HashPool.Worker w : workers) {
+            LOG.log(Level.INFO, " ''{0}'': {1} files, {2} MB, busy {3} seconds ({4}%)", new Object[]{
+                w.name, w.files, w.bytes / (1024 * 1024), String.format("%.1f", w.busy / 1e9),
+                elapsed > 0 ? Math.round(100 * w.busy / 1e9 / elapsed) : 0});
+        }
+    }
+
+    /**
+     * Walk a directory (or a single file), handing each regular file found to
+     * the pool to hash.
+     *
+     * @param root the file or directory to hash
+     * @param hp the pool that will hash the files found
+     * @return true if the user cancelled the processing
+     * @throws AppFatal if the manifest could not be written
+     */
+    private boolean createHashes(Path root, HashPool hp) throws AppFatal {
+        Finder finder;
+
+        finder = new Finder(hp, null);
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, finder);
+        } catch (IOException ioe) {
+            // the Finder never throws an IOException, so this cannot happen
+            throw new AppFatal(classname, 11, "Failed walking directory '" + root.normalize().toString() + "': " + ioe.toString());
+        }
+        if (finder.failure != null) {
+            throw finder.failure;
+        }
+        return finder.cancelled;
+    }
+
+    /**
+     * Walk a directory when updating a manifest (or resuming the creation of
+     * one). The paths found (with their size, modification time, and file
+     * key) are sorted, and this sort is merged with the sort of the old
+     * entries (see oldEntry()). A file found that was in the old manifest,
+     * and has not changed, reuses its old hashes (see reuseHash()); the other
+     * files found are handed to the pool to hash; and an old entry that was
+     * not found has been removed. Both sorts spill to temporary files when
+     * they grow too large, so the memory used does not depend on the number
+     * of files. The new manifest is written in path order.
+     *
+     * @param root the directory to hash
+     * @param hp the pool that will hash the files found
+     * @return true if the user cancelled the processing
+     * @throws AppFatal if the files could not be sorted, or the manifest
+     * could not be written
+     */
+    private boolean updateHashes(Path root, HashPool hp) throws AppFatal {
+        Finder finder;
+        FileEntry entry, old;
+        boolean moreFound, moreOld;
+        int c;
+
+        try (ExternalSort found = new ExternalSort(tempDir(), SORT_MEMORY)) {
+            finder = new Finder(null, found);
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, finder);
+            if (finder.failure != null) {
+                throw finder.failure;
+            }
+            if (finder.cancelled) {
+                return true;
+            }
+
+            // merge the two sorts; a file done by an earlier run sorts before
+            // its entry in the manifest, and the first is used
+            moreFound = found.next();
+            moreOld = oldEntries.next();
+            while (moreFound) {
+                c = moreOld ? ExternalSort.compare(oldEntries.key(), pathLength(oldEntries.key()), found.key(), pathLength(found.key())) : 1;
+                if (c < 0) {
+                    removedEntry(pathOf(oldEntries.key()));
+                    moreOld = oldEntries.next();
+                    continue;
+                }
+                entry = foundEntry(found.key(), found.value());
+                old = null;
+                if (c == 0) {
+                    old = oldEntry(oldEntries.key(), oldEntries.value());
+                    do {
+                        moreOld = oldEntries.next();
+                    } while (moreOld && ExternalSort.compare(oldEntries.key(), pathLength(oldEntries.key()), found.key(), pathLength(found.key())) == 0);
+                }
+                reuseHash(entry, old);
+                if (hp.submit(entry)) {
+                    return true;
+                }
+                moreFound = found.next();
+            }
+            while (moreOld) {
+                removedEntry(pathOf(oldEntries.key()));
+                moreOld = oldEntries.next();
+            }
+        } catch (IOException ioe) {
+            throw new AppFatal(classname, 19, "Failed sorting the files found in '" + root.toString() + "': " + ioe.toString());
+        }
+        return false;
+    }
+
+    /**
+     * Remember an entry read from the manifest being updated, or a file done
+     * by an earlier run (see Checkpoint.loadEntries()), by adding it to the
+     * sort of old entries. The key is the path, a zero byte, '0' if the file
+     * was done by an earlier run (so it sorts first) or '1' if not, the
+     * modification time (empty if not recorded), a tab, and the hashes
+     * separated by tabs. The value is the size.
+     *
+     * @param path the path of the file relative to the directory
+     * @param hashes the hashes recorded
+     * @param size the size recorded (-1 if not recorded)
+     * @param modified the modification time recorded (null if not recorded)
+     * @param done true if the file was done by an earlier run
+     * @throws AppFatal if the entries could not be sorted
+     */
+    void oldEntry(String path, String[] hashes, long size, FileTime modified, boolean done) throws AppFatal {
+        try {
+            oldEntries.add(pathKey(path, (done ? "0" : "1") + (modified != null ? modified.toString() : "") + "\t" + String.join("\t", hashes)), size);
+        } catch (IOException ioe) {
+            throw new AppFatal(classname, 20, "Failed sorting the entries in manifest '" + job.manifest.toString() + "': " + ioe.toString());
+        }
+    }
+
+    /**
+     * Get an old entry back from its key in the sort (see oldEntry())
+     *
+     * @param key the key
+     * @param size the value (the size recorded)
+     * @return the entry
+     */
+    private FileEntry oldEntry(byte[] key, long size) {
+        String details;
+        String[] f;
+        FileEntry fe;
+
+        details = detailsOf(key);
+        f = details.substring(1).split("\t", -1);
+        fe = new FileEntry(Paths.get(pathOf(key)), size, f[0].isEmpty() ? null : FileTime.from(Instant.parse(f[0])));
+        fe.hashes = Arrays.copyOfRange(f, 1, f.length);
+        fe.checkpointed = details.charAt(0) == '0';
+        return fe;
+    }
+
+    /**
+     * Get a file found by updateHashes() back from its key in the sort. The
+     * key is the path, a zero byte, the modification time, a tab, and the
+     * file key (empty if not known); the value is the size.
+     *
+     * @param key the key
+     * @param size the value (the size)
+     * @return the file
+     */
+    private FileEntry foundEntry(byte[] key, long size) {
+        String[] f;
+        FileEntry fe;
+
+        f = detailsOf(key).split("\t", -1);
+        fe = new FileEntry(job.directory.resolve(pathOf(key)), size, f[0].isEmpty() ? null : FileTime.from(Instant.parse(f[0])));
+        fe.fileKey = f[1].isEmpty() ? null : f[1];
+        return fe;
+    }
+
+    /**
+     * Make a key for the sorts used when updating a manifest: the path, a
+     * zero byte, then the details of the file
+     *
+     * @param path the path of the file relative to the directory
+     * @param details the details
+     * @return the key
+     */
+    private static byte[] pathKey(String path, String details) {
+        byte[] p, d, key;
+
+        p = path.getBytes(StandardCharsets.UTF_8);
+        d = details.getBytes(StandardCharsets.UTF_8);
+        key = new byte[p.length + 1 + d.length];
+        System.arraycopy(p, 0, key, 0, p.length);
+        key[p.length] = 0;
+        System.arraycopy(d, 0, key, p.length + 1, d.length);
+        return key;
+    }
+
+    /**
+     * Get the details of a file from a key made by pathKey()
+     *
+     * @param key the key
+     * @return the details
+     */
+    private static String detailsOf(byte[] key) {
+        int i;
+
+        i = pathLength(key);
+        return new String(key, i + 1, key.length - i - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Walks the directory for createHashes(). Each file or directory is
+     * looked up once, when Files.walkFileTree() reads its attributes (on
+     * Windows these come with the directory listing, so no further request
+     * is needed at all). The size, modification time, and file key are
+     * carried forward in the FileEntry, so neither the HashPool (which orders
+     * files by their file key) nor the hash cache needs to look the file up
+     * again before it is read. Links are followed; a link back to a directory
+     * that contains it is reported and ignored.
+     * <p>
+     * When looking for unlisted files (see reportUnlisted()), the paths of
+     * the files found are instead added to a sort, so that exactly the files
+     * that would be put in a manifest are compared against it. When updating
+     * a manifest (see updateHashes()), the paths are sorted with the size,
+     * modification time, and file key of each file.
+     */
+    private class Finder extends SimpleFileVisitor<Path> {
+
+        final HashPool hp;      // pool that will hash the files found (null if listing)
+        final ExternalSort found; // sort of the paths of the files found (null if hashing)
+        boolean cancelled;      // true if the user cancelled the processing
+        AppFatal failure;       // why the walk was stopped (null if it was not)
+
+        Finder(HashPool hp, ExternalSort found) {
+            this.hp = hp;
+            this.found = found;
+            cancelled = false;
+            failure = null;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            if (excluded(dir)) {
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            LOG.log(Level.INFO, "***Processing directory ''{0}''", new Object[]{dir.normalize().toString()});
+            return FileVisitResult.CONTINUE;
+        }
+
+        // regular files are handed to the pool to hash; the entry is written
+        // (by writeEntry()) when the hash has been calculated
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            FileEntry entry;
+
+            if (excluded(file)) {
+                return FileVisitResult.CONTINUE;
+            }
+            if (attrs.isSymbolicLink()) {
+                LOG.log(Level.WARNING, "***File ''{0}'' does not exist", new Object[]{file.normalize().toString()});
+                return FileVisitResult.CONTINUE;
+            }
+            if (!attrs.isRegularFile()) {
+                LOG.log(Level.INFO, "***Ignoring directory ''{0}''", new Object[]{file.normalize().toString()});
+                return done(report(file));
+            }
+            if (found != null) {
+                return list(file, attrs);
+            }
+            if (reporter != null) {
+                reporter.foundObject();
+            }
+            entry = new FileEntry(file, attrs.size(), attrs.lastModifiedTime());
+            entry.fileKey = attrs.fileKey();
+            try {
+                return done(hp.submit(entry));
+            } catch (AppFatal af) {
+                failure = af;
+                return FileVisitResult.TERMINATE;
+            }
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            if (exc instanceof NoSuchFileException) {
+                LOG.log(Level.WARNING, "***File ''{0}'' does not exist", new Object[]{file.normalize().toString()});
+                return FileVisitResult.CONTINUE;
+            }
+            if (exc instanceof FileSystemLoopException) {
+                LOG.log(Level.WARNING, "***Directory ''{0}'' is a link to a directory that contains it and will not be included", new Object[]{file.normalize().toString()});
+                return FileVisitResult.CONTINUE;
+            }
+            LOG.log(Level.WARNING, "Failed to process ''{0}'': {1}", new Object[]{file.normalize().toString(), exc.toString()});
+            return done(report(file));
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+            if (exc != null) {
+                LOG.log(Level.WARNING, "Failed to process directory ''{0}'': {1}", new Object[]{dir.normalize().toString(), exc.toString()});
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        /**
+         * Check that a file or directory is not a Windows 10 back-up file
+         */
+        private boolean excluded(Path p) {
+            if (p.getFileName() != null && p.getFileName().toString().startsWith("~$")) {
+                LOG.log(Level.WARNING, "***File name ''{0}'' begins with a '~$' and will not be included", new Object[]{p.normalize().toString()});
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Add the path of a file (relative to the directory) to the sort of
+         * files found. When updating, the file is reported as found, and is
+         * reported again when it has been hashed. If a -only selection is
+         * being checked, only the files selected are included.
+         */
+        private FileVisitResult list(Path file, BasicFileAttributes attrs) {
+            String path;
+
+            path = job.directory.relativize(file).toString();
+            if (oldEntries != null) {
+                if (reporter != null) {
+                    reporter.foundObject();
+                }
+                try {
+                    found.add(pathKey(path, (attrs.lastModifiedTime() != null ? attrs.lastModifiedTime().toString() : "") + "\t" + (attrs.fileKey() != null ? attrs.fileKey().toString() : "")), attrs.size());
+                } catch (IOException ioe) {
+                    failure = new AppFatal(classname, 19, "Failed sorting the files found in '" + job.directory.toString() + "': " + ioe.toString());
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            if (selection != null && !selection.matches(path)) {
+                return FileVisitResult.CONTINUE;
+            }
+            try {
+                found.add(path.getBytes(StandardCharsets.UTF_8), 0);
+            } catch (IOException ioe) {
+                failure = new AppFatal(classname, 12, "Failed sorting the files found in '" + job.directory.toString() + "': " + ioe.toString());
+                return FileVisitResult.TERMINATE;
+            }
+            return done(report(file));
+        }
+
+        /**
+         * Stop the walk if the user cancelled the processing
+         */
+        private FileVisitResult done(boolean cancelled) {
+            this.cancelled = cancelled;
+            return cancelled ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+        }
+    }
+
+    /**
+     * When updating a manifest, check if a file found in the directory was in
+     * the old manifest. If it was, and it has not changed, reuse its hash.
+     *
+     * @param entry the file found in the directory
+     * @param old the file's entry in the old manifest (null if it was not in
+     * it)
+     */
+    private void reuseHash(FileEntry entry, FileEntry old) {
+        if (old == null) {
+            if (job.task == Job.Task.UPDATE) {
+                LOG.log(Level.INFO, "File ''{0}'' has been added", new Object[]{entry.file.normalize().toString()});
+            }
+            added++;
+        } else if (old.changed(entry.size, entry.modified)) {
+            if (job.task == Job.Task.UPDATE) {
+                LOG.log(Level.INFO, "File ''{0}'' has changed", new Object[]{entry.file.normalize().toString()});
+            }
+            changed++;
+        } else {
+            entry.hashes = old.hashes;
+            entry.checkpointed = old.checkpointed;
+            unchanged++;
+        }
+    }
+
+    /**
+     * When updating a manifest, note an entry in the old manifest that was
+     * not found in the directory
+     *
+     * @param path the path of the file relative to the directory
+     */
+    private void removedEntry(String path) {
+        if (job.task == Job.Task.UPDATE) {
+            LOG.log(Level.INFO, "File ''{0}'' has been removed", new Object[]{path});
+        }
+        removed++;
+    }
+
+    /**
+     * Write the entry for a file into the manifest. This is called by the
+     * HashPool (always on the thread creating the manifest) in the order that
+     * the files were found.
+     *
+     * @param entry the file that was hashed (entry.hashes is null if the file
+     * could not be hashed)
+     * @return true if the user cancelled the processing
+     * @throws AppFatal if the manifest could not be written
+     */
+    boolean writeEntry(FileEntry entry) throws AppFatal {
+        String path;
+
+        if (entry.hashes != null) {
+            path = job.directory.relativize(entry.file).toString();
+            mw.writeEntry(path, entry.hashes, entry.size, entry.modified);
+            if (ckpt != null) {
+                ckpt.recordEntry(path, entry);
+            }
+            LOG.log(Level.INFO, "Hashed ''{0}'': ''{1}''", new Object[]{entry.file.normalize().toString(), entry.hashes.length == 1 ? entry.hashes[0] : String.join(" ", entry.hashes)});
+        }
+        return report(entry.file);
+    }
+
+    /**
+     * Log a file that could not be hashed
+     *
+     * @param p the file that could not be hashed
+     * @param ae the reason
+     */
+    void failedFile(Path p, AppError ae) {
+        LOG.log(Level.WARNING, "Failed to process file ''{0}'': {1}", new Object[]{p.normalize().toString(), ae.toString()});
+    }
+
+    /**
+     * Tell the calling program (if any) that a file has been processed
+     *
+     * @param p the file that was processed
+     * @return true if the user cancelled the processing
+     */
+    private boolean report(Path p) {
+        // System.out.println("Did file: " + p.toString());
+        if (reporter == null) {
+            return false;
+        }
+        if (p.getNameCount() > 3) {
+            p = p.subpath(p.getNameCount() - 3, p.getNameCount());
+        }
+        return reporter.updateStatus(".../" + p.toString(), null);
+    }
+
+    /**
+     * Count the files listed in a manifest. This is used by the GUI to size
+     * the progress bar when checking a manifest. The manifest is not parsed;
+     * it is simply read looking for '&lt;f&gt;' tags, which is much cheaper
+     * than walking the directory. A binary manifest records the count at the
+     * end.
+     *
+     * @param manifest the manifest
+     * @return the number of files listed (-1 if the manifest could not be
+     * read)
+     */
+    static int countEntries(Path manifest) {
+        byte[] b;
+        int i, n, state, count;
+
+        if (BinaryManifest.isBinary(manifest)) {
+            return (int) Math.min(BinaryManifest.count(manifest), Integer.MAX_VALUE);
+        }
+        b = new byte[64 * 1024];
+        state = 0;
+        count = 0;
+        try (InputStream is = Files.newInputStream(manifest)) {
+            while ((n = is.read(b)) != -1) {
+                for (i = 0; i < n; i++) {
+                    if (b[i] == '<') {
+                        state = 1;
+                    } else if (state == 1 && b[i] == 'f') {
+                        state = 2;
+                    } else if (state == 2 && b[i] == '>') {
+                        count++;
+                        state = 0;
+                    } else {
+                        state = 0;
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            return -1;
+        }
+        return count;
+    }
+
+    /**
+     * Check a manifest
+     *
+     * The manifest is parsed on the calling thread, and the files listed are
+     * checked by a pool of job.threads threads (see VerifyPool). The results
+     * are reported in the order the files are listed in the manifest.
+     *
+     * @param objectsExpected Total objects expected in manifest (-1 if not
+     * known)
+     * @throws VERSCommon.AppFatal
+     * @throws VERSCommon.AppError
+     */
+    public void checkManifest(int objectsExpected) throws AppFatal, AppError {
+        boolean completed;
+
+        // check parameters
+        if (job.manifest == null) {
+            throw new AppError("Passed null manifest to be processed");
+        }
+        this.objectsExpected = objectsExpected;
+        fileCount = 0;
+        selection = job.select.isEmpty() ? null : new ManifestIndex.Selection(job.select, pathSeparator(job.manifest));
+
+        // if resuming, skip the files checked by the earlier run
+        ckpt = new Checkpoint(job.manifest, true);
+        skip = 0;
+        if (job.resume) {
+            try {
+                skip = ckpt.loadChecked(job.manifest, selectionId());
+            } catch (AppError ae) {
+                LOG.log(Level.WARNING, "Ignoring checkpoint: {0}", new Object[]{ae.getMessage()});
+            }
+            LOG.log(Level.INFO, "Resuming from checkpoint ''{0}'': skipping the first {1} files in the manifest, which have already been checked", new Object[]{ckpt.getFile().toString(), skip});
+        }
+        checked = skip;
+
+        // parse it
+        oldDetails = new Job();
+        oldEntries = null;
+        history = new ArrayList<>();
+        readAhead = job.verifyHash && job.readAhead > 0 ? new ReadAhead(this, job.readAhead) : null;
+        vp = new VerifyPool(this, job.threads, readAhead != null ? job.readAhead : 0, job.verifyHash ? 0 : job.concurrency);
+        if (job.verifyHash) {
+            openCache();
+        }
+        listed = job.unlisted ? new ExternalSort(tempDir(), SORT_MEMORY) : null;
+        completed = false;
+        try {
+            if (selection == null) {
+                readManifest(job.manifest);
+            } else {
+                readSelected(job.manifest);
+            }
+            if (listed != null) {
+                reportUnlisted();
+            }
+            completed = true;
+        } catch (AppFatal | AppError ae) {
+            System.out.println("Error! " + ae.toString());
+            throw ae;
+        } finally {
+            vp.shutdown();
+            vp = null;
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
+            closeCache();
+            if (listed != null) {
+                listed.close();
+                listed = null;
+            }
+            if (completed) {
+                ckpt.delete();
+            } else {
+                try {
+                    ckpt.recordChecked(job.manifest, selectionId(), checked, true);
+                    LOG.log(Level.WARNING, "Checking of manifest ''{0}'' stopped after {1} files. It can be resumed using -resume", new Object[]{job.manifest.toString(), checked});
+                } catch (AppFatal af) {
+                    LOG.log(Level.WARNING, af.getMessage());
+                }
+            }
+            ckpt = null;
+            selection = null;
+        }
+    }
+
+    /**
+     * Report the files in the directory that are not listed in the manifest.
+     * The directory is walked as if a manifest were being created (see
+     * Finder), and the paths found are sorted. This sort is then merged with
+     * the sort of the paths read from the manifest (see readEntry()); a path
+     * that is only in the first is unlisted. Both sorts spill to temporary
+     * files when they grow too large, so the memory used does not depend on
+     * the number of files. The unlisted files are reported in path order.
+     *
+     * @throws AppFatal if the paths could not be sorted
+     * @throws AppError if the user cancelled the processing
+     */
+    private void reportUnlisted() throws AppFatal, AppError {
+        Finder finder;
+        boolean moreFound, moreListed;
+        int c;
+        long unlisted;
+        String separator;
+
+        try (ExternalSort found = new ExternalSort(tempDir(), SORT_MEMORY)) {
+            finder = new Finder(null, found);
+            Files.walkFileTree(job.directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, finder);
+            if (finder.failure != null) {
+                throw finder.failure;
+            }
+            if (finder.cancelled) {
+                throw new AppError("User cancelled verification partway through");
+            }
+
+            // merge the two sorts; a path may be listed more than once
+            separator = job.directory.getFileSystem().getSeparator();
+            unlisted = 0;
+            moreFound = found.next();
+            moreListed = listed.next();
+            while (moreFound) {
+                c = moreListed ? ExternalSort.compare(found.key(), listed.key()) : -1;
+                if (c < 0) {
+                    LOG.log(Level.SEVERE, "File ''{0}'' is in the directory, but not in the manifest", new Object[]{job.directory.toString() + separator + new String(found.key(), StandardCharsets.UTF_8)});
+                    unlisted++;
+                    moreFound = found.next();
+                } else if (c == 0) {
+                    moreFound = found.next();
+                } else {
+                    moreListed = listed.next();
+                }
+            }
+            if (unlisted > 0) {
+                LOG.log(Level.SEVERE, "{0} of the {1} files in directory ''{2}'' are not listed in the manifest", new Object[]{unlisted, found.count(), job.directory.toString()});
+            } else {
+                LOG.log(Level.INFO, "All {0} files in directory ''{1}'' are listed in the manifest", new Object[]{found.count(), job.directory.toString()});
+            }
+        } catch (IOException ioe) {
+            throw new AppFatal(classname, 12, "Failed sorting the files found in '" + job.directory.toString() + "': " + ioe.toString());
+        }
+    }
+
+    /**
+     * Directory in which large sorts are spilled
+     *
+     * @return the system's temporary directory
+     */
+    static Path tempDir() {
+        return Paths.get(System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * Identifies the files being checked in a checkpoint
+     *
+     * @return the paths selected (null if all files are being checked)
+     */
+    private String selectionId() {
+        return selection != null ? String.join("\t", job.select) : null;
+    }
+
+    /**
+     * SAX Events captured
+     */
+    /**
+     * Start of element
+     *
+     * This event is called when the parser finds a new element.
+     *
+     * @param eFound path of found element
+     * @param attributes any attributes associated with found element
+     * @throws SAXException
+     */
+    Job oldDetails;         // the old details read from the XML file
+    Path file;              // the current file being processed
+    String[] hashValues;    // the hash values of the current file (in the order of manifestAlgs)
+    String hashAttr;        // the 'alg' attribute of the current hash value
+    long fileSize;          // the size of the current file (-1 if not recorded)
+    FileTime fileModified;  // the modification time of the current file (null if not recorded)
+
+    @Override
+    public HandleElement startElement(String eFound, Attributes attributes) throws SAXException {
+        HandleElement he;
+
+        // match the path to see if do we do something special?
+        he = null;
+        switch (eFound) {
+            case "Manifest/Creator":         // creator of manifest
+            case "Manifest/HashAlgorithm":   // hash algorithm used
+            case "Manifest/SourceDirectory": // root of source directory
+            case "Manifest/History/DateTimeCreated": // date created
+            case "Manifest/History/DateTimeUpdated": // date updated
+            case "Manifest/History/Actor":   // who updated the manifest
+            case "Manifest/History/Comment": // a comment that the creator added
+            case "Manifest/Files/f/p": // path name of file in manifest
+            case "Manifest/Files/f/s": // size of file
+            case "Manifest/Files/f/m": // last modification time of file
+                he = new HandleElement(HandleElement.VALUE_TO_STRING, false, null);
+                break;
+            case "Manifest/Files/f/h": // hash value (and algorithm, if more than one)
+                hashAttr = attributes.getValue("alg");
+                he = new HandleElement(HandleElement.VALUE_TO_STRING, false, null);
+                break;
+            case "Manifest/Files/f":      // detail of each file
+                file = null;
+                hashValues = new String[manifestAlgs.length];
+                fileSize = -1;
+                fileModified = null;
+                break;
+            case "Manifest/Files":           // list of files in manifest
+                if (headerOnly) {
+                    headerOnly = false;
+                    throw new SAXException("End of header"); // stops the parse (see readHeader())
+                }
+                try {
+                    startFiles();
+                } catch (AppFatal | AppError ae) {
+                    throw new SAXException(ae.toString());
+                }
+                break;
+            case "Manifest/History":         // an event in the history of the manifest
+                history.add(new HistoryEvent(null, null, null, null));
+                break;
+            case "Manifest":                 // manifest
+                break;
+            default:
+                break;
+        }
+        return he;
+    }
+
+    /**
+     * End of an element
+     *
+     * Found the end of an element.
+     *
+     * @param eFound
+     * @param value
+     * @throws org.xml.sax.SAXException
+     */
+    @Override
+    public void endElement(String eFound, String value, String element)
+            throws SAXException {
+        int i;
+
+        // if recording store element value in appropriate global variable
+        switch (eFound) {
+            case "Manifest/Creator":    // Creator
+                oldDetails.actor = value;
+                break;
             case "Manifest/HashAlgorithm":    // hash algorithm used
                 oldDetails.hashAlg = value;
                 break;
@@ -669,26 +2632,60 @@ public class Manifest implements XMLConsumer {
                 break;
             case "Manifest/History/DateTimeCreated":    // date time created
                 oldDetails.dateTimeCreated = value;
+                lastHistoryEvent().type = "DateTimeCreated";
+                lastHistoryEvent().dateTime = value;
+                break;
+            case "Manifest/History/DateTimeUpdated":    // date time updated
+                lastHistoryEvent().type = "DateTimeUpdated";
+                lastHistoryEvent().dateTime = value;
+                break;
+            case "Manifest/History/Actor":    // who updated the manifest
+                lastHistoryEvent().actor = value;
+                break;
+            case "Manifest/History/Comment":    // comment on creation or update
+                lastHistoryEvent().comment = value;
                 break;
             case "Manifest/Files/f/p":    // path within source directory
                 file = value != null ? Paths.get(value) : null;
                 break;
             case "Manifest/Files/f/h":    // hash value of file
-                hashValue = value;
+                i = hashIndex(hashAttr);
+                if (i == -1) {
+                    throw new SAXException("Hash algorithm '" + hashAttr + "' of file '" + file + "' is not one listed in the HashAlgorithm element");
+                }
+                hashValues[i] = value;
+                break;
+            case "Manifest/Files/f/s":    // size of file
+                try {
+                    fileSize = value != null ? Long.parseLong(value.trim()) : -1;
+                } catch (NumberFormatException nfe) {
+                    fileSize = -1;
+                }
+                break;
+            case "Manifest/Files/f/m":    // last modification time of file
+                try {
+                    fileModified = value != null ? FileTime.from(Instant.parse(value.trim())) : null;
+                } catch (DateTimeParseException dtpe) {
+                    fileModified = null;
+                }
                 break;
             case "Manifest/Files/f":
-                if (file == null || hashValue == null) {
-                    throw new SAXException("File without both file (" + file + ") and hash (" + hashValue);
+                for (i = 0; i < hashValues.length; i++) {
+                    if (file == null || hashValues[i] == null) {
+                        throw new SAXException("File without both file (" + file + ") and hash (" + manifestAlgs[i] + ")");
+                    }
                 }
                 try {
-                    processFile(file, hashValue);
-                } catch (AppError ae) {
+                    readEntry(file, hashValues, fileSize, fileModified);
+                } catch (AppFatal | AppError ae) {
                     throw new SAXException(ae.toString());
                 }
                 break;
             case "Manifest":
-                if (objectsExpected != -1 && fileCount != objectsExpected) {
-                    LOG.log(Level.SEVERE, "Number of files in manifest ({0}) did not match files in specified directory ({1})", new Object[]{fileCount, objectsExpected});
+                try {
+                    endOfManifest();
+                } catch (AppError ae) {
+                    throw new SAXException(ae.toString());
                 }
                 break;
             default:
@@ -696,105 +2693,546 @@ public class Manifest implements XMLConsumer {
         }
     }
 
-    private boolean processFile(Path partialFile, String hash) throws AppError {
-        Path actualFile, p;
-        String recalcHash;
-        boolean cancelled;
+    /**
+     * Called when reading a manifest (XML or binary) when the header has been
+     * read, and before the first entry. When converting, the header of the
+     * new manifest is written; when checking, the hash to check is chosen.
+     *
+     * @throws AppFatal if the new manifest could not be written
+     * @throws AppError if none of the manifest's hash algorithms can be
+     * checked
+     */
+    void startFiles() throws AppFatal, AppError {
+        manifestAlgs = Job.splitHashAlg(oldDetails.hashAlg);
+        if (manifestAlgs.length == 0) {
+            manifestAlgs = new String[]{job.hashAlgs()[0]}; // not recorded, so assume the job's
+        }
+        if (mw != null) {
+            mw.writeHeader(oldDetails.actor, oldDetails.hashAlg, oldDetails.directory != null ? oldDetails.directory.toString() : null, history);
+        }
+        if (vp != null) {
+            chooseVerifyHash();
+        }
+        if (digests != null || entries != null) {
+            chooseCompareHash();
+        }
+    }
 
-        actualFile = job.directory.resolve(partialFile);
-        // System.out.println("Processing... '"+job.directory.toString()+"' '" + partialFile.toString() + "' '"+actualFile.toString()+"' hash " + hash);
-        if (Files.exists(actualFile)) {
-            if (job.verifyHash) {
-                recalcHash = hashFile(actualFile);
-                if (!recalcHash.equals(hash)) {
-                    LOG.log(Level.SEVERE, "File ''{0}'' is corrupt: Recorded hash ''{1}'' Calculated hash ''{2}''", new Object[]{actualFile.toString(), hash, recalcHash});
-                } else {
-                    LOG.log(Level.INFO, "File ''{0}'' passed: Recorded hash ''{1}'' Calculated hash ''{2}''", new Object[]{actualFile.toString(), hash, recalcHash});
-                }
-            } else {
-                LOG.log(Level.INFO, "File ''{0}'' passed (Hash NOT checked)", new Object[]{actualFile.toString()});
+    /**
+     * Find the position of a hash algorithm in the list of algorithms
+     * recorded in the manifest being read.
+     *
+     * @param alg the algorithm (null means the primary algorithm)
+     * @return the position (-1 if the manifest does not record it)
+     */
+    private int hashIndex(String alg) {
+        int i;
+
+        if (alg == null) {
+            return 0;
+        }
+        for (i = 0; i < manifestAlgs.length; i++) {
+            if (manifestAlgs[i].equalsIgnoreCase(alg)) {
+                return i;
             }
-        } else {
-            LOG.log(Level.SEVERE, "File ''{0}'' is in manifest, but is not present", new Object[]{actualFile.toString()});
         }
-        if (reporter != null) {
-            if (actualFile.getNameCount() > 3) {
-                p = actualFile.subpath(actualFile.getNameCount() - 3, actualFile.getNameCount());
-            } else {
-                p = actualFile;
+        return -1;
+    }
+
+    /**
+     * Choose which of the hashes recorded in the manifest is to be checked.
+     * If the hash algorithm was set for the job (-h or a job file), this is
+     * the first of the job's hash algorithms that the manifest records;
+     * otherwise (or if none are recorded) it is the cheapest cryptographic
+     * one to calculate (see Hasher.cost()). A non cryptographic hash (XXH3)
+     * is only chosen if the manifest records nothing else. Only this hash is
+     * recalculated for each file.
+     *
+     * @throws AppError if none of the manifest's algorithms are supported
+     */
+    private void chooseVerifyHash() throws AppError {
+        String[] requested;
+        int i;
+
+        verifyIdx = -1;
+        if (job.hashAlgSet) {
+            requested = job.hashAlgs();
+            for (i = 0; i < requested.length && verifyIdx == -1; i++) {
+                verifyIdx = hashIndex(requested[i]);
             }
-            cancelled = reporter.updateStatus("...\\" + p.toString(), null);
-            if (cancelled) {
-                throw new AppError("User cancelled verification partway through");
+        }
+        if (verifyIdx == -1) {
+            for (i = 0; i < manifestAlgs.length; i++) {
+                if (Hasher.supported(manifestAlgs[i]) && (verifyIdx == -1 || cheaperCheck(manifestAlgs[i], manifestAlgs[verifyIdx]))) {
+                    verifyIdx = i;
+                }
             }
         }
-        return true;
+        if (verifyIdx == -1) {
+            if (job.verifyHash) {
+                throw new AppError("None of the hash algorithms used by the manifest (" + oldDetails.hashAlg + ") are supported");
+            }
+            verifyIdx = 0;
+        }
+        hashAlgs = new String[]{manifestAlgs[verifyIdx]};
+        if (job.verifyHash && !Hasher.supported(hashAlgs[0])) {
+            throw new AppError("Hash algorithm '" + hashAlgs[0] + "' used by the manifest is not supported");
+        }
+        LOG.log(Level.INFO, "Checking the ''{0}'' hashes recorded in the manifest", new Object[]{hashAlgs[0]});
     }
 
     /**
-     * Hash a file
+     * Is one hash algorithm a better choice to check than another? A
+     * cryptographic hash is always better than a non cryptographic one, and
+     * otherwise the cheaper to calculate is better.
      *
-     * @param fileToHash the fileToHash of the file at the moment
-     * @return the hash value encoded as a Base64 String
-     * @throws AppError if an error occurred hashing the file
+     * @param alg1 first algorithm
+     * @param alg2 second algorithm
+     * @return true if the first is better
      */
-    public String hashFile(Path fileToHash) throws AppError {
-        String method = "hashFile";
-        MessageDigest md;
-        FileInputStream fis;    // input streams to read file to sign
-        BufferedInputStream bis;//
-        byte[] hash;            // generated hash
+    private static boolean cheaperCheck(String alg1, String alg2) {
+        if (Hasher.cryptographic(alg1) != Hasher.cryptographic(alg2)) {
+            return Hasher.cryptographic(alg1);
+        }
+        return Hasher.cost(alg1) < Hasher.cost(alg2);
+    }
+
+    /**
+     * Choose which of the hashes recorded in the manifest being read are
+     * compared when finding duplicates or comparing manifests. This is chosen
+     * when the first manifest is read: the first of the job's hash algorithms
+     * it records or, if none, its primary algorithm. Later manifests must
+     * record the same algorithm, as only the same hashes can be compared.
+     */
+    private void chooseCompareHash() {
+        String[] requested;
         int i;
-        byte[] b = new byte[1000]; // buffer used to read input file
 
-        // sanity checks...
-        if (fileToHash == null) {
-            throw new AppError(classname, method, 1, "fileToHash is null");
+        if (compareAlg != null) {
+            verifyIdx = hashIndex(compareAlg);
+            return;
+        }
+        verifyIdx = -1;
+        requested = job.hashAlgs();
+        for (i = 0; i < requested.length && verifyIdx == -1; i++) {
+            verifyIdx = hashIndex(requested[i]);
         }
+        if (verifyIdx == -1) {
+            verifyIdx = 0;
+        }
+        compareAlg = manifestAlgs[verifyIdx];
+        LOG.log(Level.INFO, "Comparing the ''{0}'' hashes recorded in the manifests", new Object[]{compareAlg});
+    }
+
+    /**
+     * Called when reading a manifest (XML or binary) for each file listed.
+     * When updating, the entry is sorted (see oldEntry()); when converting, merging, or
+     * splitting it is written to the new manifest(s); when finding duplicates
+     * or comparing manifests it is sorted; and when checking it is submitted
+     * to the VerifyPool.
+     *
+     * @param file the path of the file relative to the source directory
+     * @param hashes the hashes recorded (in the order of manifestAlgs)
+     * @param size the size recorded (-1 if not recorded)
+     * @param modified the modification time recorded (null if not recorded)
+     * @throws AppFatal if the new manifest could not be written
+     * @throws AppError if the user cancelled the processing, or a file could
+     * not be checked
+     */
+    void readEntry(Path file, String[] hashes, long size, FileTime modified) throws AppFatal, AppError {
 
-        if (Files.notExists(fileToHash)) {
-            throw new AppError(classname, method, 1, "File to hash '" + fileToHash.toString() + "' does not exist");
+        // when checking some of the files (-only), ignore the others
+        if (vp != null && selection != null && !selection.matches(file.toString())) {
+            return;
+        }
+        // when looking for unlisted files, remember every path listed
+        if (listed != null) {
+            try {
+                listed.add(file.toString().getBytes(StandardCharsets.UTF_8), 0);
+            } catch (IOException ioe) {
+                throw new AppFatal(classname, 13, "Failed sorting the files listed in '" + job.manifest.toString() + "': " + ioe.toString());
+            }
+        }
+        fileCount++;
+        if (oldEntries != null) {
+            oldEntry(file.toString(), hashes, size, modified, false);
+        } else if (mw != null) {
+            mw.writeEntry(file.toString(), hashes, size, modified);
+        } else if (digests != null) {
+            sortHash(file, hashes, size);
+        } else if (entries != null) {
+            sortEntry(file, hashes, size);
+        } else if (parts != null) {
+            writePart(file, hashes, size, modified);
+        } else if (fileCount <= skip) {
+            // already checked by an earlier run (see checkManifest())
+        } else if (vp.submit(file, hashes[verifyIdx])) {
+            throw new AppError("User cancelled verification partway through");
         }
+    }
+
+    /**
+     * Add a file listed in a manifest to the sort used to find duplicates.
+     * The key is the length of the hash and the hash (as raw bytes, not
+     * Base64), then the number of the manifest and the path, so files with
+     * the same content end up together, in manifest and path order. The
+     * value is the size of the file. Empty files are not included; they all
+     * have the same hash, but nothing can be reclaimed.
+     *
+     * @param file the path of the file relative to the source directory
+     * @param hashes the hashes recorded (in the order of manifestAlgs)
+     * @param size the size recorded (-1 if not recorded)
+     * @throws AppFatal if the hashes could not be sorted
+     */
+    private void sortHash(Path file, String[] hashes, long size) throws AppFatal {
+        byte[] hash, path, key;
 
-        // get message digest
+        if (verifyIdx == -1) {
+            return; // the manifest does not record the hashes being compared
+        }
+        if (size == 0) {
+            emptyFiles++;
+            return;
+        }
         try {
-            md = MessageDigest.getInstance(job.hashAlg);
-        } catch (NoSuchAlgorithmException e) {
-            throw new AppError(classname, method, 1, "Hash algorithm '" + job.hashAlg + "' not supported");
+            hash = b64dec.decode(hashes[verifyIdx]);
+        } catch (IllegalArgumentException iae) {
+            LOG.log(Level.WARNING, "File ''{0}'' is ignored, as the hash recorded (''{1}'') is not valid", new Object[]{file.toString(), hashes[verifyIdx]});
+            return;
         }
-        // open the file to digest
+        path = file.toString().getBytes(StandardCharsets.UTF_8);
+        key = new byte[1 + hash.length + Integer.BYTES + path.length];
+        key[0] = (byte) hash.length;
+        System.arraycopy(hash, 0, key, 1, hash.length);
+        ByteBuffer.wrap(key).putInt(1 + hash.length, manifestNo);
+        System.arraycopy(path, 0, key, 1 + hash.length + Integer.BYTES, path.length);
         try {
-            fis = new FileInputStream(fileToHash.toString());
-        } catch (FileNotFoundException e) {
-            throw new AppError(classname, method, 1, "File to hash ('" + fileToHash.toString() + "') was not found");
+            digests.add(key, size);
+        } catch (IOException ioe) {
+            throw new AppFatal(classname, 14, "Failed sorting the hashes in the manifests: " + ioe.toString());
         }
-        bis = new BufferedInputStream(fis);
+    }
+
+    /**
+     * Add a file listed in a manifest to the sort used to compare manifests.
+     * The key is the path, a zero byte, and the length of the hash and the
+     * hash (as raw bytes), so the entries end up in path order. The value is
+     * the size of the file.
+     *
+     * @param file the path of the file relative to the source directory
+     * @param hashes the hashes recorded (in the order of manifestAlgs)
+     * @param size the size recorded (-1 if not recorded)
+     * @throws AppFatal if the entries could not be sorted
+     * @throws AppError if the manifest does not record the hashes compared,
+     * or the hash is not valid
+     */
+    private void sortEntry(Path file, String[] hashes, long size) throws AppFatal, AppError {
+        byte[] hash, path, key;
 
-        // enter the bytes from the file
+        if (verifyIdx == -1) {
+            throw new AppError("Manifest does not record '" + compareAlg + "' hashes, so it cannot be compared");
+        }
+        try {
+            hash = b64dec.decode(hashes[verifyIdx]);
+        } catch (IllegalArgumentException iae) {
+            throw new AppError("Hash recorded for file '" + file.toString() + "' ('" + hashes[verifyIdx] + "') is not valid");
+        }
+        path = file.toString().getBytes(StandardCharsets.UTF_8);
+        key = new byte[path.length + 2 + hash.length];
+        System.arraycopy(path, 0, key, 0, path.length);
+        key[path.length] = 0;
+        key[path.length + 1] = (byte) hash.length;
+        System.arraycopy(hash, 0, key, path.length + 2, hash.length);
         try {
-            while ((i = bis.read(b)) != -1) {
-                md.update(b, 0, i);
+            entries.add(key, size);
+        } catch (IOException ioe) {
+            throw new AppFatal(classname, 15, "Failed sorting the entries in the manifests: " + ioe.toString());
+        }
+    }
+
+    /**
+     * Write a file listed in a manifest being merged or split to the new
+     * manifest. When splitting, the file goes to the part with the longest
+     * directory containing it, and its path is made relative to that
+     * directory. When merging, the path is rebased to the source directory of
+     * the new manifest.
+     *
+     * @param file the path of the file relative to the source directory
+     * @param hashes the hashes recorded (in the order of manifestAlgs)
+     * @param size the size recorded (-1 if not recorded)
+     * @param modified the modification time recorded (null if not recorded)
+     * @throws AppFatal if the new manifest could not be written
+     */
+    private void writePart(Path file, String[] hashes, long size, FileTime modified) throws AppFatal {
+        int i, part;
+
+        part = -1;
+        for (i = 0; i < parts.length; i++) {
+            if (partPrefixes[i] == null) {
+                if (part == -1) {
+                    part = i;
+                }
+            } else if (file.startsWith(partPrefixes[i])
+                    && (part == -1 || partPrefixes[part] == null || partPrefixes[i].getNameCount() > partPrefixes[part].getNameCount())) {
+                part = i;
+            }
+        }
+        if (part == -1) {
+            unsplit++;
+            return;
+        }
+        if (partPrefixes[part] != null) {
+            file = partPrefixes[part].relativize(file);
+        }
+        if (rebase != null) {
+            file = rebase.resolve(file);
+        }
+        parts[part].writeEntry(file.toString(), hashes, size, modified);
+        partCounts[part]++;
+    }
+
+    /**
+     * Called when the end of a manifest (XML or binary) has been read. When
+     * checking, wait for the remaining files to be checked.
+     *
+     * @throws AppError if the user cancelled the processing, or a file could
+     * not be checked
+     */
+    void endOfManifest() throws AppError {
+        if (vp == null) {
+            return;
+        }
+        if (vp.finish()) {
+            throw new AppError("User cancelled verification partway through");
+        }
+        if (objectsExpected != -1 && fileCount != objectsExpected) {
+            LOG.log(Level.SEVERE, "Number of files in manifest ({0}) did not match files in specified directory ({1})", new Object[]{fileCount, objectsExpected});
+        }
+    }
+
+    /**
+     * Get the History element currently being parsed
+     *
+     * @return the history event
+     */
+    private HistoryEvent lastHistoryEvent() {
+        return history.get(history.size() - 1);
+    }
+
+    /**
+     * Check an individual file listed in the manifest. This is called by the
+     * worker threads in the VerifyPool, so it must not log or report (this
+     * is done by reportFile()).
+     *
+     * @param partialFile the path of the file relative to the directory
+     * @param hash the hash value recorded in the manifest
+     * @return the result of the check
+     * @throws AppError if the file could not be hashed
+     */
+    VerifyPool.Result verifyFile(Path partialFile, String hash) throws AppError {
+        VerifyPool.Result r;
+
+        r = new VerifyPool.Result(job.directory.resolve(partialFile), hash);
+        // System.out.println("Processing... '"+job.directory.toString()+"' '" + partialFile.toString() + "' '"+r.file.toString()+"' hash " + hash);
+        if (!Files.exists(r.file)) {
+            r.status = VerifyPool.Result.MISSING;
+            if (readAhead != null) {
+                readAhead.discard(r.file);
             }
-        } catch (IOException e) {
-            throw new AppError(classname, method, 1, "failed reading file to hash: " + e.toString());
+        } else if (job.verifyHash) {
+            r.recalcHash = hashFile(r.file)[0];
+            r.status = sameHash(r.recalcHash, hash) ? VerifyPool.Result.PASSED : VerifyPool.Result.CORRUPT;
+        } else {
+            r.status = VerifyPool.Result.UNCHECKED;
         }
+        return r;
+    }
 
-        // close the input file
-        try {
-            bis.close();
-        } catch (IOException e) {
-            throw new AppError(classname, method, 1, "failed closing file to hash: " + e.toString());
+    /**
+     * Tell the ReadAhead (if any) that a file is about to be hashed. This is
+     * called by the pools in the order the files will be hashed.
+     *
+     * @param file the file (as it will be passed to hashFile())
+     * @param found the file as found when walking the directory (null if
+     * not known)
+     */
+    void scheduleRead(Path file, FileEntry found) {
+        if (readAhead != null) {
+            readAhead.schedule(file, found);
+        }
+    }
+
+    /**
+     * Does a file that is about to be hashed need to be read? It does not if
+     * its hashes are in the hash cache. This is called by the ReadAhead's
+     * reader threads (so any lookup of the file is done in parallel), and a
+     * file that does not need to be read is not read ahead.
+     *
+     * @param file the file (as it will be passed to hashFile())
+     * @param found the file as found when walking the directory (null if
+     * not known)
+     * @return true if the file needs to be read
+     */
+    boolean needsReading(Path file, FileEntry found) {
+        return cache == null || !cache.contains(file, found, hashAlgs);
+    }
+
+    /**
+     * Compare a calculated hash with the hash recorded in a manifest. The MIME
+     * Base64 encoder breaks long hashes (e.g. SHA-512) into lines, and the
+     * line breaks may not survive being stored in the manifest (an XML parser
+     * turns CR LF into LF), so white space is ignored.
+     *
+     * @param calculated the hash calculated
+     * @param recorded the hash recorded in the manifest
+     * @return true if they are the same
+     */
+    static boolean sameHash(String calculated, String recorded) {
+        int i, j;
+
+        if (calculated.equals(recorded)) {
+            return true;
+        }
+        i = 0;
+        j = 0;
+        while (true) {
+            while (i < calculated.length() && Character.isWhitespace(calculated.charAt(i))) {
+                i++;
+            }
+            while (j < recorded.length() && Character.isWhitespace(recorded.charAt(j))) {
+                j++;
+            }
+            if (i == calculated.length() || j == recorded.length()) {
+                return i == calculated.length() && j == recorded.length();
+            }
+            if (calculated.charAt(i) != recorded.charAt(j)) {
+                return false;
+            }
+            i++;
+            j++;
+        }
+    }
+
+    /**
+     * Report the result of checking a file. This is called by the VerifyPool
+     * (always on the thread parsing the manifest) in the order that the files
+     * are listed in the manifest.
+     *
+     * @param r the result of checking the file
+     * @return true if the user cancelled the processing
+     */
+    boolean reportFile(VerifyPool.Result r) {
+        Path p;
+
+        switch (r.status) {
+            case VerifyPool.Result.PASSED:
+                LOG.log(Level.INFO, "File ''{0}'' passed: Recorded hash ''{1}'' Calculated hash ''{2}''", new Object[]{r.file.toString(), r.hash, r.recalcHash});
+                break;
+            case VerifyPool.Result.CORRUPT:
+                LOG.log(Level.SEVERE, "File ''{0}'' is corrupt: Recorded hash ''{1}'' Calculated hash ''{2}''", new Object[]{r.file.toString(), r.hash, r.recalcHash});
+                break;
+            case VerifyPool.Result.UNCHECKED:
+                LOG.log(Level.INFO, "File ''{0}'' passed (Hash NOT checked)", new Object[]{r.file.toString()});
+                break;
+            case VerifyPool.Result.MISSING:
+            default:
+                LOG.log(Level.SEVERE, "File ''{0}'' is in manifest, but is not present", new Object[]{r.file.toString()});
+                break;
+        }
+        checked++;
+        if (ckpt != null) {
+            try {
+                ckpt.recordChecked(job.manifest, selectionId(), checked, false);
+            } catch (AppFatal af) {
+                LOG.log(Level.WARNING, af.getMessage());
+            }
+        }
+        if (reporter == null) {
+            return false;
+        }
+        if (r.file.getNameCount() > 3) {
+            p = r.file.subpath(r.file.getNameCount() - 3, r.file.getNameCount());
+        } else {
+            p = r.file;
+        }
+        return reporter.updateStatus("...\\" + p.toString(), null);
+    }
+
+    /**
+     * Hash a file. The file is read using the I/O backend selected in the job,
+     * and hashed using the calling thread's Hasher (which reuses its
+     * MessageDigests and buffers). A hash is calculated for each of the
+     * algorithms in hashAlgs, with the file being read only once. The hash
+     * algorithms must have been checked by Job.checkHashAlg() before the
+     * first file is hashed. If the hash cache is open, and the file has not
+     * changed since it was last hashed, the cached hashes are returned
+     * without reading the file. If the start of the file has been read ahead
+     * (see ReadAhead), the block read ahead is used.
+     *
+     * @param fileToHash the fileToHash of the file at the moment
+     * @return the hash values encoded as Base64 Strings (in the order of
+     * hashAlgs)
+     * @throws AppError if an error occurred hashing the file
+     */
+    public String[] hashFile(Path fileToHash) throws AppError {
+        return hashFile(fileToHash, null);
+    }
+
+    /**
+     * Hash a file found when walking the directory. The size, modification
+     * time, and file key recorded when the file was found are used by the
+     * hash cache, instead of looking the file up again.
+     *
+     * @param entry the file found
+     * @return the hash values encoded as Base64 Strings (in the order of
+     * hashAlgs)
+     * @throws AppError if an error occurred hashing the file
+     */
+    String[] hashFile(FileEntry entry) throws AppError {
+        return hashFile(entry.file, entry);
+    }
+
+    private String[] hashFile(Path fileToHash, FileEntry found) throws AppError {
+        String method = "hashFile";
+        byte[][] hash;          // generated hashes
+        String[] hashes;        // encoded hashes
+        HashCache.Probe probe;  // the file looked up in the hash cache (if any)
+        ReadAhead.Block pre;    // start of the file (if read ahead)
+        int i;
+
+        // sanity checks... (a missing file is reported when it is opened)
+        if (fileToHash == null) {
+            throw new AppError(classname, method, 1, "fileToHash is null");
         }
 
-        // calculate the digital signature over the input file
-        // calculate signature and convert it into a byte buffer
-        hash = md.digest();
-        /*
-        for (int j=0; j<hash.length; j++) {
-            System.out.print(String.format("%02x",hash[j]));
+        // use the cached hashes, if any, without reading the file (or
+        // waiting for it to be read ahead)
+        probe = cache != null ? cache.lookup(fileToHash, found, hashAlgs) : null;
+        if (probe != null && probe.hashes != null) {
+            hash = probe.hashes;
+            if (readAhead != null) {
+                readAhead.cancel(fileToHash);
+            }
+        } else {
+            // otherwise calculate the hashes over the input file
+            pre = readAhead != null ? readAhead.take(fileToHash) : null;
+            try {
+                if (cache != null) {
+                    hash = cache.hash(fileToHash, probe, hashAlgs, job.hashIO, job.threads, pre);
+                } else {
+                    hash = Hasher.get().hash(fileToHash, hashAlgs, job.hashIO, job.threads, pre);
+                }
+            } finally {
+                if (pre != null) {
+                    pre.close();
+                }
+            }
         }
-        System.out.println("");*/
-        return (b64enc.encodeToString(hash));
+        hashes = new String[hash.length];
+        for (i = 0; i < hash.length; i++) {
+            hashes[i] = b64enc.encodeToString(hash[i]);
+        }
+        return hashes;
     }
 
     /**
@@ -807,10 +3245,31 @@ public class Manifest implements XMLConsumer {
 
         try {
             m = new Manifest(args);
-            if (m.job.task == Job.Task.CREATE) {
-                m.createManifest();
-            } else {
-                m.checkManifest(-1);
+            switch (m.job.task) {
+                case CREATE:
+                    m.createManifest();
+                    break;
+                case UPDATE:
+                    m.updateManifest();
+                    break;
+                case CONVERT:
+                    m.convertManifest();
+                    break;
+                case DUPLICATES:
+                    m.findDuplicates();
+                    break;
+                case DIFF:
+                    m.compareManifests();
+                    break;
+                case MERGE:
+                    m.mergeManifests();
+                    break;
+                case SPLIT:
+                    m.splitManifest();
+                    break;
+                default:
+                    m.checkManifest(-1);
+                    break;
             }
             m.close();
         } catch (AppFatal | AppError e) {
@@ -0,0 +1,891 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import VERSCommon.AppFatal;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * M A N I F E S T I N D E X
+ *
+ * A sidecar index of a manifest (XML or binary), which allows some of the
+ * files listed to be checked without reading the whole manifest. The index
+ * is kept next to the manifest, with '.idx' appended to its name. It lists
+ * the path of every entry, sorted, with the byte offset of the entry in the
+ * manifest (the '&lt;f&gt;' of an XML manifest, or the FILE record of a
+ * binary manifest). It also records the size and modification time of the
+ * manifest, and an index that does not match its manifest is ignored.
+ * <p>
+ * The index is a sequence of big endian values (varints and strings as in
+ * BinaryManifest):
+ * <pre>
+ * magic           'M' 'F' 'I' 1
+ * manifest size   8 bytes
+ * manifest modified 8 bytes (milliseconds since the epoch)
+ * creator, hashAlgorithm, sourceDirectory  strings (from the manifest's header)
+ * entries         in order of path (as unsigned UTF-8 bytes), in blocks of
+ *                 BLOCK_ENTRIES. Each is varint bytes shared with the
+ *                 previous path (0 for the first in a block), varint length
+ *                 of the rest of the path, the rest of the path, varint
+ *                 offset of the entry in the manifest
+ * block table     offset of each block in the index (8 bytes each)
+ * trailer         number of entries (8 bytes), offset of the block table (8
+ *                 bytes), number of blocks (4 bytes)
+ * </pre> A selection of entries (e.g. one directory) is found by a binary
+ * search of the blocks for the start of the selection, and then reading the
+ * index until the end of the selection. The entries selected are then read
+ * from the manifest in the order they appear there.
+ * <p>
+ * Building the index, and ordering the entries selected, uses an
+ * ExternalSort, so the memory used does not depend on the size of the
+ * manifest.
+ */
+final class ManifestIndex implements AutoCloseable {
+
+    static String classname = "ManifestIndex"; // for reporting
+    static final byte[] MAGIC = {'M', 'F', 'I', 1};
+    static final String SUFFIX = ".idx";        // appended to the manifest's name
+    static final int BLOCK_ENTRIES = 64;        // entries between restarts of the prefix compression
+    static final long SORT_MEMORY = 64L * 1024 * 1024; // memory used for sorting before spilling to disk
+    static final int TRAILER_SIZE = 8 + 8 + 4;
+    static final int WINDOW_SIZE = 64 * 1024;   // bytes read from the index or manifest at a time
+
+    private final Path manifest;    // the manifest indexed
+    private final Window index;     // the index
+    private final DataInputStream dis; // reading the index
+    private final long[] blocks;    // offset of each block
+    private final long entries;     // number of entries in the index
+    private final long tableOffset; // offset of the block table (i.e. end of the entries)
+    String creator;                 // from the header of the manifest
+    String hashAlg;                 // from the header of the manifest
+    String sourceDirectory;         // from the header of the manifest
+
+    /**
+     * Open an index
+     */
+    private ManifestIndex(Path manifest, Window index) throws IOException {
+        int i, n;
+
+        this.manifest = manifest;
+        this.index = index;
+        dis = new DataInputStream(index);
+        index.seek(index.size() - TRAILER_SIZE);
+        entries = dis.readLong();
+        tableOffset = dis.readLong();
+        n = dis.readInt();
+        if (n < 0 || tableOffset < 0 || tableOffset + 8L * n + TRAILER_SIZE != index.size()) {
+            throw new IOException("index is corrupt");
+        }
+        blocks = new long[n];
+        index.seek(tableOffset);
+        for (i = 0; i < n; i++) {
+            blocks[i] = dis.readLong();
+        }
+        index.seek(MAGIC.length + 16);
+        creator = BinaryManifest.readString(dis);
+        hashAlg = BinaryManifest.readString(dis);
+        sourceDirectory = BinaryManifest.readString(dis);
+    }
+
+    /**
+     * The file holding the index of a manifest
+     *
+     * @param manifest the manifest
+     * @return the index file
+     */
+    static Path indexFile(Path manifest) {
+        return manifest.resolveSibling(manifest.getFileName().toString() + SUFFIX);
+    }
+
+    /**
+     * Open the index of a manifest
+     *
+     * @param manifest the manifest
+     * @return the index (null if the manifest has no index, or the index
+     * does not match the manifest)
+     */
+    static ManifestIndex open(Path manifest) {
+        Path file;
+        Window w;
+        DataInputStream d;
+        byte[] b;
+
+        file = indexFile(manifest);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        w = null;
+        try {
+            w = new Window(FileChannel.open(file, StandardOpenOption.READ));
+            d = new DataInputStream(w);
+            b = new byte[MAGIC.length];
+            d.readFully(b);
+            if (!Arrays.equals(b, MAGIC)
+                    || d.readLong() != Files.size(manifest)
+                    || d.readLong() != Files.getLastModifiedTime(manifest).toMillis()) {
+                w.close();
+                return null;
+            }
+            return new ManifestIndex(manifest, w);
+        } catch (IOException ioe) {
+            if (w != null) {
+                w.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of entries in the manifest
+     */
+    long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Build (or rebuild) the index of a manifest
+     *
+     * @param manifest the manifest
+     * @return the number of entries indexed
+     * @throws AppError if the manifest could not be read, or the index could
+     * not be written
+     */
+    static long build(Path manifest) throws AppError {
+        String method = "build";
+        Path file, temp;
+        String[] header;
+        long size, modified, n;
+
+        file = indexFile(manifest);
+        temp = file.resolveSibling(file.getFileName().toString() + ".tmp");
+        header = new String[3];
+        try (ExternalSort sorter = new ExternalSort(tempDir(manifest), SORT_MEMORY)) {
+            size = Files.size(manifest);
+            modified = Files.getLastModifiedTime(manifest).toMillis();
+            if (BinaryManifest.isBinary(manifest)) {
+                BinaryManifest.scan(manifest, header, sorter);
+            } else {
+                scanXML(manifest, header, sorter);
+            }
+            n = write(temp, size, modified, header, sorter);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                /* ignore */
+            }
+            throw new AppError(classname, method, 1, "Failed building index '" + file.toString() + "': " + ioe.toString());
+        }
+        return n;
+    }
+
+    /**
+     * Write the index from the sorted entries
+     */
+    private static long write(Path file, long size, long modified, String[] header, ExternalSort sorter) throws IOException {
+        ArrayList<Long> table;
+        byte[] prev, key;
+        long pos, n;
+        int shared, max;
+
+        table = new ArrayList<>();
+        n = 0;
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), WINDOW_SIZE))) {
+            dos.write(MAGIC);
+            dos.writeLong(size);
+            dos.writeLong(modified);
+            pos = MAGIC.length + 16;
+            pos += writeString(dos, header[0]);
+            pos += writeString(dos, header[1]);
+            pos += writeString(dos, header[2]);
+            prev = new byte[0];
+            while (sorter.next()) {
+                key = sorter.key();
+                shared = 0;
+                if (n % BLOCK_ENTRIES == 0) {
+                    table.add(pos);
+                } else {
+                    max = Math.min(prev.length, key.length);
+                    while (shared < max && prev[shared] == key[shared]) {
+                        shared++;
+                    }
+                }
+                pos += writeVarLong(dos, shared);
+                pos += writeVarLong(dos, key.length - shared);
+                dos.write(key, shared, key.length - shared);
+                pos += key.length - shared;
+                pos += writeVarLong(dos, sorter.value());
+                prev = key;
+                n++;
+            }
+            for (Long l : table) {
+                dos.writeLong(l);
+            }
+            dos.writeLong(n);
+            dos.writeLong(pos);
+            dos.writeInt(table.size());
+        }
+        return n;
+    }
+
+    private static int writeVarLong(DataOutputStream dos, long v) throws IOException {
+        BinaryManifest.writeVarLong(dos, v);
+        return varLength(v);
+    }
+
+    private static int writeString(DataOutputStream dos, String s) throws IOException {
+        int n;
+
+        n = s == null ? 0 : s.getBytes(StandardCharsets.UTF_8).length + 1;
+        BinaryManifest.writeString(dos, s);
+        return varLength(n) + Math.max(n - 1, 0);
+    }
+
+    private static int varLength(long v) {
+        int n;
+
+        n = 1;
+        while ((v & ~0x7fL) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * The directory used for temporary files when building the index (the
+     * directory containing the manifest, as it is known to be writeable and
+     * to have room for files the size of the manifest). Checking only reads
+     * the manifest, so it may be on read only media; the selected entries
+     * are sorted in the system's temporary directory (see check()).
+     */
+    private static Path tempDir(Path manifest) {
+        return manifest.toAbsolutePath().getParent();
+    }
+
+    /**
+     * Scan an XML manifest, finding the offset of each '&lt;f&gt;' and the
+     * path in the '&lt;p&gt;' that follows it. The manifest is not parsed
+     * (the elements are found in the same way as Manifest.countEntries()), so
+     * this is much faster than reading it.
+     */
+    private static void scanXML(Path manifest, String[] header, ExternalSort sorter) throws IOException {
+        ByteArrayOutputStream text;
+        String tag;
+        long pos, fAt;
+        int c;
+
+        text = new ByteArrayOutputStream();
+        fAt = -1;
+        try (Window w = new Window(FileChannel.open(manifest, StandardOpenOption.READ))) {
+            pos = 0;
+            while ((c = w.read()) != -1) {
+                pos++;
+                if (c != '<') {
+                    continue;
+                }
+
+                // read the name of the tag (including the '/' of an end tag)
+                text.reset();
+                while ((c = w.read()) != -1 && (c != '>' && c != ' ' && c != '/' || c == '/' && text.size() == 0)) {
+                    pos++;
+                    text.write(c);
+                }
+                if (c == -1) {
+                    break;
+                }
+                pos++;
+                tag = text.toString("UTF-8");
+                switch (tag) {
+                    case "f":
+                        fAt = pos - 3;
+                        break;
+                    case "p":
+                    case "Creator":
+                    case "HashAlgorithm":
+                    case "SourceDirectory":
+                        if (c != '>') {
+                            break;
+                        }
+                        text.reset();
+                        while ((c = w.read()) != -1 && c != '<') {
+                            pos++;
+                            text.write(c);
+                        }
+                        if (c != -1) {
+                            pos++;
+                        }
+                        if (tag.equals("p")) {
+                            if (fAt != -1) {
+                                sorter.add(unescape(text.toString("UTF-8")).getBytes(StandardCharsets.UTF_8), fAt);
+                            }
+                            fAt = -1;
+                        } else if (tag.equals("Creator")) {
+                            header[0] = unescape(text.toString("UTF-8"));
+                        } else if (tag.equals("HashAlgorithm")) {
+                            header[1] = unescape(text.toString("UTF-8"));
+                        } else {
+                            header[2] = unescape(text.toString("UTF-8"));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the predefined XML entities, and character references, in the
+     * text of an element
+     */
+    static String unescape(String s) {
+        StringBuilder sb;
+        String ent;
+        int i, j;
+
+        if (s.indexOf('&') == -1) {
+            return s;
+        }
+        sb = new StringBuilder(s.length());
+        i = 0;
+        while (i < s.length()) {
+            j = s.indexOf(';', i);
+            if (s.charAt(i) != '&' || j == -1) {
+                sb.append(s.charAt(i));
+                i++;
+                continue;
+            }
+            ent = s.substring(i + 1, j);
+            switch (ent) {
+                case "amp":
+                    sb.append('&');
+                    break;
+                case "lt":
+                    sb.append('<');
+                    break;
+                case "gt":
+                    sb.append('>');
+                    break;
+                case "quot":
+                    sb.append('"');
+                    break;
+                case "apos":
+                    sb.append('\'');
+                    break;
+                default:
+                    try {
+                        if (ent.startsWith("#x")) {
+                            sb.appendCodePoint(Integer.parseInt(ent.substring(2), 16));
+                        } else if (ent.startsWith("#")) {
+                            sb.appendCodePoint(Integer.parseInt(ent.substring(1)));
+                        } else {
+                            sb.append(s, i, j + 1);
+                        }
+                    } catch (IllegalArgumentException iae) {
+                        sb.append(s, i, j + 1);
+                    }
+                    break;
+            }
+            i = j + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Check the entries of the manifest selected. The header recorded in the
+     * index is passed to the Manifest, then the selected entries are read
+     * from the manifest and passed to the Manifest in the order they appear
+     * in the manifest, in the same way as when reading the whole manifest
+     * (startFiles(), readEntry(), and endOfManifest()). The selected entries
+     * are sorted in the system's temporary directory, as the directory
+     * holding the manifest may not be writeable.
+     *
+     * @param m the Manifest checking the files
+     * @param sel the entries to check
+     * @return the number of entries selected
+     * @throws AppFatal if the Manifest failed
+     * @throws AppError if the index or manifest could not be read
+     */
+    long check(Manifest m, Selection sel) throws AppFatal, AppError {
+        String method = "check";
+        FileEntry fe;
+        Window w;
+        byte[] key;
+        long offset, prev, n;
+        boolean binary;
+        XMLEntryReader xer;
+
+        m.oldDetails.actor = creator;
+        m.oldDetails.hashAlg = hashAlg;
+        m.oldDetails.directory = sourceDirectory != null ? Paths.get(sourceDirectory) : null;
+        m.startFiles();
+        binary = BinaryManifest.isBinary(manifest);
+        n = 0;
+        try (ExternalSort selected = new ExternalSort(Manifest.tempDir(), SORT_MEMORY)) {
+            for (byte[] prefix : sel.prefixes()) {
+                select(prefix, sel, selected);
+            }
+            w = new Window(FileChannel.open(manifest, StandardOpenOption.READ));
+            try {
+                xer = binary ? null : new XMLEntryReader(m.manifestAlgs);
+                prev = -1;
+                while (selected.next()) {
+                    key = selected.key();
+                    offset = ByteBuffer.wrap(key, 0, 8).getLong();
+                    if (offset == prev) {
+                        continue; // selected by more than one glob
+                    }
+                    prev = offset;
+                    w.seek(offset);
+                    if (binary) {
+                        fe = BinaryManifest.readEntryAt(new DataInputStream(w), m.manifestAlgs.length, manifest);
+                    } else {
+                        fe = xer.read(w);
+                    }
+                    if (fe == null) {
+                        throw new AppError(classname, method, 1, "Index '" + indexFile(manifest).toString() + "' does not match manifest '" + manifest.toString() + "' at offset " + offset + ". Rebuild it using -index");
+                    }
+                    m.readEntry(Paths.get(new String(key, 8, key.length - 8, StandardCharsets.UTF_8)), fe.hashes, fe.size, fe.modified);
+                    n++;
+                }
+            } finally {
+                w.close();
+            }
+        } catch (IOException ioe) {
+            throw new AppError(classname, method, 2, "Failed reading manifest '" + manifest.toString() + "' using its index: " + ioe.toString());
+        }
+        m.endOfManifest();
+        return n;
+    }
+
+    /**
+     * Find the entries whose path starts with a prefix and that are selected,
+     * and add them to a sorter keyed by their offset in the manifest (so
+     * that they come out in the order they are in the manifest)
+     */
+    private void select(byte[] prefix, Selection sel, ExternalSort selected) throws IOException {
+        byte[] key, prev, sk;
+        long n, offset;
+        int lo, hi, mid, block, shared, len;
+        String path;
+
+        if (blocks.length == 0) {
+            return;
+        }
+
+        // find the last block whose first path is before the prefix
+        lo = 0;
+        hi = blocks.length - 1;
+        block = 0;
+        while (lo <= hi) {
+            mid = (lo + hi) >>> 1;
+            index.seek(blocks[mid]);
+            BinaryManifest.readVarLong(dis);
+            key = new byte[(int) BinaryManifest.readVarLong(dis)];
+            dis.readFully(key);
+            if (ExternalSort.compare(key, prefix) < 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        // read the index from there until past the paths with the prefix
+        index.seek(blocks[block]);
+        prev = new byte[0];
+        for (n = (long) block * BLOCK_ENTRIES; n < entries; n++) {
+            shared = (int) BinaryManifest.readVarLong(dis);
+            len = (int) BinaryManifest.readVarLong(dis);
+            if (shared > prev.length || len < 0) {
+                throw new IOException("index is corrupt");
+            }
+            key = Arrays.copyOf(prev, shared + len);
+            dis.readFully(key, shared, len);
+            offset = BinaryManifest.readVarLong(dis);
+            prev = key;
+            if (ExternalSort.startsWith(key, prefix)) {
+                path = new String(key, StandardCharsets.UTF_8);
+                if (sel.matches(path)) {
+                    sk = new byte[8 + key.length];
+                    ByteBuffer.wrap(sk).putLong(offset);
+                    System.arraycopy(key, 0, sk, 8, key.length);
+                    selected.add(sk, offset);
+                }
+            } else if (ExternalSort.compare(key, prefix) > 0) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        index.close();
+    }
+
+    /**
+     * The paths selected to be checked (-only). Each is a glob (as used by
+     * FileSystem.getPathMatcher()) matched against the path recorded in the
+     * manifest (i.e. relative to the directory). A path without any
+     * wildcards selects that file, or everything in that directory.
+     * <p>
+     * The paths are given with either '/' or the separator used in the
+     * manifest. If the manifest's separator is '\' (i.e. it was created on
+     * Windows), '\' is a separator in the paths given, not an escape.
+     */
+    static final class Selection {
+
+        private final char separator;           // separator in the manifest's paths
+        private final ArrayList<String> dirs;   // paths without wildcards (using separator)
+        private final ArrayList<PathMatcher> globs; // paths with wildcards (using '/')
+        private final ArrayList<byte[]> prefixes; // literal start of each path (using separator)
+
+        /**
+         * Create a selection
+         *
+         * @param paths the paths or globs selected
+         * @param separator the separator used in the manifest's paths ('/'
+         * or '\')
+         */
+        Selection(List<String> paths, char separator) {
+            String p;
+            int i;
+
+            this.separator = separator;
+            dirs = new ArrayList<>();
+            globs = new ArrayList<>();
+            prefixes = new ArrayList<>();
+            for (String s : paths) {
+                if (separator == '\\') {
+                    s = s.replace('\\', '/');
+                }
+                i = firstWildcard(s, separator);
+                if (i == -1) {
+                    p = s;
+                    while (p.length() > 1 && p.endsWith("/")) {
+                        p = p.substring(0, p.length() - 1);
+                    }
+                    p = p.replace('/', separator);
+                    dirs.add(p);
+                    prefixes.add(p.getBytes(StandardCharsets.UTF_8));
+                } else {
+                    globs.add(FileSystems.getDefault().getPathMatcher("glob:" + s));
+                    prefixes.add(s.substring(0, i).replace('/', separator).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        /**
+         * Find the first character with a special meaning in a glob. '\' is
+         * an escape, unless it is the separator.
+         */
+        private static int firstWildcard(String s, char separator) {
+            char c;
+            int i;
+
+            for (i = 0; i < s.length(); i++) {
+                c = s.charAt(i);
+                if ("*?[{".indexOf(c) != -1 || (c == '\\' && separator != '\\')) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * The literal start of each path or glob. Any path selected starts
+         * with one of these.
+         *
+         * @return the prefixes
+         */
+        List<byte[]> prefixes() {
+            return prefixes;
+        }
+
+        /**
+         * Is a path selected?
+         *
+         * @param path the path recorded in the manifest (or the same path as
+         * a Path on this platform)
+         * @return true if it is selected
+         */
+        boolean matches(String path) {
+            Path p;
+
+            if (File.separatorChar != separator) {
+                path = path.replace(File.separatorChar, separator);
+            }
+            for (String d : dirs) {
+                if (path.startsWith(d)
+                        && (path.length() == d.length() || path.charAt(d.length()) == separator)) {
+                    return true;
+                }
+            }
+            if (globs.isEmpty()) {
+                return false;
+            }
+            p = Paths.get(separator == '\\' ? path.replace('\\', '/') : path);
+            for (PathMatcher pm : globs) {
+                if (pm.matches(p)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads an entry ('&lt;f&gt;...&lt;/f&gt;') from an XML manifest. Only
+     * the entry is read, and it is parsed as an XML document on its own.
+     */
+    private static final class XMLEntryReader extends DefaultHandler {
+
+        private final SAXParser parser; // parser of the entries
+        private final String[] algs;    // hash algorithms in the manifest
+        private final ByteArrayOutputStream bytes; // the entry read
+        private final StringBuilder text; // text of the current element
+        private String alg;             // the 'alg' attribute of the current h
+        private FileEntry entry;        // the entry parsed
+
+        XMLEntryReader(String[] algs) throws AppError {
+            try {
+                parser = SAXParserFactory.newInstance().newSAXParser();
+            } catch (ParserConfigurationException | SAXException e) {
+                throw new AppError(classname, "XMLEntryReader", 1, "Failed creating XML parser: " + e.toString());
+            }
+            this.algs = algs;
+            bytes = new ByteArrayOutputStream();
+            text = new StringBuilder();
+        }
+
+        /**
+         * Read and parse the entry starting at the current position
+         *
+         * @param w the manifest, positioned at the '&lt;f&gt;'
+         * @return the entry (null if there is no entry at this position)
+         * @throws IOException if the manifest could not be read
+         */
+        FileEntry read(InputStream w) throws IOException {
+            byte[] b;
+            int c, state;
+
+            // read up to and including the '</f>'
+            bytes.reset();
+            state = 0;
+            while ((c = w.read()) != -1) {
+                bytes.write(c);
+                switch (state) {
+                    case 0:
+                        state = c == '<' ? 1 : 0;
+                        break;
+                    case 1:
+                        state = c == '/' ? 2 : 0;
+                        break;
+                    case 2:
+                        state = c == 'f' ? 3 : 0;
+                        break;
+                    default:
+                        state = 0;
+                        break;
+                }
+                if (state == 3) {
+                    if ((c = w.read()) == -1) {
+                        break;
+                    }
+                    bytes.write(c);
+                    if (c == '>') {
+                        break;
+                    }
+                    state = 0;
+                }
+            }
+            b = bytes.toByteArray();
+            if (b.length < 3 || b[0] != '<' || b[1] != 'f') {
+                return null;
+            }
+            entry = new FileEntry(null, -1, null);
+            entry.hashes = new String[algs.length];
+            try {
+                parser.reset();
+                parser.parse(new ByteArrayInputStream(b), this);
+            } catch (SAXException se) {
+                return null;
+            }
+            for (String h : entry.hashes) {
+                if (h == null) {
+                    return null;
+                }
+            }
+            return entry;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            text.setLength(0);
+            if (qName.equals("h")) {
+                alg = attributes.getValue("alg");
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            int i;
+
+            switch (qName) {
+                case "h":
+                    i = 0;
+                    while (alg != null && i < algs.length && !algs[i].equalsIgnoreCase(alg)) {
+                        i++;
+                    }
+                    if (i < algs.length) {
+                        entry.hashes[i] = text.toString();
+                    }
+                    break;
+                case "s":
+                    try {
+                        entry.size = Long.parseLong(text.toString().trim());
+                    } catch (NumberFormatException nfe) {
+                        entry.size = -1;
+                    }
+                    break;
+                case "m":
+                    try {
+                        entry.modified = FileTime.from(Instant.parse(text.toString().trim()));
+                    } catch (DateTimeParseException dtpe) {
+                        entry.modified = null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads a file (the index or a manifest) starting at any offset, through
+     * a buffer. Moving to an offset already in the buffer does not read the
+     * file again, so reading entries in order of their offset mostly reads
+     * from the buffer.
+     */
+    private static final class Window extends InputStream {
+
+        private final FileChannel fc;   // the file
+        private final ByteBuffer bb;    // buffer
+        private long start;             // offset in the file of the start of the buffer
+        private long pos;               // current offset in the file
+
+        Window(FileChannel fc) {
+            this.fc = fc;
+            bb = ByteBuffer.allocate(WINDOW_SIZE);
+            bb.limit(0);
+            start = 0;
+            pos = 0;
+        }
+
+        void seek(long pos) {
+            this.pos = pos;
+        }
+
+        long size() throws IOException {
+            return fc.size();
+        }
+
+        /**
+         * Make sure the current offset is in the buffer
+         *
+         * @return false if at the end of the file
+         */
+        private boolean fill() throws IOException {
+            int n;
+
+            if (pos >= start && pos < start + bb.limit()) {
+                return true;
+            }
+            bb.clear();
+            start = pos;
+            while (bb.hasRemaining() && (n = fc.read(bb, start + bb.position())) != -1) {
+                if (n == 0) {
+                    break;
+                }
+            }
+            bb.flip();
+            return bb.limit() > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return bb.get((int) (pos++ - start)) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            n = (int) Math.min(len, start + bb.limit() - pos);
+            bb.position((int) (pos - start));
+            bb.get(b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            try {
+                fc.close();
+            } catch (IOException ioe) {
+                /* ignore */
+            }
+        }
+    }
+}
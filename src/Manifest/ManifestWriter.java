@@ -0,0 +1,58 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppFatal;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+/**
+ * M A N I F E S T W R I T E R
+ *
+ * Writes a manifest in one of the supported formats (see XMLManifestWriter
+ * and BinaryManifest). The header is written first, then the entries (in
+ * the order they are to appear), and then the manifest is closed.
+ */
+interface ManifestWriter {
+
+    /**
+     * Write the header of the manifest (everything before the entries)
+     *
+     * @param creator the creator of the manifest
+     * @param hashAlg the hash algorithm(s) used (a comma separated list)
+     * @param sourceDirectory the directory the manifest describes
+     * @param history the history of the manifest
+     * @throws AppFatal if the manifest could not be written
+     */
+    void writeHeader(String creator, String hashAlg, String sourceDirectory, List<Manifest.HistoryEvent> history) throws AppFatal;
+
+    /**
+     * Write the entry for one file
+     *
+     * @param path the path of the file relative to the source directory
+     * @param hashes the hashes of the file (Base64 encoded), one for each
+     * hash algorithm in the header, in the same order
+     * @param size size of the file (-1 if not known)
+     * @param modified time the file was last modified (null if not known)
+     * @throws AppFatal if the manifest could not be written
+     */
+    void writeEntry(String path, String[] hashes, long size, FileTime modified) throws AppFatal;
+
+    /**
+     * Finish the manifest and close the file
+     *
+     * @throws AppFatal if the manifest could not be written
+     */
+    void close() throws AppFatal;
+
+    /**
+     * Give up on the manifest (e.g. because it failed or was cancelled),
+     * closing and deleting the file. Does nothing if the manifest has been
+     * closed. Never fails, as it is used when recovering from a failure.
+     */
+    void abandon();
+}
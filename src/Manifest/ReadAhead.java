@@ -0,0 +1,359 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * R E A D A H E A D
+ *
+ * Reads the start of files ahead of them being hashed. On network shares
+ * (SMB, NFS) the time taken to hash a small file is dominated by the round
+ * trips to open it and read the first block, not by the bandwidth, so a
+ * worker hashing one file at a time spends most of its time waiting.
+ * <p>
+ * The pools (HashPool and VerifyPool) tell the ReadAhead the files they are
+ * about to hash, in the order they will be hashed (schedule()). A pool of
+ * reader threads opens up to 'depth' of these files at a time, and reads the
+ * first BLOCK_SIZE bytes of each into a direct buffer. When a worker comes to
+ * hash the file, it takes the open file and the block (take()), digests the
+ * block, and reads the rest of the file (if any) itself. Small files are
+ * therefore read entirely by the readers, with up to 'depth' requests
+ * outstanding at once, however many workers are hashing.
+ * <p>
+ * The depth (Job.readAhead) also bounds the memory used: each file read
+ * ahead holds a buffer until the worker has finished with it (Block.close()).
+ * A file that could not be read ahead (e.g. it could not be opened) is
+ * simply read by the worker, which reports the error. A file that will not
+ * be read (its hashes are in the hash cache; see Manifest.needsReading()) is
+ * not read ahead.
+ */
+final class ReadAhead {
+
+    static String classname = "ReadAhead"; // for reporting
+    static final int BLOCK_SIZE = 256 * 1024; // bytes read ahead of each file
+
+    private final Manifest manifest;            // the manifest being processed
+    private final ExecutorService readers;      // threads reading ahead
+    private final ArrayDeque<ByteBuffer> free;  // buffers not in use
+    private final LinkedHashMap<Path, FileEntry> queued; // files waiting to be read ahead (and how they were found)
+    private final HashMap<Path, Future<Block>> reading; // files being (or that have been) read ahead
+    private boolean closed;                     // true if the ReadAhead has been closed
+
+    /**
+     * The start of a file that has been read ahead
+     */
+    final class Block {
+
+        final FileChannel fc;   // the open file (positioned after the block)
+        final ByteBuffer bb;    // the first bytes of the file
+        final boolean eof;      // true if the block is the whole file
+
+        private Block(FileChannel fc, ByteBuffer bb, boolean eof) {
+            this.fc = fc;
+            this.bb = bb;
+            this.eof = eof;
+        }
+
+        /**
+         * Close the file and give the buffer back (so that another file can
+         * be read ahead)
+         */
+        void close() {
+            try {
+                fc.close();
+            } catch (IOException ioe) {
+                /* ignore */
+            }
+            release(bb);
+        }
+    }
+
+    /**
+     * Create a ReadAhead
+     *
+     * @param manifest the manifest being processed
+     * @param depth the maximum number of files read ahead at any one time
+     */
+    ReadAhead(Manifest manifest, int depth) {
+        int i;
+
+        this.manifest = manifest;
+        readers = Executors.newFixedThreadPool(depth, new WorkerFactory("Manifest-read"));
+        free = new ArrayDeque<>(depth);
+        for (i = 0; i < depth; i++) {
+            free.push(ByteBuffer.allocateDirect(BLOCK_SIZE));
+        }
+        queued = new LinkedHashMap<>();
+        reading = new HashMap<>();
+        closed = false;
+    }
+
+    /**
+     * Schedule a file to be read ahead. Files are read ahead in the order
+     * they are scheduled.
+     *
+     * @param file the file that is about to be hashed
+     * @param found the file as found when walking the directory (null if
+     * not known)
+     */
+    synchronized void schedule(Path file, FileEntry found) {
+        if (closed || reading.containsKey(file) || queued.containsKey(file)) {
+            return;
+        }
+        queued.put(file, found);
+        fill();
+    }
+
+    /**
+     * Start reading ahead as many of the queued files as there are buffers
+     * for
+     */
+    private synchronized void fill() {
+        Iterator<Map.Entry<Path, FileEntry>> it;
+        Map.Entry<Path, FileEntry> e;
+
+        while (!free.isEmpty() && !queued.isEmpty()) {
+            it = queued.entrySet().iterator();
+            e = it.next();
+            it.remove();
+            reading.put(e.getKey(), start(e.getKey(), e.getValue(), free.pop()));
+        }
+    }
+
+    /**
+     * Start a reader reading ahead a file
+     */
+    private Future<Block> start(final Path file, final FileEntry found, final ByteBuffer bb) {
+        return readers.submit(new Callable<Block>() {
+            @Override
+            public Block call() throws IOException {
+                return read(file, found, bb);
+            }
+        });
+    }
+
+    /**
+     * Open a file and read its first block (on a reader thread)
+     *
+     * @param file the file
+     * @param found the file as found when walking the directory (null if
+     * not known)
+     * @param bb the buffer to read the block into
+     * @return the block (null if the file does not need to be read)
+     * @throws IOException if the file could not be opened or read
+     */
+    private Block read(Path file, FileEntry found, ByteBuffer bb) throws IOException {
+        FileChannel fc;
+        boolean eof;
+
+        if (!manifest.needsReading(file, found)) {
+            forget(file, bb);
+            return null;
+        }
+        fc = null;
+        eof = false;
+        try {
+            fc = FileChannel.open(file, StandardOpenOption.READ);
+            bb.clear();
+            while (bb.hasRemaining()) {
+                if (fc.read(bb) == -1) {
+                    eof = true;
+                    break;
+                }
+            }
+            bb.flip();
+        } catch (IOException ioe) {
+            if (fc != null) {
+                try {
+                    fc.close();
+                } catch (IOException e) {
+                    /* ignore */
+                }
+            }
+            forget(file, bb);
+            throw ioe;
+        }
+        return new Block(fc, bb, eof);
+    }
+
+    /**
+     * A file was not read ahead (it could not be, or need not be), so forget
+     * it (the worker will read it, and report any error)
+     */
+    private synchronized void forget(Path file, ByteBuffer bb) {
+        reading.remove(file);
+        release(bb);
+    }
+
+    /**
+     * Give back a buffer, and start reading ahead another file
+     */
+    private synchronized void release(ByteBuffer bb) {
+        if (closed) {
+            return;
+        }
+        free.push(bb);
+        fill();
+    }
+
+    /**
+     * Take the block read ahead for a file, waiting for it to be read if
+     * necessary. The caller must close() the block when it has finished
+     * with it.
+     *
+     * @param file the file about to be hashed
+     * @return the block (null if the file was not read ahead, or could not
+     * be)
+     */
+    Block take(Path file) {
+        Future<Block> f;
+        Block b;
+
+        synchronized (this) {
+            if (queued.containsKey(file)) {
+                queued.remove(file);
+                return null; // not started, so don't bother
+            }
+            f = reading.remove(file);
+        }
+        if (f == null) {
+            return null;
+        }
+        try {
+            b = f.get();
+        } catch (ExecutionException ee) {
+            return null;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (b != null && isClosed()) {
+            b.close();
+            return null;
+        }
+        return b;
+    }
+
+    /**
+     * Forget a file that is not going to be hashed after all (e.g. because it
+     * was found to be missing)
+     *
+     * @param file the file
+     */
+    void discard(Path file) {
+        Block b;
+
+        b = take(file);
+        if (b != null) {
+            b.close();
+        }
+    }
+
+    /**
+     * Cancel reading ahead a file that does not need to be read after all
+     * (e.g. because its hashes were in the hash cache). Unlike discard(),
+     * this does not wait for a read in progress to finish: the block is
+     * closed by a reader when it has been read.
+     *
+     * @param file the file
+     */
+    void cancel(Path file) {
+        final Future<Block> f;
+
+        synchronized (this) {
+            if (queued.containsKey(file)) {
+                queued.remove(file);
+                return;
+            }
+            f = reading.remove(file);
+            if (f == null) {
+                return;
+            }
+
+            // the reader tasks run in the order submitted, so this runs after
+            // the read has started
+            if (!f.isDone() && !closed) {
+                readers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeBlock(f);
+                    }
+                });
+                return;
+            }
+        }
+        closeBlock(f);
+    }
+
+    /**
+     * Close the block read ahead by a reader (if the read succeeded)
+     */
+    private static void closeBlock(Future<Block> f) {
+        Block b;
+
+        try {
+            b = f.get();
+            if (b != null) {
+                b.close();
+            }
+        } catch (ExecutionException ee) {
+            /* ignore */
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stop reading ahead, closing any files that have been read ahead but not
+     * taken
+     */
+    void close() {
+        ArrayList<Future<Block>> outstanding;
+        Block b;
+
+        synchronized (this) {
+            closed = true;
+            queued.clear();
+            outstanding = new ArrayList<>(reading.values());
+            reading.clear();
+        }
+        readers.shutdown();
+        for (Future<Block> f : outstanding) {
+            try {
+                b = f.get();
+                if (b != null) {
+                    b.fc.close();
+                }
+            } catch (ExecutionException | IOException e) {
+                /* ignore */
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+}
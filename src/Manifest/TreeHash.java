@@ -0,0 +1,260 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * T R E E H A S H
+ *
+ * A tree hash (Merkle tree) over a file, so that the chunks of a single very
+ * large file can be hashed in parallel. An ordinary hash is strictly
+ * sequential, so one very large file (e.g. a disk image) keeps one core busy
+ * for the length of the run while the other workers are idle.
+ * <p>
+ * A tree hash is named by prefixing 'TREE-' to the name of the underlying
+ * hash algorithm (e.g. 'TREE-SHA-256'), and is recorded in the manifest
+ * under that name. It is calculated as follows (the prefix bytes stop a leaf
+ * being confused with a node, as in RFC 6962):
+ * <ul>
+ * <li>the file is divided into chunks of CHUNK_SIZE bytes (the last chunk may
+ * be shorter; an empty file has one empty chunk),</li>
+ * <li>each leaf is hash(0x00 || chunk),</li>
+ * <li>each node is hash(0x01 || left || right), pairing the hashes of one
+ * level from the start; an odd hash at the end of a level is promoted to
+ * the next level unchanged,</li>
+ * <li>the tree hash is the single hash left at the top.</li>
+ * </ul>
+ * CHUNK_SIZE is part of the definition of the algorithm, and so cannot be
+ * changed without invalidating manifests already created.
+ * <p>
+ * The chunks are read using positional reads from a single FileChannel (so
+ * the I/O backend selected in the job is not used), and hashed by a pool of
+ * threads shared by all the files being hashed. The same pool is used when
+ * checking a manifest.
+ */
+final class TreeHash {
+
+    static String classname = "TreeHash"; // for reporting
+    static final String PREFIX = "TREE-";
+    static final long CHUNK_SIZE = 16 * 1024 * 1024; // size of a leaf
+
+    private static ExecutorService pool;    // threads hashing chunks (null until needed)
+    private static int poolThreads;         // number of threads in pool
+
+    private TreeHash() {
+    }
+
+    /**
+     * Is an algorithm a tree hash?
+     *
+     * @param alg the hash algorithm
+     * @return true if it is
+     */
+    static boolean isTree(String alg) {
+        return alg.regionMatches(true, 0, PREFIX, 0, PREFIX.length());
+    }
+
+    /**
+     * Get the hash algorithm underlying a tree hash
+     *
+     * @param alg the tree hash algorithm (e.g. 'TREE-SHA-256')
+     * @return the underlying algorithm (e.g. 'SHA-256')
+     */
+    static String baseAlg(String alg) {
+        return alg.substring(PREFIX.length());
+    }
+
+    /**
+     * Calculate the tree hash of a file. Files of more than one chunk are
+     * hashed in parallel (if threads is more than one).
+     *
+     * @param file the file to hash
+     * @param alg the tree hash algorithm (already checked)
+     * @param threads the number of threads to hash the chunks
+     * @return the tree hash
+     * @throws AppError if the file could not be read
+     */
+    static byte[] hash(Path file, String alg, int threads) throws AppError {
+        String method = "hash";
+        final FileChannel fc;
+        final String base;
+        ArrayList<Future<byte[]>> pending;
+        byte[][] level;
+        long size;
+        int i, n;
+
+        // open the file to digest
+        try {
+            fc = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new AppError(classname, method, 1, "File to hash ('" + file.toString() + "') was not found");
+        } catch (IOException e) {
+            throw new AppError(classname, method, 1, "File to hash ('" + file.toString() + "') could not be opened: " + e.toString());
+        }
+
+        // hash the leaves (in parallel if more than one)
+        base = baseAlg(alg);
+        pending = null;
+        try {
+            size = fc.size();
+            n = (int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            level = new byte[n][];
+            if (n == 1 || threads <= 1) {
+                for (i = 0; i < n; i++) {
+                    level[i] = leaf(fc, base, i * CHUNK_SIZE, Math.min(CHUNK_SIZE, size - i * CHUNK_SIZE));
+                }
+            } else {
+                pending = new ArrayList<>(n);
+                for (i = 0; i < n; i++) {
+                    final long start = i * CHUNK_SIZE;
+                    final long len = Math.min(CHUNK_SIZE, size - start);
+                    pending.add(getPool(threads).submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException, AppError {
+                            return leaf(fc, base, start, len);
+                        }
+                    }));
+                }
+                for (i = 0; i < n; i++) {
+                    level[i] = pending.get(i).get();
+                }
+                pending = null;
+            }
+        } catch (IOException e) {
+            throw new AppError(classname, method, 2, "failed reading file to hash: " + e.toString());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AppError) {
+                throw (AppError) e.getCause();
+            }
+            throw new AppError(classname, method, 2, "failed reading file to hash: " + e.getCause().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AppError(classname, method, 3, "Interrupted hashing '" + file.toString() + "'");
+        } finally {
+            if (pending != null) {
+                for (Future<byte[]> f : pending) {
+                    f.cancel(true);
+                }
+            }
+            try {
+                fc.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        // combine the leaves into the root
+        return root(level, digest(base));
+    }
+
+    /**
+     * Hash one chunk of a file (a leaf of the tree). This is called on the
+     * threads of the pool, and uses the thread's direct buffer.
+     *
+     * @param fc the file
+     * @param base the underlying hash algorithm
+     * @param pos the start of the chunk
+     * @param len the length of the chunk
+     * @return the hash of the leaf
+     * @throws IOException if the file could not be read
+     * @throws AppError if the file is shorter than expected
+     */
+    private static byte[] leaf(FileChannel fc, String base, long pos, long len) throws IOException, AppError {
+        MessageDigest md;
+        ByteBuffer bb;
+        int i;
+
+        md = digest(base);
+        md.update((byte) 0);
+        bb = Hasher.get().direct;
+        while (len > 0) {
+            bb.clear();
+            if (bb.capacity() > len) {
+                bb.limit((int) len);
+            }
+            if ((i = fc.read(bb, pos)) == -1) {
+                throw new AppError(classname, "leaf", 1, "file became shorter while being hashed");
+            }
+            bb.flip();
+            md.update(bb);
+            pos += i;
+            len -= i;
+        }
+        return md.digest();
+    }
+
+    /**
+     * Combine the hashes of the leaves into the hash of the root
+     *
+     * @param level the hashes of the leaves
+     * @param md a message digest for the underlying hash algorithm
+     * @return the hash of the root
+     */
+    static byte[] root(byte[][] level, MessageDigest md) {
+        byte[][] next;
+        int i;
+
+        while (level.length > 1) {
+            next = new byte[(level.length + 1) / 2][];
+            for (i = 0; i + 1 < level.length; i += 2) {
+                md.update((byte) 1);
+                md.update(level[i]);
+                md.update(level[i + 1]);
+                next[i / 2] = md.digest();
+            }
+            if (i < level.length) {
+                next[i / 2] = level[i];
+            }
+            level = next;
+        }
+        return level[0];
+    }
+
+    /**
+     * Get a message digest for the underlying hash algorithm
+     */
+    private static MessageDigest digest(String base) throws AppError {
+        try {
+            return Hasher.newDigest(base);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AppError(classname, "digest", 1, "Hash algorithm '" + base + "' not supported");
+        }
+    }
+
+    /**
+     * Get the pool of threads that hash the chunks, creating it (or replacing
+     * it if the number of threads has changed)
+     *
+     * @param threads the number of threads
+     * @return the pool
+     */
+    private static synchronized ExecutorService getPool(int threads) {
+        if (pool == null || poolThreads != threads) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = Executors.newFixedThreadPool(threads, new WorkerFactory("Manifest-tree"));
+            poolThreads = threads;
+        }
+        return pool;
+    }
+}
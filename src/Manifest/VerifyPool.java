@@ -0,0 +1,198 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * V E R I F Y P O O L
+ *
+ * This class separates the parsing of a manifest from the checking of the
+ * files listed in it. As the SAX parser finds each &lt;f&gt; entry it is
+ * submitted to the pool; a fixed set of worker threads check that the file
+ * exists and (optionally) recalculate its hash. The results are handed back to
+ * the Manifest to be reported strictly in the order in which the entries
+ * appear in the manifest.
+ * <p>
+ * The number of entries outstanding at any one time is limited (the
+ * 'window'). When the window is full, submit() blocks (and hence the parser
+ * stops reading the manifest) until the oldest entry has been checked and
+ * reported. This means that memory use does not depend on the size of the
+ * manifest.
+ * <p>
+ * If files are being read ahead (see ReadAhead), each entry is scheduled to
+ * be read ahead as it is submitted, and the window is widened so that there
+ * are enough entries outstanding to keep the readers busy.
+ * <p>
+ * If the hashes are not being checked (-nohash), checking an entry is a
+ * single stat() of the file, which on a network share takes a round trip but
+ * almost no CPU. The pool can then be given a 'concurrency' independent of
+ * the number of threads used to hash (Job.concurrency): this many threads
+ * (with small stacks) are started, so that this many stat() requests can be
+ * outstanding at once. The results are still reported in manifest order.
+ * <p>
+ * If the pool has only one thread (and files are not being read ahead), the
+ * entries are checked on the calling thread as they are submitted.
+ */
+class VerifyPool {
+
+    static String classname = "VerifyPool"; // for reporting
+    static final long STAT_STACK_SIZE = 256 * 1024; // stack of threads only checking that files exist
+    Manifest manifest;          // manifest being checked
+    int threads;                // number of worker threads
+    int window;                 // maximum number of entries outstanding
+    ExecutorService es;         // worker threads (null if checking inline)
+    ArrayDeque<Future<Result>> pending; // entries submitted, but not yet reported
+
+    /**
+     * The result of checking one entry in the manifest
+     */
+    static class Result {
+
+        static final int PASSED = 1;    // file present and hash matched
+        static final int UNCHECKED = 2; // file present, hash not checked
+        static final int CORRUPT = 3;   // file present, hash did not match
+        static final int MISSING = 4;   // file not present
+
+        Path file;              // actual file checked
+        String hash;            // hash recorded in manifest
+        String recalcHash;      // hash calculated (null if not calculated)
+        int status;             // outcome of the check (see above)
+
+        Result(Path file, String hash) {
+            this.file = file;
+            this.hash = hash;
+            recalcHash = null;
+            status = UNCHECKED;
+        }
+    }
+
+    /**
+     * Create a pool to check files.
+     *
+     * @param manifest the manifest being checked
+     * @param threads the number of worker threads (1 or less = no threads)
+     * @param readAhead the number of files read ahead of being checked (0 if
+     * files are not read ahead)
+     * @param concurrency the number of files checked at once when only
+     * checking that they exist (0 = use 'threads')
+     */
+    public VerifyPool(Manifest manifest, int threads, int readAhead, int concurrency) {
+        this.manifest = manifest;
+        this.threads = threads;
+        pending = new ArrayDeque<>();
+        if (concurrency > 0) {
+            this.threads = concurrency;
+            window = concurrency * 2;
+            es = Executors.newFixedThreadPool(concurrency, new WorkerFactory("Manifest-stat", STAT_STACK_SIZE));
+        } else if (threads > 1 || readAhead > 0) {
+            window = Math.max(threads, 1) * 4 + readAhead;
+            es = Executors.newFixedThreadPool(Math.max(threads, 1), new WorkerFactory("Manifest-verify"));
+        } else {
+            window = 0;
+            es = null;
+        }
+    }
+
+    /**
+     * Submit an entry from the manifest to be checked. If the window of
+     * outstanding entries is full, wait until the oldest entry has been checked
+     * and reported.
+     *
+     * @param partialFile the path of the file (relative to the directory)
+     * @param hash the hash recorded in the manifest
+     * @return true if the user cancelled the processing
+     * @throws AppError if a file could not be checked
+     */
+    public boolean submit(final Path partialFile, final String hash) throws AppError {
+        boolean cancelled;
+
+        // no threads, so just do it
+        if (es == null) {
+            return manifest.reportFile(manifest.verifyFile(partialFile, hash));
+        }
+
+        // otherwise hand the entry to the workers...
+        manifest.scheduleRead(manifest.job.directory.resolve(partialFile), null);
+        pending.add(es.submit(new Callable<Result>() {
+            @Override
+            public Result call() throws AppError {
+                return manifest.verifyFile(partialFile, hash);
+            }
+        }));
+
+        // and report the oldest entries until there is room in the window
+        cancelled = false;
+        while (!cancelled && pending.size() >= window) {
+            cancelled = reportOldest();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Wait until all the outstanding entries have been checked and reported.
+     *
+     * @return true if the user cancelled the processing
+     * @throws AppError if a file could not be checked
+     */
+    public boolean finish() throws AppError {
+        boolean cancelled;
+
+        cancelled = false;
+        while (!cancelled && !pending.isEmpty()) {
+            cancelled = reportOldest();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Wait for the oldest outstanding entry to be checked, and then report it
+     *
+     * @return true if the user cancelled the processing
+     * @throws AppError if the file could not be checked
+     */
+    private boolean reportOldest() throws AppError {
+        Result r;
+
+        try {
+            r = pending.remove().get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof AppError) {
+                throw (AppError) ee.getCause();
+            }
+            throw new AppError(classname, "reportOldest", 1, ee.getCause().toString());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AppError(classname, "reportOldest", 2, "Interrupted waiting for a file to be checked");
+        }
+        return manifest.reportFile(r);
+    }
+
+    /**
+     * Shut down the worker threads, abandoning any entries still outstanding
+     * (e.g. because the user cancelled the processing)
+     */
+    public void shutdown() {
+        Future<Result> f;
+
+        while ((f = pending.poll()) != null) {
+            f.cancel(true);
+        }
+        if (es != null) {
+            es.shutdownNow();
+            es = null;
+        }
+        manifest = null;
+    }
+}
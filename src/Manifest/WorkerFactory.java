@@ -0,0 +1,56 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the worker threads used by the HashPool and VerifyPool. The threads
+ * are daemons so that an abandoned pool does not stop the program exiting, and
+ * are named so that they can be recognised when debugging.
+ */
+class WorkerFactory implements ThreadFactory {
+
+    static final AtomicInteger poolNo = new AtomicInteger(1);
+    final AtomicInteger threadNo = new AtomicInteger(1);
+    final String prefix;
+    final long stackSize;       // stack size of each thread (0 = the JVM default)
+
+    /**
+     * Create a factory
+     *
+     * @param name name of the pool (used to name the threads)
+     */
+    WorkerFactory(String name) {
+        this(name, 0);
+    }
+
+    /**
+     * Create a factory for threads with a small stack. This is used when a
+     * large number of threads spend nearly all their time blocked in a system
+     * call (e.g. a stat() against a network share), so that the memory
+     * reserved for them stays small.
+     *
+     * @param name name of the pool (used to name the threads)
+     * @param stackSize stack size of each thread in bytes (0 = the JVM
+     * default)
+     */
+    WorkerFactory(String name, long stackSize) {
+        prefix = name + "-" + poolNo.getAndIncrement() + "-";
+        this.stackSize = stackSize;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread t;
+
+        t = new Thread(null, r, prefix + threadNo.getAndIncrement(), stackSize);
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppFatal;
+import VERSCommon.XMLCreator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+/**
+ * X M L M A N I F E S T W R I T E R
+ *
+ * Writes a manifest as XML (the original format).
+ * <pre>
+ * &lt;Manifest&gt;
+ *   &lt;Creator/&gt;&lt;HashAlgorithm/&gt;&lt;SourceDirectory/&gt;
+ *   &lt;History&gt;&lt;DateTimeCreated/&gt;|&lt;DateTimeUpdated/&gt;&lt;Actor/&gt;?&lt;Comment/&gt;&lt;/History&gt;*
+ *   &lt;Files&gt;&lt;f&gt;&lt;p/&gt;&lt;h/&gt;&lt;s/&gt;?&lt;m/&gt;?&lt;/f&gt;*&lt;/Files&gt;
+ * &lt;/Manifest&gt;
+ * </pre> If the manifest uses more than one hash algorithm (HashAlgorithm is a
+ * comma separated list), each &lt;f&gt; contains an &lt;h alg="..."&gt; for
+ * each algorithm, in the order listed. A manifest with a single algorithm is
+ * written exactly as before.
+ */
+final class XMLManifestWriter implements ManifestWriter {
+
+    private final Path manifest; // file being written
+    private XMLCreator xmlc; // manifest being created
+    private String[] hAttrs; // attributes of the h elements (null if only one algorithm)
+
+    /**
+     * Start writing an XML manifest
+     *
+     * @param manifest the file to write
+     * @throws AppFatal if the manifest could not be created
+     */
+    XMLManifestWriter(Path manifest) throws AppFatal {
+        this.manifest = manifest;
+        xmlc = new XMLCreator(true);
+        xmlc.startXMLDoc(manifest, "Manifest", null);
+        hAttrs = null;
+    }
+
+    @Override
+    public void writeHeader(String creator, String hashAlg, String sourceDirectory, List<Manifest.HistoryEvent> history) throws AppFatal {
+        String[] algs;
+        int i;
+
+        algs = Job.splitHashAlg(hashAlg);
+        if (algs.length > 1) {
+            hAttrs = new String[algs.length];
+            for (i = 0; i < algs.length; i++) {
+                hAttrs[i] = "alg=\"" + algs[i] + "\"";
+            }
+        }
+        xmlc.includeElement("Creator", null, creator, false);
+        xmlc.includeElement("HashAlgorithm", null, hashAlg, false);
+        xmlc.includeElement("SourceDirectory", null, sourceDirectory, false);
+        for (Manifest.HistoryEvent he : history) {
+            xmlc.startElement("History", null, false);
+            if (he.type != null) {
+                xmlc.includeElement(he.type, null, he.dateTime, false);
+            }
+            if (he.actor != null) {
+                xmlc.includeElement("Actor", null, he.actor, false);
+            }
+            xmlc.includeElement("Comment", null, he.comment, false);
+            xmlc.endElement("History", false);
+        }
+        xmlc.startElement("Files", null, false);
+    }
+
+    @Override
+    public void writeEntry(String path, String[] hashes, long size, FileTime modified) throws AppFatal {
+        int i;
+
+        xmlc.startElement("f", null, false);
+        xmlc.includeElement("p", null, path, true);
+        if (hAttrs == null) {
+            xmlc.includeElement("h", null, hashes[0], true);
+        } else {
+            for (i = 0; i < hashes.length; i++) {
+                xmlc.includeElement("h", hAttrs[i], hashes[i], true);
+            }
+        }
+        if (size != -1) {
+            xmlc.includeElement("s", null, Long.toString(size), true);
+        }
+        if (modified != null) {
+            xmlc.includeElement("m", null, modified.toString(), true);
+        }
+        xmlc.endElement("f", true);
+    }
+
+    @Override
+    public void close() throws AppFatal {
+        if (xmlc == null) {
+            return;
+        }
+        xmlc.endElement("Files", false);
+        // xmlc.includeElement("FileCount", null, Integer.toString(fileCount), false);
+        xmlc.endXMLDoc();
+        xmlc = null;
+    }
+
+    @Override
+    public void abandon() {
+        if (xmlc == null) {
+            return;
+        }
+        try {
+            xmlc.endXMLDoc();
+        } catch (AppFatal af) {
+            /* ignore */
+        }
+        xmlc = null;
+        try {
+            Files.deleteIfExists(manifest);
+        } catch (IOException ioe) {
+            /* ignore */
+        }
+    }
+}
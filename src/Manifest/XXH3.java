@@ -0,0 +1,441 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * X X H 3
+ *
+ * A pure Java implementation of the 64 bit XXH3 hash (version 0.8, seed 0,
+ * default secret). XXH3 is NOT a cryptographic hash: it will detect
+ * accidental change (e.g. a file that has been corrupted or only partly
+ * copied) very quickly, but not deliberate tampering. Use BLAKE3 or a SHA
+ * algorithm for that.
+ * <p>
+ * The input is buffered INTERNAL_BUFFER bytes at a time. Inputs of up to
+ * 240 bytes are hashed at the end by the short input algorithms; longer
+ * inputs are accumulated a 64 byte stripe at a time in eight 64 bit lanes,
+ * which are scrambled after each block of 16 stripes. Stripes are read
+ * directly from the caller's array or buffer (including direct buffers) as
+ * little endian longs. The digest is the 64 bit hash in big endian order
+ * (the canonical form used by xxhsum).
+ */
+final class XXH3 extends MessageDigest {
+
+    static final String NAME = "XXH3";
+
+    private static final long PRIME32_1 = 0x9E3779B1L;
+    private static final long PRIME32_2 = 0x85EBCA77L;
+    private static final long PRIME32_3 = 0xC2B2AE3DL;
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+    private static final long PRIME_MX1 = 0x165667919E3779F9L;
+    private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    private static final byte[] SECRET = hex(
+            "b8fe6c3923a44bbe7c01812cf721ad1cded46de9839097db7240a4a4b7b3671f"
+            + "cb79e64eccc0e578825ad07dccff7221b8084674f743248ee03590e6813a264c"
+            + "3c2852bb91c300cb88d0658b1b532ea371644897a20df94e3819ef46a9deacd8"
+            + "a8fa763fe39c343ff9dcbbc7c70b4f1d8a51e04bcdb45931c89f7ec9d9787364"
+            + "eac5ac8334d3ebc3c581a0fffa1363eb170ddd51b7f0da49d316552629d4689e"
+            + "2b16be587d47a1fc8ff8b8d17ad031ce45cb3a8f95160428afd7fbcabb4b407e");
+
+    private static final long[] SECRET64 = new long[SECRET.length - 7]; // the secret read as a long at each offset
+
+    private static final int STRIPE_LEN = 64;
+    private static final int SECRET_CONSUME_RATE = 8;
+    private static final int STRIPES_PER_BLOCK = (SECRET.length - STRIPE_LEN) / SECRET_CONSUME_RATE;
+    private static final int SECRET_LIMIT = SECRET.length - STRIPE_LEN;
+    private static final int SECRET_LASTACC_START = 7;
+    private static final int SECRET_MERGEACCS_START = 11;
+    private static final int MIDSIZE_MAX = 240;
+    private static final int INTERNAL_BUFFER = 256;
+    private static final int BUFFER_STRIPES = INTERNAL_BUFFER / STRIPE_LEN;
+
+    static {
+        int i;
+
+        for (i = 0; i < SECRET64.length; i++) {
+            SECRET64[i] = read64(SECRET, i);
+        }
+    }
+
+    private final long[] acc;       // the lanes
+    private final byte[] buffer;    // input not yet accumulated
+    private final ByteBuffer bufferBB; // buffer (little endian)
+    private int buffered;           // bytes in buffer
+    private long totalLen;          // bytes of input
+    private int stripesSoFar;       // stripes accumulated in the current block
+    private final ByteBuffer lastStripe; // last stripe (when it spans the buffer)
+
+    /**
+     * Create an XXH3 digest
+     */
+    XXH3() {
+        super(NAME);
+        acc = new long[8];
+        buffer = new byte[INTERNAL_BUFFER];
+        bufferBB = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        lastStripe = ByteBuffer.allocate(STRIPE_LEN).order(ByteOrder.LITTLE_ENDIAN);
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 8;
+    }
+
+    @Override
+    protected void engineReset() {
+        initAcc(acc);
+        buffered = 0;
+        totalLen = 0;
+        stripesSoFar = 0;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        engineUpdate(new byte[]{input}, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        update(ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN), offset, len);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        update(input.duplicate().order(ByteOrder.LITTLE_ENDIAN), input.position(), input.remaining());
+        input.position(input.limit());
+    }
+
+    /**
+     * Add input
+     *
+     * @param src the input (little endian; its position may be changed)
+     * @param offset the index of the first byte of input in src
+     * @param len the number of bytes of input
+     */
+    private void update(ByteBuffer src, int offset, int len) {
+        int end, fill;
+
+        totalLen += len;
+        if (buffered + len <= INTERNAL_BUFFER) {
+            copy(src, offset, buffer, buffered, len);
+            buffered += len;
+            return;
+        }
+        end = offset + len;
+
+        // complete the buffer and accumulate it (there is more input, so it
+        // cannot contain the last byte)
+        if (buffered > 0) {
+            fill = INTERNAL_BUFFER - buffered;
+            copy(src, offset, buffer, buffered, fill);
+            offset += fill;
+            consumeStripes(bufferBB, 0, BUFFER_STRIPES);
+            buffered = 0;
+        }
+
+        // accumulate directly from the input, always leaving at least one
+        // byte; the last stripe is kept in case the rest is less than a stripe
+        if (end - offset > INTERNAL_BUFFER) {
+            do {
+                consumeStripes(src, offset, BUFFER_STRIPES);
+                offset += INTERNAL_BUFFER;
+            } while (end - offset > INTERNAL_BUFFER);
+            copy(src, offset - STRIPE_LEN, buffer, INTERNAL_BUFFER - STRIPE_LEN, STRIPE_LEN);
+        }
+
+        // and keep the rest
+        copy(src, offset, buffer, 0, end - offset);
+        buffered = end - offset;
+    }
+
+    private static void copy(ByteBuffer src, int offset, byte[] dst, int dstOffset, int len) {
+        src.position(offset);
+        src.get(dst, dstOffset, len);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long h;
+        long[] a;
+        byte[] out;
+        int stripes, soFar, i;
+
+        if (totalLen > MIDSIZE_MAX) {
+            a = acc.clone();
+            soFar = stripesSoFar;
+            if (buffered >= STRIPE_LEN) {
+                stripes = (buffered - 1) / STRIPE_LEN;
+                consumeStripes(a, soFar, bufferBB, 0, stripes);
+                accumulate(a, bufferBB, buffered - STRIPE_LEN, SECRET_LIMIT - SECRET_LASTACC_START, 1);
+            } else {
+                lastStripe.clear();
+                lastStripe.put(buffer, INTERNAL_BUFFER - (STRIPE_LEN - buffered), STRIPE_LEN - buffered);
+                lastStripe.put(buffer, 0, buffered);
+                accumulate(a, lastStripe, 0, SECRET_LIMIT - SECRET_LASTACC_START, 1);
+            }
+            h = mergeAccs(a, SECRET_MERGEACCS_START, totalLen * PRIME64_1);
+        } else {
+            h = hashShort(buffer, (int) totalLen);
+        }
+
+        out = new byte[8];
+        for (i = 0; i < 8; i++) {
+            out[i] = (byte) (h >>> (56 - i * 8));
+        }
+        engineReset();
+        return out;
+    }
+
+    /**
+     * Accumulate stripes into the lanes, scrambling at the end of each block
+     */
+    private void consumeStripes(ByteBuffer b, int offset, int stripes) {
+        stripesSoFar = consumeStripes(acc, stripesSoFar, b, offset, stripes);
+    }
+
+    private static int consumeStripes(long[] a, int soFar, ByteBuffer b, int offset, int stripes) {
+        int toEnd;
+
+        if (STRIPES_PER_BLOCK - soFar <= stripes) {
+            toEnd = STRIPES_PER_BLOCK - soFar;
+            accumulate(a, b, offset, soFar * SECRET_CONSUME_RATE, toEnd);
+            scramble(a);
+            accumulate(a, b, offset + toEnd * STRIPE_LEN, 0, stripes - toEnd);
+            return stripes - toEnd;
+        }
+        accumulate(a, b, offset, soFar * SECRET_CONSUME_RATE, stripes);
+        return soFar + stripes;
+    }
+
+    /**
+     * Accumulate stripes into the lanes (which are kept in local variables
+     * while doing so)
+     */
+    private static void accumulate(long[] a, ByteBuffer b, int offset, int secret, int stripes) {
+        long a0, a1, a2, a3, a4, a5, a6, a7, d, k;
+        int n;
+
+        a0 = a[0];
+        a1 = a[1];
+        a2 = a[2];
+        a3 = a[3];
+        a4 = a[4];
+        a5 = a[5];
+        a6 = a[6];
+        a7 = a[7];
+        for (n = 0; n < stripes; n++) {
+            d = b.getLong(offset);
+            k = d ^ SECRET64[secret];
+            a1 += d;
+            a0 += (k & 0xFFFFFFFFL) * (k >>> 32);
+            d = b.getLong(offset + 8);
+            k = d ^ SECRET64[secret + 8];
+            a0 += d;
+            a1 += (k & 0xFFFFFFFFL) * (k >>> 32);
+            d = b.getLong(offset + 16);
+            k = d ^ SECRET64[secret + 16];
+            a3 += d;
+            a2 += (k & 0xFFFFFFFFL) * (k >>> 32);
+            d = b.getLong(offset + 24);
+            k = d ^ SECRET64[secret + 24];
+            a2 += d;
+            a3 += (k & 0xFFFFFFFFL) * (k >>> 32);
+            d = b.getLong(offset + 32);
+            k = d ^ SECRET64[secret + 32];
+            a5 += d;
+            a4 += (k & 0xFFFFFFFFL) * (k >>> 32);
+            d = b.getLong(offset + 40);
+            k = d ^ SECRET64[secret + 40];
+            a4 += d;
+            a5 += (k & 0xFFFFFFFFL) * (k >>> 32);
+            d = b.getLong(offset + 48);
+            k = d ^ SECRET64[secret + 48];
+            a7 += d;
+            a6 += (k & 0xFFFFFFFFL) * (k >>> 32);
+            d = b.getLong(offset + 56);
+            k = d ^ SECRET64[secret + 56];
+            a6 += d;
+            a7 += (k & 0xFFFFFFFFL) * (k >>> 32);
+            offset += STRIPE_LEN;
+            secret += SECRET_CONSUME_RATE;
+        }
+        a[0] = a0;
+        a[1] = a1;
+        a[2] = a2;
+        a[3] = a3;
+        a[4] = a4;
+        a[5] = a5;
+        a[6] = a6;
+        a[7] = a7;
+    }
+
+    private static void scramble(long[] a) {
+        long x;
+        int i;
+
+        for (i = 0; i < 8; i++) {
+            x = a[i];
+            x ^= x >>> 47;
+            x ^= SECRET64[SECRET_LIMIT + i * 8];
+            a[i] = x * PRIME32_1;
+        }
+    }
+
+    private static long mergeAccs(long[] a, int secret, long start) {
+        long r;
+        int i;
+
+        r = start;
+        for (i = 0; i < 4; i++) {
+            r += mul128Fold64(a[2 * i] ^ SECRET64[secret + i * 16], a[2 * i + 1] ^ SECRET64[secret + i * 16 + 8]);
+        }
+        return avalanche(r);
+    }
+
+    private static void initAcc(long[] a) {
+        a[0] = PRIME32_3;
+        a[1] = PRIME64_1;
+        a[2] = PRIME64_2;
+        a[3] = PRIME64_3;
+        a[4] = PRIME64_4;
+        a[5] = PRIME32_2;
+        a[6] = PRIME64_5;
+        a[7] = PRIME32_1;
+    }
+
+    /**
+     * Hash an input of up to 240 bytes
+     */
+    private static long hashShort(byte[] b, int len) {
+        long acc, lo, hi;
+        int c1, c2, c3, i, rounds;
+
+        if (len == 0) {
+            return xxh64Avalanche(SECRET64[56] ^ SECRET64[64]);
+        }
+        if (len <= 3) {
+            c1 = b[0] & 0xff;
+            c2 = b[len >> 1] & 0xff;
+            c3 = b[len - 1] & 0xff;
+            lo = ((c1 << 16) | (c2 << 24) | c3 | (len << 8)) & 0xFFFFFFFFL;
+            return xxh64Avalanche(lo ^ (read32(SECRET, 0) ^ read32(SECRET, 4)));
+        }
+        if (len <= 8) {
+            lo = read32(b, len - 4) + (read32(b, 0) << 32);
+            return rrmxmx(lo ^ (SECRET64[8] ^ SECRET64[16]), len);
+        }
+        if (len <= 16) {
+            lo = read64(b, 0) ^ (SECRET64[24] ^ SECRET64[32]);
+            hi = read64(b, len - 8) ^ (SECRET64[40] ^ SECRET64[48]);
+            acc = len + Long.reverseBytes(lo) + hi + mul128Fold64(lo, hi);
+            return avalanche(acc);
+        }
+        acc = len * PRIME64_1;
+        if (len <= 128) {
+            if (len > 32) {
+                if (len > 64) {
+                    if (len > 96) {
+                        acc += mix16(b, 48, 96);
+                        acc += mix16(b, len - 64, 112);
+                    }
+                    acc += mix16(b, 32, 64);
+                    acc += mix16(b, len - 48, 80);
+                }
+                acc += mix16(b, 16, 32);
+                acc += mix16(b, len - 32, 48);
+            }
+            acc += mix16(b, 0, 0);
+            acc += mix16(b, len - 16, 16);
+            return avalanche(acc);
+        }
+        rounds = len / 16;
+        for (i = 0; i < 8; i++) {
+            acc += mix16(b, 16 * i, 16 * i);
+        }
+        acc = avalanche(acc);
+        for (i = 8; i < rounds; i++) {
+            acc += mix16(b, 16 * i, 16 * (i - 8) + 3);
+        }
+        acc += mix16(b, len - 16, 136 - 17);
+        return avalanche(acc);
+    }
+
+    private static long mix16(byte[] b, int offset, int secret) {
+        return mul128Fold64(read64(b, offset) ^ SECRET64[secret], read64(b, offset + 8) ^ SECRET64[secret + 8]);
+    }
+
+    /**
+     * Multiply two 64 bit unsigned numbers, and xor the two halves of the
+     * 128 bit product
+     */
+    private static long mul128Fold64(long a, long b) {
+        long aLo, aHi, bLo, bHi, lolo, hilo, lohi, cross, hi;
+
+        aLo = a & 0xFFFFFFFFL;
+        aHi = a >>> 32;
+        bLo = b & 0xFFFFFFFFL;
+        bHi = b >>> 32;
+        lolo = aLo * bLo;
+        hilo = aHi * bLo;
+        lohi = aLo * bHi;
+        cross = (lolo >>> 32) + (hilo & 0xFFFFFFFFL) + lohi;
+        hi = (hilo >>> 32) + (cross >>> 32) + aHi * bHi;
+        return (a * b) ^ hi;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 37;
+        h *= PRIME_MX1;
+        return h ^ (h >>> 32);
+    }
+
+    private static long xxh64Avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        return h ^ (h >>> 32);
+    }
+
+    private static long rrmxmx(long h, long len) {
+        h ^= Long.rotateLeft(h, 49) ^ Long.rotateLeft(h, 24);
+        h *= PRIME_MX2;
+        h ^= (h >>> 35) + len;
+        h *= PRIME_MX2;
+        return h ^ (h >>> 28);
+    }
+
+    private static long read64(byte[] b, int i) {
+        return (b[i] & 0xffL) | (b[i + 1] & 0xffL) << 8 | (b[i + 2] & 0xffL) << 16 | (b[i + 3] & 0xffL) << 24
+                | (b[i + 4] & 0xffL) << 32 | (b[i + 5] & 0xffL) << 40 | (b[i + 6] & 0xffL) << 48 | (b[i + 7] & 0xffL) << 56;
+    }
+
+    private static long read32(byte[] b, int i) {
+        return (b[i] & 0xffL) | (b[i + 1] & 0xffL) << 8 | (b[i + 2] & 0xffL) << 16 | (b[i + 3] & 0xffL) << 24;
+    }
+
+    private static byte[] hex(String s) {
+        byte[] b;
+        int i;
+
+        b = new byte[s.length() / 2];
+        for (i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return b;
+    }
+}
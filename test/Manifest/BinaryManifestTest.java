@@ -0,0 +1,179 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import VERSCommon.AppFatal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * B I N A R Y M A N I F E S T T E S T
+ *
+ * Checks that a binary manifest reads back exactly what was written (the
+ * header, the history, and every entry), and that converting a manifest
+ * from XML to binary and back again gives the original manifest.
+ */
+public class BinaryManifestTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    Path dir;   // directory holding the test files
+
+    /**
+     * A manifest that records the entries read
+     */
+    static class Recorder extends Manifest {
+
+        final ArrayList<FileEntry> read; // entries read (in order)
+
+        Recorder() throws AppFatal {
+            super(new Job(), null, null);
+            oldDetails = new Job();
+            history = new ArrayList<>();
+            read = new ArrayList<>();
+        }
+
+        @Override
+        void readEntry(Path file, String[] hashes, long size, FileTime modified) {
+            FileEntry fe;
+
+            fe = new FileEntry(file, size, modified);
+            fe.hashes = hashes;
+            read.add(fe);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot().toPath();
+    }
+
+    @Test
+    public void entriesReadAsWritten() throws Exception {
+        Path man;
+        BinaryManifest.Writer w;
+        ArrayList<Manifest.HistoryEvent> history;
+        Recorder r;
+        String[][] hashes = {
+            {"qUqP5cyxm6YcTAhz05Hph5gvu9M=", "1B2M2Y8AsgTpgAmY7PhCfg=="},
+            {"not Base64!", "1B2M2Y8AsgTpgAmY7PhCfg=="}, // stored as text
+            {"", "AA=="},
+            {"qUqP5cyxm6YcTAhz05Hph5gvu9M", "AA=="} // not padded, so stored as text
+        };
+        String[] paths = {"top", "a/b/c", "a\\b\\d", "a/b/e"};
+        long[] sizes = {0, -1, Long.MAX_VALUE, 12345678901L};
+        FileTime[] modified = {
+            FileTime.from(Instant.parse("2026-10-18T01:02:03.123456789Z")),
+            null,
+            FileTime.from(Instant.parse("1950-01-01T00:00:00.5Z")),
+            FileTime.fromMillis(0)
+        };
+        int i;
+
+        man = dir.resolve("m.mfb");
+        history = new ArrayList<>();
+        history.add(new Manifest.HistoryEvent("DateTimeCreated", "2026-10-18T10:00:00+10:00", "someone", null));
+        history.add(new Manifest.HistoryEvent(null, "2026-10-19T10:00:00+10:00", null, "a comment"));
+        w = new BinaryManifest.Writer(man);
+        w.writeHeader("creator", "SHA-1,MD5", "/some/dir", history);
+        for (i = 0; i < paths.length; i++) {
+            w.writeEntry(paths[i], hashes[i], sizes[i], modified[i]);
+        }
+        w.close();
+
+        assertTrue(BinaryManifest.isBinary(man));
+        assertEquals(paths.length, BinaryManifest.count(man));
+        r = new Recorder();
+        BinaryManifest.read(man, r);
+        assertEquals("creator", r.oldDetails.actor);
+        assertEquals("SHA-1,MD5", r.oldDetails.hashAlg);
+        assertEquals("/some/dir", r.oldDetails.directory.toString());
+        assertEquals(2, r.history.size());
+        assertEquals("DateTimeCreated", r.history.get(0).type);
+        assertEquals("someone", r.history.get(0).actor);
+        assertNull(r.history.get(0).comment);
+        assertNull(r.history.get(1).type);
+        assertNull(r.history.get(1).actor);
+        assertEquals("a comment", r.history.get(1).comment);
+        assertEquals(paths.length, r.read.size());
+        for (i = 0; i < paths.length; i++) {
+            assertEquals(paths[i], r.read.get(i).file.toString());
+            assertArrayEquals(hashes[i], r.read.get(i).hashes);
+            assertEquals(sizes[i], r.read.get(i).size);
+            assertEquals(modified[i], r.read.get(i).modified);
+        }
+    }
+
+    @Test
+    public void truncatedManifestRejected() throws Exception {
+        Path man;
+        BinaryManifest.Writer w;
+        byte[] b;
+
+        man = dir.resolve("m.mfb");
+        w = new BinaryManifest.Writer(man);
+        w.writeHeader("creator", "SHA-1", "/some/dir", new ArrayList<Manifest.HistoryEvent>());
+        w.writeEntry("a/b", new String[]{"qUqP5cyxm6YcTAhz05Hph5gvu9M="}, 1, null);
+        w.writeEntry("a/c", new String[]{"qUqP5cyxm6YcTAhz05Hph5gvu9M="}, 1, null);
+        w.close();
+        b = Files.readAllBytes(man);
+        Files.write(man, Arrays.copyOf(b, b.length - 12));
+        try {
+            BinaryManifest.read(man, new Recorder());
+            fail("truncated manifest read");
+        } catch (AppError ae) {
+            assertTrue(ae.getMessage(), ae.getMessage().contains("truncated"));
+        }
+        assertFalse(BinaryManifest.isBinary(dir.resolve("missing")));
+        assertEquals(-1, BinaryManifest.count(dir.resolve("missing")));
+    }
+
+    @Test
+    public void convertToBinaryAndBack() throws Exception {
+        Path src, xml, mfb, back;
+        Manifest m;
+        int i;
+
+        src = dir.resolve("src");
+        for (i = 0; i < 50; i++) {
+            Files.createDirectories(src.resolve("d" + (i % 7)));
+            Files.write(src.resolve("d" + (i % 7)).resolve("f&" + i), new byte[i]);
+        }
+        xml = dir.resolve("m.xml");
+        mfb = dir.resolve("m.mfb");
+        back = dir.resolve("back.xml");
+        m = new Manifest(new String[]{"-o", xml.toString(), "-h", "SHA-256,MD5", src.toString()});
+        m.createManifest();
+        m.close();
+        m = new Manifest(new String[]{"-convert", xml.toString(), mfb.toString(), "-f", "binary"});
+        m.convertManifest();
+        m.close();
+        m = new Manifest(new String[]{"-convert", mfb.toString(), back.toString(), "-f", "xml"});
+        m.convertManifest();
+        m.close();
+
+        assertTrue(BinaryManifest.isBinary(mfb));
+        assertEquals(50, BinaryManifest.count(mfb));
+        assertTrue(Files.size(mfb) < Files.size(xml));
+        assertArrayEquals(Files.readAllBytes(xml), Files.readAllBytes(back));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * B L A K E 3 T E S T
+ *
+ * Checks the pure Java BLAKE3 against the official test vectors
+ * (test_vectors.json in the BLAKE3 repository; the input is the bytes 0,
+ * 1, ... 250 repeated, and the hash is the first 32 bytes of the output).
+ * The lengths cover a single chunk, chunk boundaries, and trees of several
+ * levels. Each input is also fed in pieces, as the Hasher does.
+ */
+public class Blake3Test {
+
+    static final int[] LENGTHS = {0, 1, 1023, 1024, 1025, 2048, 2049, 3072, 3073, 4096, 4097, 5120, 8192, 8193, 16384, 31744, 102400};
+    static final String[] HASHES = {
+        "af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262",
+        "2d3adedff11b61f14c886e35afa036736dcd87a74d27b5c1510225d0f592e213",
+        "10108970eeda3eb932baac1428c7a2163b0e924c9a9e25b35bba72b28f70bd11",
+        "42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7",
+        "d00278ae47eb27b34faecf67b4fe263f82d5412916c1ffd97c8cb7fb814b8444",
+        "e776b6028c7cd22a4d0ba182a8bf62205d2ef576467e838ed6f2529b85fba24a",
+        "5f4d72f40d7a5f82b15ca2b2e44b1de3c2ef86c426c95c1af0b6879522563030",
+        "b98cb0ff3623be03326b373de6b9095218513e64f1ee2edd2525c7ad1e5cffd2",
+        "7124b49501012f81cc7f11ca069ec9226cecb8a2c850cfe644e327d22d3e1cd3",
+        "015094013f57a5277b59d8475c0501042c0b642e531b0a1c8f58d2163229e969",
+        "9b4052b38f1c5fc8b1f9ff7ac7b27cd242487b3d890d15c96a1c25b8aa0fb995",
+        "9cadc15fed8b5d854562b26a9536d9707cadeda9b143978f319ab34230535833",
+        "aae792484c8efe4f19e2ca7d371d8c467ffb10748d8a5a1ae579948f718a2a63",
+        "bab6c09cb8ce8cf459261398d2e7aef35700bf488116ceb94a36d0f5f1b7bc3b",
+        "f875d6646de28985646f34ee13be9a576fd515f76b5b0a26bb324735041ddde4",
+        "62b6960e1a44bcc1eb1a611a8d6235b6b4b78f32e7abc4fb4c6cdcce94895c47",
+        "bc3e3d41a1146b069abffad3c0d44860cf664390afce4d9661f7902e7943e085"};
+
+    /**
+     * Input of the official test vectors
+     */
+    static byte[] input(int len) {
+        byte[] b;
+        int i;
+
+        b = new byte[len];
+        for (i = 0; i < len; i++) {
+            b[i] = (byte) (i % 251);
+        }
+        return b;
+    }
+
+    static String hex(byte[] b) {
+        StringBuilder sb;
+
+        sb = new StringBuilder();
+        for (byte x : b) {
+            sb.append(String.format("%02x", x));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void officialVectors() {
+        int i;
+
+        for (i = 0; i < LENGTHS.length; i++) {
+            assertEquals("length " + LENGTHS[i], HASHES[i], hex(new Blake3().digest(input(LENGTHS[i]))));
+        }
+    }
+
+    @Test
+    public void fedInPieces() {
+        Blake3 md;
+        ByteBuffer bb;
+        byte[] b;
+        int i, j, n;
+
+        md = new Blake3();
+        bb = ByteBuffer.allocateDirect(1000);
+        for (i = 0; i < LENGTHS.length; i++) {
+            b = input(LENGTHS[i]);
+
+            // odd sized pieces through a direct buffer, with a single byte
+            // at the start
+            if (b.length > 0) {
+                md.update(b[0]);
+            }
+            for (j = Math.min(1, b.length); j < b.length; j += n) {
+                n = Math.min(777, b.length - j);
+                bb.clear();
+                bb.put(b, j, n);
+                bb.flip();
+                md.update(bb);
+            }
+            assertEquals("length " + LENGTHS[i], HASHES[i], hex(md.digest()));
+        }
+    }
+}
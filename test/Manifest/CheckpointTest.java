@@ -0,0 +1,134 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppFatal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * C H E C K P O I N T T E S T
+ *
+ * Resumes the creation of a manifest twice in a row: the first resume dies
+ * as soon as it starts writing the manifest, and the second completes it.
+ * Checks that the files done before the first run died are still in the
+ * checkpoint while the first resume is running, and that the completed
+ * manifest reuses their hashes (rather than rehashing them).
+ */
+public class CheckpointTest {
+
+    static final String[] FILES = {"f0", "f1", "f2", "f3"};
+    static final int DONE = 2; // files done by the run that died
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    Path src;   // the source directory
+    Path man;   // manifest being created
+    Path ckpt;  // its checkpoint
+
+    /**
+     * A manifest creation that dies writing the first entry, noting what
+     * was in the checkpoint at the time
+     */
+    static class Dying extends Manifest {
+
+        final Path ckpt;        // checkpoint of the manifest
+        List<String> journal;   // contents of the checkpoint when it died
+
+        Dying(String[] args, Path ckpt) throws AppFatal {
+            super(args);
+            this.ckpt = ckpt;
+            journal = null;
+        }
+
+        @Override
+        boolean writeEntry(FileEntry entry) throws AppFatal {
+            try {
+                journal = Files.readAllLines(ckpt, StandardCharsets.UTF_8);
+            } catch (Exception e) {
+                journal = new ArrayList<>();
+            }
+            throw new AppFatal("killed");
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder sb;
+        Path f;
+        int i;
+
+        src = tmp.newFolder("src").toPath();
+        for (String s : FILES) {
+            Files.write(src.resolve(s), s.getBytes("UTF-8"));
+        }
+        man = tmp.getRoot().toPath().resolve("manifest.xml");
+        ckpt = tmp.getRoot().toPath().resolve("manifest.xml.ckpt");
+
+        // the journal of a run that died after doing the first files; the
+        // hashes recorded are not the real ones, so reuse can be detected
+        sb = new StringBuilder();
+        sb.append(Checkpoint.MAGIC).append("\tcreate\tSHA-1\n");
+        for (i = 0; i < DONE; i++) {
+            f = src.resolve(FILES[i]);
+            sb.append(Files.size(f)).append('\t').append(Files.getLastModifiedTime(f).toString()).append("\tfake").append(i).append('\t').append(FILES[i]).append("\t.\n");
+        }
+        sb.append("3\t2026-"); // died part way through writing a line
+        Files.write(ckpt, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void resumeTwice() throws Exception {
+        Dying d;
+        Manifest m;
+        String s;
+        int i;
+
+        // first resume, which dies
+        d = new Dying(new String[]{"-o", man.toString(), "-resume", src.toString()}, ckpt);
+        try {
+            d.createManifest();
+            fail("Manifest creation should have died");
+        } catch (AppFatal af) {
+            // expected
+        } finally {
+            d.close();
+        }
+        assertNotNull(d.journal);
+        assertEquals(Checkpoint.MAGIC + "\tcreate\tSHA-1", d.journal.get(0));
+        for (i = 0; i < DONE; i++) {
+            assertTrue(d.journal.get(i + 1).contains("\tfake" + i + "\t" + FILES[i] + "\t."));
+        }
+        assertFalse(Files.exists(man));
+        assertFalse(Files.exists(ckpt.resolveSibling("manifest.xml.ckpt.tmp")));
+
+        // second resume, which completes
+        m = new Manifest(new String[]{"-o", man.toString(), "-resume", src.toString()});
+        m.createManifest();
+        m.close();
+        s = new String(Files.readAllBytes(man), StandardCharsets.UTF_8);
+        for (i = 0; i < DONE; i++) {
+            assertTrue(s.contains(">fake" + i + "<"));
+        }
+        for (i = DONE; i < FILES.length; i++) {
+            assertTrue(s.contains(">" + FILES[i] + "<"));
+        }
+        assertFalse(Files.exists(ckpt));
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * D I F F T E S T
+ *
+ * Compares two manifests (written directly, so the hashes and sizes can be
+ * chosen) and checks the files reported as changed, moved, added, and
+ * removed. A file removed and a file added with the same hash are a move,
+ * unless the file is empty or its size is not known; files with the same
+ * hash are paired as moves in path order. Also compares manifests whose
+ * sorts are spilled to disk.
+ */
+public class DiffTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * An entry to be written to a manifest
+     */
+    static class Entry {
+
+        final String path;
+        final int hash;     // contents of the hash (each byte is this)
+        final long size;
+
+        Entry(String path, int hash, long size) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A SHA-1 hash, each byte of which is n
+     */
+    static String hash(int n) {
+        byte[] b;
+
+        b = new byte[20];
+        Arrays.fill(b, (byte) n);
+        return Base64.getEncoder().encodeToString(b);
+    }
+
+    /**
+     * Write a binary manifest
+     */
+    private Path manifest(String name, List<Entry> entries) throws Exception {
+        Path man;
+        BinaryManifest.Writer w;
+
+        man = tmp.getRoot().toPath().resolve(name);
+        w = new BinaryManifest.Writer(man);
+        w.writeHeader("creator", "SHA-1", "/some/dir", new ArrayList<Manifest.HistoryEvent>());
+        for (Entry e : entries) {
+            w.writeEntry(e.path, new String[]{hash(e.hash)}, e.size, null);
+        }
+        w.close();
+        return man;
+    }
+
+    /**
+     * Compare two manifests
+     *
+     * @param memory memory used by each sort
+     * @return the warnings logged (the differences and the totals)
+     */
+    private List<String> diff(Path oldMan, Path newMan, long memory) throws Exception {
+        Manifest m;
+        Messages msgs;
+
+        m = new Manifest(new String[]{"-diff", oldMan.toString(), newMan.toString()});
+        m.diffMemory = memory;
+        msgs = new Messages();
+        msgs.start();
+        try {
+            m.compareManifests();
+        } finally {
+            msgs.stop();
+            m.close();
+        }
+        return msgs.warning;
+    }
+
+    private static String totals(Path oldMan, Path newMan, int added, int removed, int changed, int moved, int unchanged) {
+        return "Compared '" + oldMan.toString() + "' with '" + newMan.toString() + "' ('SHA-1' hashes): "
+                + added + " files added, " + removed + " removed, " + changed + " changed, " + moved + " moved, and " + unchanged + " unchanged";
+    }
+
+    @Test
+    public void differencesReported() throws Exception {
+        Path oldMan, newMan;
+        List<String> msgs;
+
+        oldMan = manifest("old.mfb", Arrays.asList(
+                new Entry("a", 1, 10), // unchanged
+                new Entry("b", 2, 20), // changed
+                new Entry("c", 3, 30), // removed
+                new Entry("d", 4, 40), // moved to x/d
+                new Entry("dup1", 7, 5), // moved to n1 (same hash as dup2)
+                new Entry("dup2", 7, 5), // moved to n2
+                new Entry("e", 5, 0), // empty, so not moved to f
+                new Entry("u", 6, -1))); // size unknown, so not moved to v
+        newMan = manifest("new.mfb", Arrays.asList(
+                new Entry("a", 1, 10),
+                new Entry("b", 8, 21),
+                new Entry("f", 5, 0),
+                new Entry("g", 9, 9), // added
+                new Entry("n1", 7, 5),
+                new Entry("n2", 7, 5),
+                new Entry("v", 6, -1),
+                new Entry("x/d", 4, 40)));
+        msgs = diff(oldMan, newMan, Manifest.DIFF_MEMORY);
+        assertEquals(Arrays.asList(
+                "Changed: 'b' (size 20 bytes -> 21 bytes)",
+                "Moved: 'd' -> 'x/d'",
+                "Moved: 'dup1' -> 'n1'",
+                "Moved: 'dup2' -> 'n2'",
+                "Added: 'f' (0 bytes)",
+                "Added: 'g' (9 bytes)",
+                "Added: 'v' (size not recorded)",
+                "Removed: 'c' (30 bytes)",
+                "Removed: 'e' (0 bytes)",
+                "Removed: 'u' (size not recorded)",
+                totals(oldMan, newMan, 3, 3, 1, 3, 1)), msgs);
+    }
+
+    @Test
+    public void identicalManifests() throws Exception {
+        Path oldMan, newMan;
+        List<Entry> entries;
+
+        entries = Arrays.asList(new Entry("a", 1, 10), new Entry("b/c", 2, 0));
+        oldMan = manifest("old.mfb", entries);
+        newMan = manifest("new.mfb", entries);
+        assertEquals(Arrays.asList(totals(oldMan, newMan, 0, 0, 0, 0, 2)), diff(oldMan, newMan, Manifest.DIFF_MEMORY));
+    }
+
+    @Test
+    public void spilledSortsGiveSameDifferences() throws Exception {
+        Path oldMan, newMan;
+        ArrayList<Entry> olds, news;
+        ArrayList<String> expected;
+        List<String> msgs;
+        String tmpDir;
+        int i, n;
+
+        olds = new ArrayList<>();
+        news = new ArrayList<>();
+        expected = new ArrayList<>();
+        for (i = 0; i < 250; i++) { // each with a different hash
+            olds.add(new Entry(String.format("p%03d", i), i, i + 1));
+            news.add(new Entry(String.format("q/p%03d", i), i, i + 1));
+            expected.add(String.format("Moved: 'p%03d' -> 'q/p%03d'", i, i));
+        }
+        oldMan = manifest("old.mfb", olds);
+        newMan = manifest("new.mfb", news);
+        expected.add(totals(oldMan, newMan, 0, 0, 0, 250, 0));
+
+        // spill the runs into the test's directory, so they can be counted
+        tmpDir = System.getProperty("java.io.tmpdir");
+        System.setProperty("java.io.tmpdir", tmp.newFolder("spill").toString());
+        try {
+            msgs = diff(oldMan, newMan, 1024);
+        } finally {
+            System.setProperty("java.io.tmpdir", tmpDir);
+        }
+        assertEquals(expected, msgs);
+        n = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(tmp.getRoot().toPath().resolve("spill"))) {
+            for (Path p : ds) {
+                n++;
+            }
+        }
+        assertEquals(0, n); // the runs are deleted when the sorts are closed
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import Manifest.DiffTest.Entry;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * D U P L I C A T E S T E S T
+ *
+ * Looks for duplicates in two manifests (written directly, so the hashes
+ * and sizes can be chosen) that list some of the same content, and checks
+ * the groups reported, in hash order and then manifest and path order. The
+ * size of a group is the first size recorded for its files, empty files are
+ * ignored, and a manifest that does not record the hashes being compared
+ * is skipped.
+ */
+public class DuplicatesTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Write a binary manifest recording SHA-1 hashes (see DiffTest.hash())
+     */
+    private Path manifest(String name, List<Entry> entries) throws Exception {
+        Path man;
+        BinaryManifest.Writer w;
+
+        man = tmp.getRoot().toPath().resolve(name);
+        w = new BinaryManifest.Writer(man);
+        w.writeHeader("creator", "SHA-1", "/some/dir", new ArrayList<Manifest.HistoryEvent>());
+        for (Entry e : entries) {
+            w.writeEntry(e.path, new String[]{DiffTest.hash(e.hash)}, e.size, null);
+        }
+        w.close();
+        return man;
+    }
+
+    /**
+     * Find the duplicates in some manifests
+     *
+     * @return the warnings logged (the groups and the totals)
+     */
+    private List<String> duplicates(Path... manifests) throws Exception {
+        ArrayList<String> args;
+        Manifest m;
+        Messages msgs;
+
+        args = new ArrayList<>();
+        for (Path p : manifests) {
+            args.add("-duplicates");
+            args.add(p.toString());
+        }
+        m = new Manifest(args.toArray(new String[args.size()]));
+        msgs = new Messages();
+        msgs.start();
+        try {
+            m.findDuplicates();
+        } finally {
+            msgs.stop();
+            m.close();
+        }
+        return msgs.warning;
+    }
+
+    @Test
+    public void groupsReported() throws Exception {
+        Path m1, m2, m3;
+        BinaryManifest.Writer w;
+        String in1, in2;
+
+        m1 = manifest("m1.mfb", Arrays.asList(
+                new Entry("a", 1, 10), // same as 'a' in m2
+                new Entry("b", 2, -1), // same as 'x/b' and 'x/b2' in m2
+                new Entry("c", 3, 30), // unique
+                new Entry("e", 4, 0), // empty, so ignored
+                new Entry("v", 5, -1))); // same as 'w' in m2, no size known
+        m2 = manifest("m2.mfb", Arrays.asList(
+                new Entry("a", 1, 10),
+                new Entry("d", 6, 8),
+                new Entry("e2", 4, 0),
+                new Entry("w", 5, -1),
+                new Entry("x/b", 2, 20),
+                new Entry("x/b2", 2, 20)));
+
+        // a manifest of the same content, but with SHA-256 hashes
+        m3 = tmp.getRoot().toPath().resolve("m3.mfb");
+        w = new BinaryManifest.Writer(m3);
+        w.writeHeader("creator", "SHA-256", "/other/dir", new ArrayList<Manifest.HistoryEvent>());
+        w.writeEntry("a", new String[]{Base64.getEncoder().encodeToString(new byte[32])}, 10, null);
+        w.close();
+
+        in1 = "' in '" + m1.toString() + "'";
+        in2 = "' in '" + m2.toString() + "'";
+        assertEquals(Arrays.asList(
+                "The 1 files in manifest '" + m3.toString() + "' were ignored, as it does not record 'SHA-1' hashes",
+                "2 files have the same content (SHA-1 hash '" + DiffTest.hash(1) + "'), 10 bytes each, 10 bytes reclaimable:\n  'a" + in1 + "\n  'a" + in2,
+                "3 files have the same content (SHA-1 hash '" + DiffTest.hash(2) + "'), 20 bytes each, 40 bytes reclaimable:\n  'b" + in1 + "\n  'x/b" + in2 + "\n  'x/b2" + in2,
+                "2 files have the same content (SHA-1 hash '" + DiffTest.hash(5) + "'; size not recorded):\n  'v" + in1 + "\n  'w" + in2,
+                "3 groups of files with the same content were found in the 9 (non empty) files compared. 4 files are copies, and 50 bytes could be reclaimed by keeping one copy of each"),
+                duplicates(m1, m2, m3));
+    }
+
+    @Test
+    public void noDuplicates() throws Exception {
+        Path m1;
+
+        m1 = manifest("m1.mfb", Arrays.asList(new Entry("a", 1, 10), new Entry("b", 2, 10), new Entry("e", 3, 0), new Entry("f", 3, 0)));
+        assertEquals(Arrays.asList("No files with the same content were found in the 2 (non empty) files compared"), duplicates(m1));
+    }
+}
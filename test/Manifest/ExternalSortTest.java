@@ -0,0 +1,179 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * E X T E R N A L S O R T T E S T
+ *
+ * Checks that an ExternalSort returns the records added in order of their
+ * keys (as unsigned bytes, which is the order of paths in a ManifestIndex),
+ * with the value added with each key, both when the records fit in memory
+ * and when they are spilled to runs on disk and merged.
+ */
+public class ExternalSortTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    Path dir;   // directory in which runs are spilled
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot().toPath();
+    }
+
+    /**
+     * Read the keys out of a sort (as strings), checking each value is the
+     * length of its key
+     */
+    private static ArrayList<String> drain(ExternalSort es) throws Exception {
+        ArrayList<String> keys;
+
+        keys = new ArrayList<>();
+        while (es.next()) {
+            assertEquals(es.key().length, es.value());
+            keys.add(new String(es.key(), StandardCharsets.UTF_8));
+        }
+        return keys;
+    }
+
+    @Test
+    public void sortsInUnsignedByteOrder() throws Exception {
+        String[] keys = {"b/c", "\u00e9", "a", "ab", "a/b", "", "B", "a"};
+
+        try (ExternalSort es = new ExternalSort(dir, 1024 * 1024)) {
+            for (String k : keys) {
+                es.add(k.getBytes(StandardCharsets.UTF_8), k.getBytes(StandardCharsets.UTF_8).length);
+            }
+            assertEquals(keys.length, es.count());
+            assertEquals(Arrays.asList("", "B", "a", "a", "a/b", "ab", "b/c", "\u00e9"), drain(es));
+            assertFalse(es.next());
+        }
+    }
+
+    @Test
+    public void emptySort() throws Exception {
+        try (ExternalSort es = new ExternalSort(dir, 1024)) {
+            assertFalse(es.next());
+            assertEquals(0, es.count());
+        }
+    }
+
+    @Test
+    public void noRecordsAddedOnceSorting() throws Exception {
+        try (ExternalSort es = new ExternalSort(dir, 1024)) {
+            es.add(new byte[]{1}, 1);
+            es.next();
+            try {
+                es.add(new byte[]{2}, 1);
+                fail("record added after sorting started");
+            } catch (IllegalStateException ise) {
+                /* expected */
+            }
+        }
+    }
+
+    /**
+     * Count the runs spilled to the directory
+     */
+    private int runs() throws Exception {
+        int n;
+
+        n = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "manifest-sort-*.run")) {
+            for (Path p : ds) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void spilledRunsMergedInOrder() throws Exception {
+        ArrayList<String> keys;
+        Random r;
+        String k;
+        int i;
+
+        // random keys (with duplicates), enough to spill many runs and
+        // leave some records in memory
+        r = new Random(22);
+        keys = new ArrayList<>();
+        for (i = 0; i < 5003; i++) {
+            k = "dir" + r.nextInt(20) + "/f" + r.nextInt(2000);
+            keys.add(k);
+        }
+        try (ExternalSort es = new ExternalSort(dir, 1000)) {
+            for (String s : keys) {
+                es.add(s.getBytes(StandardCharsets.UTF_8), s.length());
+            }
+            assertTrue(runs() > 100);
+            assertEquals(keys.size(), es.count());
+            Collections.sort(keys);
+            assertEquals(keys, drain(es));
+        }
+        assertEquals(0, runs());
+    }
+
+    @Test
+    public void runsDeletedWhenClosedPartway() throws Exception {
+        int i;
+
+        try (ExternalSort es = new ExternalSort(dir, 100)) {
+            for (i = 0; i < 100; i++) {
+                es.add(new byte[]{(byte) (100 - i)}, i);
+            }
+            assertTrue(es.next());
+            assertEquals(1, es.key()[0]);
+            assertEquals(99, es.value());
+            assertTrue(runs() > 1);
+        }
+        assertEquals(0, runs());
+    }
+
+    @Test
+    public void compareAsUnsignedBytes() {
+        assertTrue(ExternalSort.compare(new byte[]{(byte) 0x7f}, new byte[]{(byte) 0x80}) < 0);
+        assertTrue(ExternalSort.compare(new byte[]{1, 2}, new byte[]{1}) > 0);
+        assertEquals(0, ExternalSort.compare(new byte[]{1, 2}, new byte[]{1, 2}));
+        assertEquals(0, ExternalSort.compare(new byte[]{1, 2, 3}, 2, new byte[]{1, 2, 4}, 2));
+        assertTrue(ExternalSort.startsWith(new byte[]{1, 2, 3}, new byte[]{1, 2}));
+        assertTrue(ExternalSort.startsWith(new byte[]{1}, new byte[0]));
+        assertFalse(ExternalSort.startsWith(new byte[]{1}, new byte[]{1, 2}));
+        assertFalse(ExternalSort.startsWith(new byte[]{1, 3}, new byte[]{1, 2}));
+    }
+
+    @Test
+    public void keysReturnedAsAdded() throws Exception {
+        byte[] k;
+
+        k = new byte[]{0, (byte) 0xff, 3};
+        try (ExternalSort es = new ExternalSort(dir, 1024)) {
+            es.add(k, Long.MIN_VALUE);
+            assertTrue(es.next());
+            assertArrayEquals(k, es.key());
+            assertEquals(Long.MIN_VALUE, es.value());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppFatal;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * H A S H P O O L T E S T
+ *
+ * Checks that the HashPool hashes each batch of files in the order of their
+ * position on disk, but writes the entries to the manifest in the order the
+ * files were found. The files are not read: the manifest records the order
+ * in which files were hashed and written, and 'hashes' each file by its name.
+ */
+public class HashPoolTest {
+
+    /**
+     * A manifest that records the files it is asked to hash and write
+     */
+    static class Recorder extends Manifest {
+
+        final ArrayList<FileEntry> hashed;  // files hashed (in order)
+        final ArrayList<FileEntry> written; // files written (in order)
+
+        Recorder() throws AppFatal {
+            super(new Job(), null, null);
+            hashed = new ArrayList<>();
+            written = new ArrayList<>();
+        }
+
+        @Override
+        String[] hashFile(FileEntry entry) {
+            synchronized (hashed) {
+                hashed.add(entry);
+            }
+            return new String[]{entry.file.toString()};
+        }
+
+        @Override
+        boolean writeEntry(FileEntry entry) {
+            written.add(entry);
+            return false;
+        }
+    }
+
+    /**
+     * Make a file entry with a Unix style file key
+     */
+    private static FileEntry entry(String name, long dev, long ino) {
+        FileEntry fe;
+
+        fe = new FileEntry(Paths.get(name), 100, null);
+        fe.fileKey = "(dev=" + Long.toHexString(dev) + ",ino=" + ino + ")";
+        return fe;
+    }
+
+    @Test
+    public void layoutFromFileKey() {
+        FileEntry fe;
+
+        fe = new FileEntry(Paths.get("a"), 1000, null);
+        fe.fileKey = "(dev=803,ino=1234)";
+        assertArrayEquals(new long[]{0x803, 1234}, HashPool.layout(fe));
+    }
+
+    @Test
+    public void layoutFromSizeWithoutFileKey() {
+        assertArrayEquals(new long[]{-1, 10}, HashPool.layout(new FileEntry(Paths.get("a"), 1000, null)));
+        assertArrayEquals(new long[]{-1, 0}, HashPool.layout(new FileEntry(Paths.get("a"), 0, null)));
+        assertArrayEquals(new long[]{-1, 0}, HashPool.layout(new FileEntry(Paths.get("a"), -1, null)));
+    }
+
+    @Test
+    public void batchHashedInLayoutOrderWrittenInOrderFound() throws Exception {
+        Recorder m;
+        HashPool hp;
+        ArrayList<FileEntry> found;
+        long[] inodes = {40, 10, 30, 20, 80, 50, 70, 60};
+        int i;
+
+        m = new Recorder();
+        found = new ArrayList<>();
+        for (i = 0; i < inodes.length; i++) {
+            found.add(entry("f" + i, 1, inodes[i]));
+        }
+        hp = new HashPool(m, 1, 4, 0);
+        for (FileEntry fe : found) {
+            assertFalse(hp.submit(fe));
+        }
+        assertFalse(hp.finish());
+        hp.shutdown();
+
+        assertEquals(found, m.written);
+        for (i = 0; i < m.hashed.size(); i++) {
+            assertEquals((i + 1) * 10, HashPool.layout(m.hashed.get(i))[1]);
+        }
+        for (FileEntry fe : found) {
+            assertArrayEquals(new String[]{fe.file.toString()}, fe.hashes);
+        }
+    }
+
+    @Test
+    public void batchOrderedByDeviceFirst() throws Exception {
+        Recorder m;
+        HashPool hp;
+        FileEntry a, b, c;
+
+        m = new Recorder();
+        a = entry("a", 2, 1);
+        b = entry("b", 1, 9);
+        c = entry("c", 1, 5);
+        hp = new HashPool(m, 1, 3, 0);
+        hp.submit(a);
+        hp.submit(b);
+        hp.submit(c);
+        hp.finish();
+        hp.shutdown();
+
+        assertEquals(Arrays.asList(c, b, a), m.hashed);
+        assertEquals(Arrays.asList(a, b, c), m.written);
+    }
+
+    @Test
+    public void knownHashesNotHashedAgain() throws Exception {
+        Recorder m;
+        HashPool hp;
+        ArrayList<FileEntry> found;
+        FileEntry fe;
+        int i;
+
+        m = new Recorder();
+        found = new ArrayList<>();
+        for (i = 0; i < 10; i++) {
+            fe = entry("f" + i, 1, 100 - i);
+            if (i % 3 == 0) {
+                fe.hashes = new String[]{"known"};
+            }
+            found.add(fe);
+        }
+        hp = new HashPool(m, 1, 4, 0);
+        for (FileEntry e : found) {
+            hp.submit(e);
+        }
+        hp.finish();
+        hp.shutdown();
+
+        assertEquals(found, m.written);
+        assertEquals(6, m.hashed.size());
+        for (i = 0; i < found.size(); i++) {
+            assertArrayEquals(new String[]{i % 3 == 0 ? "known" : "f" + i}, found.get(i).hashes);
+        }
+    }
+
+    @Test
+    public void threadsWriteInOrderFound() throws Exception {
+        Recorder m;
+        HashPool hp;
+        ArrayList<FileEntry> found;
+        ArrayList<Integer> inodes;
+        FileEntry fe;
+        int i;
+
+        m = new Recorder();
+        inodes = new ArrayList<>();
+        for (i = 0; i < 500; i++) {
+            inodes.add(i);
+        }
+        Collections.shuffle(inodes, new Random(1));
+        found = new ArrayList<>();
+        for (i = 0; i < inodes.size(); i++) {
+            fe = entry("f" + i, 1, inodes.get(i));
+            if (i == 7) {
+                fe.size = HashPool.LARGE_FILE; // handed over at once
+            }
+            found.add(fe);
+        }
+        hp = new HashPool(m, 4, 16, 8);
+        for (FileEntry e : found) {
+            assertFalse(hp.submit(e));
+        }
+        assertFalse(hp.finish());
+        hp.shutdown();
+
+        assertEquals(found, m.written);
+        assertEquals(found.size(), m.hashed.size());
+        for (FileEntry e : found) {
+            assertArrayEquals(new String[]{e.file.toString()}, e.hashes);
+        }
+    }
+}
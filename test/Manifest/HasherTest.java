@@ -0,0 +1,102 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * H A S H E R T E S T
+ *
+ * Checks that calculating several hash algorithms in one pass over a file
+ * gives the same hashes as calculating each on its own, for both I/O
+ * backends, and for files that are empty, smaller than the buffer, and that
+ * span several buffers. Also checks that XXH3 (plain or as a tree hash) is
+ * the only algorithm that is not cryptographic.
+ */
+public class HasherTest {
+
+    static final String[] ALGS = {"SHA-1", "SHA-256", "MD5", "SHA-512", Blake3.NAME, XXH3.NAME};
+    static final int[] SIZES = {0, 1, 1000, Hasher.BUFFER_SIZE - 1, Hasher.BUFFER_SIZE, 3 * Hasher.BUFFER_SIZE + 17};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    Path dir;   // directory holding the test files
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot().toPath();
+    }
+
+    /**
+     * Make a file of random bytes
+     */
+    private Path makeFile(int size) throws Exception {
+        Path f;
+        byte[] b;
+
+        b = new byte[size];
+        new Random(size).nextBytes(b);
+        f = dir.resolve("f" + size);
+        Files.write(f, b);
+        return f;
+    }
+
+    @Test
+    public void multiHashEqualsSingleHashes() throws Exception {
+        Path f;
+        byte[][] all;
+        byte[] one, expected;
+        int i;
+
+        for (int size : SIZES) {
+            f = makeFile(size);
+            for (Job.HashIO io : Job.HashIO.values()) {
+                all = clone(Hasher.get().hash(f, ALGS, io, 1, null));
+                for (i = 0; i < ALGS.length; i++) {
+                    one = Hasher.get().hash(f, new String[]{ALGS[i]}, io, 1, null)[0].clone();
+                    expected = Hasher.newDigest(ALGS[i]).digest(Files.readAllBytes(f));
+                    assertArrayEquals(ALGS[i] + " of " + size + " bytes (" + io + ")", expected, one);
+                    assertArrayEquals(ALGS[i] + " of " + size + " bytes (" + io + ", with the others)", expected, all[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the hashes returned by a Hasher (which are overwritten by the next
+     * call)
+     */
+    private static byte[][] clone(byte[][] hashes) {
+        byte[][] c;
+        int i;
+
+        c = new byte[hashes.length][];
+        for (i = 0; i < hashes.length; i++) {
+            c[i] = hashes[i].clone();
+        }
+        return c;
+    }
+
+    @Test
+    public void onlyXXH3NotCryptographic() {
+        for (String alg : ALGS) {
+            assertTrue(alg, Hasher.cryptographic(alg) != alg.equals(XXH3.NAME));
+        }
+        assertFalse(Hasher.cryptographic("xxh3"));
+        assertFalse(Hasher.cryptographic("TREE-" + XXH3.NAME));
+        assertTrue(Hasher.cryptographic("TREE-SHA-256"));
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppFatal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * M A N I F E S T C O N T E N T S
+ *
+ * The header, history, and entries of a manifest (XML or binary), read so
+ * that tests can check what was written. An XML manifest is read by
+ * converting it to a binary manifest beside it, which is then deleted.
+ */
+class ManifestContents extends Manifest {
+
+    final LinkedHashMap<String, FileEntry> entries; // entries by path (in the order read)
+
+    private ManifestContents() throws AppFatal {
+        super(new Job(), null, null);
+        oldDetails = new Job();
+        history = new ArrayList<>();
+        entries = new LinkedHashMap<>();
+    }
+
+    @Override
+    void readEntry(Path file, String[] hashes, long size, FileTime modified) {
+        FileEntry fe;
+
+        fe = new FileEntry(file, size, modified);
+        fe.hashes = hashes;
+        entries.put(file.toString(), fe);
+    }
+
+    /**
+     * Read a manifest
+     *
+     * @param manifest the manifest
+     * @return its contents
+     * @throws Exception if the manifest could not be read
+     */
+    static ManifestContents read(Path manifest) throws Exception {
+        ManifestContents mc;
+        Manifest m;
+        Path mfb;
+
+        mc = new ManifestContents();
+        if (BinaryManifest.isBinary(manifest)) {
+            BinaryManifest.read(manifest, mc);
+            return mc;
+        }
+        mfb = manifest.resolveSibling(manifest.getFileName().toString() + ".read.mfb");
+        m = new Manifest(new String[]{"-convert", manifest.toString(), mfb.toString()});
+        try {
+            m.convertManifest();
+        } finally {
+            m.close();
+        }
+        try {
+            BinaryManifest.read(mfb, mc);
+        } finally {
+            Files.deleteIfExists(mfb);
+        }
+        return mc;
+    }
+
+    /**
+     * @param path the path of an entry
+     * @return its first hash (null if there is no such entry)
+     */
+    String hash(String path) {
+        FileEntry fe;
+
+        fe = entries.get(path);
+        return fe != null ? fe.hashes[0] : null;
+    }
+}
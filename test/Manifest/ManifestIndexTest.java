@@ -0,0 +1,235 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppFatal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * M A N I F E S T I N D E X T E S T
+ *
+ * Builds the index of a manifest (XML and binary), and checks that the
+ * entries selected through it are exactly those a full read of the manifest
+ * would select, with the same hashes, in the order they are in the
+ * manifest. Also checks the matching of the selected paths when the
+ * manifest's separator is '/' and '\'.
+ */
+public class ManifestIndexTest {
+
+    // the files in the directory (more than one block of the index)
+    static final String[] FILES = {"a/x", "a/y", "ab/z", "a&b.txt", "b/c/d", "b/c/e.txt", "top", "z y"};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    Path dir;   // directory holding the source files and the manifests
+    Path src;   // the source directory
+
+    /**
+     * A manifest that records the entries read, instead of checking them
+     */
+    static class Recorder extends Manifest {
+
+        final ArrayList<String> paths;  // paths read (in order)
+        final ArrayList<String> hashes; // primary hash of each path read
+
+        Recorder() throws AppFatal {
+            super(new Job(), null, null);
+            oldDetails = new Job();
+            paths = new ArrayList<>();
+            hashes = new ArrayList<>();
+        }
+
+        @Override
+        void readEntry(Path file, String[] h, long size, FileTime modified) {
+            paths.add(file.toString());
+            hashes.add(h[0]);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        int i;
+        Path f;
+
+        dir = tmp.getRoot().toPath();
+        src = dir.resolve("src");
+        for (String s : FILES) {
+            f = src.resolve(s);
+            Files.createDirectories(f.getParent());
+            Files.write(f, s.getBytes("UTF-8"));
+        }
+        for (i = 0; i < ManifestIndex.BLOCK_ENTRIES * 3; i++) {
+            f = src.resolve("many").resolve(String.format("f%04d", i));
+            Files.createDirectories(f.getParent());
+            Files.write(f, new byte[]{(byte) i});
+        }
+    }
+
+    /**
+     * Create a manifest of the source directory, and index it
+     */
+    private Path create(String format) throws Exception {
+        Path man;
+        Manifest m;
+
+        man = dir.resolve("manifest." + format);
+        m = new Manifest(new String[]{"-o", man.toString(), "-f", format, src.toString()});
+        m.createManifest();
+        m.close();
+        assertEquals(FILES.length + ManifestIndex.BLOCK_ENTRIES * 3, ManifestIndex.build(man));
+        return man;
+    }
+
+    /**
+     * Read all the entries of a manifest through its index
+     */
+    private static Recorder readAll(Path man) throws Exception {
+        Recorder all;
+
+        all = new Recorder();
+        try (ManifestIndex idx = ManifestIndex.open(man)) {
+            idx.check(all, new ManifestIndex.Selection(Collections.singletonList("**"), '/'));
+        }
+        return all;
+    }
+
+    /**
+     * Select entries through the index, and check they are the entries of
+     * the whole manifest that match, in the same order
+     */
+    private static List<String> select(Path man, Recorder all, String... paths) throws Exception {
+        ManifestIndex.Selection sel;
+        Recorder r;
+        ArrayList<String> expected, hashes;
+        int i;
+
+        sel = new ManifestIndex.Selection(Arrays.asList(paths), '/');
+        expected = new ArrayList<>();
+        hashes = new ArrayList<>();
+        for (i = 0; i < all.paths.size(); i++) {
+            if (sel.matches(all.paths.get(i))) {
+                expected.add(all.paths.get(i));
+                hashes.add(all.hashes.get(i));
+            }
+        }
+        r = new Recorder();
+        try (ManifestIndex idx = ManifestIndex.open(man)) {
+            assertEquals(expected.size(), idx.check(r, sel));
+        }
+        assertEquals(expected, r.paths);
+        assertEquals(hashes, r.hashes);
+        return r.paths;
+    }
+
+    private void selectFromManifest(String format) throws Exception {
+        Path man;
+        Recorder all;
+        List<String> got;
+
+        man = create(format);
+        all = readAll(man);
+        assertEquals(FILES.length + ManifestIndex.BLOCK_ENTRIES * 3, all.paths.size());
+        for (String s : FILES) {
+            assertTrue(s, all.paths.contains(s));
+        }
+
+        got = select(man, all, "a");
+        assertEquals(2, got.size());
+        assertTrue(got.containsAll(Arrays.asList("a/x", "a/y")));
+        assertEquals(Arrays.asList("b/c/d", "b/c/e.txt"), sorted(select(man, all, "b/c/")));
+        assertEquals(Collections.singletonList("top"), select(man, all, "top"));
+        assertEquals(Collections.singletonList("a&b.txt"), select(man, all, "a&b.txt"));
+        assertEquals(Collections.singletonList("z y"), select(man, all, "z y"));
+        assertEquals(Arrays.asList("a&b.txt", "b/c/e.txt"), sorted(select(man, all, "**.txt", "b/*/e.txt")));
+        assertEquals(3, select(man, all, "a", "a/*", "ab").size()); // each entry only once
+        assertEquals(ManifestIndex.BLOCK_ENTRIES * 3, select(man, all, "many").size());
+        assertEquals(10, select(man, all, "many/f000[0-9]").size());
+        assertEquals(Collections.singletonList("many/f0130"), select(man, all, "many/f0130"));
+        assertTrue(select(man, all, "nothing", "a/z*", "many/f9").isEmpty());
+    }
+
+    private static List<String> sorted(List<String> l) {
+        ArrayList<String> s;
+
+        s = new ArrayList<>(l);
+        Collections.sort(s);
+        return s;
+    }
+
+    @Test
+    public void selectFromXMLManifest() throws Exception {
+        selectFromManifest("xml");
+    }
+
+    @Test
+    public void selectFromBinaryManifest() throws Exception {
+        selectFromManifest("binary");
+    }
+
+    @Test
+    public void indexIgnoredWhenManifestChanges() throws Exception {
+        Path man;
+
+        man = create("xml");
+        try (ManifestIndex idx = ManifestIndex.open(man)) {
+            assertNotNull(idx);
+            assertEquals(FILES.length + ManifestIndex.BLOCK_ENTRIES * 3, idx.getEntries());
+        }
+        Files.write(man, "\n".getBytes("UTF-8"), StandardOpenOption.APPEND);
+        assertNull(ManifestIndex.open(man));
+    }
+
+    @Test
+    public void selectionWithSlashSeparator() {
+        ManifestIndex.Selection sel;
+
+        sel = new ManifestIndex.Selection(Arrays.asList("a/b/", "c/*.txt", "d\\*"), '/');
+        assertTrue(sel.matches("a/b"));
+        assertTrue(sel.matches("a/b/f"));
+        assertFalse(sel.matches("a/bc"));
+        assertFalse(sel.matches("a"));
+        assertTrue(sel.matches("c/f.txt"));
+        assertFalse(sel.matches("c/d/f.txt"));
+        assertTrue(sel.matches("d*"));    // '\' is an escape
+        assertFalse(sel.matches("dx"));
+        assertEquals("a/b", new String(sel.prefixes().get(0)));
+        assertEquals("c/", new String(sel.prefixes().get(1)));
+        assertEquals("d", new String(sel.prefixes().get(2)));
+    }
+
+    @Test
+    public void selectionWithBackslashSeparator() {
+        ManifestIndex.Selection sel;
+
+        sel = new ManifestIndex.Selection(Arrays.asList("a\\b", "c/*.txt", "d\\e\\"), '\\');
+        assertTrue(sel.matches("a\\b"));
+        assertTrue(sel.matches("a\\b\\f"));
+        assertFalse(sel.matches("a\\bc"));
+        assertTrue(sel.matches("c\\f.txt"));
+        assertFalse(sel.matches("c\\d\\f.txt"));
+        assertTrue(sel.matches("d\\e\\f"));
+        assertEquals("a\\b", new String(sel.prefixes().get(0)));
+        assertEquals("c\\", new String(sel.prefixes().get(1)));
+        assertEquals("d\\e", new String(sel.prefixes().get(2)));
+    }
+}
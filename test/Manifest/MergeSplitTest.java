@@ -0,0 +1,273 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * M E R G E S P L I T T E S T
+ *
+ * Splits a manifest into parts, checking that each file goes into the part
+ * with the longest directory containing it (or the '.' part if none), with
+ * its path relative to that directory; then merges the parts again, and
+ * checks that this gives the entries of the original manifest, with the
+ * histories combined. Also checks that a merge or split that fails part
+ * way through leaves no partly written manifests behind.
+ */
+public class MergeSplitTest {
+
+    // the files in the manifest, and the part each goes in when split
+    static final String[] FILES = {"t1/a", "t1/b/c", "t2/d", "t2/x/e", "top"};
+    static final String[] PARTS = {"p1.mfb", "p1.mfb", "p2.mfb", "p3.mfb", "rest.mfb"};
+    static final String[] PART_PATHS = {"a", "b/c", "d", "e", "top"};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    Path dir;   // directory holding the manifests
+    Path src;   // source directory recorded in the manifest
+    Path all;   // the manifest being split
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot().toPath();
+        src = dir.resolve("s");
+        all = write("all.mfb", src, FILES, 0);
+    }
+
+    /**
+     * Write a binary manifest with one event in its history. The hash of
+     * file i is 20 bytes of (i + first), its size is i, and its modification
+     * time is i seconds (not recorded for the first file).
+     */
+    private Path write(String name, Path source, String[] files, int first) throws Exception {
+        Path man;
+        BinaryManifest.Writer w;
+        ArrayList<Manifest.HistoryEvent> history;
+        byte[] b;
+        int i;
+
+        man = dir.resolve(name);
+        history = new ArrayList<>();
+        history.add(new Manifest.HistoryEvent("DateTimeCreated", "2026-10-18T10:00:00+10:00", "someone", name));
+        w = new BinaryManifest.Writer(man);
+        w.writeHeader("creator", "SHA-1", source.toString(), history);
+        for (i = 0; i < files.length; i++) {
+            b = new byte[20];
+            Arrays.fill(b, (byte) (i + first));
+            w.writeEntry(files[i], new String[]{Base64.getEncoder().encodeToString(b)}, i, i == 0 ? null : FileTime.fromMillis(i * 1000L));
+        }
+        w.close();
+        return man;
+    }
+
+    private void run(String... args) throws Exception {
+        Manifest m;
+
+        m = new Manifest(args);
+        try {
+            if (args[0].equals("-split")) {
+                m.splitManifest();
+            } else {
+                m.mergeManifests();
+            }
+        } finally {
+            m.close();
+        }
+    }
+
+    /**
+     * Split the manifest into all the parts
+     */
+    private void split() throws Exception {
+        run("-split", all.toString(),
+                "-part", "t1", dir.resolve("p1.mfb").toString(),
+                "-part", "t2", dir.resolve("p2.mfb").toString(),
+                "-part", "t2/x", dir.resolve("p3.mfb").toString(),
+                "-part", ".", dir.resolve("rest.mfb").toString());
+    }
+
+    /**
+     * The files in the directory holding the manifests
+     */
+    private List<String> files() throws Exception {
+        ArrayList<String> l;
+
+        l = new ArrayList<>();
+        for (String s : dir.toFile().list()) {
+            l.add(s);
+        }
+        l.sort(null);
+        return l;
+    }
+
+    @Test
+    public void filesGoToLongestPart() throws Exception {
+        ManifestContents orig, part;
+        int i;
+
+        split();
+        orig = ManifestContents.read(all);
+        for (i = 0; i < FILES.length; i++) {
+            part = ManifestContents.read(dir.resolve(PARTS[i]));
+            assertTrue(PART_PATHS[i] + " not in " + PARTS[i], part.entries.containsKey(PART_PATHS[i]));
+            assertArrayEquals(orig.entries.get(FILES[i]).hashes, part.entries.get(PART_PATHS[i]).hashes);
+            assertEquals(orig.entries.get(FILES[i]).size, part.entries.get(PART_PATHS[i]).size);
+            assertEquals(orig.entries.get(FILES[i]).modified, part.entries.get(PART_PATHS[i]).modified);
+        }
+        assertEquals(2, ManifestContents.read(dir.resolve("p1.mfb")).entries.size());
+        assertEquals(1, ManifestContents.read(dir.resolve("p2.mfb")).entries.size());
+
+        // the source directory of a part is its directory, and its history
+        // is that of the manifest and the split
+        part = ManifestContents.read(dir.resolve("p3.mfb"));
+        assertEquals(src.resolve("t2/x").toString(), part.oldDetails.directory.toString());
+        assertEquals(2, part.history.size());
+        assertEquals("all.mfb", part.history.get(0).comment);
+        assertTrue(part.history.get(1).comment.startsWith("Split from manifest"));
+        part = ManifestContents.read(dir.resolve("rest.mfb"));
+        assertEquals(src.toString(), part.oldDetails.directory.toString());
+    }
+
+    @Test
+    public void splitThenMergeGivesOriginal() throws Exception {
+        ManifestContents orig, merged;
+        Messages msgs;
+        Manifest m;
+
+        split();
+        m = new Manifest(new String[]{
+            "-merge", dir.resolve("p1.mfb").toString(),
+            "-merge", dir.resolve("p2.mfb").toString(),
+            "-merge", dir.resolve("p3.mfb").toString(),
+            "-merge", dir.resolve("rest.mfb").toString(),
+            "-into", dir.resolve("merged.mfb").toString()});
+        msgs = new Messages();
+        msgs.start();
+        try {
+            m.mergeManifests();
+        } finally {
+            msgs.stop();
+            m.close();
+        }
+
+        // the source directory is the closest containing those of the parts
+        orig = ManifestContents.read(all);
+        merged = ManifestContents.read(dir.resolve("merged.mfb"));
+        assertEquals(src.toString(), merged.oldDetails.directory.toString());
+        assertEquals(orig.entries.keySet(), merged.entries.keySet());
+        for (String s : FILES) {
+            assertArrayEquals(orig.entries.get(s).hashes, merged.entries.get(s).hashes);
+            assertEquals(orig.entries.get(s).size, merged.entries.get(s).size);
+            assertEquals(orig.entries.get(s).modified, merged.entries.get(s).modified);
+        }
+
+        // the histories of the four parts (each two events) and the merge
+        assertEquals(9, merged.history.size());
+        assertTrue(merged.history.get(8).comment.startsWith("Merged from manifests"));
+
+        // the source directories of the parts overlap
+        assertFalse(msgs.warning.isEmpty());
+        assertTrue(msgs.warning.get(0).contains("may list the same files"));
+    }
+
+    @Test
+    public void mergeRebasesToGivenDirectory() throws Exception {
+        ManifestContents merged;
+
+        write("m1.mfb", src.resolve("t1"), new String[]{"a"}, 1);
+        write("m2.mfb", src.resolve("t2"), new String[]{"a"}, 2);
+        run("-merge", dir.resolve("m1.mfb").toString(), "-merge", dir.resolve("m2.mfb").toString(), "-into", dir.resolve("merged.mfb").toString(), dir.toString());
+        merged = ManifestContents.read(dir.resolve("merged.mfb"));
+        assertEquals(dir.toString(), merged.oldDetails.directory.toString());
+        assertEquals(Arrays.asList("s/t1/a", "s/t2/a"), new ArrayList<>(merged.entries.keySet()));
+    }
+
+    @Test
+    public void filesInNoPartCounted() throws Exception {
+        Messages msgs;
+        Manifest m;
+
+        m = new Manifest(new String[]{"-split", all.toString(), "-part", "t1", dir.resolve("p1.mfb").toString()});
+        msgs = new Messages();
+        msgs.start();
+        try {
+            m.splitManifest();
+        } finally {
+            msgs.stop();
+            m.close();
+        }
+        assertEquals(2, ManifestContents.read(dir.resolve("p1.mfb")).entries.size());
+        assertEquals(Arrays.asList("3 of the 5 files in manifest '" + all.toString() + "' are not in any part. Use -part . <newManifestFile> to keep them"), msgs.warning);
+    }
+
+    @Test
+    public void failedSplitLeavesNoParts() throws Exception {
+        byte[] b;
+
+        b = Files.readAllBytes(all);
+        Files.write(all, Arrays.copyOf(b, b.length - 12));
+        try {
+            split();
+            fail("split of truncated manifest succeeded");
+        } catch (AppError ae) {
+            assertTrue(ae.getMessage(), ae.getMessage().contains("truncated"));
+        }
+        assertEquals(Arrays.asList("all.mfb"), files());
+    }
+
+    @Test
+    public void failedMergeLeavesNoManifest() throws Exception {
+        Path bad;
+        byte[] b;
+
+        write("good.mfb", src.resolve("t1"), new String[]{"a", "b"}, 1);
+        bad = write("bad.mfb", src.resolve("t2"), new String[]{"a", "b"}, 3);
+        b = Files.readAllBytes(bad);
+        Files.write(bad, Arrays.copyOf(b, b.length - 12));
+        try {
+            run("-merge", dir.resolve("good.mfb").toString(), "-merge", bad.toString(), "-into", dir.resolve("merged.mfb").toString());
+            fail("merge of truncated manifest succeeded");
+        } catch (AppError ae) {
+            assertTrue(ae.getMessage(), ae.getMessage().contains("truncated"));
+        }
+        assertEquals(Arrays.asList("all.mfb", "bad.mfb", "good.mfb"), files());
+    }
+
+    @Test
+    public void differentHashesNotMerged() throws Exception {
+        Path other;
+        BinaryManifest.Writer w;
+
+        other = dir.resolve("other.mfb");
+        w = new BinaryManifest.Writer(other);
+        w.writeHeader("creator", "SHA-256", src.resolve("t3").toString(), new ArrayList<Manifest.HistoryEvent>());
+        w.close();
+        try {
+            run("-merge", all.toString(), "-merge", other.toString(), "-into", dir.resolve("merged.mfb").toString());
+            fail("manifests with different hashes merged");
+        } catch (AppError ae) {
+            assertTrue(ae.getMessage(), ae.getMessage().contains("only be merged if they record the same hashes"));
+        }
+        assertFalse(Files.exists(dir.resolve("merged.mfb")));
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.util.ArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * M E S S A G E S
+ *
+ * Collects the messages logged by the Manifest, so that tests can check
+ * what was reported. The collector is added to the Manifest's log after
+ * the Manifest is constructed (as constructing it removes any handlers),
+ * and removed when the test has finished with it.
+ */
+class Messages extends Handler {
+
+    final ArrayList<String> severe = new ArrayList<>();  // severe messages
+    final ArrayList<String> warning = new ArrayList<>(); // warning messages
+    final ArrayList<String> info = new ArrayList<>();    // other messages
+    final SimpleFormatter sf = new SimpleFormatter();
+
+    /**
+     * Start collecting the messages logged by the Manifest
+     */
+    void start() {
+        Logger.getLogger("Manifest.Manifest").addHandler(this);
+    }
+
+    /**
+     * Stop collecting messages
+     */
+    void stop() {
+        Logger.getLogger("Manifest.Manifest").removeHandler(this);
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (record.getLevel() == Level.SEVERE) {
+            severe.add(sf.formatMessage(record));
+        } else if (record.getLevel() == Level.WARNING) {
+            warning.add(sf.formatMessage(record));
+        } else {
+            info.add(sf.formatMessage(record));
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * T R E E H A S H T E S T
+ *
+ * Checks the tree hash against the definition in TreeHash, computed here
+ * directly from the bytes of the file: an empty file, a file of one chunk,
+ * and a file of three chunks (which promotes an odd hash), hashed both on
+ * the calling thread and in parallel.
+ */
+public class TreeHashTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    Path dir;   // directory holding the test files
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot().toPath();
+    }
+
+    /**
+     * Make a file of random bytes
+     */
+    private Path makeFile(long size) throws Exception {
+        Path f;
+        byte[] b;
+
+        b = new byte[(int) size];
+        new Random(size).nextBytes(b);
+        f = dir.resolve("f" + size);
+        Files.write(f, b);
+        return f;
+    }
+
+    /**
+     * Hash of a leaf (0x00 || chunk), from the definition
+     */
+    private static byte[] leaf(byte[] b, int start, int len) throws Exception {
+        MessageDigest md;
+
+        md = MessageDigest.getInstance("SHA-256");
+        md.update((byte) 0);
+        md.update(b, start, len);
+        return md.digest();
+    }
+
+    /**
+     * Hash of a node (0x01 || left || right), from the definition
+     */
+    private static byte[] node(byte[] left, byte[] right) throws Exception {
+        MessageDigest md;
+
+        md = MessageDigest.getInstance("SHA-256");
+        md.update((byte) 1);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    @Test
+    public void names() {
+        assertTrue(TreeHash.isTree("TREE-SHA-256"));
+        assertTrue(TreeHash.isTree("tree-sha-256"));
+        assertFalse(TreeHash.isTree("SHA-256"));
+        assertEquals("SHA-256", TreeHash.baseAlg("TREE-SHA-256"));
+    }
+
+    @Test
+    public void emptyFileIsOneEmptyLeaf() throws Exception {
+        Path f;
+
+        f = makeFile(0);
+        assertArrayEquals(leaf(new byte[0], 0, 0), TreeHash.hash(f, "TREE-SHA-256", 1));
+    }
+
+    @Test
+    public void oneChunkIsOneLeaf() throws Exception {
+        Path f;
+        byte[] b;
+
+        f = makeFile(1000);
+        b = Files.readAllBytes(f);
+        assertArrayEquals(leaf(b, 0, b.length), TreeHash.hash(f, "TREE-SHA-256", 4));
+    }
+
+    @Test
+    public void threeChunks() throws Exception {
+        Path f;
+        byte[] b, expected;
+        int c;
+
+        c = (int) TreeHash.CHUNK_SIZE;
+        f = makeFile(2 * TreeHash.CHUNK_SIZE + 10);
+        b = Files.readAllBytes(f);
+
+        // the third leaf has no partner, so is promoted unchanged
+        expected = node(node(leaf(b, 0, c), leaf(b, c, c)), leaf(b, 2 * c, 10));
+        assertArrayEquals("on the calling thread", expected, TreeHash.hash(f, "TREE-SHA-256", 1));
+        assertArrayEquals("in parallel", expected, TreeHash.hash(f, "TREE-SHA-256", 4));
+        assertArrayEquals("by the Hasher", expected, Hasher.get().hash(f, new String[]{"SHA-256", "TREE-SHA-256"}, Job.HashIO.CHANNEL, 4, null)[1]);
+    }
+
+    @Test
+    public void rootOfFiveLeaves() throws Exception {
+        byte[][] leaves;
+        byte[] expected;
+        int i;
+
+        leaves = new byte[5][];
+        for (i = 0; i < leaves.length; i++) {
+            leaves[i] = leaf(new byte[]{(byte) i}, 0, 1);
+        }
+        expected = node(node(node(leaves[0], leaves[1]), node(leaves[2], leaves[3])), leaves[4]);
+        assertArrayEquals(expected, TreeHash.root(Arrays.copyOf(leaves, leaves.length), MessageDigest.getInstance("SHA-256")));
+    }
+}
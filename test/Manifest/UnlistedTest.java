@@ -0,0 +1,137 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * U N L I S T E D T E S T
+ *
+ * Checks that checking a manifest with -unlisted reports every file in the
+ * directory that is not listed in the manifest (and only those), in path
+ * order, including files that sort before, between, and after the files
+ * listed.
+ */
+public class UnlistedTest {
+
+    static final String[] LISTED = {"a", "b/c", "b/d", "m"};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    Path dir;   // directory holding the source directory and the manifest
+    Path src;   // the source directory
+    Path man;   // manifest of the source directory
+
+    @Before
+    public void setUp() throws Exception {
+        Manifest m;
+
+        dir = tmp.getRoot().toPath();
+        src = dir.resolve("src");
+        for (String s : LISTED) {
+            write(s);
+        }
+        man = dir.resolve("manifest.xml");
+        m = new Manifest(new String[]{"-o", man.toString(), src.toString()});
+        m.createManifest();
+        m.close();
+    }
+
+    private void write(String path) throws Exception {
+        Path f;
+
+        f = src.resolve(path);
+        Files.createDirectories(f.getParent());
+        Files.write(f, path.getBytes("UTF-8"));
+    }
+
+    /**
+     * Check the manifest with -unlisted
+     *
+     * @param args any other arguments
+     * @return the messages logged
+     */
+    private Messages check(String... args) throws Exception {
+        Manifest m;
+        Messages msgs;
+        ArrayList<String> a;
+
+        a = new ArrayList<>(Arrays.asList(args));
+        a.addAll(Arrays.asList("-i", man.toString(), "-unlisted", src.toString()));
+        m = new Manifest(a.toArray(new String[0]));
+        msgs = new Messages();
+        msgs.start();
+        try {
+            m.checkManifest(-1);
+        } finally {
+            msgs.stop();
+            m.close();
+        }
+        return msgs;
+    }
+
+    /**
+     * The files reported as unlisted
+     */
+    private List<String> unlisted(Messages msgs) {
+        ArrayList<String> l;
+
+        l = new ArrayList<>();
+        for (String s : msgs.severe) {
+            if (s.endsWith("is in the directory, but not in the manifest")) {
+                l.add(s);
+            }
+        }
+        return l;
+    }
+
+    private String reported(String path) {
+        return "File '" + src.toString() + File.separator + path.replace('/', File.separatorChar) + "' is in the directory, but not in the manifest";
+    }
+
+    @Test
+    public void nothingUnlisted() throws Exception {
+        Messages msgs;
+
+        msgs = check();
+        assertEquals(0, msgs.severe.size());
+    }
+
+    @Test
+    public void everyUnlistedFileReportedInOrder() throws Exception {
+        Messages msgs;
+
+        write("0");
+        write("b/cc");
+        write("b/e/f");
+        write("z");
+        msgs = check();
+        assertEquals(Arrays.asList(reported("0"), reported("b/cc"), reported("b/e/f"), reported("z")), unlisted(msgs));
+        assertTrue(msgs.severe.contains("4 of the 8 files in directory '" + src.toString() + "' are not listed in the manifest"));
+    }
+
+    @Test
+    public void onlySelectedFilesReconciled() throws Exception {
+        Messages msgs;
+
+        write("0");
+        write("b/cc");
+        msgs = check("-only", "b");
+        assertEquals(Arrays.asList(reported("b/cc")), unlisted(msgs));
+    }
+}
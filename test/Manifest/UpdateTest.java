@@ -0,0 +1,217 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import VERSCommon.AppError;
+import VERSCommon.AppFatal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * U P D A T E T E S T
+ *
+ * Updates a manifest after files in the directory have been changed, added,
+ * and removed, and checks that the updated manifest is what creating a new
+ * manifest would give, except that unchanged files are not rehashed (their
+ * hash in the manifest is replaced by a false one, which the update must
+ * keep). Also checks that a manifest without sizes and modification times
+ * (as written before version 1.2) has every file rehashed, that a cancelled
+ * update leaves the manifest untouched, and the choice of hash algorithm.
+ */
+public class UpdateTest {
+
+    static final String[] FILES = {"a", "b", "c", "d/e"};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+    Path src;   // the source directory
+    Path man;   // manifest of the source directory
+
+    /**
+     * An update that is cancelled when the first entry has been written
+     */
+    static class Cancelled extends Manifest {
+
+        Cancelled(String[] args) throws AppFatal {
+            super(args);
+        }
+
+        @Override
+        boolean writeEntry(FileEntry entry) throws AppFatal {
+            super.writeEntry(entry);
+            return true;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Manifest m;
+
+        src = tmp.newFolder("src").toPath();
+        for (String s : FILES) {
+            write(s, "contents of " + s);
+        }
+        man = tmp.getRoot().toPath().resolve("manifest.xml");
+        m = new Manifest(new String[]{"-o", man.toString(), src.toString()});
+        m.createManifest();
+        m.close();
+    }
+
+    private void write(String path, String contents) throws Exception {
+        Path f;
+
+        f = src.resolve(path);
+        Files.createDirectories(f.getParent());
+        Files.write(f, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Edit the text of the manifest
+     */
+    private void edit(String regex, String replacement) throws Exception {
+        String s;
+
+        s = new String(Files.readAllBytes(man), StandardCharsets.UTF_8);
+        Files.write(man, s.replaceAll(regex, replacement).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Replace the hash recorded for a file with a false one
+     */
+    private void falseHash(String path, String hash) throws Exception {
+        edit(Pattern.quote(">" + ManifestContents.read(man).hash(path) + "<"), ">" + hash + "<");
+    }
+
+    private void update(String... args) throws Exception {
+        Manifest m;
+
+        m = new Manifest(args);
+        try {
+            m.updateManifest();
+        } finally {
+            m.close();
+        }
+    }
+
+    /**
+     * Create a new manifest of the source directory
+     */
+    private ManifestContents fresh() throws Exception {
+        Manifest m;
+        Path p;
+
+        p = tmp.getRoot().toPath().resolve("fresh.xml");
+        m = new Manifest(new String[]{"-o", p.toString(), src.toString()});
+        m.createManifest();
+        m.close();
+        return ManifestContents.read(p);
+    }
+
+    @Test
+    public void changedAddedAndRemovedFiles() throws Exception {
+        ManifestContents mc, expected;
+
+        falseHash("a", "unchanged");
+        falseHash("b", "changed");
+        write("b", "new, longer, contents of b");
+        Files.delete(src.resolve("c"));
+        write("d/f", "contents of d/f");
+        update("-u", man.toString(), src.toString());
+
+        mc = ManifestContents.read(man);
+        expected = fresh();
+        assertEquals(Arrays.asList("a", "b", "d/e", "d/f"), Arrays.asList(mc.entries.keySet().toArray()));
+        assertEquals(expected.entries.keySet(), mc.entries.keySet());
+        assertEquals("unchanged", mc.hash("a"));
+        assertEquals(expected.hash("b"), mc.hash("b"));
+        assertNull(mc.hash("c"));
+        assertEquals(expected.hash("d/e"), mc.hash("d/e"));
+        assertEquals(expected.hash("d/f"), mc.hash("d/f"));
+        for (String s : mc.entries.keySet()) {
+            assertEquals(expected.entries.get(s).size, mc.entries.get(s).size);
+            assertEquals(expected.entries.get(s).modified, mc.entries.get(s).modified);
+        }
+        assertEquals(2, mc.history.size());
+        assertEquals("DateTimeUpdated", mc.history.get(1).type);
+        assertFalse(Files.exists(man.resolveSibling("manifest.xml.tmp")));
+        assertFalse(Files.exists(man.resolveSibling("manifest.xml.ckpt")));
+    }
+
+    @Test
+    public void manifestWithoutSizesRehashed() throws Exception {
+        ManifestContents mc, expected;
+
+        falseHash("a", "unchanged");
+        edit("<s>[^<]*</s>", "");
+        edit("<m>[^<]*</m>", "");
+        assertEquals(-1, ManifestContents.read(man).entries.get("a").size);
+        update("-u", man.toString(), src.toString());
+
+        mc = ManifestContents.read(man);
+        expected = fresh();
+        assertEquals(expected.entries.keySet(), mc.entries.keySet());
+        for (String s : mc.entries.keySet()) {
+            assertArrayEquals(expected.entries.get(s).hashes, mc.entries.get(s).hashes);
+            assertEquals(expected.entries.get(s).size, mc.entries.get(s).size);
+            assertEquals(expected.entries.get(s).modified, mc.entries.get(s).modified);
+        }
+    }
+
+    @Test
+    public void cancelledUpdateLeavesManifest() throws Exception {
+        byte[] before;
+        Manifest m;
+
+        write("b", "new, longer, contents of b");
+        write("z", "contents of z");
+        before = Files.readAllBytes(man);
+        m = new Cancelled(new String[]{"-u", man.toString(), src.toString()});
+        try {
+            m.updateManifest();
+        } finally {
+            m.close();
+        }
+        assertArrayEquals(before, Files.readAllBytes(man));
+        assertFalse(Files.exists(man.resolveSibling("manifest.xml.tmp")));
+    }
+
+    @Test
+    public void hashAlgorithmOfManifestUsed() throws Exception {
+        Manifest m;
+
+        // asking for the manifest's algorithm (in any case) is fine
+        falseHash("a", "unchanged");
+        update("-u", man.toString(), "-h", "sha-1", src.toString());
+        assertEquals("unchanged", ManifestContents.read(man).hash("a"));
+        assertEquals("SHA-1", ManifestContents.read(man).oldDetails.hashAlg);
+
+        // asking for another is an error, and the manifest is untouched
+        m = new Manifest(new String[]{"-u", man.toString(), "-h", "SHA-256", src.toString()});
+        try {
+            m.updateManifest();
+            fail("Update changed the hash algorithm");
+        } catch (AppError ae) {
+            assertTrue(ae.getMessage(), ae.getMessage().contains("cannot change the hash algorithm"));
+        } finally {
+            m.close();
+        }
+        assertEquals("unchanged", ManifestContents.read(man).hash("a"));
+    }
+}
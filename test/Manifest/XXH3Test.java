@@ -0,0 +1,100 @@
+/**
+ * Copyright Public Record Office Victoria 2026
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 October 2026
+ */
+package Manifest;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * X X H 3 T E S T
+ *
+ * Checks the pure Java XXH3 (64 bit, seed 0) against the test vectors used
+ * by xxhsum's sanity check. The input is the first bytes of xxhsum's test
+ * buffer, and the lengths cover each of XXH3's code paths (0, 1-3, 4-8,
+ * 9-16, 17-128, 129-240 bytes, and longer inputs of one or more stripes and
+ * blocks). Each input is also fed in pieces, as the Hasher does.
+ */
+public class XXH3Test {
+
+    static final int[] LENGTHS = {0, 1, 6, 12, 24, 48, 80, 195, 403, 512, 2048, 2240, 2367};
+    static final String[] HASHES = {
+        "2d06800538d394c2",
+        "c44bdff4074eecdb",
+        "27b56a84cd2d7325",
+        "a713daf0dfbb77e7",
+        "a3fe70bf9d3510eb",
+        "397da259ecba1f11",
+        "bcdefbbb2c47c90a",
+        "cd94217ee362ec3a",
+        "cdeb804d65c6dea4",
+        "617e49599013cb6b",
+        "dd59e2c3a5f038e0",
+        "6e73a90539cf2948",
+        "cb37aeb9e5d361ed"};
+
+    /**
+     * xxhsum's sanity check test buffer
+     */
+    static byte[] testBuffer(int len) {
+        byte[] b;
+        long gen;
+        int i;
+
+        b = new byte[len];
+        gen = 2654435761L;
+        for (i = 0; i < len; i++) {
+            b[i] = (byte) (gen >>> 56);
+            gen *= 0x9E3779B185EBCA8DL;
+        }
+        return b;
+    }
+
+    static String hex(byte[] b) {
+        StringBuilder sb;
+
+        sb = new StringBuilder();
+        for (byte x : b) {
+            sb.append(String.format("%02x", x));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void sanityVectors() {
+        byte[] buffer;
+        int i;
+
+        buffer = testBuffer(LENGTHS[LENGTHS.length - 1]);
+        for (i = 0; i < LENGTHS.length; i++) {
+            assertEquals("length " + LENGTHS[i], HASHES[i], hex(new XXH3().digest(Arrays.copyOf(buffer, LENGTHS[i]))));
+        }
+    }
+
+    @Test
+    public void fedInPieces() {
+        XXH3 md;
+        ByteBuffer bb;
+        byte[] buffer;
+        int i, j, n;
+
+        buffer = testBuffer(LENGTHS[LENGTHS.length - 1]);
+        md = new XXH3();
+        bb = ByteBuffer.allocateDirect(100);
+        for (i = 0; i < LENGTHS.length; i++) {
+            for (j = 0; j < LENGTHS[i]; j += n) {
+                n = Math.min(37, LENGTHS[i] - j);
+                bb.clear();
+                bb.put(buffer, j, n);
+                bb.flip();
+                md.update(bb);
+            }
+            assertEquals("length " + LENGTHS[i], HASHES[i], hex(md.digest()));
+        }
+    }
+}